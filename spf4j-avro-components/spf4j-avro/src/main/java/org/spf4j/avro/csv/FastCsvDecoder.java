@@ -0,0 +1,820 @@
+/*
+ * Copyright 2019 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.avro.csv;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.Schema;
+import org.apache.avro.io.Decoder;
+import org.apache.avro.util.Utf8;
+import org.spf4j.base.Base64;
+import org.spf4j.io.csv.CharSeparatedValues;
+import org.spf4j.io.csv.CsvParseException;
+
+/**
+ * A schema specialized CSV decoder for avro arrays of records, in the same format {@link CsvEncoder} writes.
+ *
+ * Unlike {@link CsvDecoder}, this decoder does not validate the reader calls against the avro grammar; the reader
+ * schema is compiled once (and cached) into a flat column plan that holds only the info the decoder needs
+ * (enum symbols and union branch labels). Elements are tokenized directly out of a char buffer, numbers are parsed
+ * from the buffer without creating intermediary objects, and the {@link Utf8} instances handed in by the datum reader
+ * are reused. This makes it suitable for bulk loading large CSV exports.
+ *
+ * The reader schema must match the column order of the CSV (use {@link #skipHeader()} to skip the header row).
+ *
+ * @author Zoltan Farkas
+ */
+public final class FastCsvDecoder extends Decoder {
+
+  private static final LoadingCache<Schema, CsvColumn[]> PLANS = CacheBuilder.newBuilder()
+          .weakKeys().build(new CacheLoader<Schema, CsvColumn[]>() {
+    @Override
+    public CsvColumn[] load(final Schema schema) {
+      return compile(schema);
+    }
+  });
+
+  private static final int TERM_SEP = 0;
+
+  private static final int TERM_EOL = 1;
+
+  private static final int TERM_EOF = 2;
+
+  private static final double[] DOUBLE_POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private static final float[] FLOAT_POW10 = {
+    1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+  };
+
+  private final Reader reader;
+
+  private final char separator;
+
+  private final CsvColumn[] columns;
+
+  private char[] buf;
+
+  private int pos;
+
+  private int limit;
+
+  private char[] quoted;
+
+  private char[] cellChars;
+
+  private int cellStart;
+
+  private int cellEnd;
+
+  private int lastTerm;
+
+  private char pendingEol;
+
+  private int col;
+
+  private int branch;
+
+  private long lineNr;
+
+  private int decimalExp;
+
+  private boolean decimalNegative;
+
+  public FastCsvDecoder(final Reader reader, final Schema readerSchema) throws IOException {
+    this(reader, ',', readerSchema);
+  }
+
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  public FastCsvDecoder(final Reader reader, final char separator, final Schema readerSchema) throws IOException {
+    if (separator == '\n' || separator == '\r' || separator == '"') {
+      throw new IllegalArgumentException("Illegal separator character " + separator);
+    }
+    this.reader = reader;
+    this.separator = separator;
+    this.columns = PLANS.getUnchecked(readerSchema);
+    this.buf = new char[8192];
+    this.quoted = new char[64];
+    this.pos = 0;
+    this.limit = 0;
+    this.lastTerm = TERM_EOL;
+    this.pendingEol = 0;
+    this.col = 0;
+    this.branch = -1;
+    this.lineNr = 0;
+    if (fill() && buf[pos] == CharSeparatedValues.UTF_BOM) {
+      pos++;
+    }
+  }
+
+  /**
+   * Compile a array of records schema into the flat column plan.
+   */
+  private static CsvColumn[] compile(final Schema schema) {
+    if (schema.getType() != Schema.Type.ARRAY) {
+      throw new IllegalArgumentException("schema must be an array: " + schema);
+    }
+    Schema rowSchema = schema.getElementType();
+    if (rowSchema.getType() != Schema.Type.RECORD) {
+      throw new IllegalArgumentException("schema  array element must be record: " + schema);
+    }
+    List<CsvColumn> result = new ArrayList<>(rowSchema.getFields().size() + 4);
+    compile(rowSchema, result);
+    return result.toArray(new CsvColumn[result.size()]);
+  }
+
+  private static void compile(final Schema rowSchema, final List<CsvColumn> columns) {
+    for (Schema.Field field : rowSchema.getFields()) {
+      Schema schema = field.schema();
+      Schema.Type type = schema.getType();
+      switch (type) {
+        case ARRAY:
+        case MAP:
+          throw new UnsupportedOperationException(type + " unsupported in CSV row" + rowSchema);
+        case UNION:
+          List<Schema> types = schema.getTypes();
+          String[] branchNames = new String[types.size()];
+          Labels[] branchSymbols = new Labels[types.size()];
+          for (int i = 0; i < branchNames.length; i++) {
+            Schema us = types.get(i);
+            switch (us.getType()) {
+              case ARRAY:
+              case RECORD:
+              case MAP:
+                throw new UnsupportedOperationException(type + " unsupported in CSV row union" + rowSchema);
+              case ENUM:
+                branchSymbols[i] = new Labels(us.getEnumSymbols());
+                break;
+              default:
+                break;
+            }
+            branchNames[i] = us.getFullName();
+          }
+          columns.add(new CsvColumn(new Labels(Arrays.asList(branchNames)), null));
+          columns.add(new CsvColumn(null, branchSymbols));
+          break;
+        case RECORD:
+          compile(schema, columns);
+          break;
+        case ENUM:
+          columns.add(new CsvColumn(new Labels(schema.getEnumSymbols()), null));
+          break;
+        default:
+          columns.add(new CsvColumn(null, null));
+      }
+    }
+  }
+
+  public void skipHeader() throws IOException {
+    do {
+      readCell();
+    } while (lastTerm == TERM_SEP);
+    col = 0;
+  }
+
+  /**
+   * move the unread buffer content to the beginning of the buffer, and read more characters.
+   * @return false if EOF and there is nothing more to read.
+   */
+  private boolean fill() throws IOException {
+    int rem = limit - pos;
+    if (pos > 0) {
+      System.arraycopy(buf, pos, buf, 0, rem);
+      pos = 0;
+      limit = rem;
+    }
+    if (limit == buf.length) {
+      buf = Arrays.copyOf(buf, buf.length << 1);
+    }
+    int nr = reader.read(buf, limit, buf.length - limit);
+    if (nr <= 0) {
+      return false;
+    }
+    limit += nr;
+    return true;
+  }
+
+  private void skipPendingEol() throws IOException {
+    if (pendingEol != 0) {
+      if (pos < limit || fill()) {
+        char c = buf[pos];
+        if ((c == '\n' || c == '\r') && c != pendingEol) {
+          pos++;
+        }
+      }
+      pendingEol = 0;
+    }
+  }
+
+  private boolean hasNextRow() throws IOException {
+    if (lastTerm == TERM_EOF) {
+      return false;
+    }
+    if (lastTerm == TERM_SEP) {
+      throw new AvroTypeException("Unexpected extra columns at line " + lineNr);
+    }
+    skipPendingEol();
+    return pos < limit || fill();
+  }
+
+  private void readCell() throws IOException {
+    if (lastTerm != TERM_SEP) {
+      if (col != 0) {
+        throw new AvroTypeException("Missing columns at line " + lineNr + ", expected " + columns.length);
+      }
+      if (lastTerm == TERM_EOF) {
+        throw new AvroTypeException("No more rows to read at line " + lineNr);
+      }
+      skipPendingEol();
+    }
+    if (pos >= limit && !fill()) {
+      cellChars = buf;
+      cellStart = pos;
+      cellEnd = pos;
+      lastTerm = TERM_EOF;
+      col++;
+      return;
+    }
+    if (buf[pos] == '"') {
+      readQuotedCell();
+    } else {
+      readRawCell();
+    }
+    col++;
+  }
+
+  private void readRawCell() throws IOException {
+    int p = pos;
+    while (true) {
+      if (p >= limit) {
+        int scanned = p - pos;
+        boolean more = fill();
+        p = pos + scanned;
+        if (!more) {
+          setCell(buf, pos, p);
+          pos = p;
+          lastTerm = TERM_EOF;
+          return;
+        }
+        continue;
+      }
+      char c = buf[p];
+      if (c == separator) {
+        setCell(buf, pos, p);
+        pos = p + 1;
+        lastTerm = TERM_SEP;
+        return;
+      } else if (c == '\n' || c == '\r') {
+        setCell(buf, pos, p);
+        pos = p + 1;
+        lastTerm = TERM_EOL;
+        pendingEol = c;
+        lineNr++;
+        return;
+      }
+      p++;
+    }
+  }
+
+  private void readQuotedCell() throws IOException {
+    pos++;
+    int n = 0;
+    while (true) {
+      int p = pos;
+      while (p < limit && buf[p] != '"') {
+        p++;
+      }
+      int len = p - pos;
+      if (len > 0) {
+        if (n + len > quoted.length) {
+          quoted = Arrays.copyOf(quoted, Math.max(quoted.length << 1, n + len));
+        }
+        System.arraycopy(buf, pos, quoted, n, len);
+        n += len;
+        pos = p;
+      }
+      if (p >= limit) {
+        if (!fill()) {
+          throw new AvroRuntimeException(new CsvParseException("Escaped CSV element "
+                  + new String(quoted, 0, n) + " not terminated correctly at " + lineNr));
+        }
+        continue;
+      }
+      pos++; // skip quote
+      if (pos >= limit && !fill()) {
+        setCell(quoted, 0, n);
+        lastTerm = TERM_EOF;
+        return;
+      }
+      if (buf[pos] == '"') {
+        if (n == quoted.length) {
+          quoted = Arrays.copyOf(quoted, quoted.length << 1);
+        }
+        quoted[n++] = '"';
+        pos++;
+      } else {
+        break;
+      }
+    }
+    setCell(quoted, 0, n);
+    char c = buf[pos++];
+    if (c == separator) {
+      lastTerm = TERM_SEP;
+    } else if (c == '\n' || c == '\r') {
+      lastTerm = TERM_EOL;
+      pendingEol = c;
+      lineNr++;
+    } else {
+      throw new AvroRuntimeException(new CsvParseException("Unexpected character " + c + " at line " + lineNr));
+    }
+  }
+
+  private void setCell(final char[] chars, final int from, final int to) {
+    cellChars = chars;
+    cellStart = from;
+    cellEnd = to;
+  }
+
+  private String cellAsString() {
+    return new String(cellChars, cellStart, cellEnd - cellStart);
+  }
+
+  private boolean cellEquals(final String str) {
+    int len = str.length();
+    if (cellEnd - cellStart != len) {
+      return false;
+    }
+    for (int i = 0, j = cellStart; i < len; i++, j++) {
+      if (str.charAt(i) != cellChars[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Labels currentEnumLabels() {
+    CsvColumn column = columns[col - 1];
+    if (column.labels != null) {
+      return column.labels;
+    }
+    if (column.branchLabels != null && branch >= 0) {
+      Labels l = column.branchLabels[branch];
+      if (l != null) {
+        return l;
+      }
+    }
+    throw new AvroTypeException("Column " + col + " is not an enum");
+  }
+
+  @Override
+  public void readNull() throws IOException {
+    readCell();
+    if (cellEnd != cellStart) {
+      throw new AvroTypeException("Expected null, not " + cellAsString() + " at line " + lineNr);
+    }
+  }
+
+  @Override
+  public boolean readBoolean() throws IOException {
+    readCell();
+    if (cellEquals("true")) {
+      return true;
+    } else if (cellEquals("false")) {
+      return false;
+    } else {
+      throw new AvroTypeException("Expected true or false, not " + cellAsString() + " at line " + lineNr);
+    }
+  }
+
+  @Override
+  public int readInt() throws IOException {
+    readCell();
+    long result = parseLong(cellChars, cellStart, cellEnd);
+    if (result > Integer.MAX_VALUE || result < Integer.MIN_VALUE) {
+      throw new NumberFormatException("Integer overflow: " + cellAsString() + " at line " + lineNr);
+    }
+    return (int) result;
+  }
+
+  @Override
+  public long readLong() throws IOException {
+    readCell();
+    return parseLong(cellChars, cellStart, cellEnd);
+  }
+
+  @Override
+  public float readFloat() throws IOException {
+    readCell();
+    return parseFloat(cellChars, cellStart, cellEnd);
+  }
+
+  @Override
+  public double readDouble() throws IOException {
+    readCell();
+    return parseDouble(cellChars, cellStart, cellEnd);
+  }
+
+  @Override
+  public Utf8 readString(@Nullable final Utf8 old) throws IOException {
+    readCell();
+    Utf8 result = old == null ? new Utf8() : old;
+    int len = cellEnd - cellStart;
+    result.setByteLength(len);
+    byte[] bytes = result.getBytes();
+    for (int i = 0, j = cellStart; i < len; i++, j++) {
+      char c = cellChars[j];
+      if (c >= 0x80) {
+        result.setByteLength(i + utf8Length(cellChars, j, cellEnd));
+        encodeUtf8(cellChars, j, cellEnd, result.getBytes(), i);
+        return result;
+      }
+      bytes[i] = (byte) c;
+    }
+    return result;
+  }
+
+  @Override
+  public String readString() throws IOException {
+    readCell();
+    return cellAsString();
+  }
+
+  @Override
+  public void skipString() throws IOException {
+    readCell();
+  }
+
+  @Override
+  public ByteBuffer readBytes(final ByteBuffer old) throws IOException {
+    readCell();
+    return ByteBuffer.wrap(Base64.decodeBase64(cellChars, cellStart, cellEnd - cellStart));
+  }
+
+  @Override
+  public void skipBytes() throws IOException {
+    readCell();
+  }
+
+  @Override
+  public void readFixed(final byte[] bytes, final int start, final int length) throws IOException {
+    readCell();
+    int nrB = Base64.decodeInto(CharBuffer.wrap(cellChars, cellStart, cellEnd - cellStart), 0, cellEnd - cellStart,
+            bytes, start);
+    if (nrB - start != length) {
+      throw new AvroTypeException("invalid fixed lenth " + (nrB - start) + ", expected " + length
+              + " at line " + lineNr);
+    }
+  }
+
+  @Override
+  public void skipFixed(final int length) throws IOException {
+    readCell();
+  }
+
+  @Override
+  public int readEnum() throws IOException {
+    readCell();
+    int n = currentEnumLabels().find(cellChars, cellStart, cellEnd);
+    if (n < 0) {
+      throw new AvroTypeException("Invalid enum symbol " + cellAsString() + " at line " + lineNr);
+    }
+    return n;
+  }
+
+  @Override
+  public long readArrayStart() throws IOException {
+    col = 0;
+    return hasNextRow() ? 1L : 0L;
+  }
+
+  @Override
+  public long arrayNext() throws IOException {
+    if (col != columns.length) {
+      throw new AvroTypeException("Read " + col + " columns, expected " + columns.length + " at line " + lineNr);
+    }
+    col = 0;
+    return hasNextRow() ? 1L : 0L;
+  }
+
+  @Override
+  public long skipArray() throws IOException {
+    while (hasNextRow()) {
+      col = 0;
+      do {
+        readCell();
+      } while (lastTerm == TERM_SEP);
+    }
+    return 0L;
+  }
+
+  @Override
+  public long readMapStart() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long mapNext() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public long skipMap() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int readIndex() throws IOException {
+    readCell();
+    Labels labels = columns[col - 1].labels;
+    int n = labels == null ? -1 : labels.find(cellChars, cellStart, cellEnd);
+    if (n < 0) {
+      throw new AvroTypeException("Unknown union branch " + cellAsString() + " at line " + lineNr);
+    }
+    branch = n;
+    return n;
+  }
+
+  private NumberFormatException numberFormatException(final char[] chars, final int from, final int to) {
+    return new NumberFormatException("For input: \"" + new String(chars, from, to - from) + "\" at line " + lineNr);
+  }
+
+  private long parseLong(final char[] chars, final int from, final int to) {
+    if (from >= to) {
+      throw numberFormatException(chars, from, to);
+    }
+    int i = from;
+    boolean negative = false;
+    long limit = -Long.MAX_VALUE;
+    char first = chars[i];
+    if (first == '-') {
+      negative = true;
+      limit = Long.MIN_VALUE;
+      i++;
+    } else if (first == '+') {
+      i++;
+    }
+    if (i == to) {
+      throw numberFormatException(chars, from, to);
+    }
+    long multmin = limit / 10;
+    long result = 0;
+    while (i < to) {
+      int digit = chars[i++] - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw numberFormatException(chars, from, to);
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw numberFormatException(chars, from, to);
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Parses a double, using the exact fast path for decimals with at most 15 significant digits and
+   * a decimal exponent within +-22 (the mantissa and the power of 10 are exactly representable, so the result of
+   * the multiplication/division is correctly rounded). Everything else is delegated to Double.parseDouble.
+   */
+  private double parseDouble(final char[] chars, final int from, final int to) {
+    long mantissa = parseDecimalMantissa(chars, from, to, 15);
+    if (mantissa >= 0 && Math.abs(decimalExp) <= 22) {
+      double result = decimalExp < 0 ? mantissa / DOUBLE_POW10[-decimalExp] : mantissa * DOUBLE_POW10[decimalExp];
+      return decimalNegative ? -result : result;
+    }
+    try {
+      return Double.parseDouble(new String(chars, from, to - from));
+    } catch (NumberFormatException ex) {
+      throw numberFormatException(chars, from, to);
+    }
+  }
+
+  /**
+   * same as parseDouble, with at most 7 significant digits and a decimal exponent within +-10.
+   */
+  private float parseFloat(final char[] chars, final int from, final int to) {
+    long mantissa = parseDecimalMantissa(chars, from, to, 7);
+    if (mantissa >= 0 && Math.abs(decimalExp) <= 10) {
+      float result = decimalExp < 0 ? mantissa / FLOAT_POW10[-decimalExp] : mantissa * FLOAT_POW10[decimalExp];
+      return decimalNegative ? -result : result;
+    }
+    try {
+      return Float.parseFloat(new String(chars, from, to - from));
+    } catch (NumberFormatException ex) {
+      throw numberFormatException(chars, from, to);
+    }
+  }
+
+  /**
+   * Parse a simple decimal number: [+-]digits[.digits][(e|E)[+-]digits].
+   * @return the mantissa and sets decimalExp and decimalNegative, or -1 if the number is not simple,
+   * or it has more than maxDigits significant digits.
+   */
+  private long parseDecimalMantissa(final char[] chars, final int from, final int to, final int maxDigits) {
+    int i = from;
+    if (i >= to) {
+      return -1;
+    }
+    decimalNegative = false;
+    char c = chars[i];
+    if (c == '-') {
+      decimalNegative = true;
+      i++;
+    } else if (c == '+') {
+      i++;
+    }
+    long mantissa = 0;
+    int nrDigits = 0;
+    int exp = 0;
+    boolean hasDigits = false;
+    while (i < to && (c = chars[i]) >= '0' && c <= '9') {
+      hasDigits = true;
+      if (mantissa != 0 || c != '0') {
+        if (++nrDigits > maxDigits) {
+          return -1;
+        }
+        mantissa = mantissa * 10 + (c - '0');
+      }
+      i++;
+    }
+    if (i < to && chars[i] == '.') {
+      i++;
+      while (i < to && (c = chars[i]) >= '0' && c <= '9') {
+        hasDigits = true;
+        if (mantissa != 0 || c != '0') {
+          if (++nrDigits > maxDigits) {
+            return -1;
+          }
+          mantissa = mantissa * 10 + (c - '0');
+        }
+        exp--;
+        i++;
+      }
+    }
+    if (!hasDigits) {
+      return -1;
+    }
+    if (i < to && ((c = chars[i]) == 'e' || c == 'E')) {
+      i++;
+      boolean expNegative = false;
+      if (i < to && ((c = chars[i]) == '-' || c == '+')) {
+        expNegative = c == '-';
+        i++;
+      }
+      if (i >= to) {
+        return -1;
+      }
+      int e = 0;
+      while (i < to && (c = chars[i]) >= '0' && c <= '9') {
+        e = e * 10 + (c - '0');
+        if (e > 1000) {
+          return -1;
+        }
+        i++;
+      }
+      exp += expNegative ? -e : e;
+    }
+    if (i != to) {
+      return -1;
+    }
+    decimalExp = exp;
+    return mantissa;
+  }
+
+  private static int utf8Length(final char[] chars, final int from, final int to) {
+    int result = 0;
+    for (int i = from; i < to; i++) {
+      char c = chars[i];
+      if (c < 0x80) {
+        result++;
+      } else if (c < 0x800) {
+        result += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars[i + 1])) {
+        result += 4;
+        i++;
+      } else {
+        result += 3;
+      }
+    }
+    return result;
+  }
+
+  private static void encodeUtf8(final char[] chars, final int from, final int to,
+          final byte[] bytes, final int bFrom) {
+    int j = bFrom;
+    for (int i = from; i < to; i++) {
+      char c = chars[i];
+      if (c < 0x80) {
+        bytes[j++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[j++] = (byte) (0xc0 | (c >> 6));
+        bytes[j++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(chars[i + 1])) {
+        int cp = Character.toCodePoint(c, chars[++i]);
+        bytes[j++] = (byte) (0xf0 | (cp >> 18));
+        bytes[j++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        bytes[j++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        bytes[j++] = (byte) (0x80 | (cp & 0x3f));
+      } else {
+        if (Character.isSurrogate(c)) {
+          c = '?'; // malformed surrogate, same as the JDK encoder replacement.
+        }
+        bytes[j++] = (byte) (0xe0 | (c >> 12));
+        bytes[j++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        bytes[j++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FastCsvDecoder{" + "separator=" + separator + ", lineNr=" + lineNr + ", col=" + col + '}';
+  }
+
+  private static final class CsvColumn {
+
+    /**
+     * enum symbols for enum columns, branch labels for union type columns, null otherwise.
+     */
+    @Nullable
+    private final Labels labels;
+
+    /**
+     * for union value columns, the enum symbols for each of the union branches.
+     */
+    @Nullable
+    private final Labels[] branchLabels;
+
+    CsvColumn(@Nullable final Labels labels, @Nullable final Labels[] branchLabels) {
+      this.labels = labels;
+      this.branchLabels = branchLabels;
+    }
+
+  }
+
+  /**
+   * Label lookup directly from a char buffer.
+   */
+  private static final class Labels {
+
+    private final char[][] labels;
+
+    Labels(final List<String> labels) {
+      int size = labels.size();
+      this.labels = new char[size][];
+      for (int i = 0; i < size; i++) {
+        this.labels[i] = labels.get(i).toCharArray();
+      }
+    }
+
+    int find(final char[] chars, final int from, final int to) {
+      int len = to - from;
+      for (int i = 0; i < labels.length; i++) {
+        char[] label = labels[i];
+        if (label.length == len && regionEquals(label, chars, from)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private static boolean regionEquals(final char[] label, final char[] chars, final int from) {
+      for (int i = 0, j = from; i < label.length; i++, j++) {
+        if (label[i] != chars[j]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+  }
+
+}
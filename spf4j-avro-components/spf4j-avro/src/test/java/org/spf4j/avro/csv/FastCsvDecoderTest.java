@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.avro.csv;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.avro.AvroTypeException;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.util.Utf8;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.io.csv.CharSeparatedValues;
+import org.spf4j.io.csv.CsvParseException;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class FastCsvDecoderTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FastCsvDecoderTest.class);
+
+  private static final Schema ROW_SCHEMA = SchemaBuilder.record("CsvRow").fields()
+            .requiredBoolean("boolField")
+            .requiredBytes("bytesField")
+            .requiredInt("intField")
+            .requiredLong("longField")
+            .requiredString("stringField")
+            .requiredDouble("doubleField")
+            .requiredFloat("floatField")
+            .name("recordField").type().record("Nested").fields()
+              .requiredString("a").requiredInt("b").endRecord().noDefault()
+            .optionalString("nullableString")
+            .name("enumField").type(Schema.createEnum("myEnum", "", "", Arrays.asList("e1", "e2"))).noDefault()
+            .endRecord();
+
+  private static final Schema CSV_SCHEMA = Schema.createArray(ROW_SCHEMA);
+
+  @Test
+  public void testRoundTrip() throws IOException, CsvParseException {
+    List<GenericRecord> records = testRecords(100);
+    String csv = encode(records, ',');
+    LOG.debug("written {}", csv);
+    FastCsvDecoder decoder = new FastCsvDecoder(new StringReader(csv), CSV_SCHEMA);
+    decoder.skipHeader();
+    GenericDatumReader<List<GenericRecord>> dr = new GenericDatumReader<>(CSV_SCHEMA);
+    List<GenericRecord> parsed = dr.read(null, decoder);
+    Assert.assertEquals(records, parsed);
+    CsvDecoder slowDecoder = new CsvDecoder(new CharSeparatedValues(',').reader(new StringReader(csv)), CSV_SCHEMA);
+    slowDecoder.skipHeader();
+    Assert.assertEquals(dr.read(null, slowDecoder), parsed);
+  }
+
+  @Test
+  public void testRowStreaming() throws IOException {
+    List<GenericRecord> records = testRecords(10);
+    String csv = encode(records, ';');
+    FastCsvDecoder decoder = new FastCsvDecoder(new StringReader(csv), ';', CSV_SCHEMA);
+    decoder.skipHeader();
+    GenericDatumReader<GenericRecord> dr = new GenericDatumReader<>(ROW_SCHEMA);
+    List<GenericRecord> result = new ArrayList<>();
+    GenericRecord reuse = null;
+    for (long l = decoder.readArrayStart(); l > 0; l = decoder.arrayNext()) {
+      reuse = dr.read(reuse, decoder);
+      result.add(GenericData.get().deepCopy(ROW_SCHEMA, reuse));
+    }
+    Assert.assertEquals(records, result);
+  }
+
+  @Test
+  public void testLineEndings() throws IOException {
+    Schema schema = Schema.createArray(SchemaBuilder.record("Row").fields()
+            .requiredString("a").requiredInt("b").endRecord());
+    FastCsvDecoder decoder = new FastCsvDecoder(new StringReader("\uFEFFa,b\r\n\"x\r\ny\",1\r\nz,2\rw,3"),
+            schema);
+    decoder.skipHeader();
+    List<GenericRecord> rows = new GenericDatumReader<List<GenericRecord>>(schema).read(null, decoder);
+    Assert.assertEquals(3, rows.size());
+    Assert.assertEquals(new Utf8("x\r\ny"), rows.get(0).get("a"));
+    Assert.assertEquals(2, rows.get(1).get("b"));
+    Assert.assertEquals(new Utf8("w"), rows.get(2).get("a"));
+  }
+
+  @Test(expected = AvroTypeException.class)
+  public void testMissingColumns() throws IOException {
+    Schema schema = Schema.createArray(SchemaBuilder.record("Row").fields()
+            .requiredInt("a").requiredInt("b").endRecord());
+    FastCsvDecoder decoder = new FastCsvDecoder(new StringReader("1,2\n3\n"), schema);
+    new GenericDatumReader<>(schema).read(null, decoder);
+  }
+
+  @Test
+  public void testNumbers() throws IOException {
+    Schema schema = Schema.createArray(SchemaBuilder.record("Row").fields()
+            .requiredDouble("d").requiredFloat("f").requiredLong("l").endRecord());
+    String[] doubles = {"0", "-0.0", "1.5", "3.141592653589793", "1e22", "1e23", "1.7976931348623157E308",
+      "4.9E-324", "0.1", "-123456789012345.6", "1234567890123456789", "NaN", "-Infinity", "1E-5", ".5"};
+    StringBuilder csv = new StringBuilder();
+    for (String d : doubles) {
+      csv.append(d).append(',').append(d).append(',').append(Long.MIN_VALUE).append('\n');
+    }
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    for (int i = 0; i < 1000; i++) {
+      csv.append(rnd.nextDouble() * rnd.nextInt(1000000)).append(',')
+              .append(rnd.nextFloat() * rnd.nextInt(1000)).append(',').append(rnd.nextLong()).append('\n');
+    }
+    FastCsvDecoder decoder = new FastCsvDecoder(new StringReader(csv.toString()), schema);
+    String[] lines = csv.toString().split("\n");
+    int i = 0;
+    for (long l = decoder.readArrayStart(); l > 0; l = decoder.arrayNext()) {
+      String[] cols = lines[i++].split(",");
+      Assert.assertEquals(cols[0], Double.doubleToLongBits(Double.parseDouble(cols[0])),
+              Double.doubleToLongBits(decoder.readDouble()));
+      Assert.assertEquals(cols[1], Float.floatToIntBits(Float.parseFloat(cols[1])),
+              Float.floatToIntBits(decoder.readFloat()));
+      Assert.assertEquals(Long.parseLong(cols[2]), decoder.readLong());
+    }
+    Assert.assertEquals(lines.length, i);
+  }
+
+  private static String encode(final List<GenericRecord> records, final char separator) throws IOException {
+    StringWriter writeTo = new StringWriter();
+    CsvEncoder encoder = new CsvEncoder(new CharSeparatedValues(separator).writer(writeTo), CSV_SCHEMA);
+    encoder.writeHeader();
+    DatumWriter writer = new GenericDatumWriter(CSV_SCHEMA);
+    writer.write(records, encoder);
+    encoder.flush();
+    return writeTo.toString();
+  }
+
+  private static List<GenericRecord> testRecords(final int nr) {
+    Schema enumSchema = ROW_SCHEMA.getField("enumField").schema();
+    Schema nestedSchema = ROW_SCHEMA.getField("recordField").schema();
+    List<GenericRecord> result = new ArrayList<>(nr);
+    for (int i = 0; i < nr; i++) {
+      GenericRecord rec = new GenericData.Record(ROW_SCHEMA);
+      rec.put("boolField", i % 2 == 0);
+      rec.put("bytesField", ByteBuffer.wrap(new byte[] {1, 2, (byte) i}));
+      rec.put("intField", i - 50);
+      rec.put("longField", i * 1000000000000L);
+      rec.put("stringField", new Utf8("test, \"quoted\"\n" + i + " é中😀"));
+      rec.put("doubleField", Math.PI * i);
+      rec.put("floatField", i / 3f);
+      GenericRecord nested = new GenericData.Record(nestedSchema);
+      nested.put("a", new Utf8("a" + i));
+      nested.put("b", i);
+      rec.put("recordField", nested);
+      rec.put("nullableString", i % 3 == 0 ? null : new Utf8("nstr" + i));
+      rec.put("enumField", new GenericData.EnumSymbol(enumSchema, i % 2 == 0 ? "e1" : "e2"));
+      result.add(rec);
+    }
+    return result;
+  }
+
+}
@@ -32,6 +32,9 @@
 package org.spf4j.base;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 
 /**
@@ -39,6 +42,10 @@ import java.nio.CharBuffer;
  * equivalent But most importantly you can encode/decode parts of a String, which should reduce the need of copying
  * objects and reduce the amount of garbage created.
  *
+ * Encoding processes 6 bytes at a time, using a 12 bit -&gt; 2 char lookup table,
+ * decoding processes 4 chars at a time with pre-shifted lookup tables, falling back to the char at a time
+ * decoder for padding, white spaces or invalid chars.
+ *
  * @author zoly
  */
 public final class Base64 {
@@ -47,8 +54,25 @@ public final class Base64 {
 
   private static final char[] ENCODE_MAP = initEncodeMap();
 
+  /** 12 bits -&gt; 2 encoded chars: c1 &lt;&lt; 8 | c2. */
+  private static final short[] ENCODE_PAIRS = initEncodePairs();
+
   private static final byte PADDING = 127;
 
+  /** value in the shifted decode maps for anything that is not a base64 char (including padding). */
+  private static final int INVALID = 0x80000000;
+
+  private static final int[] DECODE_18 = initShiftedDecodeMap(18);
+
+  private static final int[] DECODE_12 = initShiftedDecodeMap(12);
+
+  private static final int[] DECODE_6 = initShiftedDecodeMap(6);
+
+  private static final int[] DECODE_0 = initShiftedDecodeMap(0);
+
+  /** the bytes encoded per chunk when encoding to a Appendable or from/to non array buffers. */
+  private static final int CHUNK_BYTES = 3 * 1024;
+
   private Base64() {
   }
 
@@ -75,6 +99,23 @@ public final class Base64 {
     return map;
   }
 
+  private static int[] initShiftedDecodeMap(final int shift) {
+    int[] map = new int[128];
+    for (int i = 0; i < 128; i++) {
+      byte v = DECODE_MAP[i];
+      map[i] = v < 0 || v == PADDING ? INVALID : v << shift;
+    }
+    return map;
+  }
+
+  private static short[] initEncodePairs() {
+    short[] pairs = new short[4096];
+    for (int i = 0; i < 4096; i++) {
+      pairs[i] = (short) ((ENCODE_MAP[i >> 6] << 8) | ENCODE_MAP[i & 0x3F]);
+    }
+    return pairs;
+  }
+
   /**
    * computes the length of binary data speculatively.
    *
@@ -116,9 +157,6 @@ public final class Base64 {
     return (to - from) / 4 * 3 - padSize;
   }
 
-
-
-
   private static int guessLength(final char[] text, final int from, final int len) {
     final int to = from + len;
 
@@ -206,13 +244,33 @@ public final class Base64 {
   public static int decodeInto2(final CharSequence text, final int from, final int to,
           final byte[] out, final int outStartIdx) {
     int o = outStartIdx;
-    int i;
+    int i = from;
+    // fast path, 4 chars -> 3 bytes at a time, stops at the first padding/whitespace/invalid char.
+    final int fastTo = to - 3;
+    while (i < fastTo) {
+      char c0 = text.charAt(i);
+      char c1 = text.charAt(i + 1);
+      char c2 = text.charAt(i + 2);
+      char c3 = text.charAt(i + 3);
+      if ((c0 | c1 | c2 | c3) >= 128) {
+        break;
+      }
+      int v = DECODE_18[c0] | DECODE_12[c1] | DECODE_6[c2] | DECODE_0[c3];
+      if (v < 0) {
+        break;
+      }
+      out[o] = (byte) (v >> 16);
+      out[o + 1] = (byte) (v >> 8);
+      out[o + 2] = (byte) v;
+      o += 3;
+      i += 4;
+    }
     final byte[] quadruplet = new byte[4];
     int q = 0;
     // convert each quadruplet to three bytes.
-    for (i = from; i < to; i++) {
+    for (; i < to; i++) {
       char ch = text.charAt(i);
-      byte v = DECODE_MAP[ch];
+      byte v = ch < 128 ? DECODE_MAP[ch] : -1;
 
       if (v != -1) {
         quadruplet[q++] = v;
@@ -220,52 +278,68 @@ public final class Base64 {
 
       if (q == 4) {
         // quadruplet is now filled.
-        out[o++] = (byte) ((quadruplet[0] << 2) | (quadruplet[1] >> 4));
-        if (quadruplet[2] != PADDING) {
-          out[o++] = (byte) ((quadruplet[1] << 4) | (quadruplet[2] >> 2));
-        }
-        if (quadruplet[3] != PADDING) {
-          out[o++] = (byte) ((quadruplet[2] << 6) | (quadruplet[3]));
-        }
+        o = decodeQuadruplet(quadruplet, out, o);
         q = 0;
       }
     }
     return o;
   }
 
-  public static byte[] decodeBase64(final char[] text, final int from, final int len) {
-    final int buflen = guessLength(text, from, len);
-    final byte[] out = new byte[buflen];
-    int o = 0;
-
-    int i;
-
+  public static int decodeInto(final char[] text, final int from, final int to,
+          final byte[] out, final int outStartIdx) {
+    int o = outStartIdx;
+    int i = from;
+    final int fastTo = to - 3;
+    while (i < fastTo) {
+      char c0 = text[i];
+      char c1 = text[i + 1];
+      char c2 = text[i + 2];
+      char c3 = text[i + 3];
+      if ((c0 | c1 | c2 | c3) >= 128) {
+        break;
+      }
+      int v = DECODE_18[c0] | DECODE_12[c1] | DECODE_6[c2] | DECODE_0[c3];
+      if (v < 0) {
+        break;
+      }
+      out[o] = (byte) (v >> 16);
+      out[o + 1] = (byte) (v >> 8);
+      out[o + 2] = (byte) v;
+      o += 3;
+      i += 4;
+    }
     final byte[] quadruplet = new byte[4];
     int q = 0;
-
-    // convert each quadruplet to three bytes.
-    int to = from + len;
-    for (i = from; i < to; i++) {
+    for (; i < to; i++) {
       char ch = text[i];
-      byte v = DECODE_MAP[ch];
-
+      byte v = ch < 128 ? DECODE_MAP[ch] : -1;
       if (v != -1) {
         quadruplet[q++] = v;
       }
-
       if (q == 4) {
-        // quadruplet is now filled.
-        out[o++] = (byte) ((quadruplet[0] << 2) | (quadruplet[1] >> 4));
-        if (quadruplet[2] != PADDING) {
-          out[o++] = (byte) ((quadruplet[1] << 4) | (quadruplet[2] >> 2));
-        }
-        if (quadruplet[3] != PADDING) {
-          out[o++] = (byte) ((quadruplet[2] << 6) | (quadruplet[3]));
-        }
+        o = decodeQuadruplet(quadruplet, out, o);
         q = 0;
       }
     }
+    return o;
+  }
+
+  private static int decodeQuadruplet(final byte[] quadruplet, final byte[] out, final int pos) {
+    int o = pos;
+    out[o++] = (byte) ((quadruplet[0] << 2) | (quadruplet[1] >> 4));
+    if (quadruplet[2] != PADDING) {
+      out[o++] = (byte) ((quadruplet[1] << 4) | (quadruplet[2] >> 2));
+    }
+    if (quadruplet[3] != PADDING) {
+      out[o++] = (byte) ((quadruplet[2] << 6) | (quadruplet[3]));
+    }
+    return o;
+  }
 
+  public static byte[] decodeBase64(final char[] text, final int from, final int len) {
+    final int buflen = guessLength(text, from, len);
+    final byte[] out = new byte[buflen];
+    int o = decodeInto(text, from, from + len, out, 0);
     if (buflen == o) { // speculation worked out to be OK
       return out;
     }
@@ -276,6 +350,44 @@ public final class Base64 {
     return nb;
   }
 
+  /**
+   * Decode the remaining base64 ASCII bytes of src into dst.
+   * White spaces and other non base64 chars are skipped, the padding is optional.
+   * src position is advanced to its limit, dst position is advanced by the number of bytes written.
+   * Direct buffers are supported.
+   *
+   * @return the number of bytes written to dst.
+   * @throws java.nio.BufferOverflowException if there is not enough space in dst.
+   */
+  public static int decodeBase64(final ByteBuffer src, final ByteBuffer dst) {
+    StreamDecoder decoder = new StreamDecoder();
+    int nrIn = src.remaining();
+    if (src.hasArray() && dst.hasArray() && dst.remaining() >= StreamDecoder.maxDecodedLength(nrIn) + 2) {
+      int dp = dst.arrayOffset() + dst.position();
+      int sp = src.arrayOffset() + src.position();
+      byte[] out = dst.array();
+      int e = decoder.decode(src.array(), sp, sp + nrIn, out, dp);
+      e = decoder.finish(out, e);
+      src.position(src.limit());
+      int written = e - dp;
+      dst.position(dst.position() + written);
+      return written;
+    }
+    final int chunk = CHUNK_BYTES / 3 * 4;
+    byte[] tmp = TLScratch.getBytesTmp(chunk + StreamDecoder.maxDecodedLength(chunk) + 2);
+    int written = 0;
+    while (src.hasRemaining()) {
+      int n = Math.min(chunk, src.remaining());
+      src.get(tmp, 0, n);
+      int e = decoder.decode(tmp, 0, n, tmp, chunk) - chunk;
+      dst.put(tmp, chunk, e);
+      written += e;
+    }
+    int e = decoder.finish(tmp, chunk) - chunk;
+    dst.put(tmp, chunk, e);
+    return written + e;
+  }
+
   private static char[] initEncodeMap() {
     char[] map = new char[64];
     int i;
@@ -302,12 +414,19 @@ public final class Base64 {
     return (byte) ENCODE_MAP[i & 0x3F];
   }
 
+  /**
+   * @return the length of the base64 encoding (with padding) of nrBytes.
+   */
+  public static int encodedLength(final int nrBytes) {
+    return ((nrBytes + 2) / 3) * 4;
+  }
+
   public static String encodeBase64(final byte[] input) {
     return encodeBase64(input, 0, input.length);
   }
 
   public static String encodeBase64(final byte[] input, final int offset, final int len) {
-    char[] buf = TLScratch.getCharsTmp((((len + 2) / 3) * 4));
+    char[] buf = TLScratch.getCharsTmp(encodedLength(len));
     int ptr = encodeBase64(input, offset, len, buf, 0);
     return new String(buf, 0, ptr);
   }
@@ -321,39 +440,39 @@ public final class Base64 {
    * @return - the encoded String.
    */
   public static CharSequence encodeBase64V2(final byte[] input, final int offset, final int len) {
-    char[] buf = new char[(((len + 2) / 3) * 4)];
+    char[] buf = new char[encodedLength(len)];
     int ptr = encodeBase64(input, offset, len, buf, 0);
     assert ptr == buf.length;
     return CharBuffer.wrap(buf);
   }
 
+  /**
+   * Encodes a byte array to a Appendable, in chunks, without creating the whole encoded char array.
+   *
+   * @param input - the byte array to encode.
+   * @param offset - the index of the first byte to encode.
+   * @param len - the number of bytes to encode.
+   * @param result - the destination.
+   */
   public static void encodeBase64(final byte[] input, final int offset, final int len, final Appendable result)
           throws IOException {
-    for (int i = offset; i < len; i += 3) {
-      switch (len - i) {
-        case 1:
-          result.append(encode(input[i] >> 2));
-          result.append(encode(((input[i]) & 0x3) << 4));
-          result.append("==");
-          break;
-        case 2:
-          result.append(encode(input[i] >> 2));
-          result.append(encode(
-                  ((input[i] & 0x3) << 4)
-                  | ((input[i + 1] >> 4) & 0xF)));
-          result.append(encode((input[i + 1] & 0xF) << 2));
-          result.append('=');
-          break;
-        default:
-          result.append(encode(input[i] >> 2));
-          result.append(encode(
-                  ((input[i] & 0x3) << 4)
-                  | ((input[i + 1] >> 4) & 0xF)));
-          result.append(encode(
-                  ((input[i + 1] & 0xF) << 2)
-                  | ((input[i + 2] >> 6) & 0x3)));
-          result.append(encode(input[i + 2] & 0x3F));
-          break;
+    if (len <= 0) {
+      return;
+    }
+    if (result instanceof StringBuilder) {
+      StringBuilder sb = (StringBuilder) result;
+      sb.ensureCapacity(sb.length() + encodedLength(len));
+    }
+    char[] buf = new char[Math.min(encodedLength(len), CHUNK_BYTES / 3 * 4)];
+    final int end = offset + len;
+    for (int i = offset; i < end; i += CHUNK_BYTES) {
+      int n = encodeBase64(input, i, Math.min(CHUNK_BYTES, end - i), buf, 0);
+      if (result instanceof StringBuilder) {
+        ((StringBuilder) result).append(buf, 0, n);
+      } else if (result instanceof Writer) {
+        ((Writer) result).write(buf, 0, n);
+      } else {
+        result.append(CharBuffer.wrap(buf, 0, n));
       }
     }
   }
@@ -374,8 +493,30 @@ public final class Base64 {
   public static int encodeBase64(final byte[] input, final int offset,
           final int len, final char[] output, final int cptr) {
     int ptr = cptr;
-    for (int i = offset; i < len; i += 3) {
-      switch (len - i) {
+    int i = offset;
+    final int max = offset + len;
+    // 6 bytes -> 8 chars at a time.
+    final int max6 = max - 5;
+    while (i < max6) {
+      long w = ((input[i] & 0xFFL) << 40) | ((input[i + 1] & 0xFFL) << 32) | ((input[i + 2] & 0xFFL) << 24)
+              | ((input[i + 3] & 0xFF) << 16) | ((input[i + 4] & 0xFF) << 8) | (input[i + 5] & 0xFF);
+      int p = ENCODE_PAIRS[(int) (w >>> 36)];
+      output[ptr] = (char) (p >>> 8);
+      output[ptr + 1] = (char) (p & 0xFF);
+      p = ENCODE_PAIRS[(int) (w >>> 24) & 0xFFF];
+      output[ptr + 2] = (char) (p >>> 8);
+      output[ptr + 3] = (char) (p & 0xFF);
+      p = ENCODE_PAIRS[(int) (w >>> 12) & 0xFFF];
+      output[ptr + 4] = (char) (p >>> 8);
+      output[ptr + 5] = (char) (p & 0xFF);
+      p = ENCODE_PAIRS[(int) w & 0xFFF];
+      output[ptr + 6] = (char) (p >>> 8);
+      output[ptr + 7] = (char) (p & 0xFF);
+      ptr += 8;
+      i += 6;
+    }
+    for (; i < max; i += 3) {
+      switch (max - i) {
         case 1:
           output[ptr++] = encode(input[i] >> 2);
           output[ptr++] = encode(((input[i]) & 0x3) << 4);
@@ -422,8 +563,29 @@ public final class Base64 {
           final byte[] out, final int cptr) {
     int ptr = cptr;
     byte[] buf = out;
-    int max = len + offset;
-    for (int i = offset; i < max; i += 3) {
+    int i = offset;
+    final int max = len + offset;
+    // 6 bytes -> 8 bytes at a time.
+    final int max6 = max - 5;
+    while (i < max6) {
+      long w = ((input[i] & 0xFFL) << 40) | ((input[i + 1] & 0xFFL) << 32) | ((input[i + 2] & 0xFFL) << 24)
+              | ((input[i + 3] & 0xFF) << 16) | ((input[i + 4] & 0xFF) << 8) | (input[i + 5] & 0xFF);
+      int p = ENCODE_PAIRS[(int) (w >>> 36)];
+      buf[ptr] = (byte) (p >>> 8);
+      buf[ptr + 1] = (byte) p;
+      p = ENCODE_PAIRS[(int) (w >>> 24) & 0xFFF];
+      buf[ptr + 2] = (byte) (p >>> 8);
+      buf[ptr + 3] = (byte) p;
+      p = ENCODE_PAIRS[(int) (w >>> 12) & 0xFFF];
+      buf[ptr + 4] = (byte) (p >>> 8);
+      buf[ptr + 5] = (byte) p;
+      p = ENCODE_PAIRS[(int) w & 0xFFF];
+      buf[ptr + 6] = (byte) (p >>> 8);
+      buf[ptr + 7] = (byte) p;
+      ptr += 8;
+      i += 6;
+    }
+    for (; i < max; i += 3) {
       switch (max - i) {
         case 1:
           buf[ptr++] = encodeByte(input[i] >> 2);
@@ -455,4 +617,138 @@ public final class Base64 {
     return ptr;
   }
 
+  /**
+   * Encode the remaining bytes of src as base64 ASCII bytes into dst.
+   * src position is advanced to its limit, dst position is advanced by the number of bytes written.
+   * Direct buffers are supported.
+   *
+   * @return the number of bytes written to dst.
+   * @throws java.nio.BufferOverflowException if dst has less than encodedLength(src.remaining()) bytes remaining.
+   */
+  public static int encodeBase64(final ByteBuffer src, final ByteBuffer dst) {
+    int len = src.remaining();
+    int outLen = encodedLength(len);
+    if (dst.remaining() < outLen) {
+      throw new BufferOverflowException();
+    }
+    if (src.hasArray() && dst.hasArray()) {
+      int sp = src.position();
+      int dp = dst.position();
+      encodeBase64(src.array(), src.arrayOffset() + sp, len, dst.array(), dst.arrayOffset() + dp);
+      src.position(sp + len);
+      dst.position(dp + outLen);
+      return outLen;
+    }
+    final int chunkOut = CHUNK_BYTES / 3 * 4;
+    byte[] tmp = TLScratch.getBytesTmp(CHUNK_BYTES + chunkOut);
+    while (src.hasRemaining()) {
+      int n = Math.min(CHUNK_BYTES, src.remaining());
+      src.get(tmp, 0, n);
+      int e = encodeBase64(tmp, 0, n, tmp, CHUNK_BYTES) - CHUNK_BYTES;
+      dst.put(tmp, CHUNK_BYTES, e);
+    }
+    return outLen;
+  }
+
+  /**
+   * Incremental decoder of base64 ASCII bytes, for decoding data that arrives in chunks.
+   * White spaces and other non base64 chars are skipped, the padding is optional.
+   */
+  public static final class StreamDecoder {
+
+    private int bits;
+
+    private int nrSextets;
+
+    /**
+     * @return the maximum number of bytes decode can write for nrChars input chars.
+     * (finish can write 2 more bytes)
+     */
+    public static int maxDecodedLength(final int nrChars) {
+      return (nrChars + 3) / 4 * 3;
+    }
+
+    /**
+     * Decode the base64 ASCII chars from in[from, to) into out, starting at outPos.
+     * @return the position in out after the last decoded byte.
+     */
+    public int decode(final byte[] in, final int from, final int to, final byte[] out, final int outPos) {
+      int o = outPos;
+      int i = from;
+      while (i < to) {
+        if (nrSextets == 0) {
+          final int fastTo = to - 3;
+          while (i < fastTo) {
+            int c0 = in[i];
+            int c1 = in[i + 1];
+            int c2 = in[i + 2];
+            int c3 = in[i + 3];
+            if ((c0 | c1 | c2 | c3) < 0) { // non ASCII
+              break;
+            }
+            int v = DECODE_18[c0] | DECODE_12[c1] | DECODE_6[c2] | DECODE_0[c3];
+            if (v < 0) {
+              break;
+            }
+            out[o] = (byte) (v >> 16);
+            out[o + 1] = (byte) (v >> 8);
+            out[o + 2] = (byte) v;
+            o += 3;
+            i += 4;
+          }
+          if (i >= to) {
+            break;
+          }
+        }
+        int c = in[i++];
+        byte v = c < 0 ? -1 : DECODE_MAP[c];
+        if (v == -1) {
+          continue;
+        }
+        if (v == PADDING) {
+          o = finish(out, o);
+          continue;
+        }
+        bits = (bits << 6) | v;
+        if (++nrSextets == 4) {
+          out[o] = (byte) (bits >> 16);
+          out[o + 1] = (byte) (bits >> 8);
+          out[o + 2] = (byte) bits;
+          o += 3;
+          nrSextets = 0;
+          bits = 0;
+        }
+      }
+      return o;
+    }
+
+    /**
+     * Write the bytes of a incomplete quadruplet (unpadded input).
+     * @return the position in out after the last decoded byte.
+     */
+    public int finish(final byte[] out, final int outPos) {
+      int o = outPos;
+      switch (nrSextets) {
+        case 2:
+          out[o++] = (byte) (bits >> 4);
+          break;
+        case 3:
+          out[o++] = (byte) (bits >> 10);
+          out[o++] = (byte) (bits >> 2);
+          break;
+        default:
+          // nothing to write, a single sextet is invalid and ignored.
+      }
+      nrSextets = 0;
+      bits = 0;
+      return o;
+    }
+
+    @Override
+    public String toString() {
+      return "StreamDecoder{" + "nrSextets=" + nrSextets + '}';
+    }
+
+  }
+
 }
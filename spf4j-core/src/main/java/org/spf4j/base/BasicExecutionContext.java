@@ -31,11 +31,9 @@
  */
 package org.spf4j.base;
 
-import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.Beta;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -49,7 +47,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.concurrent.ThreadSafe;
-import org.spf4j.io.AppendableWriter;
+import org.slf4j.Marker;
+import org.spf4j.log.ContextLogBuffer;
 import org.spf4j.log.Level;
 import org.spf4j.log.Slf4jLogRecord;
 import org.spf4j.base.ThreadLocalContextAttacher.Attached;
@@ -69,6 +68,12 @@ public class BasicExecutionContext implements ExecutionContext {
   private static final Level MIN_LOG_LEVEL
           = Level.valueOf(System.getProperty("spf4j.execContext.minLogLevel", "TRACE"));
 
+  private static final JsonWriter.FieldName JSON_NAME = JsonWriter.fieldName("name");
+
+  private static final JsonWriter.FieldName JSON_START_TS = JsonWriter.fieldName("startTs");
+
+  private static final JsonWriter.FieldName JSON_DEADLINE_TS = JsonWriter.fieldName("deadlineTs");
+
   private final String name;
 
   private final CharSequence id;
@@ -81,7 +86,7 @@ public class BasicExecutionContext implements ExecutionContext {
 
   private final long deadlineNanos;
 
-  private ArrayDeque<Slf4jLogRecord> logs;
+  private ContextLogBuffer logs;
 
   private List<AutoCloseable> closeables;
 
@@ -238,7 +243,13 @@ public class BasicExecutionContext implements ExecutionContext {
       ExecutionContext parent = getNotClosedParent();
       if (parent != null) {
         if (logs != null) {
-            parent.addLogs(logs);
+          if (parent instanceof BasicExecutionContext) {
+            ((BasicExecutionContext) parent).addLogs(logs);
+          } else {
+            List<Slf4jLogRecord> pLogs = new ArrayList<>(logs.size());
+            logs.forEach(pLogs::add);
+            parent.addLogs(pLogs);
+          }
         }
         for (Map.Entry<Tag, Object> be : baggage.entrySet()) {
           Tag key = be.getKey();
@@ -251,13 +262,11 @@ public class BasicExecutionContext implements ExecutionContext {
         // if not, we will log the baggage that was not returned to parent.
         StackTraceElement[] stackTrace = null;
         Logger orphaned = Logger.getLogger("ORPHAN_CTX_ENTITIES");
-        if (logs != null) {
-          for (Slf4jLogRecord lr : logs) {
-            if (stackTrace == null) {
-              stackTrace = Thread.currentThread().getStackTrace();
-            }
-            LogUtils.logUpgrade(orphaned, Level.INFO, "Orphaned log", lr.toLogRecord("", ""), stackTrace);
-          }
+        if (logs != null && !logs.isEmpty()) {
+          StackTraceElement[] st = Thread.currentThread().getStackTrace();
+          stackTrace = st;
+          logs.forEach((lr) ->
+            LogUtils.logUpgrade(orphaned, Level.INFO, "Orphaned log", lr.toLogRecord("", ""), st));
         }
         for (Map.Entry<Tag, Object> be : baggage.entrySet()) {
           Tag key = be.getKey();
@@ -316,18 +325,14 @@ public class BasicExecutionContext implements ExecutionContext {
    */
   @Override
   public synchronized void writeJsonTo(final Appendable appendable) throws IOException {
-    JsonGenerator gen = Json.FACTORY.createGenerator(new AppendableWriter(appendable));
-    gen.setCodec(Json.MAPPER);
-    gen.writeStartObject();
-    gen.writeFieldName("name");
-    gen.writeString(name);
-    gen.writeFieldName("startTs");
+    JsonWriter writer = new JsonWriter(appendable, 256);
+    writer.writeStartObject();
+    writer.writeStringField(JSON_NAME, name);
     Timing currentTiming = Timing.getCurrentTiming();
-    gen.writeString(currentTiming.fromNanoTimeToInstant(startTimeNanos).toString());
-    gen.writeFieldName("deadlineTs");
-    gen.writeString(currentTiming.fromNanoTimeToInstant(deadlineNanos).toString());
-    gen.writeEndObject();
-    gen.flush();
+    writer.writeStringField(JSON_START_TS, currentTiming.fromNanoTimeToInstant(startTimeNanos).toString());
+    writer.writeStringField(JSON_DEADLINE_TS, currentTiming.fromNanoTimeToInstant(deadlineNanos).toString());
+    writer.writeEndObject();
+    writer.flush();
   }
 
   @Override
@@ -341,12 +346,39 @@ public class BasicExecutionContext implements ExecutionContext {
       }
     }
     if (logs == null) {
-      logs = new ArrayDeque<>(4);
+      logs = new ContextLogBuffer(MX_NR_LOGS_PER_CTXT);
+    }
+    logs.add(log);
+  }
+
+  @Override
+  public final synchronized void addLog(final boolean isLogged, final String loggerName, final Level level,
+          @Nullable final Marker marker, final String format, final Object... args) {
+    if (isClosed) {
+      if (source != null) {
+        source.addLog(isLogged, loggerName, level, marker, format, args);
+      }
+      return;
+    }
+    if (logs == null) {
+      logs = new ContextLogBuffer(MX_NR_LOGS_PER_CTXT);
     }
-    if (logs.size() >= MX_NR_LOGS_PER_CTXT) {
-      logs.removeFirst();
+    logs.add(isLogged, loggerName, level, marker, format, args);
+  }
+
+  final synchronized void addLogs(final ContextLogBuffer pLogs) {
+    if (isClosed) {
+      if (source != null) {
+        List<Slf4jLogRecord> lLogs = new ArrayList<>(pLogs.size());
+        pLogs.forEach(lLogs::add);
+        source.addLogs(lLogs);
+      }
+      return;
     }
-    logs.addLast(log);
+    if (logs == null) {
+      logs = new ContextLogBuffer(MX_NR_LOGS_PER_CTXT);
+    }
+    logs.addAll(pLogs);
   }
 
   @Beta
@@ -369,48 +401,24 @@ public class BasicExecutionContext implements ExecutionContext {
       }
     }
     if (logs == null) {
-      logs = new ArrayDeque<>(pLogs);
-      return;
+      logs = new ContextLogBuffer(MX_NR_LOGS_PER_CTXT);
     }
-    int xNrLogs = logs.size();
-    int toRemove = xNrLogs + pLogs.size() - MX_NR_LOGS_PER_CTXT;
-    if (toRemove >= xNrLogs) {
-      logs.clear();
-    } else {
-      for (int i = 0; i < toRemove; i++) { // TODO
-        logs.removeFirst();
-      }
+    for (Slf4jLogRecord log : pLogs) {
+      logs.add(log);
     }
-    logs.addAll(pLogs);
   }
 
   @Override
   public final synchronized void streamLogs(final Consumer<Slf4jLogRecord> to) {
     if (logs != null) {
-      for (Slf4jLogRecord log : logs) {
-        to.accept(log);
-      }
+      logs.forEach(to);
     }
   }
 
   @Override
   public final synchronized void streamLogs(final Consumer<Slf4jLogRecord> to, final int maxNr) {
     if (logs != null) {
-      if (maxNr >= logs.size()) {
-        for (Slf4jLogRecord log : logs) {
-          to.accept(log);
-        }
-      } else {
-        int i = 0;
-        int toSkip = logs.size() - maxNr;
-        for (Slf4jLogRecord log : logs) {
-          if (i >= toSkip) {
-            to.accept(log);
-          } else {
-            i++;
-          }
-        }
-      }
+      logs.forEach(to, maxNr);
     }
   }
 
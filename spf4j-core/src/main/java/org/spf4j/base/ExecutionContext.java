@@ -47,11 +47,13 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.Signed;
+import org.slf4j.Marker;
 import org.spf4j.base.avro.Converters;
 import org.spf4j.base.avro.DebugDetail;
 import org.spf4j.base.avro.StackSampleElement;
 import org.spf4j.log.Level;
 import org.spf4j.log.Slf4jLogRecord;
+import org.spf4j.log.Slf4jLogRecordImpl;
 
 /**
  * Execution context information encapsulated a place to store execution related information:
@@ -110,6 +112,10 @@ public interface ExecutionContext extends AutoCloseable, JsonWriteable {
   @Nonnull
   String getName();
 
+  /**
+   * @return the context id. Root context ids generated by spf4j are org.spf4j.concurrent.UID instances,
+   * which are rendered to text only when needed.
+   */
   CharSequence getId();
 
   long getStartTimeNanos();
@@ -168,6 +174,16 @@ public interface ExecutionContext extends AutoCloseable, JsonWriteable {
   @Beta
   void addLog(Slf4jLogRecord log);
 
+  /**
+   * Add a log record logged by the current thread, implementations can store the record in a compact form
+   * and materialize it only when streamed.
+   */
+  @Beta
+  default void addLog(final boolean isLogged, final String loggerName, final Level level, @Nullable final Marker marker,
+          final String format, final Object... args) {
+    addLog(new Slf4jLogRecordImpl(isLogged, loggerName, level, marker, format, args));
+  }
+
   @Beta
   void addLogs(Collection<Slf4jLogRecord> log);
 
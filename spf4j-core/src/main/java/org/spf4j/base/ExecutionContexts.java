@@ -134,8 +134,11 @@ public final class ExecutionContexts {
     return TL_ATTACHER;
   }
 
+  /**
+   * @return a new context id, a binary UID that is rendered to text only when needed.
+   */
   public static CharSequence genId() {
-    return ID_GEN.next();
+    return ID_GEN.nextUID();
   }
 
   public static ExecutionContextFactory<ExecutionContext> getContextFactory() {
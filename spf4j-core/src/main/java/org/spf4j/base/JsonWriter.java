@@ -0,0 +1,543 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.base;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A lightweight json writer, that writes into a char buffer which is flushed to the destination Appendable.
+ * Separators (, and :) are written automatically based on the writer state,
+ * field names can be pre-escaped (see {@link #fieldName(String)}), and numbers are written without creating
+ * intermediary Strings.
+ *
+ * No validation of the json structure is done, the caller is responsible for balancing the start/end calls.
+ *
+ * The content is guaranteed to be in the destination only after {@link #flush()}.
+ * For byte output, use a {@link org.spf4j.io.Utf8ByteAppendable} as destination.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class JsonWriter {
+
+  private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+  /** the max number of chars a escaped char can take (backslash u XXXX). */
+  private static final int MAX_ESCAPED_CHAR_LENGTH = 6;
+
+  private static final char[] NULL = "null".toCharArray();
+
+  private static final char[] TRUE = "true".toCharArray();
+
+  private static final char[] FALSE = "false".toCharArray();
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  private final Appendable destination;
+
+  private final char[] buffer;
+
+  private int pos;
+
+  /** hasElements[depth] is true if the current object/array has at least one element. */
+  private boolean[] hasElements;
+
+  private int depth;
+
+  private boolean afterFieldName;
+
+  private final StringEscaper stringEscaper;
+
+  public JsonWriter(final Appendable destination) {
+    this(destination, DEFAULT_BUFFER_SIZE);
+  }
+
+  public JsonWriter(final Appendable destination, final int bufferSize) {
+    if (bufferSize < MAX_ESCAPED_CHAR_LENGTH * 4) {
+      throw new IllegalArgumentException("Buffer size too small " + bufferSize);
+    }
+    this.destination = destination;
+    this.buffer = new char[bufferSize];
+    this.pos = 0;
+    this.hasElements = new boolean[16];
+    this.depth = 0;
+    this.afterFieldName = false;
+    this.stringEscaper = new StringEscaper();
+  }
+
+  /**
+   * Pre-escape a field name, to be used with {@link #writeFieldName(FieldName)}.
+   * Field names used on hot paths should be stored in constants.
+   */
+  public static FieldName fieldName(final String name) {
+    StringBuilder sb = new StringBuilder(name.length() + 3);
+    sb.append('"');
+    AppendableUtils.escapeJsonString(name, sb);
+    sb.append("\":");
+    return new FieldName(name, sb.toString().toCharArray());
+  }
+
+  public Appendable getDestination() {
+    return destination;
+  }
+
+  public JsonWriter writeStartObject() throws IOException {
+    beforeValue();
+    write('{');
+    push();
+    return this;
+  }
+
+  public JsonWriter writeEndObject() throws IOException {
+    write('}');
+    depth--;
+    return this;
+  }
+
+  public JsonWriter writeStartArray() throws IOException {
+    beforeValue();
+    write('[');
+    push();
+    return this;
+  }
+
+  public JsonWriter writeEndArray() throws IOException {
+    write(']');
+    depth--;
+    return this;
+  }
+
+  public JsonWriter writeFieldName(final FieldName name) throws IOException {
+    beforeFieldName();
+    write(name.quoted, 0, name.quoted.length);
+    afterFieldName = true;
+    return this;
+  }
+
+  public JsonWriter writeFieldName(final CharSequence name) throws IOException {
+    beforeFieldName();
+    write('"');
+    writeEscaped(name, 0, name.length());
+    write('"');
+    write(':');
+    afterFieldName = true;
+    return this;
+  }
+
+  /**
+   * Start writing a field name that will be appended to the returned Appendable (which escapes it).
+   * Must be followed by {@link #writeEndFieldName()}.
+   */
+  public Appendable writeStartFieldName() throws IOException {
+    beforeFieldName();
+    write('"');
+    return stringEscaper;
+  }
+
+  public JsonWriter writeEndFieldName() throws IOException {
+    write('"');
+    write(':');
+    afterFieldName = true;
+    return this;
+  }
+
+  public JsonWriter writeString(@Nullable final CharSequence value) throws IOException {
+    if (value == null) {
+      return writeNull();
+    }
+    beforeValue();
+    write('"');
+    writeEscaped(value, 0, value.length());
+    write('"');
+    return this;
+  }
+
+  /**
+   * Start writing a string value, that will be appended to the returned Appendable (which escapes it).
+   * Must be followed by {@link #writeEndString()}.
+   */
+  public Appendable writeStartString() throws IOException {
+    beforeValue();
+    write('"');
+    return stringEscaper;
+  }
+
+  public JsonWriter writeEndString() throws IOException {
+    write('"');
+    return this;
+  }
+
+  public JsonWriter writeNumber(final int value) throws IOException {
+    return writeNumber((long) value);
+  }
+
+  public JsonWriter writeNumber(final long value) throws IOException {
+    beforeValue();
+    writeLong(value);
+    return this;
+  }
+
+  /**
+   * Non finite values are written as strings. (like Jackson does by default)
+   */
+  public JsonWriter writeNumber(final double value) throws IOException {
+    if (Double.isFinite(value)) {
+      beforeValue();
+      writeRaw(Double.toString(value));
+    } else {
+      writeString(Double.toString(value));
+    }
+    return this;
+  }
+
+  public JsonWriter writeBoolean(final boolean value) throws IOException {
+    beforeValue();
+    char[] chars = value ? TRUE : FALSE;
+    write(chars, 0, chars.length);
+    return this;
+  }
+
+  public JsonWriter writeNull() throws IOException {
+    beforeValue();
+    write(NULL, 0, NULL.length);
+    return this;
+  }
+
+  public JsonWriter writeStringField(final FieldName name, @Nullable final CharSequence value) throws IOException {
+    writeFieldName(name);
+    return writeString(value);
+  }
+
+  public JsonWriter writeNumberField(final FieldName name, final long value) throws IOException {
+    writeFieldName(name);
+    return writeNumber(value);
+  }
+
+  /**
+   * write a json value as is.
+   */
+  public JsonWriter writeRawValue(final CharSequence json) throws IOException {
+    beforeValue();
+    writeRaw(json);
+    return this;
+  }
+
+  /**
+   * Write a JsonWriteable value, the value is written directly to the destination.
+   */
+  public JsonWriter writeValue(final JsonWriteable value) throws IOException {
+    beforeValue();
+    flush();
+    value.writeJsonTo(destination);
+    return this;
+  }
+
+  /**
+   * Write a object as described in {@link #writeObject(java.lang.Object, ObjectMapper)} with the default mapper.
+   */
+  public JsonWriter writeObject(@Nullable final Object value) throws IOException {
+    return writeObject(value, Json.MAPPER);
+  }
+
+  /**
+   * Write a object, JsonWriteable objects, CharSequences (as strings), Integers, Longs, Doubles and Booleans
+   * are written directly, everything else is serialized with the provided mapper.
+   */
+  public JsonWriter writeObject(@Nullable final Object value, final ObjectMapper mapper) throws IOException {
+    if (value == null) {
+      return writeNull();
+    }
+    Class<?> clasz = value.getClass();
+    if (clasz == String.class) {
+      return writeString((String) value);
+    } else if (clasz == Integer.class || clasz == Long.class) {
+      return writeNumber(((Number) value).longValue());
+    } else if (clasz == Double.class) {
+      return writeNumber(((Double) value).doubleValue());
+    } else if (clasz == Boolean.class) {
+      return writeBoolean((Boolean) value);
+    } else if (value instanceof JsonWriteable) {
+      return writeValue((JsonWriteable) value);
+    } else if (value instanceof CharSequence) {
+      return writeString((CharSequence) value);
+    } else {
+      return writeRawValue(mapper.writeValueAsString(value));
+    }
+  }
+
+  /**
+   * write the buffered content to the destination.
+   */
+  public void flush() throws IOException {
+    if (pos == 0) {
+      return;
+    }
+    if (destination instanceof StringBuilder) {
+      ((StringBuilder) destination).append(buffer, 0, pos);
+    } else if (destination instanceof Writer) {
+      ((Writer) destination).write(buffer, 0, pos);
+    } else {
+      destination.append(CharBuffer.wrap(buffer, 0, pos));
+    }
+    pos = 0;
+  }
+
+  private void push() {
+    depth++;
+    if (depth == hasElements.length) {
+      hasElements = Arrays.copyOf(hasElements, depth << 1);
+    }
+    hasElements[depth] = false;
+  }
+
+  private void beforeValue() throws IOException {
+    if (afterFieldName) {
+      afterFieldName = false;
+      return;
+    }
+    if (hasElements[depth]) {
+      if (depth > 0) {
+        write(',');
+      }
+    } else {
+      hasElements[depth] = true;
+    }
+  }
+
+  private void beforeFieldName() throws IOException {
+    if (hasElements[depth]) {
+      write(',');
+    } else {
+      hasElements[depth] = true;
+    }
+  }
+
+  private void write(final char c) throws IOException {
+    if (pos == buffer.length) {
+      flush();
+    }
+    buffer[pos++] = c;
+  }
+
+  private void write(final char[] chars, final int off, final int len) throws IOException {
+    if (len > buffer.length - pos) {
+      flush();
+      if (len > buffer.length) {
+        destination.append(CharBuffer.wrap(chars, off, len));
+        return;
+      }
+    }
+    System.arraycopy(chars, off, buffer, pos, len);
+    pos += len;
+  }
+
+  private void writeRaw(final CharSequence cs) throws IOException {
+    int i = 0;
+    int l = cs.length();
+    while (i < l) {
+      if (pos == buffer.length) {
+        flush();
+      }
+      int n = Math.min(l - i, buffer.length - pos);
+      if (cs instanceof String) {
+        ((String) cs).getChars(i, i + n, buffer, pos);
+        pos += n;
+        i += n;
+      } else {
+        for (int j = 0; j < n; j++) {
+          buffer[pos++] = cs.charAt(i++);
+        }
+      }
+    }
+  }
+
+  private void writeLong(final long value) throws IOException {
+    if (value == Long.MIN_VALUE) {
+      writeRaw("-9223372036854775808");
+      return;
+    }
+    if (buffer.length - pos < 20) {
+      flush();
+    }
+    long v = value;
+    if (v < 0) {
+      buffer[pos++] = '-';
+      v = -v;
+    }
+    int nrDigits = 1;
+    for (long p = 10; p <= v && nrDigits < 19; p *= 10) {
+      nrDigits++;
+    }
+    int i = pos + nrDigits;
+    pos = i;
+    do {
+      buffer[--i] = (char) ('0' + (v % 10));
+      v /= 10;
+    } while (v != 0);
+  }
+
+  private void writeEscaped(final CharSequence cs, final int start, final int end) throws IOException {
+    int len = end - start;
+    if (cs instanceof String && len <= buffer.length - pos) {
+      // optimistic bulk copy, most strings do not need escaping.
+      ((String) cs).getChars(start, end, buffer, pos);
+      int from = pos;
+      int to = from + len;
+      for (int j = from; j < to; j++) {
+        char c = buffer[j];
+        if (c < ' ' || c == '"' || c == '\\') {
+          pos = j;
+          writeEscapedChars(cs, start + (j - from), end);
+          return;
+        }
+      }
+      pos = to;
+      return;
+    }
+    writeEscapedChars(cs, start, end);
+  }
+
+  private void writeEscapedChars(final CharSequence cs, final int start, final int end) throws IOException {
+    int i = start;
+    while (i < end) {
+      int avail = (buffer.length - pos) / MAX_ESCAPED_CHAR_LENGTH;
+      if (avail == 0) {
+        flush();
+        avail = buffer.length / MAX_ESCAPED_CHAR_LENGTH;
+      }
+      int lim = Math.min(end, i + avail);
+      for (; i < lim; i++) {
+        char c = cs.charAt(i);
+        if (c >= ' ' && c != '"' && c != '\\') {
+          buffer[pos++] = c;
+        } else {
+          escape(c);
+        }
+      }
+    }
+  }
+
+  private void escape(final char c) {
+    buffer[pos++] = '\\';
+    switch (c) {
+      case '\\':
+      case '"':
+        buffer[pos++] = c;
+        break;
+      case '\b':
+        buffer[pos++] = 'b';
+        break;
+      case '\t':
+        buffer[pos++] = 't';
+        break;
+      case '\n':
+        buffer[pos++] = 'n';
+        break;
+      case '\f':
+        buffer[pos++] = 'f';
+        break;
+      case '\r':
+        buffer[pos++] = 'r';
+        break;
+      default:
+        buffer[pos++] = 'u';
+        buffer[pos++] = '0';
+        buffer[pos++] = '0';
+        buffer[pos++] = HEX_DIGITS[c >> 4];
+        buffer[pos++] = HEX_DIGITS[c & 0xF];
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "JsonWriter{" + "destination=" + destination.getClass() + ", depth=" + depth
+            + ", buffered=" + new String(buffer, 0, pos) + '}';
+  }
+
+  /**
+   * A pre-escaped, quoted field name, including the trailing colon.
+   */
+  @Immutable
+  public static final class FieldName {
+
+    private final String name;
+
+    private final char[] quoted;
+
+    private FieldName(final String name, final char[] quoted) {
+      this.name = name;
+      this.quoted = quoted;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+
+  }
+
+  /**
+   * Appendable that writes the appended chars json string escaped.
+   */
+  private final class StringEscaper implements Appendable {
+
+    @Override
+    public Appendable append(@Nullable final CharSequence csq) throws IOException {
+      CharSequence cs = csq == null ? "null" : csq;
+      writeEscaped(cs, 0, cs.length());
+      return this;
+    }
+
+    @Override
+    public Appendable append(@Nullable final CharSequence csq, final int start, final int end) throws IOException {
+      writeEscaped(csq == null ? "null" : csq, start, end);
+      return this;
+    }
+
+    @Override
+    public Appendable append(final char c) throws IOException {
+      if (buffer.length - pos < MAX_ESCAPED_CHAR_LENGTH) {
+        flush();
+      }
+      if (c >= ' ' && c != '"' && c != '\\') {
+        buffer[pos++] = c;
+      } else {
+        escape(c);
+      }
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return "StringEscaper{" + JsonWriter.this + '}';
+    }
+
+  }
+
+}
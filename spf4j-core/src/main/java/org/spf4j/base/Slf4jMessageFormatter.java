@@ -35,10 +35,16 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import gnu.trove.set.hash.THashSet;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.spf4j.concurrent.TwoGenerationCache;
+import org.spf4j.io.ObjectAppender;
 import org.spf4j.io.ObjectAppenderSupplier;
+import org.spf4j.io.Utf8ByteAppendable;
 
 /**
  * A more flexible implementation of the SLF4j message formatter (org.slf4j.helpers.MessageFormatter). the following
@@ -48,6 +54,9 @@ import org.spf4j.io.ObjectAppenderSupplier;
  * a custom formatter... 2) Lets you know which arguments have been used in the message allowing you to implement extra
  * logic to handle the unused ones 3) Lets you plug custom formatters for argument types. (you can get better
  * performance and more flexibility) 4) Processing arguments that are arrays is sligtly faster than the slf4j formatter.
+ * 5) Message patterns are parsed once into literal segments and cached (the most recently used
+ * spf4j.slf4jMessageFormatter.maxPatterns patterns, no longer than spf4j.slf4jMessageFormatter.maxPatternLength),
+ * formatting a cached pattern does not scan the pattern anymore.
  *
  * @author zoly
  */
@@ -57,6 +66,14 @@ public final class Slf4jMessageFormatter {
   private static final String DELIM_STR = "{}";
   private static final char ESCAPE_CHAR = '\\';
 
+  private static final int MAX_CACHED_PATTERNS = Integer.getInteger("spf4j.slf4jMessageFormatter.maxPatterns", 4096);
+
+  private static final int MAX_CACHED_PATTERN_LENGTH
+          = Integer.getInteger("spf4j.slf4jMessageFormatter.maxPatternLength", 1024);
+
+  private static final TwoGenerationCache<String, CompiledPattern> PATTERNS
+          = new TwoGenerationCache<>(MAX_CACHED_PATTERNS);
+
 
   public interface ErrorHandler {
     void accept(Object obj, Appendable sbuf, Throwable t) throws IOException;
@@ -161,6 +178,10 @@ public final class Slf4jMessageFormatter {
 
 
   public static int getFormatParameterNumber(@Nonnull final String messagePattern) {
+    CompiledPattern compiled = getCompiled(messagePattern);
+    if (compiled != null) {
+      return compiled.getNrPlaceholders();
+    }
     int nrParams = 0;
     int i = 0;
     int j;
@@ -204,6 +225,10 @@ public final class Slf4jMessageFormatter {
           @Nonnull final Appendable to, @Nonnull final String messagePattern,
           @Nonnull final ObjectAppenderSupplier appSupplier, final Object... argArray)
           throws IOException {
+    CompiledPattern compiled = getCompiled(messagePattern);
+    if (compiled != null) {
+      return compiled.format(exHandler, firstArgIdx, to, appSupplier, argArray);
+    }
     int i = 0;
     final int len = argArray.length;
     int k = firstArgIdx;
@@ -219,7 +244,7 @@ public final class Slf4jMessageFormatter {
             // itself escaped: "abc x:\\{}"
             // we have to consume one backward slash
             to.append(messagePattern, i, j - 1);
-            deeplyAppendParameter(exHandler, to, argArray[k], new THashSet<>(), appSupplier);
+            deeplyAppendParameter(exHandler, to, argArray[k], null, appSupplier);
             i = j + 2;
           } else {
             k--; // DELIM_START was escaped, thus should not be incremented
@@ -230,7 +255,7 @@ public final class Slf4jMessageFormatter {
         } else {
           // normal case
           to.append(messagePattern, i, j);
-          deeplyAppendParameter(exHandler, to, argArray[k], new THashSet<>(), appSupplier);
+          deeplyAppendParameter(exHandler, to, argArray[k], null, appSupplier);
           i = j + 2;
         }
       }
@@ -240,6 +265,92 @@ public final class Slf4jMessageFormatter {
     return k;
   }
 
+  /**
+   * @return the compiled pattern, or null if the pattern is too long to be cached.
+   */
+  @Nullable
+  private static CompiledPattern getCompiled(final String messagePattern) {
+    if (messagePattern.length() > MAX_CACHED_PATTERN_LENGTH) {
+      return null;
+    }
+    return PATTERNS.computeIfAbsent(messagePattern, CompiledPattern::compile);
+  }
+
+  /**
+   * A parsed message pattern. literals[i] is the text preceding placeholder i (with escapes resolved),
+   * literals[nrPlaceholders] is the trailing text. When the arguments are exhausted at placeholder i, the rest
+   * of the pattern is appended unprocessed starting at rawResume[i], same as the scanning formatter does.
+   */
+  private static final class CompiledPattern {
+
+    private final String pattern;
+
+    private final String[] literals;
+
+    private final int[] rawResume;
+
+    private CompiledPattern(final String pattern, final String[] literals, final int[] rawResume) {
+      this.pattern = pattern;
+      this.literals = literals;
+      this.rawResume = rawResume;
+    }
+
+    static CompiledPattern compile(final String messagePattern) {
+      List<String> literals = new ArrayList<>(4);
+      int[] rawResume = new int[4];
+      int nrPlaceholders = 0;
+      StringBuilder current = new StringBuilder(messagePattern.length());
+      int i = 0;
+      int j;
+      while ((j = messagePattern.indexOf(DELIM_STR, i)) >= 0) {
+        if (isEscapedDelimeter(messagePattern, j) && !isDoubleEscaped(messagePattern, j)) {
+          current.append(messagePattern, i, j - 1);
+          current.append(DELIM_START);
+          i = j + 1;
+        } else {
+          current.append(messagePattern, i, isEscapedDelimeter(messagePattern, j) ? j - 1 : j);
+          literals.add(current.toString());
+          current.setLength(0);
+          if (nrPlaceholders >= rawResume.length) {
+            rawResume = Arrays.copyOf(rawResume, rawResume.length * 2);
+          }
+          i = j + 2;
+          rawResume[nrPlaceholders++] = i;
+        }
+      }
+      current.append(messagePattern, i, messagePattern.length());
+      literals.add(current.toString());
+      return new CompiledPattern(messagePattern, literals.toArray(new String[literals.size()]),
+              Arrays.copyOf(rawResume, nrPlaceholders));
+    }
+
+    int getNrPlaceholders() {
+      return rawResume.length;
+    }
+
+    int format(final ErrorHandler exHandler, final int firstArgIdx,
+            final Appendable to, final ObjectAppenderSupplier appSupplier, final Object... argArray)
+            throws IOException {
+      final int len = argArray.length;
+      int k = firstArgIdx;
+      if (k >= len) {
+        to.append(pattern);
+        return k;
+      }
+      for (int m = 0, l = rawResume.length; m < l; m++) {
+        to.append(literals[m]);
+        deeplyAppendParameter(exHandler, to, argArray[k++], null, appSupplier);
+        if (k >= len) {
+          to.append(pattern, rawResume[m], pattern.length());
+          return k;
+        }
+      }
+      to.append(literals[rawResume.length]);
+      return k;
+    }
+
+  }
+
   private static boolean isEscapedDelimeter(final String messagePattern, final int delimeterStartIndex) {
     if (delimeterStartIndex == 0) {
       return false;
@@ -254,7 +365,7 @@ public final class Slf4jMessageFormatter {
   // special treatment of array values was suggested by 'lizongbo'
   @SuppressFBWarnings("ITC_INHERITANCE_TYPE_CHECKING")
   private static void deeplyAppendParameter(final ErrorHandler exHandler, final Appendable sbuf, final Object o,
-          final Set<Object[]> seen, final ObjectAppenderSupplier appSupplier) throws IOException {
+          @Nullable final Set<Object[]> seen, final ObjectAppenderSupplier appSupplier) throws IOException {
     if (o == null) {
       sbuf.append("null");
       return;
@@ -287,10 +398,32 @@ public final class Slf4jMessageFormatter {
   }
 
   @SuppressWarnings("unchecked")
+  @SuppressFBWarnings("ITC_INHERITANCE_TYPE_CHECKING")
   public static void safeObjectAppend(final ErrorHandler exHandler, final Appendable sbuf, final Object obj,
           final ObjectAppenderSupplier appSupplier) throws IOException {
     try {
-      appSupplier.get((Class) obj.getClass()).append(obj, sbuf, appSupplier);
+      ObjectAppender appender = appSupplier.get((Class) obj.getClass());
+      if (appender == ObjectAppender.TOSTRING_APPENDER) {
+        // skip the toString indirection for the most common argument types.
+        if (obj instanceof String) {
+          sbuf.append((String) obj);
+          return;
+        } else if (sbuf instanceof StringBuilder) {
+          if (obj instanceof Integer) {
+            ((StringBuilder) sbuf).append(((Integer) obj).intValue());
+            return;
+          } else if (obj instanceof Long) {
+            ((StringBuilder) sbuf).append(((Long) obj).longValue());
+            return;
+          }
+        } else if (sbuf instanceof Utf8ByteAppendable.JsonStringEscaper) {
+          if (obj instanceof Integer || obj instanceof Long) {
+            ((Utf8ByteAppendable.JsonStringEscaper) sbuf).append(((Number) obj).longValue());
+            return;
+          }
+        }
+      }
+      appender.append(obj, sbuf, appSupplier);
     } catch (IOException | RuntimeException | StackOverflowError t) {
       exHandler.accept(obj, sbuf, t);
     }
@@ -299,8 +432,9 @@ public final class Slf4jMessageFormatter {
 
   @SuppressFBWarnings("ABC_ARRAY_BASED_COLLECTIONS")
   private static void objectArrayAppend(final ErrorHandler exHandler, final Appendable sbuf,
-          final Object[] a, final Set<Object[]> seen,
+          final Object[] a, @Nullable final Set<Object[]> pSeen,
           final ObjectAppenderSupplier appSupplier) throws IOException {
+    Set<Object[]> seen = pSeen == null ? new THashSet<>() : pSeen;
     sbuf.append('[');
     if (seen.add(a)) {
       final int len = a.length;
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A small bounded concurrent cache with approximate LRU eviction.
+ * Entries are added to the current generation, when the current generation is full it becomes the previous
+ * generation (the old previous generation is dropped), entries found in the previous generation are promoted
+ * to the current one. Reads of recently used entries are a single ConcurrentHashMap lookup.
+ * The cache will hold at most maxSize entries (modulo concurrent insertions during a generation switch).
+ *
+ * @author Zoltan Farkas
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class TwoGenerationCache<K, V> {
+
+  private final int generationSize;
+
+  private volatile ConcurrentHashMap<K, V> current;
+
+  private volatile ConcurrentHashMap<K, V> previous;
+
+  public TwoGenerationCache(final int maxSize) {
+    if (maxSize < 2) {
+      throw new IllegalArgumentException("Invalid max size " + maxSize);
+    }
+    this.generationSize = maxSize / 2;
+    this.current = new ConcurrentHashMap<>();
+    this.previous = new ConcurrentHashMap<>();
+  }
+
+  @Nullable
+  public V get(final K key) {
+    V value = current.get(key);
+    if (value == null) {
+      value = previous.get(key);
+      if (value != null) {
+        add(key, value);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Get the cached value or compute and cache it.
+   * The computation is not locked, concurrent callers might compute the same value multiple times.
+   */
+  public V computeIfAbsent(final K key, final Function<? super K, ? extends V> function) {
+    V value = get(key);
+    if (value == null) {
+      value = function.apply(key);
+      add(key, value);
+    }
+    return value;
+  }
+
+  private void add(final K key, final V value) {
+    ConcurrentHashMap<K, V> cur = current;
+    cur.put(key, value);
+    if (cur.size() >= generationSize) {
+      synchronized (this) {
+        if (current == cur) {
+          previous = cur;
+          current = new ConcurrentHashMap<>();
+        }
+      }
+    }
+  }
+
+  public int size() {
+    return current.size() + previous.size();
+  }
+
+  public void clear() {
+    synchronized (this) {
+      current = new ConcurrentHashMap<>();
+      previous = new ConcurrentHashMap<>();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "TwoGenerationCache{" + "generationSize=" + generationSize + ", size=" + size() + '}';
+  }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+import org.spf4j.base.AppendableUtils;
+import org.spf4j.base.JsonWriteable;
+
+/**
+ * A 128 bit unique id: a node id (64 bit hash of MAC, pid, process start time) and a 64 bit sequence value.
+ * (see UIDGenerator.nextUID)
+ *
+ * The text form is [prefix][node base64url, 11 chars][sequence base64url, 11 chars], it is rendered only when needed:
+ * length and charAt do not render the text, toString renders it once.
+ * The text can also be written to a Appendable or a byte buffer without creating a String.
+ *
+ * @author Zoltan Farkas
+ */
+@Immutable
+@ParametersAreNonnullByDefault
+public final class UID implements CharSequence, Comparable<UID>, JsonWriteable, Serializable {
+
+  /** nr of characters needed to encode a long in base64url. */
+  public static final int B64_LONG_CHARS = 11;
+
+  /** nr of characters needed to encode a long in Crockford base32. */
+  public static final int B32_LONG_CHARS = 13;
+
+  private static final long serialVersionUID = 1L;
+
+  private static final char[] B64_URL =
+          "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+  private static final char[] CROCKFORD32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+  /** [prefix][node base64url], shared by all ids of a generator. */
+  private final String base;
+
+  private final long node;
+
+  private final long sequence;
+
+  private transient String text;
+
+  UID(final String base, final long node, final long sequence) {
+    this.base = base;
+    this.node = node;
+    this.sequence = sequence;
+  }
+
+  public static UID of(final String prefix, final long node, final long sequence) {
+    StringBuilder sb = new StringBuilder(prefix.length() + B64_LONG_CHARS);
+    sb.append(prefix);
+    try {
+      appendBase64Url(node, sb);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return new UID(sb.toString(), node, sequence);
+  }
+
+  /**
+   * @return the UID with the binary representation from a byte array. (see writeTo)
+   */
+  public static UID fromBytes(final String prefix, final byte[] bytes, final int offset) {
+    return of(prefix, getLong(bytes, offset), getLong(bytes, offset + 8));
+  }
+
+  public long getNode() {
+    return node;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return the text prefix of this id.
+   */
+  public String getPrefix() {
+    return base.substring(0, base.length() - B64_LONG_CHARS);
+  }
+
+  @Override
+  public int length() {
+    return base.length() + B64_LONG_CHARS;
+  }
+
+  @Override
+  public char charAt(final int index) {
+    int bl = base.length();
+    if (index < bl) {
+      return base.charAt(index);
+    }
+    int idx = index - bl;
+    if (idx >= B64_LONG_CHARS) {
+      throw new IndexOutOfBoundsException("Invalid index " + index + " for " + this);
+    }
+    return B64_URL[(int) (sequence >>> (60 - idx * 6)) & 0x3F];
+  }
+
+  @Override
+  public CharSequence subSequence(final int start, final int end) {
+    return toString().subSequence(start, end);
+  }
+
+  /**
+   * Append the text form to a Appendable.
+   */
+  public void appendTo(final Appendable to) throws IOException {
+    String t = text;
+    if (t != null) {
+      to.append(t);
+    } else {
+      to.append(base);
+      appendBase64Url(sequence, to);
+    }
+  }
+
+  /**
+   * Write the text form as a json string.
+   */
+  @Override
+  public void writeJsonTo(final Appendable appendable) throws IOException {
+    appendable.append('"');
+    AppendableUtils.escapeJsonString(base, appendable);
+    appendBase64Url(sequence, appendable);
+    appendable.append('"');
+  }
+
+  /**
+   * Append the Crockford base32 form ([prefix][node][sequence], 26 chars after the prefix) to a Appendable.
+   * Unlike the base64url form, the Crockford form of the ids of a node sort in the sequence order.
+   */
+  public void appendCrockford32To(final Appendable to) throws IOException {
+    to.append(base, 0, base.length() - B64_LONG_CHARS);
+    appendCrockford32(node, to);
+    appendCrockford32(sequence, to);
+  }
+
+  /**
+   * Write the ascii text form into a byte array.
+   * @return the number of bytes written.
+   */
+  public int writeTextTo(final byte[] to, final int offset) {
+    int bl = base.length();
+    int pos = offset;
+    for (int i = 0; i < bl; i++) {
+      to[pos++] = (byte) base.charAt(i);
+    }
+    for (int shift = 60; shift >= 0; shift -= 6) {
+      to[pos++] = (byte) B64_URL[(int) (sequence >>> shift) & 0x3F];
+    }
+    return pos - offset;
+  }
+
+  /**
+   * Write the ascii text form into a byte buffer.
+   */
+  public void writeTextTo(final ByteBuffer to) {
+    int bl = base.length();
+    for (int i = 0; i < bl; i++) {
+      to.put((byte) base.charAt(i));
+    }
+    for (int shift = 60; shift >= 0; shift -= 6) {
+      to.put((byte) B64_URL[(int) (sequence >>> shift) & 0x3F]);
+    }
+  }
+
+  /**
+   * Write the 16 byte binary form (node, sequence, big endian) into a byte array.
+   */
+  public void writeTo(final byte[] to, final int offset) {
+    putLong(node, to, offset);
+    putLong(sequence, to, offset + 8);
+  }
+
+  /**
+   * Write the 16 byte binary form (node, sequence, big endian) into a byte buffer.
+   */
+  public void writeTo(final ByteBuffer to) {
+    to.putLong(node);
+    to.putLong(sequence);
+  }
+
+  /**
+   * Append a long as 11 base64url characters. (the first char encodes only 4 bits)
+   */
+  public static void appendBase64Url(final long value, final Appendable to) throws IOException {
+    for (int shift = 60; shift >= 0; shift -= 6) {
+      to.append(B64_URL[(int) (value >>> shift) & 0x3F]);
+    }
+  }
+
+  /**
+   * Append a long as 13 Crockford base32 characters. (the first char encodes only 4 bits)
+   */
+  public static void appendCrockford32(final long value, final Appendable to) throws IOException {
+    to.append(CROCKFORD32[(int) (value >>> 60)]);
+    for (int shift = 55; shift >= 0; shift -= 5) {
+      to.append(CROCKFORD32[(int) (value >>> shift) & 0x1F]);
+    }
+  }
+
+  private static void putLong(final long value, final byte[] to, final int offset) {
+    for (int i = 7; i >= 0; i--) {
+      to[offset + 7 - i] = (byte) (value >>> (i << 3));
+    }
+  }
+
+  private static long getLong(final byte[] from, final int offset) {
+    long result = 0;
+    for (int i = 0; i < 8; i++) {
+      result = (result << 8) | (from[offset + i] & 0xFFL);
+    }
+    return result;
+  }
+
+  @Override
+  public int compareTo(final UID o) {
+    int c = Long.compareUnsigned(node, o.node);
+    if (c != 0) {
+      return c;
+    }
+    return Long.compareUnsigned(sequence, o.sequence);
+  }
+
+  @Override
+  public int hashCode() {
+    long h = node * 31 + sequence;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass()) {
+      return false;
+    }
+    final UID other = (UID) obj;
+    return this.node == other.node && this.sequence == other.sequence && this.base.equals(other.base);
+  }
+
+  @Override
+  @Nonnull
+  public String toString() {
+    String t = text;
+    if (t == null) {
+      char[] chars = new char[length()];
+      int bl = base.length();
+      base.getChars(0, bl, chars, 0);
+      int pos = bl;
+      for (int shift = 60; shift >= 0; shift -= 6) {
+        chars[pos++] = B64_URL[(int) (sequence >>> shift) & 0x3F];
+      }
+      t = new String(chars);
+      text = t;
+    }
+    return t;
+  }
+
+}
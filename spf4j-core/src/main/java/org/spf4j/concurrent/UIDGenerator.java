@@ -33,6 +33,7 @@ package org.spf4j.concurrent;
 
 import com.google.common.io.BaseEncoding;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
@@ -51,6 +52,9 @@ import org.spf4j.os.ProcessUtil;
  * (encoded with provided encoder) 2. process id is used + current epoch seconds. it is assumed the PID is not recycled
  * within a second. 3. A process sequence is used. UIDs will cycle after Long.MaxValue is reached.
  *
+ * nextUID returns a binary UID (a 64 bit hash of the text base above and the sequence value) that is rendered
+ * to text only when needed, and is cheaper to generate than the text ids returned by next().
+ *
  * @author zoly
  */
 @ParametersAreNonnullByDefault
@@ -62,6 +66,11 @@ public final class UIDGenerator implements Supplier<CharSequence> {
 
   private final int maxSize;
 
+  private final long node;
+
+  /** prefix + base64url(node), shared by the generated UIDs. */
+  private final String uidBase;
+
   public UIDGenerator(final Sequence sequence) {
     this(sequence, 0);
   }
@@ -91,6 +100,35 @@ public final class UIDGenerator implements Supplier<CharSequence> {
     StringBuilder sb = generateIdBase(prefix, baseEncoding, separator, customEpoch);
     base = sb;
     maxSize = base.length() + 16;
+    node = hash(sb);
+    uidBase = prefix + uidNodeText(node);
+  }
+
+  private static String uidNodeText(final long node) {
+    StringBuilder sb = new StringBuilder(UID.B64_LONG_CHARS);
+    try {
+      UID.appendBase64Url(node, sb);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * 64 bit FNV-1a hash of the chars, with a murmur3 finalizer.
+   */
+  private static long hash(final CharSequence cs) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0, l = cs.length(); i < l; i++) {
+      h ^= cs.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
   }
 
   public static StringBuilder generateIdBase(final String prefix,
@@ -166,6 +204,28 @@ public final class UIDGenerator implements Supplier<CharSequence> {
     return result;
   }
 
+  /**
+   * @return the next binary id, the only allocation is the UID object itself.
+   */
+  public UID nextUID() {
+    return new UID(uidBase, node, sequence.next());
+  }
+
+  /**
+   * Append the text form of the next binary id to a Appendable, without allocating.
+   */
+  public void appendNextUID(final Appendable to) throws IOException {
+    to.append(uidBase);
+    UID.appendBase64Url(sequence.next(), to);
+  }
+
+  /**
+   * @return the node id of the binary ids generated by this generator.
+   */
+  public long getNode() {
+    return node;
+  }
+
   @Override
   public String toString() {
     return "UIDGenerator{" + "sequence=" + sequence + ", base=" + base + ", maxSize=" + maxSize + '}';
@@ -60,6 +60,10 @@ import org.spf4j.base.UncheckedExecutionException;
  * CacheBenchmark.spf4j2Cache thrpt 15 30567248.015 ± 807965.535 ops/s CacheBenchmark.spf4jCache thrpt 15 37961593.882 ±
  * 1136244.254 ops/s CacheBenchmark.spf4jRacyCache thrpt 15 37553655.751 ± 855349.501 ops/s
  *
+ * Hit throughput (ad-hoc, single thread, 1024 keys, JDK 8, Mops/s) compared with the bounded variants:
+ * guava unbounded 23-47, guava maximumSize 11-19, UnboundedLoadingCache 67-115, UnboundedLoadingCache2 60-76,
+ * UnboundedRacyLoadingCache 79-90, BoundedLoadingCache(maximumSize) 44-69.
+ *
  * @author zoly
  */
 @ParametersAreNonnullByDefault
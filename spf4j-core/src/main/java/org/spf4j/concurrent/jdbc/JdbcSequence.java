@@ -0,0 +1,300 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent.jdbc;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.UncheckedExecutionException;
+import org.spf4j.concurrent.DefaultExecutor;
+import org.spf4j.concurrent.Sequence;
+import org.spf4j.jdbc.JdbcTemplate;
+
+/**
+ * A cluster unique sequence backed by a database table (see SequenceTableDesc).
+ *
+ * Ranges of reserveSize values are reserved from the database, a range is split into stripes of stripeSize values
+ * that are handed to threads, and the values of a stripe are generated without any synchronization
+ * (like ScalableSequence). The next range is reserved asynchronously when half of the current range is handed out,
+ * so next() will not wait for the database unless the prefetch can't keep up.
+ *
+ * The generated values are unique across all the processes using the same sequence table and name,
+ * values are dense, except the unused values of the ranges/stripes reserved by a process that stops.
+ * The values are not monotonic across threads/processes.
+ *
+ * @author Zoltan Farkas
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class JdbcSequence implements Sequence {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JdbcSequence.class);
+
+  private final JdbcTemplate jdbc;
+
+  private final String name;
+
+  private final long initialValue;
+
+  private final long reserveSize;
+
+  private final int stripeSize;
+
+  private final int jdbcTimeoutSeconds;
+
+  private final ExecutorService prefetchExecutor;
+
+  private final String reserveSql;
+
+  private final String selectSql;
+
+  private final String insertSql;
+
+  private final ThreadLocal<Stripe> stripes;
+
+  private final Object rangeSync;
+
+  private volatile Range range;
+
+  @GuardedBy("rangeSync")
+  @Nullable
+  private Future<Range> prefetch;
+
+  public JdbcSequence(final DataSource dataSource, final String name, final long reserveSize, final int stripeSize) {
+    this(dataSource, SequenceTableDesc.DEFAULT, name, 0L, reserveSize, stripeSize,
+            Integer.getInteger("spf4j.jdbc.sequence.jdbcTimeoutSeconds", 10), DefaultExecutor.INSTANCE);
+  }
+
+  /**
+   * Create a JDBC sequence, the sequence row is created (with initialValue) if it does not exist.
+   * Nothing is reserved until the first next() invocation.
+   *
+   * @param dataSource the data source with the sequence table.
+   * @param tableDesc the sequence table description.
+   * @param name the sequence name.
+   * @param initialValue the initial value of the sequence, used only when the sequence row does not exist.
+   * @param reserveSize the number of values reserved from the database at a time.
+   * @param stripeSize the number of values handed to a thread at a time.
+   * @param jdbcTimeoutSeconds the timeout for the range reservation.
+   * @param prefetchExecutor the executor to reserve the next range with.
+   */
+  @SuppressFBWarnings("STT_TOSTRING_STORED_IN_FIELD")
+  public JdbcSequence(final DataSource dataSource, final SequenceTableDesc tableDesc,
+          final String name, final long initialValue, final long reserveSize, final int stripeSize,
+          final int jdbcTimeoutSeconds, final ExecutorService prefetchExecutor) {
+    if (stripeSize < 1 || reserveSize < stripeSize) {
+      throw new IllegalArgumentException("Invalid reserve size " + reserveSize + " and stripe size " + stripeSize);
+    }
+    this.jdbc = new JdbcTemplate(dataSource);
+    this.name = name;
+    this.initialValue = initialValue;
+    this.reserveSize = reserveSize;
+    this.stripeSize = stripeSize;
+    this.jdbcTimeoutSeconds = jdbcTimeoutSeconds;
+    this.prefetchExecutor = prefetchExecutor;
+    String tableName = tableDesc.getTableName();
+    String nameColumn = tableDesc.getSequenceNameColumn();
+    String nextValueColumn = tableDesc.getNextValueColumn();
+    String lastUpdatedByColumn = tableDesc.getLastUpdatedByColumn();
+    String lastUpdatedAtColumn = tableDesc.getLastUpdatedAtColumn();
+    String currentTimeMillisFunc = tableDesc.getDbType().getCurrTSSqlFn();
+    this.reserveSql = "UPDATE " + tableName + " SET " + nextValueColumn + " = " + nextValueColumn + " + ?, "
+            + lastUpdatedByColumn + " = ?, " + lastUpdatedAtColumn + " = " + currentTimeMillisFunc
+            + " WHERE " + nameColumn + " = ?";
+    this.selectSql = "SELECT " + nextValueColumn + " FROM " + tableName + " WHERE " + nameColumn + " = ?";
+    this.insertSql = "INSERT INTO " + tableName + " (" + nameColumn + ',' + nextValueColumn + ','
+            + lastUpdatedByColumn + ',' + lastUpdatedAtColumn + ") VALUES (?, ?, ?, " + currentTimeMillisFunc + ')';
+    this.rangeSync = new Object();
+    this.range = new Range(0, 0);
+    this.prefetch = null;
+    this.stripes = ThreadLocal.withInitial(Stripe::new);
+  }
+
+  /**
+   * @return the next value.
+   * @throws UncheckedExecutionException if a range cannot be reserved.
+   */
+  @Override
+  public long next() {
+    Stripe stripe = stripes.get();
+    if (stripe.current < stripe.end) {
+      return stripe.current++;
+    }
+    return nextStripe(stripe);
+  }
+
+  private long nextStripe(final Stripe stripe) {
+    while (true) {
+      Range r = range;
+      long start = r.next.getAndAdd(stripeSize);
+      if (start < r.end) {
+        long end = Math.min(start + stripeSize, r.end);
+        if (start <= r.prefetchAt && r.prefetchAt < end) {
+          startPrefetch();
+        }
+        stripe.current = start + 1;
+        stripe.end = end;
+        return start;
+      }
+      nextRange(r);
+    }
+  }
+
+  private void startPrefetch() {
+    synchronized (rangeSync) {
+      if (prefetch == null) {
+        prefetch = prefetchExecutor.submit(this::reserve);
+      }
+    }
+  }
+
+  private void nextRange(final Range exhausted) {
+    synchronized (rangeSync) {
+      if (range != exhausted) {
+        return;
+      }
+      Future<Range> pf = prefetch;
+      prefetch = null;
+      Range newRange = null;
+      if (pf != null) {
+        try {
+          newRange = pf.get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new UncheckedExecutionException(ex);
+        } catch (ExecutionException ex) {
+          LOG.warn("Failed to prefetch range for {}, retrying", name, ex.getCause());
+        }
+      }
+      if (newRange == null) {
+        try {
+          newRange = reserve();
+        } catch (SQLException ex) {
+          throw new UncheckedExecutionException(ex);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new UncheckedExecutionException(ex);
+        }
+      }
+      range = newRange;
+    }
+  }
+
+  /**
+   * Reserve a range of reserveSize values.
+   */
+  Range reserve() throws SQLException, InterruptedException {
+    try {
+      return jdbc.transactOnConnection(this::reserveRange, jdbcTimeoutSeconds, TimeUnit.SECONDS);
+    } catch (SQLIntegrityConstraintViolationException ex) {
+      try {
+        // RACE condition while creating the row, the row exists now.
+        return jdbc.transactOnConnection(this::reserveRange, jdbcTimeoutSeconds, TimeUnit.SECONDS);
+      } catch (SQLException ex1) {
+        ex1.addSuppressed(ex);
+        throw ex1;
+      }
+    }
+  }
+
+  private Range reserveRange(final Connection conn, final long deadlineNanos) throws SQLException {
+    try (PreparedStatement update = conn.prepareStatement(reserveSql)) {
+      update.setLong(1, reserveSize);
+      update.setNString(2, org.spf4j.base.Runtime.PROCESS_ID);
+      update.setNString(3, name);
+      update.setQueryTimeout(JdbcTemplate.getTimeoutToDeadlineSeconds(deadlineNanos));
+      if (update.executeUpdate() == 0) {
+        try (PreparedStatement insert = conn.prepareStatement(insertSql)) {
+          insert.setNString(1, name);
+          insert.setLong(2, initialValue + reserveSize);
+          insert.setNString(3, org.spf4j.base.Runtime.PROCESS_ID);
+          insert.setQueryTimeout(JdbcTemplate.getTimeoutToDeadlineSeconds(deadlineNanos));
+          insert.executeUpdate();
+        }
+        return new Range(initialValue, initialValue + reserveSize);
+      }
+    }
+    try (PreparedStatement select = conn.prepareStatement(selectSql)) {
+      select.setNString(1, name);
+      select.setQueryTimeout(JdbcTemplate.getTimeoutToDeadlineSeconds(deadlineNanos));
+      try (ResultSet rs = select.executeQuery()) {
+        if (!rs.next()) {
+          throw new IllegalStateException("Sequence row dissapeared for " + name);
+        }
+        long end = rs.getLong(1);
+        return new Range(end - reserveSize, end);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "JdbcSequence{" + "name=" + name + ", reserveSize=" + reserveSize + ", stripeSize=" + stripeSize
+            + ", range=" + range + '}';
+  }
+
+  /**
+   * A reserved range of values [next, end).
+   */
+  static final class Range {
+
+    private final AtomicLong next;
+
+    private final long end;
+
+    /** when the stripe containing this value is handed out, the next range is prefetched. */
+    private final long prefetchAt;
+
+    Range(final long start, final long end) {
+      this.next = new AtomicLong(start);
+      this.end = end;
+      this.prefetchAt = start + (end - start) / 2;
+    }
+
+    @Override
+    public String toString() {
+      return "Range{" + "next=" + next + ", end=" + end + '}';
+    }
+  }
+
+  private static final class Stripe {
+
+    private long current;
+
+    private long end;
+
+    @Override
+    public String toString() {
+      return "Stripe{" + "current=" + current + ", end=" + end + '}';
+    }
+  }
+
+}
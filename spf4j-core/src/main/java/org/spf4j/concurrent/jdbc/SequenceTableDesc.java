@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent.jdbc;
+
+import java.io.Serializable;
+import java.util.Objects;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+import org.spf4j.jdbc.DbType;
+import org.spf4j.jdbc.JdbcTemplate;
+
+/*
+ * CREATE TABLE SEQUENCES (
+ *  SEQUENCE_NAME VARCHAR(255) NOT NULL PRIMARY KEY,
+ *  NEXT_VALUE BIGINT NOT NULL,
+ *  LAST_UPDATED_BY VARCHAR(255) NOT NULL,
+ *  LAST_UPDATED_AT BIGINT NOT NULL
+ * );
+ *
+ * Table description for storing sequences. (see JdbcSequence)
+ * SEQUENCE_NAME - the sequence name.
+ * NEXT_VALUE - the first value not reserved yet.
+ * LAST_UPDATED_BY - the process that reserved the last range.
+ * LAST_UPDATED_AT - the millis since epoch when the last range was reserved.
+ */
+@ParametersAreNonnullByDefault
+@Immutable
+public final class SequenceTableDesc implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final SequenceTableDesc DEFAULT = new SequenceTableDesc(
+          System.getProperty("spf4j.jdbc.sequence.sql.tableName", "SEQUENCES"),
+          System.getProperty("spf4j.jdbc.sequence.sql.sequenceNameColumn", "SEQUENCE_NAME"),
+          System.getProperty("spf4j.jdbc.sequence.sql.nextValueColumn", "NEXT_VALUE"),
+          System.getProperty("spf4j.jdbc.sequence.sql.lastUpdatedByColumn", "LAST_UPDATED_BY"),
+          System.getProperty("spf4j.jdbc.sequence.sql.lastUpdatedAtColumn", "LAST_UPDATED_AT"),
+          DbType.valueOf(System.getProperty("spf4j.jdbc.sequence.sql.dbType", "H2")));
+
+  private final String tableName;
+  private final String sequenceNameColumn;
+  private final String nextValueColumn;
+  private final String lastUpdatedByColumn;
+  private final String lastUpdatedAtColumn;
+  private final DbType dbType;
+
+  public SequenceTableDesc(final String tableName, final String sequenceNameColumn, final String nextValueColumn,
+          final String lastUpdatedByColumn, final String lastUpdatedAtColumn, final DbType dbType) {
+    JdbcTemplate.checkJdbcObjectName(tableName);
+    JdbcTemplate.checkJdbcObjectName(sequenceNameColumn);
+    JdbcTemplate.checkJdbcObjectName(nextValueColumn);
+    JdbcTemplate.checkJdbcObjectName(lastUpdatedByColumn);
+    JdbcTemplate.checkJdbcObjectName(lastUpdatedAtColumn);
+    this.tableName = tableName;
+    this.sequenceNameColumn = sequenceNameColumn;
+    this.nextValueColumn = nextValueColumn;
+    this.lastUpdatedByColumn = lastUpdatedByColumn;
+    this.lastUpdatedAtColumn = lastUpdatedAtColumn;
+    this.dbType = dbType;
+  }
+
+  public String getTableName() {
+    return tableName;
+  }
+
+  public String getSequenceNameColumn() {
+    return sequenceNameColumn;
+  }
+
+  public String getNextValueColumn() {
+    return nextValueColumn;
+  }
+
+  public String getLastUpdatedByColumn() {
+    return lastUpdatedByColumn;
+  }
+
+  public String getLastUpdatedAtColumn() {
+    return lastUpdatedAtColumn;
+  }
+
+  public DbType getDbType() {
+    return dbType;
+  }
+
+  public SequenceTableDesc withDbType(final DbType pdbType) {
+    return new SequenceTableDesc(tableName, sequenceNameColumn, nextValueColumn,
+            lastUpdatedByColumn, lastUpdatedAtColumn, pdbType);
+  }
+
+  @Override
+  public int hashCode() {
+    return tableName.hashCode();
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (obj == null) {
+      return false;
+    }
+    if (getClass() != obj.getClass()) {
+      return false;
+    }
+    final SequenceTableDesc other = (SequenceTableDesc) obj;
+    return Objects.equals(this.tableName, other.tableName)
+            && Objects.equals(this.sequenceNameColumn, other.sequenceNameColumn)
+            && Objects.equals(this.nextValueColumn, other.nextValueColumn)
+            && Objects.equals(this.lastUpdatedByColumn, other.lastUpdatedByColumn)
+            && Objects.equals(this.lastUpdatedAtColumn, other.lastUpdatedAtColumn)
+            && this.dbType == other.dbType;
+  }
+
+  @Override
+  public String toString() {
+    return "SequenceTableDesc{" + "tableName=" + tableName + ", sequenceNameColumn=" + sequenceNameColumn
+            + ", nextValueColumn=" + nextValueColumn + ", lastUpdatedByColumn=" + lastUpdatedByColumn
+            + ", lastUpdatedAtColumn=" + lastUpdatedAtColumn + ", dbType=" + dbType + '}';
+  }
+
+}
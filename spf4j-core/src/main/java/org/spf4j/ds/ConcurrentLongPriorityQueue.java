@@ -0,0 +1,385 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A thread safe priority queue with long priorities (lowest first), that allows efficient priority update and removal
+ * (O(log n)) via the element references returned by add. Made for deadline workloads (priority = deadline),
+ * priorities are compared without a Comparator and without boxing.
+ *
+ * The elements are stored in a binary heap guarded by a lock, adds do not block when the lock is held by another
+ * thread: the element is added to a lock free buffer, and the buffered elements are moved to the heap by the next
+ * lock holder before any heap read.
+ *
+ * See ConcurrentUpdateablePriorityQueue for the Comparator based variant.
+ *
+ * @author Zoltan Farkas
+ * @param <E> the type of the elements in the queue.
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class ConcurrentLongPriorityQueue<E> {
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+  private static final int REMOVED = -1;
+
+  private static final int IN_BUFFER = -2;
+
+  private final ReentrantLock lock;
+
+  private final ConcurrentLinkedQueue<ElementRef> pending;
+
+  private final AtomicInteger size;
+
+  @GuardedBy("lock")
+  private ElementRef[] heap;
+
+  @GuardedBy("lock")
+  private int heapSize;
+
+  public ConcurrentLongPriorityQueue() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  public ConcurrentLongPriorityQueue(final int initialCapacity) {
+    if (initialCapacity < 1) {
+      throw new IllegalArgumentException("Invalid initial capacity " + initialCapacity);
+    }
+    this.lock = new ReentrantLock();
+    this.pending = new ConcurrentLinkedQueue<>();
+    this.size = new AtomicInteger();
+    this.heap = (ElementRef[]) new ConcurrentLongPriorityQueue.ElementRef[initialCapacity];
+    this.heapSize = 0;
+  }
+
+  /**
+   * A reference to a queued element.
+   */
+  public final class ElementRef {
+
+    private final E elem;
+
+    private volatile long priority;
+
+    @GuardedBy("lock")
+    private int index;
+
+    ElementRef(final E elem, final long priority) {
+      this.elem = elem;
+      this.priority = priority;
+      this.index = IN_BUFFER;
+    }
+
+    public E getElem() {
+      return elem;
+    }
+
+    public long getPriority() {
+      return priority;
+    }
+
+    /**
+     * Update the priority of the element.
+     * @return false if the element is not in the queue anymore.
+     */
+    public boolean setPriority(final long newPriority) {
+      lock.lock();
+      try {
+        drainPending();
+        if (index < 0) {
+          return false;
+        }
+        long old = priority;
+        priority = newPriority;
+        if (newPriority < old) {
+          siftUp(index, this);
+        } else if (newPriority > old) {
+          siftDown(index, this);
+        }
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Remove the element from the queue.
+     * @return false if the element is not in the queue anymore.
+     */
+    public boolean remove() {
+      lock.lock();
+      try {
+        drainPending();
+        if (index < 0) {
+          return false;
+        }
+        removeAt(index);
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "ElementRef{" + "elem=" + elem + ", priority=" + priority + '}';
+    }
+
+  }
+
+  /**
+   * Add a element.
+   * @return the reference to the element, that can be used to update its priority or to remove it.
+   */
+  public ElementRef add(final E elem, final long priority) {
+    ElementRef ref = new ElementRef(elem, priority);
+    size.incrementAndGet();
+    if (lock.tryLock()) {
+      try {
+        drainPending();
+        insert(ref);
+      } finally {
+        lock.unlock();
+      }
+    } else {
+      pending.add(ref);
+    }
+    return ref;
+  }
+
+  /**
+   * @return the element with the lowest priority, or null if the queue is empty.
+   */
+  @Nullable
+  public E peek() {
+    lock.lock();
+    try {
+      drainPending();
+      return heapSize == 0 ? null : heap[0].elem;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the lowest priority in the queue, or defaultValue if the queue is empty.
+   */
+  public long peekPriority(final long defaultValue) {
+    lock.lock();
+    try {
+      drainPending();
+      return heapSize == 0 ? defaultValue : heap[0].priority;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the reference to the element with the lowest priority, or null if the queue is empty.
+   */
+  @Nullable
+  public ElementRef peekEntry() {
+    lock.lock();
+    try {
+      drainPending();
+      return heapSize == 0 ? null : heap[0];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * remove and return the element with the lowest priority.
+   * @return the element, or null if the queue is empty.
+   */
+  @Nullable
+  public E poll() {
+    lock.lock();
+    try {
+      drainPending();
+      if (heapSize == 0) {
+        return null;
+      }
+      E result = heap[0].elem;
+      removeAt(0);
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * remove and return the element with the lowest priority if its priority is &lt;= maxPriority.
+   * (for deadlines: pollIfPriorityAtMost(now) returns the next expired element)
+   * @return the element, or null if there is no element with a priority &lt;= maxPriority.
+   */
+  @Nullable
+  public E pollIfPriorityAtMost(final long maxPriority) {
+    lock.lock();
+    try {
+      drainPending();
+      if (heapSize == 0 || heap[0].priority > maxPriority) {
+        return null;
+      }
+      E result = heap[0].elem;
+      removeAt(0);
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * remove all elements with a priority &lt;= maxPriority, lowest first.
+   * @param to the consumer of the removed elements, invoked while holding the queue lock.
+   * @return the number of elements removed.
+   */
+  public int drainTo(final long maxPriority, final Consumer<? super E> to) {
+    int result = 0;
+    lock.lock();
+    try {
+      drainPending();
+      while (heapSize > 0 && heap[0].priority <= maxPriority) {
+        E elem = heap[0].elem;
+        removeAt(0);
+        to.accept(elem);
+        result++;
+      }
+    } finally {
+      lock.unlock();
+    }
+    return result;
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  public boolean isEmpty() {
+    return size.get() == 0;
+  }
+
+  public void clear() {
+    lock.lock();
+    try {
+      drainPending();
+      for (int i = 0; i < heapSize; i++) {
+        heap[i].index = REMOVED;
+        heap[i] = null;
+      }
+      size.addAndGet(-heapSize);
+      heapSize = 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @GuardedBy("lock")
+  private void drainPending() {
+    ElementRef ref;
+    while ((ref = pending.poll()) != null) {
+      insert(ref);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void insert(final ElementRef ref) {
+    int i = heapSize;
+    if (i >= heap.length) {
+      heap = Arrays.copyOf(heap, i < 64 ? (i + 1) * 2 : (i / 2) * 3);
+    }
+    heapSize = i + 1;
+    siftUp(i, ref);
+  }
+
+  @GuardedBy("lock")
+  private void removeAt(final int i) {
+    ElementRef removed = heap[i];
+    removed.index = REMOVED;
+    size.decrementAndGet();
+    int s = --heapSize;
+    if (s == i) {
+      heap[i] = null;
+    } else {
+      ElementRef moved = heap[s];
+      heap[s] = null;
+      siftDown(i, moved);
+      if (heap[i] == moved) {
+        siftUp(i, moved);
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  private void siftUp(final int idx, @Nonnull final ElementRef x) {
+    int k = idx;
+    long p = x.priority;
+    while (k > 0) {
+      int parent = (k - 1) >>> 1;
+      ElementRef e = heap[parent];
+      if (p >= e.priority) {
+        break;
+      }
+      heap[k] = e;
+      e.index = k;
+      k = parent;
+    }
+    heap[k] = x;
+    x.index = k;
+  }
+
+  @GuardedBy("lock")
+  private void siftDown(final int idx, @Nonnull final ElementRef x) {
+    int k = idx;
+    long p = x.priority;
+    int half = heapSize >>> 1;
+    while (k < half) {
+      int child = (k << 1) + 1;
+      ElementRef c = heap[child];
+      int right = child + 1;
+      if (right < heapSize && c.priority > heap[right].priority) {
+        child = right;
+        c = heap[child];
+      }
+      if (p <= c.priority) {
+        break;
+      }
+      heap[k] = c;
+      c.index = k;
+      k = child;
+    }
+    heap[k] = x;
+    x.index = k;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentLongPriorityQueue{" + "size=" + size + '}';
+  }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A thread safe priority queue (a concurrent UpdateablePriorityQueue), that allows efficient element update and removal
+ * (O(log n)) via the element references returned by add.
+ *
+ * The elements are stored in a binary heap guarded by a lock, adds do not block when the lock is held by another
+ * thread: the element is added to a lock free buffer, and the buffered elements are moved to the heap by the next
+ * lock holder before any heap read.
+ *
+ * See ConcurrentLongPriorityQueue for a variant with primitive long priorities.
+ *
+ * @author Zoltan Farkas
+ * @param <E> the type of the elements in the queue.
+ */
+@ThreadSafe
+@ParametersAreNonnullByDefault
+public final class ConcurrentUpdateablePriorityQueue<E> {
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+  private static final int REMOVED = -1;
+
+  private static final int IN_BUFFER = -2;
+
+  private final ReentrantLock lock;
+
+  private final ConcurrentLinkedQueue<ElementRef> pending;
+
+  private final AtomicInteger size;
+
+  private final Comparator<? super E> comparator;
+
+  @GuardedBy("lock")
+  private ElementRef[] heap;
+
+  @GuardedBy("lock")
+  private int heapSize;
+
+  public ConcurrentUpdateablePriorityQueue() {
+    this(DEFAULT_INITIAL_CAPACITY, null);
+  }
+
+  /**
+   * @param initialCapacity the initial heap capacity.
+   * @param comparator the element comparator, if null the natural order is used.
+   */
+  public ConcurrentUpdateablePriorityQueue(final int initialCapacity,
+          @Nullable final Comparator<? super E> comparator) {
+    if (initialCapacity < 1) {
+      throw new IllegalArgumentException("Invalid initial capacity " + initialCapacity);
+    }
+    this.lock = new ReentrantLock();
+    this.pending = new ConcurrentLinkedQueue<>();
+    this.size = new AtomicInteger();
+    this.heap = (ElementRef[]) new ConcurrentUpdateablePriorityQueue.ElementRef[initialCapacity];
+    this.heapSize = 0;
+    if (comparator == null) {
+      this.comparator = (Comparator<? super E>) Comparator.naturalOrder();
+    } else {
+      this.comparator = comparator;
+    }
+  }
+
+  /**
+   * A reference to a queued element.
+   */
+  public final class ElementRef {
+
+    private volatile E elem;
+
+    @GuardedBy("lock")
+    private int index;
+
+    ElementRef(final E elem) {
+      this.elem = elem;
+      this.index = IN_BUFFER;
+    }
+
+    public E getElem() {
+      return elem;
+    }
+
+    /**
+     * Replace the element.
+     * @return false if the element is not in the queue anymore.
+     */
+    public boolean setElem(final E newElem) {
+      lock.lock();
+      try {
+        drainPending();
+        if (index < 0) {
+          return false;
+        }
+        int compare = comparator.compare(elem, newElem);
+        elem = newElem;
+        if (compare > 0) {
+          siftUp(index, this);
+        } else if (compare < 0) {
+          siftDown(index, this);
+        }
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Restore the heap order after the element was mutated. the element must be mutated while holding the lock of
+     * this queue (see mutate), or when no other thread accesses it.
+     * @return false if the element is not in the queue anymore.
+     */
+    public boolean elementMutated() {
+      lock.lock();
+      try {
+        drainPending();
+        if (index < 0) {
+          return false;
+        }
+        int idx = index;
+        siftUp(idx, this);
+        if (idx == index) {
+          siftDown(idx, this);
+        }
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Mutate the element while holding the lock of this queue, and restore the heap order.
+     * @return false if the element is not in the queue anymore. (and the mutator was not invoked)
+     */
+    public boolean mutate(final Consumer<? super E> mutator) {
+      lock.lock();
+      try {
+        drainPending();
+        if (index < 0) {
+          return false;
+        }
+        mutator.accept(elem);
+        int idx = index;
+        siftUp(idx, this);
+        if (idx == index) {
+          siftDown(idx, this);
+        }
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Remove the element from the queue.
+     * @return false if the element is not in the queue anymore.
+     */
+    public boolean remove() {
+      lock.lock();
+      try {
+        drainPending();
+        if (index < 0) {
+          return false;
+        }
+        removeAt(index);
+        return true;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "ElementRef{" + "elem=" + elem + '}';
+    }
+
+  }
+
+  /**
+   * Add a element.
+   * @return the reference to the element, that can be used to update or to remove it.
+   */
+  public ElementRef add(final E elem) {
+    ElementRef ref = new ElementRef(elem);
+    size.incrementAndGet();
+    if (lock.tryLock()) {
+      try {
+        drainPending();
+        insert(ref);
+      } finally {
+        lock.unlock();
+      }
+    } else {
+      pending.add(ref);
+    }
+    return ref;
+  }
+
+  /**
+   * @return the head (lowest) element, or null if the queue is empty.
+   */
+  @Nullable
+  public E peek() {
+    lock.lock();
+    try {
+      drainPending();
+      return heapSize == 0 ? null : heap[0].elem;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the reference to the head element, or null if the queue is empty.
+   */
+  @Nullable
+  public ElementRef peekEntry() {
+    lock.lock();
+    try {
+      drainPending();
+      return heapSize == 0 ? null : heap[0];
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * remove and return the head element.
+   * @return the element, or null if the queue is empty.
+   */
+  @Nullable
+  public E poll() {
+    lock.lock();
+    try {
+      drainPending();
+      if (heapSize == 0) {
+        return null;
+      }
+      E result = heap[0].elem;
+      removeAt(0);
+      return result;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  public boolean isEmpty() {
+    return size.get() == 0;
+  }
+
+  public void clear() {
+    lock.lock();
+    try {
+      drainPending();
+      for (int i = 0; i < heapSize; i++) {
+        heap[i].index = REMOVED;
+        heap[i] = null;
+      }
+      size.addAndGet(-heapSize);
+      heapSize = 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @GuardedBy("lock")
+  private void drainPending() {
+    ElementRef ref;
+    while ((ref = pending.poll()) != null) {
+      insert(ref);
+    }
+  }
+
+  @GuardedBy("lock")
+  private void insert(final ElementRef ref) {
+    int i = heapSize;
+    if (i >= heap.length) {
+      heap = Arrays.copyOf(heap, i < 64 ? (i + 1) * 2 : (i / 2) * 3);
+    }
+    heapSize = i + 1;
+    siftUp(i, ref);
+  }
+
+  @GuardedBy("lock")
+  private void removeAt(final int i) {
+    ElementRef removed = heap[i];
+    removed.index = REMOVED;
+    size.decrementAndGet();
+    int s = --heapSize;
+    if (s == i) {
+      heap[i] = null;
+    } else {
+      ElementRef moved = heap[s];
+      heap[s] = null;
+      siftDown(i, moved);
+      if (heap[i] == moved) {
+        siftUp(i, moved);
+      }
+    }
+  }
+
+  @GuardedBy("lock")
+  private void siftUp(final int idx, @Nonnull final ElementRef x) {
+    int k = idx;
+    E p = x.elem;
+    while (k > 0) {
+      int parent = (k - 1) >>> 1;
+      ElementRef e = heap[parent];
+      if (comparator.compare(p, e.elem) >= 0) {
+        break;
+      }
+      heap[k] = e;
+      e.index = k;
+      k = parent;
+    }
+    heap[k] = x;
+    x.index = k;
+  }
+
+  @GuardedBy("lock")
+  private void siftDown(final int idx, @Nonnull final ElementRef x) {
+    int k = idx;
+    E p = x.elem;
+    int half = heapSize >>> 1;
+    while (k < half) {
+      int child = (k << 1) + 1;
+      ElementRef c = heap[child];
+      int right = child + 1;
+      if (right < heapSize && comparator.compare(c.elem, heap[right].elem) > 0) {
+        child = right;
+        c = heap[child];
+      }
+      if (comparator.compare(p, c.elem) <= 0) {
+        break;
+      }
+      heap[k] = c;
+      c.index = k;
+      k = child;
+    }
+    heap[k] = x;
+    x.index = k;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentUpdateablePriorityQueue{" + "size=" + size + '}';
+  }
+
+}
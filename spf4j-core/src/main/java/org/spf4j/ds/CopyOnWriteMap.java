@@ -35,6 +35,9 @@ import java.util.Set;
  * to read data from the Map, not to modify the Map. Therefore the operations that do not cause a change to this class
  * happen quickly and concurrently.
  *
+ * Every update copies the whole map, a burst of updates is quadratic. For large maps that receive update bursts
+ * use {@link CopyOnWritePersistentMap}, where a update copies only O(log32 n) trie nodes.
+ *
  * @author The Apache MINA Project (dev@mina.apache.org)
  * @version $Rev$, $Date$
  */
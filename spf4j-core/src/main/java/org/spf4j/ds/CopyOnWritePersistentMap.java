@@ -0,0 +1,316 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import com.google.common.collect.Maps;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A thread-safe map for read mostly use cases, like CopyOnWriteMap, where the content is a PersistentHashMap
+ * published via a volatile reference. Reads are lock free and see a immutable snapshot.
+ *
+ * Unlike CopyOnWriteMap, a update does not copy the whole map, it creates O(log32 n) new nodes and shares the rest
+ * with the previous snapshot, so a burst of updates is not quadratic. Batches of updates can be applied
+ * atomically with update(), where only the nodes created by the batch are mutated in place.
+ *
+ * Point reads (get, containsKey) on the trie are about 3x slower than a HashMap lookup. To keep them as fast as
+ * CopyOnWriteMap reads, once a snapshot has served as many trie reads as it has entries (and at least
+ * spf4j.cowPersistentMap.minReadsBeforeFlat), a flat HashMap copy of it is published next to the trie and serves
+ * all point reads until the next write. The O(n) copy is made at most once per write burst and is paid for by the
+ * reads that preceded it, the price is the memory of the flat copy for read mostly maps.
+ *
+ * Writes are serialized, null keys are not supported.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+public final class CopyOnWritePersistentMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+  private static final int MIN_READS_BEFORE_FLAT = Integer.getInteger("spf4j.cowPersistentMap.minReadsBeforeFlat", 64);
+
+  private volatile State<K, V> state;
+
+  /**
+   * the flat copy of the current state, null until published, writers clear it before publishing a new state.
+   */
+  @Nullable
+  private volatile HashMap<K, V> flat;
+
+  public CopyOnWritePersistentMap() {
+    this.state = new State<>(PersistentHashMap.empty());
+  }
+
+  public CopyOnWritePersistentMap(final Map<? extends K, ? extends V> data) {
+    this.state = new State<>(PersistentHashMap.of(data));
+  }
+
+  /**
+   * @return the current content, a immutable map.
+   */
+  public PersistentHashMap<K, V> snapshot() {
+    return state.trie;
+  }
+
+  /**
+   * @return a copy of this map, this is a fast operation.
+   */
+  public CopyOnWritePersistentMap<K, V> copy() {
+    return new CopyOnWritePersistentMap<>(state.trie);
+  }
+
+  /**
+   * Counts a point read served by the trie of a snapshot that has no flat copy,
+   * and publishes the flat copy once the snapshot has served enough reads.
+   * Point reads call this and read the trie out of line, to keep the flat copy read path small enough to be inlined.
+   * @return the trie to serve the read from.
+   */
+  private PersistentHashMap<K, V> trieRead(final State<K, V> current) {
+    PersistentHashMap<K, V> trie = current.trie;
+    // racy counter, lost increments only delay the flattening, every value up to the limit is seen by some reader.
+    if (++current.trieReads == Math.max(MIN_READS_BEFORE_FLAT, trie.size())) {
+      flatten(current);
+    }
+    return trie;
+  }
+
+  /**
+   * publishes a new state, must be called while holding this object's monitor.
+   */
+  private void publish(final PersistentHashMap<K, V> trie) {
+    flat = null;
+    state = new State<>(trie);
+  }
+
+  private void flatten(final State<K, V> current) {
+    PersistentHashMap<K, V> trie = current.trie;
+    HashMap<K, V> newFlat = Maps.newHashMapWithExpectedSize(trie.size());
+    trie.forEach(newFlat::put);
+    synchronized (this) {
+      if (state == current) {
+        flat = newFlat;
+      }
+    }
+  }
+
+  private boolean trieContainsKey(final State<K, V> current, final Object key) {
+    return trieRead(current).containsKey(key);
+  }
+
+  @Nullable
+  private V trieGet(final State<K, V> current, final Object key) {
+    return trieRead(current).get(key);
+  }
+
+  @Nullable
+  private V trieGetOrDefault(final State<K, V> current, final Object key, @Nullable final V defaultValue) {
+    return trieRead(current).getOrDefault(key, defaultValue);
+  }
+
+  /**
+   * Apply a batch of updates atomically, readers will see either none or all of the updates.
+   * @param updater the updates to apply to a builder initialized with the current content.
+   */
+  public void update(final Consumer<PersistentHashMap.Builder<K, V>> updater) {
+    synchronized (this) {
+      PersistentHashMap.Builder<K, V> builder = state.trie.toBuilder();
+      updater.accept(builder);
+      publish(builder.build());
+    }
+  }
+
+  @Override
+  @Nullable
+  public V put(final K key, @Nullable final V value) {
+    synchronized (this) {
+      PersistentHashMap<K, V> current = state.trie;
+      V result = current.get(key);
+      publish(current.with(key, value));
+      return result;
+    }
+  }
+
+  @Override
+  @Nullable
+  public V remove(final Object key) {
+    synchronized (this) {
+      PersistentHashMap<K, V> current = state.trie;
+      V result = current.get(key);
+      publish(current.without(key));
+      return result;
+    }
+  }
+
+  @Override
+  public void putAll(final Map<? extends K, ? extends V> data) {
+    update((b) -> b.putAll(data));
+  }
+
+  @Override
+  public void clear() {
+    synchronized (this) {
+      publish(PersistentHashMap.empty());
+    }
+  }
+
+  @Override
+  @Nullable
+  public V putIfAbsent(final K key, @Nullable final V value) {
+    synchronized (this) {
+      PersistentHashMap<K, V> current = state.trie;
+      V result = current.get(key);
+      if (result == null) {
+        publish(current.with(key, value));
+      }
+      return result;
+    }
+  }
+
+  @Override
+  public boolean remove(final Object key, @Nullable final Object value) {
+    synchronized (this) {
+      PersistentHashMap<K, V> current = state.trie;
+      if (current.containsKey(key) && Objects.equals(current.get(key), value)) {
+        publish(current.without(key));
+        return true;
+      }
+      return false;
+    }
+  }
+
+  @Override
+  public boolean replace(final K key, @Nullable final V oldValue, @Nullable final V newValue) {
+    synchronized (this) {
+      PersistentHashMap<K, V> current = state.trie;
+      if (current.containsKey(key) && Objects.equals(current.get(key), oldValue)) {
+        publish(current.with(key, newValue));
+        return true;
+      }
+      return false;
+    }
+  }
+
+  @Override
+  @Nullable
+  public V replace(final K key, @Nullable final V value) {
+    synchronized (this) {
+      PersistentHashMap<K, V> current = state.trie;
+      if (current.containsKey(key)) {
+        publish(current.with(key, value));
+        return current.get(key);
+      }
+      return null;
+    }
+  }
+
+  @Override
+  public int size() {
+    return state.trie.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return state.trie.isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    HashMap<K, V> f = flat;
+    if (f != null) {
+      return f.containsKey(key);
+    }
+    return trieContainsKey(state, key);
+  }
+
+  @Override
+  @Nullable
+  public V get(final Object key) {
+    HashMap<K, V> f = flat;
+    if (f != null) {
+      return f.get(key);
+    }
+    return trieGet(state, key);
+  }
+
+  @Override
+  @Nullable
+  public V getOrDefault(final Object key, @Nullable final V defaultValue) {
+    HashMap<K, V> f = flat;
+    if (f != null) {
+      return f.getOrDefault(key, defaultValue);
+    }
+    return trieGetOrDefault(state, key, defaultValue);
+  }
+
+  /**
+   * @return a read-only set of the keys of the current snapshot.
+   */
+  @Override
+  public Set<K> keySet() {
+    return state.trie.keySet();
+  }
+
+  /**
+   * @return a read-only collection of the values of the current snapshot.
+   */
+  @Override
+  public Collection<V> values() {
+    return state.trie.values();
+  }
+
+  /**
+   * @return a read-only set of the entries of the current snapshot.
+   */
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return state.trie.entrySet();
+  }
+
+  @Override
+  public String toString() {
+    return "CopyOnWritePersistentMap{" + "map=" + state.trie + '}';
+  }
+
+  /**
+   * A published snapshot and the number of point reads served from its trie.
+   */
+  private static final class State<K, V> {
+
+    private final PersistentHashMap<K, V> trie;
+
+    private int trieReads;
+
+    State(final PersistentHashMap<K, V> trie) {
+      this.trie = trie;
+    }
+
+    @Override
+    public String toString() {
+      return "State{" + "trie=" + trie + ", trieReads=" + trieReads + '}';
+    }
+  }
+
+}
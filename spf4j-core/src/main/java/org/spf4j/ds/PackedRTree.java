@@ -0,0 +1,548 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A static, bulk loaded R-tree (Sort-Tile-Recursive packing, Leutenegger et al. 1997).
+ *
+ * Compared with RTree, it is build in one go from all the entries (see Builder), is immutable (and thread safe),
+ * and stores the bounding boxes of the entries and nodes in primitive arrays (one min and one max array per dimension),
+ * nodes are fully packed, so the memory footprint is close to the size of the raw coordinates.
+ *
+ * Node layout: the entries are at indexes [0, size), they are followed by the nodes of each level, the root is last.
+ * The children of the k-th node of a level are the [k * nodeCapacity, (k + 1) * nodeCapacity) nodes of the level below.
+ *
+ * The search methods do not allocate result lists, results are passed to a visitor.
+ *
+ * @param <T> the type of the entries.
+ * @author Zoltan Farkas
+ */
+@Immutable
+@ParametersAreNonnullByDefault
+public final class PackedRTree<T> {
+
+  private static final int DEFAULT_NODE_CAPACITY = Integer.getInteger("spf4j.packedRTree.nodeCapacity", 16);
+
+  private final int numDims;
+
+  private final int nodeCapacity;
+
+  private final int size;
+
+  /** mins[dim][nodeIdx]. */
+  private final float[][] mins;
+
+  /** maxs[dim][nodeIdx]. */
+  private final float[][] maxs;
+
+  /** the start index of each level, levelStarts[nrLevels] = total nr of nodes. */
+  private final int[] levelStarts;
+
+  private final Object[] entries;
+
+  private PackedRTree(final int numDims, final int nodeCapacity, final int size, final float[][] mins,
+          final float[][] maxs, final int[] levelStarts, final Object[] entries) {
+    this.numDims = numDims;
+    this.nodeCapacity = nodeCapacity;
+    this.size = size;
+    this.mins = mins;
+    this.maxs = maxs;
+    this.levelStarts = levelStarts;
+    this.entries = entries;
+  }
+
+  public static <T> Builder<T> newBuilder(final int numDims) {
+    return new Builder<>(numDims, DEFAULT_NODE_CAPACITY);
+  }
+
+  public static <T> Builder<T> newBuilder(final int numDims, final int nodeCapacity) {
+    return new Builder<>(numDims, nodeCapacity);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getNumDims() {
+    return numDims;
+  }
+
+  public int getNodeCapacity() {
+    return nodeCapacity;
+  }
+
+  /**
+   * @return the entry with the index as passed to the searchIndexes/nearestIndexes visitors.
+   */
+  public T getEntry(final int idx) {
+    return (T) entries[idx];
+  }
+
+  /**
+   * Search for the entries overlapping a rectangle.
+   *
+   * @param coords the lower bound of the rectangle in every dimension.
+   * @param dimensions the dimensions of the rectangle.
+   * @param visitor receives the matching entries.
+   */
+  public void search(final float[] coords, final float[] dimensions, final Consumer<? super T> visitor) {
+    searchIndexes(coords, dimensions, (int idx) -> visitor.accept((T) entries[idx]));
+  }
+
+  /**
+   * Search for the entries overlapping a rectangle.
+   *
+   * @param coords the lower bound of the rectangle in every dimension.
+   * @param dimensions the dimensions of the rectangle.
+   * @param visitor receives the indexes of the matching entries. (see getEntry)
+   */
+  public void searchIndexes(final float[] coords, final float[] dimensions, final IntConsumer visitor) {
+    checkDims(coords, dimensions);
+    if (size == 0) {
+      return;
+    }
+    float[] hi = new float[numDims];
+    for (int d = 0; d < numDims; d++) {
+      hi[d] = coords[d] + dimensions[d];
+    }
+    int nrLevels = levelStarts.length - 1;
+    int root = levelStarts[nrLevels] - 1;
+    if (!overlaps(root, coords, hi)) {
+      return;
+    }
+    // depth first, the stack contains nodes (level, index) that overlap the search rectangle.
+    int[] stack = new int[2 * (nodeCapacity * nrLevels + 1)];
+    int sp = 0;
+    stack[sp++] = nrLevels - 1;
+    stack[sp++] = root;
+    while (sp > 0) {
+      int node = stack[--sp];
+      int level = stack[--sp];
+      int childLevel = level - 1;
+      int from = levelStarts[childLevel] + (node - levelStarts[level]) * nodeCapacity;
+      int to = Math.min(from + nodeCapacity, levelStarts[level]);
+      if (childLevel == 0) {
+        for (int c = from; c < to; c++) {
+          if (overlaps(c, coords, hi)) {
+            visitor.accept(c);
+          }
+        }
+      } else {
+        for (int c = from; c < to; c++) {
+          if (overlaps(c, coords, hi)) {
+            stack[sp++] = childLevel;
+            stack[sp++] = c;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the entries overlapping a rectangle.
+   */
+  @Nonnull
+  public List<T> search(final float[] coords, final float[] dimensions) {
+    List<T> result = new ArrayList<>();
+    search(coords, dimensions, result::add);
+    return result;
+  }
+
+  /**
+   * k nearest neighbour search (best first), the distance of a entry is the euclidean distance between the point
+   * and the entry rectangle (0 if the point is inside the rectangle).
+   *
+   * @param point the point.
+   * @param k the max number of entries to return.
+   * @param visitor receives the entries, nearest first.
+   */
+  public void nearest(final float[] point, final int k, final Consumer<? super T> visitor) {
+    nearestIndexes(point, k, (int idx) -> visitor.accept((T) entries[idx]));
+  }
+
+  /**
+   * k nearest neighbour search (best first).
+   *
+   * @param point the point.
+   * @param k the max number of entries to return.
+   * @param visitor receives the indexes of the entries (see getEntry), nearest first.
+   */
+  public void nearestIndexes(final float[] point, final int k, final IntConsumer visitor) {
+    if (point.length != numDims) {
+      throw new IllegalArgumentException("Invalid point " + Arrays.toString(point) + ", dims = " + numDims);
+    }
+    if (size == 0 || k <= 0) {
+      return;
+    }
+    int nrLevels = levelStarts.length - 1;
+    int root = levelStarts[nrLevels] - 1;
+    LongHeap queue = new LongHeap(nodeCapacity * 4);
+    queue.add(heapKey(distanceSq(root, point), root));
+    int found = 0;
+    while (!queue.isEmpty()) {
+      int node = (int) queue.poll();
+      if (node < size) {
+        visitor.accept(node);
+        if (++found >= k) {
+          return;
+        }
+        continue;
+      }
+      int level = levelOf(node);
+      int childLevel = level - 1;
+      int from = levelStarts[childLevel] + (node - levelStarts[level]) * nodeCapacity;
+      int to = Math.min(from + nodeCapacity, levelStarts[level]);
+      for (int c = from; c < to; c++) {
+        queue.add(heapKey(distanceSq(c, point), c));
+      }
+    }
+  }
+
+  /**
+   * @return the k nearest entries, nearest first.
+   */
+  @Nonnull
+  public List<T> nearest(final float[] point, final int k) {
+    List<T> result = new ArrayList<>(Math.min(k, size));
+    nearest(point, k, result::add);
+    return result;
+  }
+
+  private int levelOf(final int node) {
+    int level = 1;
+    while (node >= levelStarts[level + 1]) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * heap key: the distance (a non negative float, its bits order the same way) in the high bits, the node index
+   * in the low bits.
+   */
+  private static long heapKey(final float distance, final int node) {
+    return ((long) Float.floatToIntBits(distance) << 32) | node;
+  }
+
+  private float distanceSq(final int node, final float[] point) {
+    float result = 0;
+    for (int d = 0; d < numDims; d++) {
+      float p = point[d];
+      float delta;
+      float min = mins[d][node];
+      if (p < min) {
+        delta = min - p;
+      } else {
+        float max = maxs[d][node];
+        if (p > max) {
+          delta = p - max;
+        } else {
+          continue;
+        }
+      }
+      result += delta * delta;
+    }
+    return result;
+  }
+
+  private boolean overlaps(final int node, final float[] lo, final float[] hi) {
+    for (int d = 0; d < numDims; d++) {
+      if (mins[d][node] > hi[d] || maxs[d][node] < lo[d]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void checkDims(final float[] coords, final float[] dimensions) {
+    if (coords.length != numDims || dimensions.length != numDims) {
+      throw new IllegalArgumentException("Invalid rectangle " + Arrays.toString(coords) + ", "
+              + Arrays.toString(dimensions) + ", dims = " + numDims);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "PackedRTree{" + "numDims=" + numDims + ", nodeCapacity=" + nodeCapacity + ", size=" + size
+            + ", levelStarts=" + Arrays.toString(levelStarts) + '}';
+  }
+
+  /**
+   * A min heap of longs.
+   */
+  private static final class LongHeap {
+
+    private long[] heap;
+
+    private int size;
+
+    LongHeap(final int initialCapacity) {
+      this.heap = new long[initialCapacity];
+      this.size = 0;
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void add(final long value) {
+      if (size == heap.length) {
+        heap = Arrays.copyOf(heap, size << 1);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        long pv = heap[parent];
+        if (pv <= value) {
+          break;
+        }
+        heap[i] = pv;
+        i = parent;
+      }
+      heap[i] = value;
+    }
+
+    long poll() {
+      long result = heap[0];
+      long last = heap[--size];
+      int i = 0;
+      int half = size >>> 1;
+      while (i < half) {
+        int child = (i << 1) + 1;
+        long cv = heap[child];
+        int right = child + 1;
+        if (right < size && heap[right] < cv) {
+          child = right;
+          cv = heap[right];
+        }
+        if (last <= cv) {
+          break;
+        }
+        heap[i] = cv;
+        i = child;
+      }
+      heap[i] = last;
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "LongHeap{" + "size=" + size + '}';
+    }
+  }
+
+  /**
+   * Collects the entries of a PackedRTree.
+   */
+  @NotThreadSafe
+  public static final class Builder<T> {
+
+    private final int numDims;
+
+    private final int nodeCapacity;
+
+    /** lower bounds, [entryIdx * numDims + dim]. */
+    private float[] los;
+
+    /** upper bounds, [entryIdx * numDims + dim]. */
+    private float[] his;
+
+    private Object[] entries;
+
+    private int size;
+
+    private Builder(final int numDims, final int nodeCapacity) {
+      if (numDims < 1) {
+        throw new IllegalArgumentException("Invalid number of dimensions " + numDims);
+      }
+      if (nodeCapacity < 2) {
+        throw new IllegalArgumentException("Invalid node capacity " + nodeCapacity);
+      }
+      this.numDims = numDims;
+      this.nodeCapacity = nodeCapacity;
+      this.los = new float[16 * numDims];
+      this.his = new float[16 * numDims];
+      this.entries = new Object[16];
+      this.size = 0;
+    }
+
+    /**
+     * Add a entry.
+     * @param coords the lower bound of the entry rectangle in every dimension.
+     * @param dimensions the dimensions of the entry rectangle.
+     * @param entry the entry.
+     */
+    public Builder<T> add(final float[] coords, final float[] dimensions, final T entry) {
+      if (coords.length != numDims || dimensions.length != numDims) {
+        throw new IllegalArgumentException("Invalid rectangle " + Arrays.toString(coords) + ", "
+                + Arrays.toString(dimensions) + ", dims = " + numDims);
+      }
+      if (size == entries.length) {
+        int newCap = size << 1;
+        entries = Arrays.copyOf(entries, newCap);
+        los = Arrays.copyOf(los, newCap * numDims);
+        his = Arrays.copyOf(his, newCap * numDims);
+      }
+      int offset = size * numDims;
+      for (int d = 0; d < numDims; d++) {
+        los[offset + d] = coords[d];
+        his[offset + d] = coords[d] + dimensions[d];
+      }
+      entries[size++] = entry;
+      return this;
+    }
+
+    /**
+     * Add a point entry.
+     */
+    public Builder<T> add(final float[] coords, final T entry) {
+      return add(coords, new float[numDims], entry);
+    }
+
+    public PackedRTree<T> build() {
+      return build(false);
+    }
+
+    /**
+     * Build the tree.
+     * @param parallel if true the sorting and the bounding box computations are done in parallel (fork join pool).
+     */
+    public PackedRTree<T> build(final boolean parallel) {
+      int[] order = new int[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      strSort(order, 0, size, 0, new long[size], parallel);
+      // compute the levels.
+      int nrNodes = size;
+      List<Integer> starts = new ArrayList<>();
+      starts.add(0);
+      int levelSize = size;
+      while (levelSize > 1 || starts.size() == 1) {
+        levelSize = (levelSize + nodeCapacity - 1) / nodeCapacity;
+        starts.add(nrNodes);
+        nrNodes += levelSize;
+        if (size == 0) {
+          break;
+        }
+      }
+      int[] levelStarts = new int[starts.size() + 1];
+      for (int i = 0; i < starts.size(); i++) {
+        levelStarts[i] = starts.get(i);
+      }
+      levelStarts[starts.size()] = nrNodes;
+      float[][] mins = new float[numDims][nrNodes];
+      float[][] maxs = new float[numDims][nrNodes];
+      Object[] sortedEntries = new Object[size];
+      IntStream leafRange = IntStream.range(0, size);
+      (parallel ? leafRange.parallel() : leafRange).forEach((int i) -> {
+        int src = order[i];
+        sortedEntries[i] = entries[src];
+        int offset = src * numDims;
+        for (int d = 0; d < numDims; d++) {
+          mins[d][i] = los[offset + d];
+          maxs[d][i] = his[offset + d];
+        }
+      });
+      for (int l = 1; l < levelStarts.length - 1; l++) {
+        int childStart = levelStarts[l - 1];
+        int childEnd = levelStarts[l];
+        int start = levelStarts[l];
+        IntStream nodeRange = IntStream.range(start, levelStarts[l + 1]);
+        (parallel ? nodeRange.parallel() : nodeRange).forEach((int n) -> {
+          int from = childStart + (n - start) * nodeCapacity;
+          int to = Math.min(from + nodeCapacity, childEnd);
+          for (int d = 0; d < numDims; d++) {
+            float[] dmins = mins[d];
+            float[] dmaxs = maxs[d];
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int c = from; c < to; c++) {
+              min = Math.min(min, dmins[c]);
+              max = Math.max(max, dmaxs[c]);
+            }
+            dmins[n] = min;
+            dmaxs[n] = max;
+          }
+        });
+      }
+      return new PackedRTree<>(numDims, nodeCapacity, size, mins, maxs, levelStarts, sortedEntries);
+    }
+
+    /**
+     * Sort-Tile-Recursive ordering of order[from, to): sort by the center in dimension dim, slice in slabs, and
+     * order each slab by the next dimension.
+     */
+    private void strSort(final int[] order, final int from, final int to, final int dim, final long[] tmp,
+            final boolean parallel) {
+      int n = to - from;
+      if (n <= 1) {
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        int idx = order[i];
+        int offset = idx * numDims + dim;
+        tmp[i] = ((long) sortableBits((los[offset] + his[offset]) * 0.5f) << 32) | idx;
+      }
+      if (parallel && n > 8192) {
+        Arrays.parallelSort(tmp, from, to);
+      } else {
+        Arrays.sort(tmp, from, to);
+      }
+      for (int i = from; i < to; i++) {
+        order[i] = (int) tmp[i];
+      }
+      if (dim == numDims - 1) {
+        return;
+      }
+      int nrLeaves = (n + nodeCapacity - 1) / nodeCapacity;
+      int nrSlabs = (int) Math.ceil(Math.pow(nrLeaves, 1.0 / (numDims - dim)));
+      int slabSize = nodeCapacity * ((nrLeaves + nrSlabs - 1) / nrSlabs);
+      int realNrSlabs = (n + slabSize - 1) / slabSize;
+      IntStream slabs = IntStream.range(0, realNrSlabs);
+      (parallel && n > 8192 ? slabs.parallel() : slabs).forEach((int s) -> {
+        int sFrom = from + s * slabSize;
+        strSort(order, sFrom, Math.min(sFrom + slabSize, to), dim + 1, tmp, parallel);
+      });
+    }
+
+    /**
+     * @return int bits with the same order as the float values.
+     */
+    private static int sortableBits(final float value) {
+      int bits = Float.floatToIntBits(value);
+      return bits < 0 ? bits ^ 0x7FFFFFFF : bits;
+    }
+
+    @Override
+    public String toString() {
+      return "Builder{" + "numDims=" + numDims + ", nodeCapacity=" + nodeCapacity + ", size=" + size + '}';
+    }
+
+  }
+
+}
@@ -0,0 +1,680 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A immutable (persistent) hash map, implemented as a hash array mapped trie (HAMT).
+ * Updates (with, without) return a new map in O(log32 n), sharing the unchanged nodes with this map.
+ * Batch updates can be done with a transient Builder, that mutates in place the nodes it created.
+ *
+ * Null keys are not supported, null values are.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@Immutable
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+  private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+  private static final Object NOT_FOUND = new Object();
+
+  /** max trie depth, 7 levels of 5 bits + the collision level. */
+  private static final int MAX_DEPTH = 8;
+
+  @Nullable
+  private final Node root;
+
+  private final int size;
+
+  private PersistentHashMap(@Nullable final Node root, final int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  public static <K, V> PersistentHashMap<K, V> empty() {
+    return EMPTY;
+  }
+
+  public static <K, V> PersistentHashMap<K, V> of(final Map<? extends K, ? extends V> map) {
+    if (map instanceof PersistentHashMap) {
+      return (PersistentHashMap<K, V>) map;
+    }
+    Builder<K, V> builder = newBuilder();
+    builder.putAll(map);
+    return builder.build();
+  }
+
+  public static <K, V> Builder<K, V> newBuilder() {
+    return new Builder<>(null, 0);
+  }
+
+  /**
+   * @return a builder initialized with the content of this map, this map is not affected by the builder.
+   */
+  public Builder<K, V> toBuilder() {
+    return new Builder<>(root, size);
+  }
+
+  private static int hash(final Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * iterative lookup, the read hot path.
+   */
+  private static Object find(final Node root, final int hash, final Object key) {
+    Node node = root;
+    int shift = 0;
+    while (true) {
+      if (!(node instanceof BitmapIndexedNode)) {
+        return node.find(shift, hash, key);
+      }
+      BitmapIndexedNode bnode = (BitmapIndexedNode) node;
+      int bit = 1 << ((hash >>> shift) & 0x1f);
+      int bitmap = bnode.bitmap;
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int idx = Integer.bitCount(bitmap & (bit - 1)) << 1;
+      Object[] arr = bnode.array;
+      Object k = arr[idx];
+      if (k == null) {
+        node = (Node) arr[idx + 1];
+        shift += 5;
+      } else if (k == key || k.equals(key)) {
+        return arr[idx + 1];
+      } else {
+        return NOT_FOUND;
+      }
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  @Nullable
+  public V get(final Object key) {
+    if (root == null) {
+      return null;
+    }
+    Object result = find(root, hash(key), key);
+    return result == NOT_FOUND ? null : (V) result;
+  }
+
+  @Override
+  @Nullable
+  public V getOrDefault(final Object key, @Nullable final V defaultValue) {
+    if (root == null) {
+      return defaultValue;
+    }
+    Object result = find(root, hash(key), key);
+    return result == NOT_FOUND ? defaultValue : (V) result;
+  }
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return root != null && find(root, hash(key), key) != NOT_FOUND;
+  }
+
+  /**
+   * @return a map with the key mapped to value.
+   */
+  public PersistentHashMap<K, V> with(final K key, @Nullable final V value) {
+    Change change = new Change();
+    Node newRoot = root == null ? BitmapIndexedNode.EMPTY.put(null, 0, hash(key), key, value, change)
+            : root.put(null, 0, hash(key), key, value, change);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<>(newRoot, change.added ? size + 1 : size);
+  }
+
+  /**
+   * @return a map without the key.
+   */
+  public PersistentHashMap<K, V> without(final Object key) {
+    if (root == null) {
+      return this;
+    }
+    Change change = new Change();
+    Node newRoot = root.remove(null, 0, hash(key), key, change);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<>(newRoot, size - 1);
+  }
+
+  @Override
+  public void forEach(final BiConsumer<? super K, ? super V> action) {
+    if (root != null) {
+      root.forEach((BiConsumer) action);
+    }
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new EntryIterator<>(root);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Transient builder, nodes created by the builder are updated in place.
+   * The maps returned by build() are not affected by subsequent builder updates.
+   */
+  @NotThreadSafe
+  public static final class Builder<K, V> {
+
+    /** the edit token of the nodes owned by this builder. */
+    private Object edit;
+
+    @Nullable
+    private Node root;
+
+    private int size;
+
+    private final Change change;
+
+    private Builder(@Nullable final Node root, final int size) {
+      this.edit = new Object();
+      this.root = root;
+      this.size = size;
+      this.change = new Change();
+    }
+
+    public Builder<K, V> put(final K key, @Nullable final V value) {
+      change.reset();
+      root = root == null ? BitmapIndexedNode.EMPTY.put(edit, 0, hash(key), key, value, change)
+              : root.put(edit, 0, hash(key), key, value, change);
+      if (change.added) {
+        size++;
+      }
+      return this;
+    }
+
+    public Builder<K, V> putAll(final Map<? extends K, ? extends V> map) {
+      for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+        put(entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+
+    public Builder<K, V> remove(final Object key) {
+      if (root != null) {
+        change.reset();
+        root = root.remove(edit, 0, hash(key), key, change);
+        if (change.removed) {
+          size--;
+        }
+      }
+      return this;
+    }
+
+    @Nullable
+    public V get(final Object key) {
+      if (root == null) {
+        return null;
+      }
+      Object result = find(root, hash(key), key);
+      return result == NOT_FOUND ? null : (V) result;
+    }
+
+    public boolean containsKey(final Object key) {
+      return root != null && find(root, hash(key), key) != NOT_FOUND;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public Builder<K, V> clear() {
+      root = null;
+      size = 0;
+      return this;
+    }
+
+    /**
+     * @return a persistent map with the current content, the builder can continue to be used.
+     */
+    public PersistentHashMap<K, V> build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      // the built map owns the current nodes, subsequent updates will copy them.
+      edit = new Object();
+      return new PersistentHashMap<>(root, size);
+    }
+
+    @Override
+    public String toString() {
+      return "Builder{" + "size=" + size + '}';
+    }
+
+  }
+
+  private static final class Change {
+
+    private boolean added;
+
+    private boolean removed;
+
+    void reset() {
+      added = false;
+      removed = false;
+    }
+
+    @Override
+    public String toString() {
+      return "Change{" + "added=" + added + ", removed=" + removed + '}';
+    }
+  }
+
+  /**
+   * A trie node, key/value pairs are stored in a array: key at 2 * i, value at 2 * i + 1.
+   * a null key means that the value slot contains a sub-node.
+   */
+  private abstract static class Node {
+
+    @Nullable
+    final Object edit;
+
+    Object[] array;
+
+    Node(@Nullable final Object edit, final Object[] array) {
+      this.edit = edit;
+      this.array = array;
+    }
+
+    final boolean isEditable(@Nullable final Object pedit) {
+      return pedit != null && pedit == edit;
+    }
+
+    abstract Object find(int shift, int hash, Object key);
+
+    abstract Node put(@Nullable Object pedit, int shift, int hash, Object key, @Nullable Object value,
+            Change change);
+
+    /**
+     * @return the node without the key, or null if the node becomes empty.
+     */
+    @Nullable
+    abstract Node remove(@Nullable Object pedit, int shift, int hash, Object key, Change change);
+
+    final void forEach(final BiConsumer<Object, Object> action) {
+      Object[] arr = array;
+      for (int i = 0; i < arr.length; i += 2) {
+        Object key = arr[i];
+        if (key == null) {
+          Object node = arr[i + 1];
+          if (node != null) {
+            ((Node) node).forEach(action);
+          }
+        } else {
+          action.accept(key, arr[i + 1]);
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + '{' + "length=" + array.length + '}';
+    }
+
+  }
+
+  private static final class BitmapIndexedNode extends Node {
+
+    private static final BitmapIndexedNode EMPTY = new BitmapIndexedNode(null, 0, new Object[0]);
+
+    int bitmap;
+
+    BitmapIndexedNode(@Nullable final Object edit, final int bitmap, final Object[] array) {
+      super(edit, array);
+      this.bitmap = bitmap;
+    }
+
+    private static int bitpos(final int hash, final int shift) {
+      return 1 << ((hash >>> shift) & 0x1f);
+    }
+
+    private int index(final int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Object find(final int shift, final int hash, final Object key) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int idx = index(bit) << 1;
+      Object k = array[idx];
+      Object v = array[idx + 1];
+      if (k == null) {
+        return ((Node) v).find(shift + 5, hash, key);
+      }
+      if (k == key || k.equals(key)) {
+        return v;
+      }
+      return NOT_FOUND;
+    }
+
+    private BitmapIndexedNode editable(@Nullable final Object pedit) {
+      if (isEditable(pedit)) {
+        return this;
+      }
+      return new BitmapIndexedNode(pedit, bitmap, array.clone());
+    }
+
+    private BitmapIndexedNode set(@Nullable final Object pedit, final int i, final Object value) {
+      BitmapIndexedNode result = editable(pedit);
+      result.array[i] = value;
+      return result;
+    }
+
+    @Override
+    Node put(@Nullable final Object pedit, final int shift, final int hash, final Object key,
+            @Nullable final Object value, final Change change) {
+      int bit = bitpos(hash, shift);
+      int idx = index(bit) << 1;
+      if ((bitmap & bit) != 0) {
+        Object k = array[idx];
+        Object v = array[idx + 1];
+        if (k == null) {
+          Node node = ((Node) v).put(pedit, shift + 5, hash, key, value, change);
+          if (node == v) {
+            return this;
+          }
+          return set(pedit, idx + 1, node);
+        }
+        if (k == key || k.equals(key)) {
+          if (v == value) {
+            return this;
+          }
+          return set(pedit, idx + 1, value);
+        }
+        change.added = true;
+        Node sub = createNode(pedit, shift + 5, k, v, hash, key, value);
+        BitmapIndexedNode result = editable(pedit);
+        result.array[idx] = null;
+        result.array[idx + 1] = sub;
+        return result;
+      }
+      change.added = true;
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, idx);
+      newArray[idx] = key;
+      newArray[idx + 1] = value;
+      System.arraycopy(array, idx, newArray, idx + 2, array.length - idx);
+      if (isEditable(pedit)) {
+        array = newArray;
+        bitmap |= bit;
+        return this;
+      }
+      return new BitmapIndexedNode(pedit, bitmap | bit, newArray);
+    }
+
+    private static Node createNode(@Nullable final Object pedit, final int shift,
+            final Object key1, @Nullable final Object value1,
+            final int hash2, final Object key2, @Nullable final Object value2) {
+      int hash1 = hash(key1);
+      if (hash1 == hash2) {
+        return new CollisionNode(pedit, hash1, new Object[] {key1, value1, key2, value2});
+      }
+      Change change = new Change();
+      return EMPTY.put(pedit, shift, hash1, key1, value1, change)
+              .put(pedit, shift, hash2, key2, value2, change);
+    }
+
+    @Override
+    @Nullable
+    Node remove(@Nullable final Object pedit, final int shift, final int hash, final Object key,
+            final Change change) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int idx = index(bit) << 1;
+      Object k = array[idx];
+      Object v = array[idx + 1];
+      if (k == null) {
+        Node node = ((Node) v).remove(pedit, shift + 5, hash, key, change);
+        if (node == v) {
+          return this;
+        }
+        if (node != null) {
+          return set(pedit, idx + 1, node);
+        }
+      } else if (!(k == key || k.equals(key))) {
+        return this;
+      }
+      change.removed = true;
+      if (bitmap == bit) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, idx);
+      System.arraycopy(array, idx + 2, newArray, idx, newArray.length - idx);
+      if (isEditable(pedit)) {
+        array = newArray;
+        bitmap ^= bit;
+        return this;
+      }
+      return new BitmapIndexedNode(pedit, bitmap ^ bit, newArray);
+    }
+
+    @Override
+    public String toString() {
+      return "BitmapIndexedNode{" + "bitmap=" + Integer.toBinaryString(bitmap) + '}';
+    }
+
+  }
+
+  private static final class CollisionNode extends Node {
+
+    private final int hash;
+
+    CollisionNode(@Nullable final Object edit, final int hash, final Object[] array) {
+      super(edit, array);
+      this.hash = hash;
+    }
+
+    private int indexOf(final Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        Object k = array[i];
+        if (k == key || k.equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object find(final int shift, final int phash, final Object key) {
+      if (phash != hash) {
+        return NOT_FOUND;
+      }
+      int idx = indexOf(key);
+      return idx < 0 ? NOT_FOUND : array[idx + 1];
+    }
+
+    @Override
+    Node put(@Nullable final Object pedit, final int shift, final int phash, final Object key,
+            @Nullable final Object value, final Change change) {
+      if (phash == hash) {
+        int idx = indexOf(key);
+        if (idx >= 0) {
+          if (array[idx + 1] == value) {
+            return this;
+          }
+          if (isEditable(pedit)) {
+            array[idx + 1] = value;
+            return this;
+          }
+          Object[] newArray = array.clone();
+          newArray[idx + 1] = value;
+          return new CollisionNode(pedit, hash, newArray);
+        }
+        change.added = true;
+        Object[] newArray = Arrays.copyOf(array, array.length + 2);
+        newArray[array.length] = key;
+        newArray[array.length + 1] = value;
+        if (isEditable(pedit)) {
+          array = newArray;
+          return this;
+        }
+        return new CollisionNode(pedit, hash, newArray);
+      }
+      // different hash, nest this node into a bitmap node.
+      return new BitmapIndexedNode(pedit, BitmapIndexedNode.bitpos(hash, shift), new Object[] {null, this})
+              .put(pedit, shift, phash, key, value, change);
+    }
+
+    @Override
+    @Nullable
+    Node remove(@Nullable final Object pedit, final int shift, final int phash, final Object key,
+            final Change change) {
+      if (phash != hash) {
+        return this;
+      }
+      int idx = indexOf(key);
+      if (idx < 0) {
+        return this;
+      }
+      change.removed = true;
+      if (array.length == 2) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, idx);
+      System.arraycopy(array, idx + 2, newArray, idx, newArray.length - idx);
+      if (isEditable(pedit)) {
+        array = newArray;
+        return this;
+      }
+      return new CollisionNode(pedit, hash, newArray);
+    }
+
+    @Override
+    public String toString() {
+      return "CollisionNode{" + "hash=" + hash + ", size=" + (array.length >> 1) + '}';
+    }
+
+  }
+
+  private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+
+    private final Object[][] arrays;
+
+    private final int[] positions;
+
+    private int depth;
+
+    @Nullable
+    private Entry<K, V> next;
+
+    EntryIterator(@Nullable final Node root) {
+      arrays = new Object[MAX_DEPTH][];
+      positions = new int[MAX_DEPTH];
+      if (root == null) {
+        depth = -1;
+      } else {
+        arrays[0] = root.array;
+        depth = 0;
+      }
+      advance();
+    }
+
+    private void advance() {
+      while (depth >= 0) {
+        Object[] arr = arrays[depth];
+        int pos = positions[depth];
+        if (pos >= arr.length) {
+          arrays[depth] = null;
+          depth--;
+          continue;
+        }
+        positions[depth] = pos + 2;
+        Object key = arr[pos];
+        if (key == null) {
+          Object child = arr[pos + 1];
+          if (child != null) {
+            depth++;
+            arrays[depth] = ((Node) child).array;
+            positions[depth] = 0;
+          }
+        } else {
+          next = new SimpleImmutableEntry<>((K) key, (V) arr[pos + 1]);
+          return;
+        }
+      }
+      next = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Entry<K, V> next() {
+      Entry<K, V> result = next;
+      if (result == null) {
+        throw new NoSuchElementException();
+      }
+      advance();
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "EntryIterator{" + "depth=" + depth + ", next=" + next + '}';
+    }
+
+  }
+
+}
@@ -39,6 +39,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.function.Consumer;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -46,6 +47,8 @@ import javax.annotation.Nullable;
  * Implementation of an arbitrary-dimension RTree. Based on R-Trees: A Dynamic Index Structure for Spatial Searching
  * (Antonn Guttmann, 1984)
  *
+ * For large static data sets, PackedRTree is faster to build and search, and uses less memory.
+ *
  * This class is not thread-safe. Z TODO: I have cleaned up a bit this class, but there is a lot more to do here this
  * class implementation is not clean in several places. (see findbugs supressions)
  *
@@ -154,16 +157,29 @@ public final class RTree<T> {
     assert (coords.length == numDims);
     assert (dimensions.length == numDims);
     LinkedList<T> results = new LinkedList<T>();
-    search(coords, dimensions, root, results);
+    search(coords, dimensions, root, results::add);
     return results;
   }
 
+  /**
+   * Searches the RTree for objects overlapping with the given rectangle, without creating a result list.
+   *
+   * @param coords the corner of the rectangle that is the lower bound of every dimension (eg. the top-left corner)
+   * @param dimensions the dimensions of the rectangle.
+   * @param visitor receives the objects whose rectangles overlap with the given rectangle.
+   */
+  public void search(final float[] coords, final float[] dimensions, final Consumer<? super T> visitor) {
+    assert (coords.length == numDims);
+    assert (dimensions.length == numDims);
+    search(coords, dimensions, root, visitor);
+  }
+
   private void search(final float[] coords, final float[] dimensions, final Node n,
-          final LinkedList<T> results) {
+          final Consumer<? super T> results) {
     if (n.leaf) {
       for (Node e : n.children) {
         if (isOverlap(coords, dimensions, e.coords, e.dimensions)) {
-          results.add(((Entry<T>) e).entry);
+          results.accept(((Entry<T>) e).entry);
         }
       }
     } else {
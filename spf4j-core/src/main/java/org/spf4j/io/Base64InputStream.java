@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.spf4j.base.Base64;
+
+/**
+ * A input stream that decodes the base64 ASCII chars read from the wrapped stream.
+ * White spaces and other non base64 chars are skipped, the padding is optional.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class Base64InputStream extends FilterInputStream {
+
+  private static final int CHUNK_CHARS = 4096;
+
+  private final Base64.StreamDecoder decoder;
+
+  private final byte[] inBuffer;
+
+  private final byte[] outBuffer;
+
+  private int outPos;
+
+  private int outLimit;
+
+  private boolean eof;
+
+  public Base64InputStream(final InputStream in) {
+    super(in);
+    this.decoder = new Base64.StreamDecoder();
+    this.inBuffer = new byte[CHUNK_CHARS];
+    this.outBuffer = new byte[Base64.StreamDecoder.maxDecodedLength(CHUNK_CHARS) + 2];
+    this.outPos = 0;
+    this.outLimit = 0;
+    this.eof = false;
+  }
+
+  /**
+   * @return false if there is nothing more to read.
+   */
+  private boolean fill() throws IOException {
+    while (outPos >= outLimit) {
+      if (eof) {
+        return false;
+      }
+      int nr = in.read(inBuffer, 0, inBuffer.length);
+      outPos = 0;
+      if (nr < 0) {
+        eof = true;
+        outLimit = decoder.finish(outBuffer, 0);
+      } else {
+        outLimit = decoder.decode(inBuffer, 0, nr, outBuffer, 0);
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) {
+      return -1;
+    }
+    return outBuffer[outPos++] & 0xFF;
+  }
+
+  @Override
+  public int read(final byte[] b) throws IOException {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    if ((off < 0) || (len < 0) || (len > b.length - off)) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (!fill()) {
+      return -1;
+    }
+    int n = Math.min(len, outLimit - outPos);
+    System.arraycopy(outBuffer, outPos, b, off, n);
+    outPos += n;
+    return n;
+  }
+
+  @Override
+  public long skip(final long n) throws IOException {
+    long remaining = n;
+    while (remaining > 0 && fill()) {
+      int s = (int) Math.min(remaining, outLimit - outPos);
+      outPos += s;
+      remaining -= s;
+    }
+    return n - remaining;
+  }
+
+  @Override
+  public int available() {
+    return outLimit - outPos;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public void mark(final int readlimit) {
+    // not supported.
+  }
+
+  @Override
+  public void reset() throws IOException {
+    throw new IOException("Mark not supported by " + this);
+  }
+
+  @Override
+  public String toString() {
+    return "Base64InputStream{" + "in=" + in + ", available=" + (outLimit - outPos) + '}';
+  }
+
+}
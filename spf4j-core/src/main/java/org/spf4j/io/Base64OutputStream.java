@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.spf4j.base.Base64;
+
+/**
+ * A output stream that base64 encodes the written bytes, writing the ASCII encoded chars to the wrapped stream.
+ * The padding is written on close.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class Base64OutputStream extends FilterOutputStream {
+
+  private static final int CHUNK_BYTES = 3 * 1024;
+
+  /** the 0 - 2 bytes that do not make a full triplet yet. */
+  private final byte[] pending;
+
+  private int nrPending;
+
+  private final byte[] buffer;
+
+  private boolean closed;
+
+  public Base64OutputStream(final OutputStream out) {
+    super(out);
+    this.pending = new byte[3];
+    this.nrPending = 0;
+    this.buffer = new byte[CHUNK_BYTES / 3 * 4];
+    this.closed = false;
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    pending[nrPending++] = (byte) b;
+    if (nrPending == 3) {
+      int n = Base64.encodeBase64(pending, 0, 3, buffer, 0);
+      out.write(buffer, 0, n);
+      nrPending = 0;
+    }
+  }
+
+  @Override
+  public void write(final byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    if ((off < 0) || (len < 0) || (len > b.length - off)) {
+      throw new IndexOutOfBoundsException();
+    }
+    int o = off;
+    int l = len;
+    while (nrPending > 0 && l > 0) {
+      write(b[o++]);
+      l--;
+    }
+    while (l >= 3) {
+      int n = Math.min(CHUNK_BYTES, l - l % 3);
+      int e = Base64.encodeBase64(b, o, n, buffer, 0);
+      out.write(buffer, 0, e);
+      o += n;
+      l -= n;
+    }
+    while (l > 0) {
+      pending[nrPending++] = b[o++];
+      l--;
+    }
+  }
+
+  /**
+   * Writes the last incomplete triplet with padding, and closes the wrapped stream.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try (OutputStream os = out) {
+      if (nrPending > 0) {
+        int n = Base64.encodeBase64(pending, 0, nrPending, buffer, 0);
+        os.write(buffer, 0, n);
+        nrPending = 0;
+      }
+      os.flush();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Base64OutputStream{" + "out=" + out + ", nrPending=" + nrPending + '}';
+  }
+
+}
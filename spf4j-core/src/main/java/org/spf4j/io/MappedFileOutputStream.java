@@ -0,0 +1,238 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An output stream that writes to a new file via memory mapped regions.
+ * The file is pre-allocated in chunks of chunkSize bytes, when a chunk is full the next one is mapped.
+ * On close the file is truncated to the actual number of bytes written.
+ * The mapping of a full chunk is released (unmapped, if supported by the JVM) as soon as the next chunk is mapped.
+ *
+ * Data written is visible to other readers of the file (via the OS page cache) immediately,
+ * use force() to make sure data is written to the storage device. Full chunks are not forced when
+ * rolling over to the next chunk, and the last chunk is not forced on close, unless forceOnRollover is requested.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class MappedFileOutputStream extends OutputStream {
+
+  @Nullable
+  private static final Consumer<ByteBuffer> UNMAPPER = createUnmapper();
+
+  private final Path file;
+
+  private final FileChannel channel;
+
+  private final int chunkSize;
+
+  private final boolean forceOnRollover;
+
+  @Nullable
+  private MappedByteBuffer current;
+
+  private long chunkStart;
+
+  private long position;
+
+  public MappedFileOutputStream(final Path file, final int chunkSize) throws IOException {
+    this(file, chunkSize, false);
+  }
+
+  /**
+   * @param file the file to create.
+   * @param chunkSize the size of the mapped regions.
+   * @param forceOnRollover if true a full chunk is written to the storage device before mapping the next one,
+   * and the last chunk is written to the storage device on close.
+   */
+  public MappedFileOutputStream(final Path file, final int chunkSize, final boolean forceOnRollover)
+          throws IOException {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+    }
+    this.file = file;
+    this.chunkSize = chunkSize;
+    this.forceOnRollover = forceOnRollover;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.chunkStart = 0;
+    this.position = 0;
+    try {
+      this.current = channel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    MappedByteBuffer buf = current;
+    if (buf == null || !buf.hasRemaining()) {
+      buf = nextChunk();
+    }
+    buf.put((byte) b);
+    position++;
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    int o = off;
+    int l = len;
+    MappedByteBuffer buf = current;
+    while (l > 0) {
+      if (buf == null || !buf.hasRemaining()) {
+        buf = nextChunk();
+      }
+      int n = Math.min(l, buf.remaining());
+      buf.put(b, o, n);
+      o += n;
+      l -= n;
+    }
+    position += len;
+  }
+
+  private MappedByteBuffer nextChunk() throws IOException {
+    MappedByteBuffer old = current;
+    if (old == null) {
+      throw new IOException("Stream closed " + file);
+    }
+    if (forceOnRollover) {
+      old.force();
+    }
+    MappedByteBuffer next = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart + old.capacity(), chunkSize);
+    chunkStart += old.capacity();
+    current = next;
+    unmap(old);
+    return next;
+  }
+
+  /**
+   * Release the mapping of a buffer that is not referenced anymore,
+   * if not supported by the JVM the mapping is released when the buffer is garbage collected.
+   */
+  private static void unmap(final MappedByteBuffer buffer) {
+    if (UNMAPPER != null) {
+      try {
+        UNMAPPER.accept(buffer);
+      } catch (RuntimeException ex) {
+        // the mapping will be released when the buffer is garbage collected.
+      }
+    }
+  }
+
+  @Nullable
+  private static Consumer<ByteBuffer> createUnmapper() {
+    try {
+      // JDK 9+
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      Object unsafe = theUnsafe.get(null);
+      return (buffer) -> invoke(invokeCleaner, unsafe, buffer);
+    } catch (ReflectiveOperationException | RuntimeException ex) {
+      try {
+        // JDK 8
+        Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+        Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+        return (buffer) -> {
+          Object cleaner = invoke(cleanerMethod, buffer);
+          if (cleaner != null) {
+            invoke(cleanMethod, cleaner);
+          }
+        };
+      } catch (ReflectiveOperationException | RuntimeException ex2) {
+        return null;
+      }
+    }
+  }
+
+  @Nullable
+  private static Object invoke(final Method method, final Object target, final Object... args) {
+    try {
+      return method.invoke(target, args);
+    } catch (IllegalAccessException | InvocationTargetException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * @return the number of bytes written to this stream.
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * write the content written so far to the storage device.
+   * (the current chunk is forced, previous chunks are written by forcing the file channel,
+   * since their mappings are released)
+   */
+  public void force() throws IOException {
+    MappedByteBuffer buf = current;
+    if (buf == null) {
+      throw new IOException("Stream closed " + file);
+    }
+    buf.force();
+    if (chunkStart > 0) {
+      channel.force(false);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (current == null) {
+      return;
+    }
+    MappedByteBuffer buf = current;
+    current = null;
+    try (FileChannel ch = channel) {
+      if (forceOnRollover) {
+        buf.force();
+      }
+      unmap(buf);
+      ch.truncate(position);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "MappedFileOutputStream{" + "file=" + file + ", chunkSize=" + chunkSize
+            + ", forceOnRollover=" + forceOnRollover + ", position=" + position + '}';
+  }
+
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io;
+
+import edu.umd.cs.findbugs.annotations.CleanupObligation;
+import edu.umd.cs.findbugs.annotations.DischargesObligation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.spf4j.recyclable.SizedRecyclingSupplier;
+import org.spf4j.recyclable.impl.ArraySuppliers;
+
+/**
+ * A unsynchronized, single writer, byte array builder that grows as a chain of fixed size segments
+ * drawn from a recycling supplier. Unlike ByteArrayBuilder, growing never copies the already written content,
+ * and large outputs do not require large contiguous arrays.
+ *
+ * The content can be written to channels with gathering writes, or read via a InputStream view, without
+ * consolidating it into a single array.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+@CleanupObligation
+public final class SegmentedByteArrayBuilder extends OutputStream {
+
+  private static final int DEFAULT_SEGMENT_SIZE = Integer.getInteger("spf4j.segmentedByteArrayBuilder.segmentSize",
+          8192);
+
+  private final SizedRecyclingSupplier<byte[]> arraySupplier;
+
+  private final int segmentSize;
+
+  private byte[][] segments;
+
+  /** nr of segments allocated. */
+  private int nrSegments;
+
+  /** index of the segment currently written to. */
+  private int segmentIdx;
+
+  /** the segment currently written to. */
+  private byte[] current;
+
+  /** write position in the current segment. */
+  private int pos;
+
+  /** nr of bytes in the segments before the current one. */
+  private long prevSegmentsSize;
+
+  public SegmentedByteArrayBuilder() {
+    this(DEFAULT_SEGMENT_SIZE, ArraySuppliers.Bytes.GL_SUPPLIER);
+  }
+
+  /**
+   * @param segmentSize the requested size of the segments.
+   * (the array supplier might supply larger arrays, they will be fully used)
+   * @param arraySupplier the supplier for the segments.
+   */
+  public SegmentedByteArrayBuilder(final int segmentSize, final SizedRecyclingSupplier<byte[]> arraySupplier) {
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+    }
+    this.segmentSize = segmentSize;
+    this.arraySupplier = arraySupplier;
+    this.segments = new byte[4][];
+    this.current = arraySupplier.get(segmentSize);
+    this.segments[0] = current;
+    this.nrSegments = 1;
+    this.segmentIdx = 0;
+    this.pos = 0;
+    this.prevSegmentsSize = 0;
+  }
+
+  @Override
+  public void write(final int b) {
+    if (pos == current.length) {
+      nextSegment();
+    }
+    current[pos++] = (byte) b;
+  }
+
+  @Override
+  public void write(final byte[] b) {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) {
+    if ((off < 0) || (off > b.length) || (len < 0) || ((off + len) - b.length > 0)) {
+      throw new IndexOutOfBoundsException();
+    }
+    int o = off;
+    int l = len;
+    while (l > 0) {
+      int avail = current.length - pos;
+      if (avail == 0) {
+        nextSegment();
+        avail = current.length;
+      }
+      int n = Math.min(avail, l);
+      System.arraycopy(b, o, current, pos, n);
+      pos += n;
+      o += n;
+      l -= n;
+    }
+  }
+
+  public void write(final ByteBuffer src) {
+    while (src.hasRemaining()) {
+      int avail = current.length - pos;
+      if (avail == 0) {
+        nextSegment();
+        avail = current.length;
+      }
+      int n = Math.min(avail, src.remaining());
+      src.get(current, pos, n);
+      pos += n;
+    }
+  }
+
+  /**
+   * Read the input stream till the end into this builder.
+   */
+  public void readFrom(final InputStream in) throws IOException {
+    while (true) {
+      if (pos == current.length) {
+        nextSegment();
+      }
+      int nr = in.read(current, pos, current.length - pos);
+      if (nr < 0) {
+        break;
+      }
+      pos += nr;
+    }
+  }
+
+  private void nextSegment() {
+    prevSegmentsSize += current.length;
+    segmentIdx++;
+    if (segmentIdx == nrSegments) {
+      if (nrSegments == segments.length) {
+        segments = Arrays.copyOf(segments, nrSegments << 1);
+      }
+      segments[nrSegments++] = arraySupplier.get(segmentSize);
+    }
+    current = segments[segmentIdx];
+    pos = 0;
+  }
+
+  /**
+   * @return the number of bytes written.
+   */
+  public long size() {
+    return prevSegmentsSize + pos;
+  }
+
+  /**
+   * Discard all content, keeps the first segment, the rest are recycled.
+   */
+  public void reset() {
+    for (int i = 1; i < nrSegments; i++) {
+      arraySupplier.recycle(segments[i]);
+      segments[i] = null;
+    }
+    nrSegments = 1;
+    segmentIdx = 0;
+    current = segments[0];
+    pos = 0;
+    prevSegmentsSize = 0;
+  }
+
+  /**
+   * @return the number of segments with content.
+   */
+  public int getNrSegments() {
+    return pos == 0 ? segmentIdx : segmentIdx + 1;
+  }
+
+  /**
+   * @return the content as byte buffers wrapping the segments, one per segment. (no copying)
+   */
+  public ByteBuffer[] toByteBuffers() {
+    int n = getNrSegments();
+    ByteBuffer[] result = new ByteBuffer[n];
+    for (int i = 0; i < segmentIdx; i++) {
+      result[i] = ByteBuffer.wrap(segments[i]);
+    }
+    if (n > segmentIdx) {
+      result[segmentIdx] = ByteBuffer.wrap(current, 0, pos);
+    }
+    return result;
+  }
+
+  public void writeTo(final OutputStream out) throws IOException {
+    for (int i = 0; i < segmentIdx; i++) {
+      out.write(segments[i]);
+    }
+    out.write(current, 0, pos);
+  }
+
+  /**
+   * Write the content to a channel, with a gathering write if the channel supports it.
+   * @return the number of bytes written.
+   */
+  public long writeTo(final WritableByteChannel channel) throws IOException {
+    ByteBuffer[] buffers = toByteBuffers();
+    long total = size();
+    long written = 0;
+    if (channel instanceof GatheringByteChannel) {
+      GatheringByteChannel gch = (GatheringByteChannel) channel;
+      int offset = 0;
+      while (written < total) {
+        written += gch.write(buffers, offset, buffers.length - offset);
+        while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+          offset++;
+        }
+      }
+    } else {
+      for (ByteBuffer buffer : buffers) {
+        while (buffer.hasRemaining()) {
+          written += channel.write(buffer);
+        }
+      }
+    }
+    return written;
+  }
+
+  /**
+   * @return a copy of the content.
+   */
+  public byte[] toByteArray() {
+    long size = size();
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new UnsupportedOperationException("Content too large for a array " + size);
+    }
+    byte[] result = new byte[(int) size];
+    int rpos = 0;
+    for (int i = 0; i < segmentIdx; i++) {
+      byte[] segment = segments[i];
+      System.arraycopy(segment, 0, result, rpos, segment.length);
+      rpos += segment.length;
+    }
+    System.arraycopy(current, 0, result, rpos, pos);
+    return result;
+  }
+
+  /**
+   * A input stream view of the current content, the stream reads directly from the segments.
+   * The view is valid as long as this builder is not reset or closed, content written after the view creation
+   * is not visible in the view.
+   */
+  public InputStream getInputStream() {
+    return new SegmentsInputStream(Arrays.copyOf(segments, getNrSegments()), size());
+  }
+
+  @Override
+  public String toString() {
+    return toString(StandardCharsets.UTF_8);
+  }
+
+  public String toString(final Charset charset) {
+    if (current == null) {
+      return "Closed SegmentedByteArrayBuilder";
+    }
+    return new String(toByteArray(), charset);
+  }
+
+  /**
+   * Closing will recycle the segments, the builder must not be used after close.
+   */
+  @DischargesObligation
+  @Override
+  public void close() {
+    if (current == null) {
+      return;
+    }
+    for (int i = 0; i < nrSegments; i++) {
+      arraySupplier.recycle(segments[i]);
+      segments[i] = null;
+    }
+    current = null;
+    nrSegments = 0;
+  }
+
+  private static final class SegmentsInputStream extends InputStream {
+
+    private final byte[][] segments;
+
+    private long remaining;
+
+    private int segmentIdx;
+
+    private int pos;
+
+    SegmentsInputStream(final byte[][] segments, final long size) {
+      this.segments = segments;
+      this.remaining = size;
+      this.segmentIdx = 0;
+      this.pos = 0;
+    }
+
+    @Override
+    public int read() {
+      if (remaining <= 0) {
+        return -1;
+      }
+      byte[] segment = segments[segmentIdx];
+      if (pos == segment.length) {
+        segment = segments[++segmentIdx];
+        pos = 0;
+      }
+      remaining--;
+      return segment[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+      if ((off < 0) || (len < 0) || (len > b.length - off)) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (len == 0) {
+        return 0;
+      }
+      if (remaining <= 0) {
+        return -1;
+      }
+      int toRead = (int) Math.min(len, remaining);
+      int o = off;
+      int l = toRead;
+      while (l > 0) {
+        byte[] segment = segments[segmentIdx];
+        if (pos == segment.length) {
+          segment = segments[++segmentIdx];
+          pos = 0;
+        }
+        int n = Math.min(l, segment.length - pos);
+        System.arraycopy(segment, pos, b, o, n);
+        pos += n;
+        o += n;
+        l -= n;
+      }
+      remaining -= toRead;
+      return toRead;
+    }
+
+    @Override
+    public long skip(final long n) {
+      long toSkip = Math.min(Math.max(0, n), remaining);
+      long l = toSkip;
+      while (l > 0) {
+        byte[] segment = segments[segmentIdx];
+        if (pos == segment.length) {
+          segmentIdx++;
+          pos = 0;
+          continue;
+        }
+        int s = (int) Math.min(l, segment.length - pos);
+        pos += s;
+        l -= s;
+      }
+      remaining -= toSkip;
+      return toSkip;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    @Override
+    public String toString() {
+      return "SegmentsInputStream{" + "remaining=" + remaining + '}';
+    }
+
+  }
+
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An Appendable that encodes characters as UTF-8 directly into a growable, reusable byte array.
+ * This avoids the Writer -> CharsetEncoder indirection for the common case of (mostly ASCII) UTF-8 output.
+ *
+ * Encoding behaves like a OutputStreamWriter(UTF-8): surrogate pairs can be split across append calls,
+ * malformed surrogates are replaced with '?'.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class Utf8ByteAppendable implements Appendable {
+
+  private static final byte[] HEX_DIGITS = {
+    '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+  };
+
+  /** ascii chars that need to be escaped in a json string. */
+  private static final boolean[] JSON_ESCAPE = new boolean[128];
+
+  static {
+    for (int i = 0; i < ' '; i++) {
+      JSON_ESCAPE[i] = true;
+    }
+    JSON_ESCAPE['"'] = true;
+    JSON_ESCAPE['\\'] = true;
+  }
+
+  private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+  private byte[] buf;
+
+  private int count;
+
+  /** pending high surrogate, 0 if none. */
+  private char highSurrogate;
+
+  private final JsonStringEscaper escaper;
+
+  public Utf8ByteAppendable() {
+    this(256);
+  }
+
+  public Utf8ByteAppendable(final int initialSize) {
+    this.buf = new byte[initialSize];
+    this.count = 0;
+    this.highSurrogate = 0;
+    this.escaper = new JsonStringEscaper();
+  }
+
+  /**
+   * @return an Appendable that will json string escape everything written to it into this appendable.
+   */
+  public JsonStringEscaper getJsonStringEscaper() {
+    return escaper;
+  }
+
+  @Override
+  public Utf8ByteAppendable append(@Nullable final CharSequence csq) {
+    if (csq == null) {
+      writeBytes(NULL);
+      return this;
+    }
+    return append(csq, 0, csq.length());
+  }
+
+  @Override
+  public Utf8ByteAppendable append(@Nullable final CharSequence pcsq, final int start, final int end) {
+    CharSequence csq = pcsq == null ? "null" : pcsq;
+    ensureCapacity(count + end - start);
+    byte[] b = buf;
+    int c = count;
+    int i = start;
+    if (highSurrogate == 0) {
+      // ascii fast path.
+      for (; i < end; i++) {
+        char ch = csq.charAt(i);
+        if (ch >= 0x80) {
+          break;
+        }
+        b[c++] = (byte) ch;
+      }
+    }
+    count = c;
+    for (; i < end; i++) {
+      put(csq.charAt(i));
+    }
+    return this;
+  }
+
+  @Override
+  public Utf8ByteAppendable append(final char c) {
+    if (c < 0x80 && highSurrogate == 0) {
+      ensureCapacity(count + 1);
+      buf[count++] = (byte) c;
+    } else {
+      put(c);
+    }
+    return this;
+  }
+
+  /**
+   * Append the decimal representation of a number, same as append(Long.toString(nr)), without the garbage.
+   */
+  public Utf8ByteAppendable append(final long nr) {
+    flushSurrogate();
+    if (nr == Long.MIN_VALUE) {
+      return append("-9223372036854775808");
+    }
+    long v = nr;
+    int len;
+    if (v < 0) {
+      ensureCapacity(count + 20);
+      buf[count++] = '-';
+      v = -v;
+    } else {
+      ensureCapacity(count + 19);
+    }
+    len = nrDigits(v);
+    int pos = count + len;
+    count = pos;
+    byte[] b = buf;
+    do {
+      b[--pos] = (byte) ('0' + (int) (v % 10));
+      v /= 10;
+    } while (v > 0);
+    return this;
+  }
+
+  /**
+   * Append the decimal representation of a number, same as append(Integer.toString(nr)), without the garbage.
+   */
+  public Utf8ByteAppendable append(final int nr) {
+    return append((long) nr);
+  }
+
+  /**
+   * Append a timestamp in the same format as DateTimeFormatter.ISO_INSTANT.
+   * @param epochMillis the millis since epoch.
+   */
+  public Utf8ByteAppendable appendIsoInstant(final long epochMillis) {
+    flushSurrogate();
+    long days = Math.floorDiv(epochMillis, 86400000L);
+    int msOfDay = (int) Math.floorMod(epochMillis, 86400000L);
+    // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+    long z = days + 719468;
+    long era = (z >= 0 ? z : z - 146096) / 146097;
+    int doe = (int) (z - era * 146097);
+    int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    int mp = (5 * doy + 2) / 153;
+    int day = doy - (153 * mp + 2) / 5 + 1;
+    int month = mp < 10 ? mp + 3 : mp - 9;
+    long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+    if (year < 0 || year > 9999) {
+      DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(epochMillis), this);
+      return this;
+    }
+    ensureCapacity(count + 24);
+    byte[] b = buf;
+    int c = count;
+    int y = (int) year;
+    b[c++] = (byte) ('0' + y / 1000);
+    b[c++] = (byte) ('0' + y / 100 % 10);
+    b[c++] = (byte) ('0' + y / 10 % 10);
+    b[c++] = (byte) ('0' + y % 10);
+    b[c++] = '-';
+    c = put2Digits(b, c, month);
+    b[c++] = '-';
+    c = put2Digits(b, c, day);
+    b[c++] = 'T';
+    int secOfDay = msOfDay / 1000;
+    c = put2Digits(b, c, secOfDay / 3600);
+    b[c++] = ':';
+    c = put2Digits(b, c, secOfDay / 60 % 60);
+    b[c++] = ':';
+    c = put2Digits(b, c, secOfDay % 60);
+    int millis = msOfDay % 1000;
+    if (millis != 0) {
+      b[c++] = '.';
+      b[c++] = (byte) ('0' + millis / 100);
+      b[c++] = (byte) ('0' + millis / 10 % 10);
+      b[c++] = (byte) ('0' + millis % 10);
+    }
+    b[c++] = 'Z';
+    count = c;
+    return this;
+  }
+
+  /**
+   * Append raw bytes.
+   */
+  public Utf8ByteAppendable write(final byte[] bytes, final int off, final int len) {
+    flushSurrogate();
+    ensureCapacity(count + len);
+    System.arraycopy(bytes, off, buf, count, len);
+    count += len;
+    return this;
+  }
+
+  /**
+   * @return the underlying buffer, valid bytes are [0, size()).
+   */
+  @SuppressFBWarnings("EI_EXPOSE_REP")
+  public byte[] getBuffer() {
+    return buf;
+  }
+
+  /**
+   * @return the number of bytes written. (a pending high surrogate is not counted)
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Discard everything written after pos.
+   */
+  public void resetCountTo(final int pos) {
+    if (pos > count || pos < 0) {
+      throw new IllegalArgumentException("Invalid position " + pos + ", size = " + count);
+    }
+    count = pos;
+    highSurrogate = 0;
+  }
+
+  public void reset() {
+    count = 0;
+    highSurrogate = 0;
+  }
+
+  public void writeTo(final OutputStream os) throws IOException {
+    os.write(buf, 0, count);
+  }
+
+  /**
+   * @return a ByteBuffer view of the written bytes, valid until the next write.
+   */
+  public ByteBuffer toByteBuffer() {
+    return ByteBuffer.wrap(buf, 0, count);
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, count);
+  }
+
+  private void writeBytes(final byte[] bytes) {
+    write(bytes, 0, bytes.length);
+  }
+
+  private void ensureCapacity(final int minCapacity) {
+    if (minCapacity > buf.length) {
+      int newCapacity = buf.length << 1;
+      if (newCapacity < minCapacity) {
+        newCapacity = minCapacity;
+      }
+      buf = Arrays.copyOf(buf, newCapacity);
+    }
+  }
+
+  private void flushSurrogate() {
+    if (highSurrogate != 0) {
+      highSurrogate = 0;
+      ensureCapacity(count + 1);
+      buf[count++] = '?';
+    }
+  }
+
+  private void put(final char c) {
+    ensureCapacity(count + 4);
+    byte[] b = buf;
+    if (highSurrogate != 0) {
+      char hs = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int cp = Character.toCodePoint(hs, c);
+        b[count++] = (byte) (0xF0 | (cp >> 18));
+        b[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        b[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        b[count++] = (byte) (0x80 | (cp & 0x3F));
+        return;
+      }
+      b[count++] = '?';
+    }
+    if (c < 0x80) {
+      b[count++] = (byte) c;
+    } else if (c < 0x800) {
+      b[count++] = (byte) (0xC0 | (c >> 6));
+      b[count++] = (byte) (0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      b[count++] = '?';
+    } else {
+      b[count++] = (byte) (0xE0 | (c >> 12));
+      b[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+      b[count++] = (byte) (0x80 | (c & 0x3F));
+    }
+  }
+
+  private void putJsonEscaped(final char c) {
+    if (c >= 0x80) {
+      put(c);
+      return;
+    }
+    flushSurrogate();
+    if (!JSON_ESCAPE[c]) {
+      ensureCapacity(count + 1);
+      buf[count++] = (byte) c;
+      return;
+    }
+    ensureCapacity(count + 6);
+    byte[] b = buf;
+    b[count++] = '\\';
+    switch (c) {
+      case '\\':
+      case '"':
+        b[count++] = (byte) c;
+        break;
+      case '\b':
+        b[count++] = 'b';
+        break;
+      case '\t':
+        b[count++] = 't';
+        break;
+      case '\n':
+        b[count++] = 'n';
+        break;
+      case '\f':
+        b[count++] = 'f';
+        break;
+      case '\r':
+        b[count++] = 'r';
+        break;
+      default:
+        b[count++] = 'u';
+        b[count++] = '0';
+        b[count++] = '0';
+        b[count++] = HEX_DIGITS[c >> 4];
+        b[count++] = HEX_DIGITS[c & 0xF];
+    }
+  }
+
+  private static int put2Digits(final byte[] b, final int pos, final int val) {
+    b[pos] = (byte) ('0' + val / 10);
+    b[pos + 1] = (byte) ('0' + val % 10);
+    return pos + 2;
+  }
+
+  private static int nrDigits(final long v) {
+    long p = 10;
+    for (int i = 1; i < 19; i++) {
+      if (v < p) {
+        return i;
+      }
+      p *= 10;
+    }
+    return 19;
+  }
+
+  @Override
+  public String toString() {
+    return new String(buf, 0, count, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Json string escaping view of this appendable, escaping is done while encoding, with no intermediate chars.
+   */
+  public final class JsonStringEscaper implements Appendable {
+
+    private JsonStringEscaper() { }
+
+    @Override
+    public JsonStringEscaper append(@Nullable final CharSequence csq) {
+      if (csq == null) {
+        writeBytes(NULL);
+        return this;
+      }
+      return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public JsonStringEscaper append(@Nullable final CharSequence pcsq, final int start, final int end) {
+      CharSequence csq = pcsq == null ? "null" : pcsq;
+      int i = start;
+      if (highSurrogate == 0) {
+        // ascii fast path, for content that does not need escaping.
+        ensureCapacity(count + end - start);
+        byte[] b = buf;
+        int c = count;
+        for (; i < end; i++) {
+          char ch = csq.charAt(i);
+          if (ch >= 0x80 || JSON_ESCAPE[ch]) {
+            break;
+          }
+          b[c++] = (byte) ch;
+        }
+        count = c;
+      }
+      for (; i < end; i++) {
+        putJsonEscaped(csq.charAt(i));
+      }
+      return this;
+    }
+
+    @Override
+    public JsonStringEscaper append(final char c) {
+      putJsonEscaped(c);
+      return this;
+    }
+
+    /**
+     * numbers need no escaping.
+     */
+    public JsonStringEscaper append(final long nr) {
+      Utf8ByteAppendable.this.append(nr);
+      return this;
+    }
+
+    public Utf8ByteAppendable getTarget() {
+      return Utf8ByteAppendable.this;
+    }
+
+    @Override
+    public String toString() {
+      return "JsonStringEscaper{" + Utf8ByteAppendable.this + '}';
+    }
+
+  }
+
+}
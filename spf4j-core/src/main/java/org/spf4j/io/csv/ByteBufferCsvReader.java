@@ -0,0 +1,524 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io.csv;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A CSV reader over a UTF-8 (or ASCII) encoded ByteBuffer (heap, direct or memory mapped).
+ *
+ * Separators, quotes and line ends are searched 8 bytes at a time (SWAR), and elements are exposed as
+ * (offset, length) slices of the buffer, see {@link #getElementOffset()}, {@link #getElementByteLength()}.
+ * {@link #getElement()} returns a lazily decoded, reused CharSequence; for unquoted ASCII elements no decoding
+ * or copying is done at all.
+ *
+ * Element offsets are relative to the buffer position this reader was created with.
+ * The token sequence is identical to the one produced by the Reader based {@link CharSeparatedValues} reader.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+public final class ByteBufferCsvReader implements CsvReader {
+
+  private static final long ONES = 0x0101010101010101L;
+
+  private static final long HIGHS = 0x8080808080808080L;
+
+  private static final long LF = ONES * '\n';
+
+  private static final long CR = ONES * '\r';
+
+  private static final long QUOTE = ONES * '"';
+
+  private final ByteBuffer buf;
+
+  private final int end;
+
+  private final byte separator;
+
+  private final long separatorMask;
+
+  private final Element element;
+
+  private int pos;
+
+  private CsvReader.TokenType currentToken;
+
+  private CsvReader.TokenType nextToken;
+
+  private long lineNr;
+
+  private int elemStart;
+
+  private int elemEnd;
+
+  private boolean elemQuoted;
+
+  /**
+   * @param buffer the buffer to read, content between position and limit will be read. (no BOM handling)
+   * @param separator the separator, must be a ASCII character.
+   */
+  public ByteBufferCsvReader(final ByteBuffer buffer, final char separator) {
+    if (separator == '\n' || separator == '\r' || separator == '"' || separator >= 0x80) {
+      throw new IllegalArgumentException("Illegal separator character " + separator);
+    }
+    this.buf = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    this.end = buf.limit();
+    this.separator = (byte) separator;
+    this.separatorMask = ONES * separator;
+    this.element = new Element();
+    this.pos = 0;
+    this.currentToken = CsvReader.TokenType.START_DOCUMENT;
+    this.nextToken = null;
+    this.lineNr = 0;
+  }
+
+  /**
+   * @return true if x contains a zero byte, the lowest set bit marks the first (little endian) zero byte.
+   */
+  private static long zeroBytes(final long x) {
+    return (x - ONES) & ~x & HIGHS;
+  }
+
+  private int indexOfDelimiter(final int from) {
+    int i = from;
+    while (i + 8 <= end) {
+      long w = buf.getLong(i);
+      long m = zeroBytes(w ^ separatorMask) | zeroBytes(w ^ LF) | zeroBytes(w ^ CR);
+      if (m != 0) {
+        return i + (Long.numberOfTrailingZeros(m) >>> 3);
+      }
+      i += 8;
+    }
+    for (; i < end; i++) {
+      byte b = buf.get(i);
+      if (b == separator || b == '\n' || b == '\r') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOfQuote(final ByteBuffer buf, final int from, final int end) {
+    int i = from;
+    while (i + 8 <= end) {
+      long m = zeroBytes(buf.getLong(i) ^ QUOTE);
+      if (m != 0) {
+        return i + (Long.numberOfTrailingZeros(m) >>> 3);
+      }
+      i += 8;
+    }
+    for (; i < end; i++) {
+      if (buf.get(i) == '"') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * read a CSV element.
+   * @return the character after the element, -1 if EOF.
+   */
+  private int readElement() throws CsvParseException {
+    element.reset();
+    if (pos < end && buf.get(pos) == '"') {
+      elemQuoted = true;
+      elemStart = pos + 1;
+      int i = elemStart;
+      while (true) {
+        int q = indexOfQuote(buf, i, end);
+        if (q < 0) {
+          throw new CsvParseException("Escaped CSV element at " + elemStart
+                  + " not terminated correctly at " + lineNr);
+        }
+        if (q + 1 < end && buf.get(q + 1) == '"') {
+          i = q + 2;
+        } else {
+          elemEnd = q;
+          pos = q + 1;
+          break;
+        }
+      }
+      if (pos >= end) {
+        return -1;
+      }
+      return buf.get(pos++) & 0xFF;
+    } else {
+      elemQuoted = false;
+      elemStart = pos;
+      int d = indexOfDelimiter(pos);
+      if (d < 0) {
+        elemEnd = end;
+        pos = end;
+        return -1;
+      }
+      elemEnd = d;
+      pos = d + 1;
+      return buf.get(d);
+    }
+  }
+
+  @SuppressFBWarnings("SF_SWITCH_FALLTHROUGH")
+  private void readNext() throws CsvParseException {
+    switch (currentToken) {
+      case END_DOCUMENT:
+        nextToken = TokenType.END_DOCUMENT;
+        return;
+      case END_ROW:
+        // handle special case of EOF followed by EOL.
+        if (pos >= end) {
+          currentToken = TokenType.END_DOCUMENT;
+          nextToken = TokenType.END_DOCUMENT;
+          return;
+        }
+      case START_DOCUMENT:
+      case ELEMENT:
+        int next = readElement();
+        currentToken = CsvReader.TokenType.ELEMENT;
+        switch (next) {
+          case '\r':
+            lineNr++;
+            nextToken = CsvReader.TokenType.END_ROW;
+            if (pos < end && buf.get(pos) == '\n') {
+              pos++;
+            }
+            return;
+          case '\n':
+            lineNr++;
+            nextToken = CsvReader.TokenType.END_ROW;
+            if (pos < end && buf.get(pos) == '\r') {
+              pos++;
+            }
+            return;
+          default:
+            if (next != separator) {
+              if (next < 0) {
+                nextToken = CsvReader.TokenType.END_ROW;
+              } else {
+                throw new CsvParseException("Unexpected character " + next + " at line" + lineNr);
+              }
+            }
+        }
+        return;
+      default:
+        throw new IllegalStateException("Invalid current token " + currentToken);
+    }
+  }
+
+  @Override
+  @Nonnull
+  public CsvReader.TokenType next() throws CsvParseException {
+    if (nextToken == null) {
+      readNext();
+      return currentToken;
+    } else {
+      CsvReader.TokenType result = nextToken;
+      if (result != CsvReader.TokenType.END_DOCUMENT) {
+        nextToken = null;
+      }
+      currentToken = result;
+      return result;
+    }
+  }
+
+  @Override
+  @Nonnull
+  public CsvReader.TokenType current() {
+    return currentToken;
+  }
+
+  /**
+   * @return the current element, lazily decoded. The instance is reused, and is valid only until next is called.
+   */
+  @Override
+  public CharSequence getElement() {
+    checkElement();
+    return element;
+  }
+
+  private void checkElement() {
+    if (currentToken != TokenType.ELEMENT) {
+      throw new IllegalStateException("No current element, current token is " + currentToken);
+    }
+  }
+
+  /**
+   * @return the offset of the current element raw content in the buffer (quotes excluded).
+   */
+  public int getElementOffset() {
+    checkElement();
+    return elemStart;
+  }
+
+  /**
+   * @return the byte length of the current element raw content (quotes excluded).
+   */
+  public int getElementByteLength() {
+    checkElement();
+    return elemEnd - elemStart;
+  }
+
+  /**
+   * @return true if the current element is quoted, in which case the raw content will contain escaped (doubled)
+   * quotes.
+   */
+  public boolean isElementQuoted() {
+    checkElement();
+    return elemQuoted;
+  }
+
+  /**
+   * Parse the current element as a long, straight from the buffer.
+   */
+  public long getElementAsLong() {
+    checkElement();
+    int i = elemStart;
+    if (i >= elemEnd) {
+      throw new NumberFormatException("Empty element at line " + lineNr);
+    }
+    boolean negative = false;
+    long limit = -Long.MAX_VALUE;
+    byte first = buf.get(i);
+    if (first == '-') {
+      negative = true;
+      limit = Long.MIN_VALUE;
+      i++;
+    } else if (first == '+') {
+      i++;
+    }
+    if (i == elemEnd) {
+      throw new NumberFormatException("For input: \"" + element + "\" at line " + lineNr);
+    }
+    long multmin = limit / 10;
+    long result = 0;
+    while (i < elemEnd) {
+      int digit = buf.get(i++) - '0';
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw new NumberFormatException("For input: \"" + element + "\" at line " + lineNr);
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw new NumberFormatException("For input: \"" + element + "\" at line " + lineNr);
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  @Override
+  public long currentLineNumber() {
+    return lineNr;
+  }
+
+  /**
+   * Count the quote characters between from and to.
+   */
+  static long countQuotes(final ByteBuffer buffer, final int from, final int to) {
+    ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    long result = 0;
+    int i = from;
+    while (i + 8 <= to) {
+      long x = b.getLong(i) ^ QUOTE;
+      // exact zero byte count (no borrow propagation false positives).
+      long z = ~(((x & ~HIGHS) + ~HIGHS) | x | ~HIGHS);
+      result += Long.bitCount(z);
+      i += 8;
+    }
+    for (; i < to; i++) {
+      if (b.get(i) == '"') {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find the beginning of the first row at or after from.
+   * @param inQuotes true if from is within a quoted element.
+   * @return the row start index or to if there is none.
+   */
+  static int nextRowStart(final ByteBuffer buffer, final int from, final int to, final boolean inQuotes) {
+    ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    boolean quoted = inQuotes;
+    int i = from;
+    while (i < to) {
+      if (quoted) {
+        int q = indexOfQuote(b, i, to);
+        if (q < 0) {
+          return to;
+        }
+        quoted = false;
+        i = q + 1;
+      } else {
+        byte c = b.get(i++);
+        if (c == '"') {
+          quoted = true;
+        } else if (c == '\n' || c == '\r') {
+          if (i < to) {
+            byte c2 = b.get(i);
+            if ((c2 == '\n' || c2 == '\r') && c2 != c) {
+              i++;
+            }
+          }
+          return i;
+        }
+      }
+    }
+    return to;
+  }
+
+  @Override
+  public String toString() {
+    return "ByteBufferCsvReader{" + "separator=" + (char) separator + ", pos=" + pos
+            + ", currentToken=" + currentToken + ", lineNr=" + lineNr + '}';
+  }
+
+  /**
+   * The lazily decoded current element.
+   */
+  private final class Element implements CharSequence {
+
+    private char[] chars = new char[64];
+
+    private int length;
+
+    private boolean decoded;
+
+    private boolean direct;
+
+    void reset() {
+      decoded = false;
+    }
+
+    private void decode() {
+      if (decoded) {
+        return;
+      }
+      decoded = true;
+      if (!elemQuoted && isAscii()) {
+        direct = true;
+        length = elemEnd - elemStart;
+        return;
+      }
+      direct = false;
+      int maxLen = elemEnd - elemStart;
+      if (chars.length < maxLen) {
+        chars = Arrays.copyOf(chars, Math.max(maxLen, chars.length << 1));
+      }
+      int n = 0;
+      int i = elemStart;
+      while (i < elemEnd) {
+        int b = buf.get(i++);
+        if (b >= 0) {
+          chars[n++] = (char) b;
+          if (b == '"' && elemQuoted) {
+            i++; // skip the escaped quote.
+          }
+        } else if ((b & 0xE0) == 0xC0 && i < elemEnd) {
+          chars[n++] = (char) (((b & 0x1F) << 6) | (buf.get(i++) & 0x3F));
+        } else if ((b & 0xF0) == 0xE0 && i + 1 < elemEnd) {
+          chars[n++] = (char) (((b & 0x0F) << 12) | ((buf.get(i++) & 0x3F) << 6) | (buf.get(i++) & 0x3F));
+        } else if ((b & 0xF8) == 0xF0 && i + 2 < elemEnd) {
+          int cp = ((b & 0x07) << 18) | ((buf.get(i++) & 0x3F) << 12) | ((buf.get(i++) & 0x3F) << 6)
+                  | (buf.get(i++) & 0x3F);
+          chars[n++] = Character.highSurrogate(cp);
+          chars[n++] = Character.lowSurrogate(cp);
+        } else {
+          chars[n++] = '\uFFFD';
+        }
+      }
+      length = n;
+    }
+
+    private boolean isAscii() {
+      int i = elemStart;
+      while (i + 8 <= elemEnd) {
+        if ((buf.getLong(i) & HIGHS) != 0) {
+          return false;
+        }
+        i += 8;
+      }
+      for (; i < elemEnd; i++) {
+        if (buf.get(i) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int length() {
+      decode();
+      return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+      decode();
+      if (index < 0 || index >= length) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + length);
+      }
+      if (direct) {
+        return (char) buf.get(elemStart + index);
+      } else {
+        return chars[index];
+      }
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      decode();
+      if (direct) {
+        char[] result = new char[length];
+        for (int i = 0, j = elemStart; i < length; i++, j++) {
+          result[i] = (char) buf.get(j);
+        }
+        return new String(result);
+      } else {
+        return new String(chars, 0, length);
+      }
+    }
+
+  }
+
+}
@@ -40,16 +40,24 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.ParametersAreNonnullByDefault;
 import org.spf4j.base.Arrays;
 import org.spf4j.base.CharSequences;
+import org.spf4j.base.UncheckedExecutionException;
 import org.spf4j.io.PushbackReader;
 
 /**
@@ -231,7 +239,11 @@ public final class CharSeparatedValues {
    */
   public <T> T readNoBom(final PushbackReader reader, final CsvHandler<T> handler)
           throws IOException, CsvParseException {
-    CsvReader r = reader(reader);
+    return handle(reader(reader), handler);
+  }
+
+  private static <T> T handle(final CsvReader r, final CsvHandler<T> handler)
+          throws IOException, CsvParseException {
     handler.startRow(0);
     CsvReader.TokenType token = r.next();
     while (token != CsvReader.TokenType.END_DOCUMENT) {
@@ -323,6 +335,241 @@ public final class CharSeparatedValues {
     return new CsvReaderImpl(reader);
   }
 
+  /**
+   * A CSV reader over a UTF-8 or ASCII encoded buffer, a UTF-8 BOM will be skipped.
+   * The buffer position and limit are not changed.
+   * @param utf8Buffer the buffer (heap, direct or memory mapped).
+   * @return the reader.
+   */
+  public ByteBufferCsvReader reader(final ByteBuffer utf8Buffer) {
+    return new ByteBufferCsvReader(skipBom(utf8Buffer), separator);
+  }
+
+  private static ByteBuffer skipBom(final ByteBuffer utf8Buffer) {
+    ByteBuffer result = utf8Buffer.duplicate();
+    int p = result.position();
+    if (result.remaining() >= 3 && result.get(p) == (byte) 0xEF && result.get(p + 1) == (byte) 0xBB
+            && result.get(p + 2) == (byte) 0xBF) {
+      result.position(p + 3);
+    }
+    return result;
+  }
+
+  /**
+   * Split a UTF-8 or ASCII encoded CSV buffer into approximately equal chunks at row boundaries.
+   * Row boundaries are resolved correctly even when quoted elements contain line ends: the quote parity at each
+   * nominal chunk start is computed from the quote counts of the preceding chunks.
+   * (requires that quotes appear only in quoted elements, as written by this implementation)
+   *
+   * @param utf8Buffer the buffer to split.
+   * @param nrChunks the desired number of chunks.
+   * @return the non empty chunks (a single empty chunk for empty input), each can be read with
+   * {@link #readerNoBOM(java.nio.ByteBuffer)} independently.
+   */
+  public List<ByteBuffer> splitRows(final ByteBuffer utf8Buffer, final int nrChunks) {
+    ByteBuffer buf = skipBom(utf8Buffer);
+    int[] bounds = nominalBounds(buf, nrChunks);
+    long[] quotes = new long[bounds.length - 1];
+    for (int i = 0; i < quotes.length; i++) {
+      quotes[i] = ByteBufferCsvReader.countQuotes(buf, bounds[i], bounds[i + 1]);
+    }
+    return rowAlignedChunks(buf, bounds, quotes);
+  }
+
+  /**
+   * Read a UTF-8 or ASCII encoded CSV buffer (like a memory mapped file) in parallel.
+   * The buffer is split into row aligned chunks (see {@link #splitRows(java.nio.ByteBuffer, int)}), the quote counting
+   * and the parsing of each chunk are executed with the provided executor.
+   * Only the first chunk will contain the header row, and row numbers passed to the handlers are relative to the
+   * chunk start.
+   *
+   * @param <T> the handler result type.
+   * @param utf8Buffer the buffer to read.
+   * @param nrChunks the number of chunks to split the buffer into.
+   * @param executor the executor to run the chunk tasks.
+   * @param handlerSupplier supplies a handler for each chunk.
+   * @return the handler results in chunk order.
+   */
+  public <T> List<T> readParallel(final ByteBuffer utf8Buffer, final int nrChunks,
+          final ExecutorService executor, final Supplier<CsvHandler<T>> handlerSupplier)
+          throws CsvParseException, InterruptedException {
+    ByteBuffer buf = skipBom(utf8Buffer);
+    int[] bounds = nominalBounds(buf, nrChunks);
+    int nrNominal = bounds.length - 1;
+    List<Future<Long>> quoteCounts = new ArrayList<>(nrNominal);
+    for (int i = 0; i < nrNominal; i++) {
+      final int from = bounds[i];
+      final int to = bounds[i + 1];
+      quoteCounts.add(executor.submit(() -> ByteBufferCsvReader.countQuotes(buf, from, to)));
+    }
+    long[] quotes = new long[nrNominal];
+    for (int i = 0; i < nrNominal; i++) {
+      quotes[i] = getChunkResult(quoteCounts.get(i));
+    }
+    List<ByteBuffer> chunks = rowAlignedChunks(buf, bounds, quotes);
+    List<Future<T>> futures = new ArrayList<>(chunks.size());
+    for (ByteBuffer chunk : chunks) {
+      futures.add(executor.submit(() -> {
+        CsvHandler<T> handler = handlerSupplier.get();
+        if (!chunk.hasRemaining()) {
+          return handler.eof();
+        }
+        return handle(readerNoBOM(chunk), handler);
+      }));
+    }
+    List<T> result = new ArrayList<>(futures.size());
+    for (Future<T> future : futures) {
+      result.add(getChunkResult(future));
+    }
+    return result;
+  }
+
+  /**
+   * Read a UTF-8 or ASCII encoded CSV file in parallel, the file is memory mapped.
+   * see {@link #readParallel(java.nio.ByteBuffer, int, java.util.concurrent.ExecutorService,
+   * java.util.function.Supplier)}.
+   * Files larger than 2GB are mapped in several row aligned regions, every region is at most 2GB.
+   * (rows must be smaller than 1GB)
+   */
+  public <T> List<T> readParallel(final File file, final int nrChunks,
+          final ExecutorService executor, final Supplier<CsvHandler<T>> handlerSupplier)
+          throws IOException, CsvParseException, InterruptedException {
+    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return readParallel(ch, nrChunks, Integer.MAX_VALUE, executor, handlerSupplier);
+    }
+  }
+
+  /**
+   * Read a channel in parallel, if the channel is larger than maxRegionSize, the channel is split into
+   * nominal chunks of at most maxRegionSize / 2 that are mapped separately to count the quotes,
+   * and the row aligned chunks are mapped separately for parsing.
+   */
+  <T> List<T> readParallel(final FileChannel ch, final int nrChunks, final long maxRegionSize,
+          final ExecutorService executor, final Supplier<CsvHandler<T>> handlerSupplier)
+          throws IOException, CsvParseException, InterruptedException {
+    long size = ch.size();
+    if (size <= maxRegionSize) {
+      return readParallel(ch.map(FileChannel.MapMode.READ_ONLY, 0, size), nrChunks, executor, handlerSupplier);
+    }
+    if (nrChunks < 1) {
+      throw new IllegalArgumentException("Invalid number of chunks " + nrChunks);
+    }
+    long start = skipBom(ch.map(FileChannel.MapMode.READ_ONLY, 0, 3)).position();
+    long dataSize = size - start;
+    long maxChunkSize = maxRegionSize / 2;
+    int n = (int) Math.max(nrChunks, (dataSize + maxChunkSize - 1) / maxChunkSize);
+    long[] bounds = new long[n + 1];
+    for (int i = 0; i < n; i++) {
+      bounds[i] = start + dataSize / n * i;
+    }
+    bounds[n] = size;
+    List<Future<Long>> quoteCounts = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      ByteBuffer region = ch.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+      quoteCounts.add(executor.submit(() -> ByteBufferCsvReader.countQuotes(region, 0, region.limit())));
+    }
+    long[] rowBounds = new long[n + 1];
+    rowBounds[0] = start;
+    rowBounds[n] = size;
+    long quoteCount = 0;
+    for (int i = 1; i < n; i++) {
+      quoteCount += getChunkResult(quoteCounts.get(i - 1));
+      long from = bounds[i];
+      long to = Math.min(size, from + maxChunkSize);
+      ByteBuffer window = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+      int rowStart = ByteBufferCsvReader.nextRowStart(window, 0, window.limit(), (quoteCount & 1) != 0);
+      if (rowStart == window.limit() && to < size) {
+        throw new IOException("Row at " + from + " is larger than " + maxChunkSize + " bytes in " + ch);
+      }
+      rowBounds[i] = Math.max(rowBounds[i - 1], from + rowStart);
+    }
+    List<Future<T>> futures = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      long from = rowBounds[i];
+      long len = rowBounds[i + 1] - from;
+      if (len > 0) {
+        ByteBuffer chunk = ch.map(FileChannel.MapMode.READ_ONLY, from, len);
+        futures.add(executor.submit(() -> handle(readerNoBOM(chunk), handlerSupplier.get())));
+      }
+    }
+    List<T> result = new ArrayList<>(futures.size());
+    for (Future<T> future : futures) {
+      result.add(getChunkResult(future));
+    }
+    return result;
+  }
+
+  private static <T> T getChunkResult(final Future<T> future) throws CsvParseException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof CsvParseException) {
+        throw (CsvParseException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new UncheckedExecutionException(cause);
+      }
+    }
+  }
+
+  private static int[] nominalBounds(final ByteBuffer buf, final int nrChunks) {
+    if (nrChunks < 1) {
+      throw new IllegalArgumentException("Invalid number of chunks " + nrChunks);
+    }
+    int from = buf.position();
+    long size = buf.remaining();
+    int n = (int) Math.max(1, Math.min(nrChunks, size / 8));
+    int[] bounds = new int[n + 1];
+    for (int i = 0; i < n; i++) {
+      bounds[i] = from + (int) (size * i / n);
+    }
+    bounds[n] = buf.limit();
+    return bounds;
+  }
+
+  private static List<ByteBuffer> rowAlignedChunks(final ByteBuffer buf, final int[] bounds, final long[] quotes) {
+    List<ByteBuffer> result = new ArrayList<>(quotes.length);
+    long quoteCount = 0;
+    int start = bounds[0];
+    for (int i = 1; i <= quotes.length; i++) {
+      quoteCount += quotes[i - 1];
+      int end;
+      if (i == quotes.length) {
+        end = bounds[i];
+      } else {
+        end = Math.max(start, ByteBufferCsvReader.nextRowStart(buf, bounds[i], bounds[quotes.length],
+                (quoteCount & 1) != 0));
+      }
+      if (end > start) {
+        ByteBuffer chunk = buf.duplicate();
+        chunk.limit(end);
+        chunk.position(start);
+        result.add(chunk.slice());
+      }
+      start = end;
+    }
+    if (result.isEmpty()) {
+      // empty input, a single empty chunk.
+      ByteBuffer chunk = buf.duplicate();
+      chunk.position(bounds[0]);
+      result.add(chunk.slice());
+    }
+    return result;
+  }
+
+  /**
+   * assumes there is not BOM. (byte order marker)
+   * @param utf8Buffer
+   * @return
+   */
+  public ByteBufferCsvReader readerNoBOM(final ByteBuffer utf8Buffer) {
+    return new ByteBufferCsvReader(utf8Buffer, separator);
+  }
+
   public CsvWriter writer(final Writer writer) {
     return new CsvWriterImpl(writer);
   }
@@ -179,7 +179,10 @@ public final class Spf4jOpenTypeMapper implements JMXBeanMappingSupplier {
   @Override
   @Nullable
   public JMXBeanMapping get(final Type t) throws NotSerializableException {
-
+        JMXBeanMapping cached = cache.getIfPresent(t);
+        if (cached != null) {
+          return cached == JMXBeanMapping.NOMAPPING ? null : cached;
+        }
         Set<Type> ip = IN_PROGRESS.get();
         if (ip.contains(t)) {
            LOG.log(Level.FINE, "No openType mapping for {0} recursive data structure", t);
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.base.ErrLog;
+import org.spf4j.base.ShutdownHooks;
+import org.spf4j.base.ShutdownThread;
+
+/**
+ * An asynchronous log printer.
+ * Records are formatted on the logging thread and copied into a preallocated slot of a bounded multi producer ring
+ * buffer. A single writer thread drains the ring buffer, coalescing all available records into as few write calls
+ * as possible (a single gathering write for channels).
+ * When the ring buffer is full, the overflow policy decides if the logging thread waits or the record is dropped.
+ * Pending records are written at the observability services shutdown phase.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+public final class AsyncLogPrinter implements Flushable, Closeable {
+
+  public enum OverflowPolicy {
+    /** logging threads wait for space. */
+    BLOCK,
+    /** records below the min blocking level are dropped when the buffer is full, the rest wait for space. */
+    DROP_BY_LEVEL,
+    /**
+     * records below the min blocking level are sampled when the buffer is more than half full,
+     * and dropped when it is full. The rest wait for space.
+     */
+    SAMPLE
+  }
+
+  private static final int DEFAULT_CAPACITY = Integer.getInteger("spf4j.asyncLogPrinter.capacity", 1024);
+
+  private static final OverflowPolicy DEFAULT_POLICY =
+          OverflowPolicy.valueOf(System.getProperty("spf4j.asyncLogPrinter.overflowPolicy", "BLOCK"));
+
+  private static final Level DEFAULT_MIN_BLOCKING_LEVEL =
+          Level.valueOf(System.getProperty("spf4j.asyncLogPrinter.minBlockingLevel", "WARN"));
+
+  private static final int DEFAULT_SAMPLE_RATE = Integer.getInteger("spf4j.asyncLogPrinter.sampleRate", 10);
+
+  private static final int INITIAL_SLOT_SIZE = 256;
+
+  private static final int MAX_RETAINED_SLOT_SIZE =
+          Integer.getInteger("spf4j.asyncLogPrinter.maxRetainedSlotSize", 1024 * 32);
+
+  private static final int COALESCE_BUFFER_SIZE = 1024 * 64;
+
+  private final LogPrinter printer;
+
+  private final Sink[] sinks;
+
+  private final Slot[] slots;
+
+  private final int mask;
+
+  @GuardedBy("slots")
+  private final ByteBuffer[] batch;
+
+  private final OverflowPolicy policy;
+
+  private final Level minBlockingLevel;
+
+  private final int sampleRate;
+
+  /** next sequence to claim. */
+  private final AtomicLong head;
+
+  /** next sequence to write, updated only while holding the slots monitor. */
+  private volatile long tail;
+
+  private final Thread writer;
+
+  private final Runnable shutdownHook;
+
+  /**
+   * set by the idle writer before it re-checks for pending records and parks,
+   * producers that observe it after publishing unpark the writer.
+   */
+  private volatile boolean writerParked;
+
+  private volatile boolean closed;
+
+  private final AtomicInteger sampleCounter;
+
+  private final LongAdder dropped;
+
+  private final LongAdder sampledOut;
+
+  private final LongAdder waited;
+
+  /**
+   * Create a async printer with the default capacity and overflow policy.
+   * (see spf4j.asyncLogPrinter.* system properties)
+   */
+  public AsyncLogPrinter(final LogPrinter printer, final OutputStream out, final OutputStream err) {
+    this(printer, out, err, DEFAULT_CAPACITY, DEFAULT_POLICY, DEFAULT_MIN_BLOCKING_LEVEL, DEFAULT_SAMPLE_RATE);
+  }
+
+  /**
+   * @param printer the record formatter.
+   * @param out the stream where records are written.
+   * @param err the stream where error records are written.
+   * @param capacity the number of records that can be buffered, rounded up to a power of 2.
+   * @param policy the overflow policy.
+   * @param minBlockingLevel the min level of records that are never dropped.
+   * @param sampleRate with SAMPLE policy, 1 of sampleRate records is retained when over half full.
+   */
+  public AsyncLogPrinter(final LogPrinter printer, final OutputStream out, final OutputStream err,
+          final int capacity, final OverflowPolicy policy, final Level minBlockingLevel, final int sampleRate) {
+    this(printer, out == err ? new Sink[] {new StreamSink(out)} : new Sink[] {new StreamSink(out), new StreamSink(err)},
+            capacity, policy, minBlockingLevel, sampleRate);
+  }
+
+  /**
+   * Create a async printer writing to a channel, all records are written with gathering writes.
+   */
+  public AsyncLogPrinter(final LogPrinter printer, final GatheringByteChannel channel,
+          final int capacity, final OverflowPolicy policy, final Level minBlockingLevel, final int sampleRate) {
+    this(printer, new Sink[] {new ChannelSink(channel)}, capacity, policy, minBlockingLevel, sampleRate);
+  }
+
+  @SuppressFBWarnings("SC_START_IN_CTOR")
+  private AsyncLogPrinter(final LogPrinter printer, final Sink[] sinks,
+          final int capacity, final OverflowPolicy policy, final Level minBlockingLevel, final int sampleRate) {
+    if (capacity < 2 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    if (sampleRate < 1) {
+      throw new IllegalArgumentException("Invalid sample rate " + sampleRate);
+    }
+    this.printer = printer;
+    this.sinks = sinks;
+    int size = Integer.highestOneBit(capacity - 1) << 1;
+    this.slots = new Slot[size];
+    for (int i = 0; i < size; i++) {
+      slots[i] = new Slot();
+    }
+    this.mask = size - 1;
+    this.batch = new ByteBuffer[Math.min(size, 1024)];
+    this.policy = policy;
+    this.minBlockingLevel = minBlockingLevel;
+    this.sampleRate = sampleRate;
+    this.head = new AtomicLong();
+    this.tail = 0;
+    this.sampleCounter = new AtomicInteger();
+    this.dropped = new LongAdder();
+    this.sampledOut = new LongAdder();
+    this.waited = new LongAdder();
+    this.closed = false;
+    this.writerParked = false;
+    this.writer = new Thread(this::runWriter, "spf4j-async-log-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+    this.shutdownHook = this::close;
+    if (!ShutdownThread.get().queueHook(ShutdownHooks.ShutdownPhase.OBSERVABILITY_SERVICES, shutdownHook)) {
+      ErrLog.error("Shutdown in progress, " + this + " will not be flushed at shutdown");
+    }
+  }
+
+  /**
+   * Print a log record. Error records are written to the err stream, if one was provided.
+   */
+  public void print(final Slf4jLogRecord record) {
+    Level level = record.getLevel();
+    boolean mayDrop = policy != OverflowPolicy.BLOCK && level.ordinal() < minBlockingLevel.ordinal();
+    if (mayDrop) {
+      long used = head.get() - tail;
+      if (used >= slots.length) {
+        dropped.increment();
+        return;
+      }
+      if (policy == OverflowPolicy.SAMPLE && used >= (slots.length >> 1)
+              && (sampleCounter.getAndIncrement() & Integer.MAX_VALUE) % sampleRate != 0) {
+        sampledOut.increment();
+        return;
+      }
+    }
+    int sink = level == Level.ERROR && sinks.length > 1 ? 1 : 0;
+    printer.print(record, (bytes, len) -> publish(bytes, len, sink, !mayDrop));
+  }
+
+  private void publish(final byte[] bytes, final int len, final int sink, final boolean wait) {
+    if (closed) {
+      writeDirect(bytes, len, sink);
+      return;
+    }
+    long seq = claim(wait);
+    if (seq < 0) {
+      dropped.increment();
+      return;
+    }
+    Slot slot = slots[(int) seq & mask];
+    slot.set(bytes, len, sink);
+    slot.sequence = seq;
+    if (writerParked) {
+      LockSupport.unpark(writer);
+    }
+    if (closed && !writer.isAlive()) {
+      drain();
+    }
+  }
+
+  private long claim(final boolean wait) {
+    boolean hasWaited = false;
+    long h;
+    do {
+      h = head.get();
+      while (h - tail >= slots.length) {
+        if (!wait) {
+          return -1;
+        }
+        if (!hasWaited) {
+          waited.increment();
+          hasWaited = true;
+        }
+        if (writer.isAlive()) {
+          LockSupport.unpark(writer);
+          LockSupport.parkNanos(10000);
+        } else {
+          drain();
+        }
+        h = head.get();
+      }
+    } while (!head.compareAndSet(h, h + 1));
+    return h;
+  }
+
+  private void writeDirect(final byte[] bytes, final int len, final int sink) {
+    synchronized (slots) {
+      drain();
+      try {
+        Sink s = sinks[sink];
+        s.write(new ByteBuffer[] {ByteBuffer.wrap(bytes, 0, len)}, 1);
+        s.flush();
+      } catch (IOException ex) {
+        ErrLog.error("Failed to write log record", ex);
+      }
+    }
+  }
+
+  private void runWriter() {
+    while (!closed) {
+      if (drain() == 0) {
+        if (head.get() == tail) {
+          writerParked = true;
+          if (head.get() == tail && !closed) {
+            LockSupport.park(this);
+          }
+          writerParked = false;
+        } else {
+          Thread.yield(); // a record is being published.
+        }
+      }
+    }
+    long deadline = System.nanoTime() + ShutdownThread.WAIT_FOR_SHUTDOWN_NANOS;
+    while (head.get() != tail && deadline - System.nanoTime() > 0) {
+      if (drain() == 0) {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * Write all the available published records.
+   * @return the number of records written.
+   */
+  private int drain() {
+    synchronized (slots) {
+      long t = tail;
+      int written = 0;
+      boolean[] used = null;
+      while (true) {
+        int sink = -1;
+        int nr = 0;
+        while (nr < batch.length) {
+          long seq = t + nr;
+          Slot slot = slots[(int) seq & mask];
+          if (slot.sequence != seq) {
+            break;
+          }
+          if (sink < 0) {
+            sink = slot.sink;
+          } else if (slot.sink != sink) {
+            break;
+          }
+          batch[nr++] = slot.buffer();
+        }
+        if (nr == 0) {
+          break;
+        }
+        try {
+          sinks[sink].write(batch, nr);
+        } catch (IOException ex) {
+          ErrLog.error("Failed to write " + nr + " log records", ex);
+        }
+        Arrays.fill(batch, 0, nr, null);
+        if (used == null) {
+          used = new boolean[sinks.length];
+        }
+        used[sink] = true;
+        t += nr;
+        tail = t;
+        written += nr;
+      }
+      if (used != null) {
+        for (int i = 0; i < used.length; i++) {
+          if (used[i]) {
+            try {
+              sinks[i].flush();
+            } catch (IOException ex) {
+              ErrLog.error("Failed to flush log sink", ex);
+            }
+          }
+        }
+      }
+      return written;
+    }
+  }
+
+  /**
+   * Wait till all records printed before this invocation are written.
+   */
+  @Override
+  public void flush() {
+    long target = head.get();
+    while (tail < target) {
+      if (writer.isAlive()) {
+        LockSupport.unpark(writer);
+        LockSupport.parkNanos(10000);
+      } else if (drain() == 0) {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * Write all pending records and stop the writer thread. Records printed after close are written synchronously.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join(TimeUnit.NANOSECONDS.toMillis(ShutdownThread.WAIT_FOR_SHUTDOWN_NANOS));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    drain();
+    ShutdownThread.get().removeQueuedShutdownHook(shutdownHook);
+  }
+
+  /**
+   * @return the number of records dropped because the buffer was full.
+   */
+  public long getDroppedCount() {
+    return dropped.sum();
+  }
+
+  /**
+   * @return the number of records not retained by sampling.
+   */
+  public long getSampledOutCount() {
+    return sampledOut.sum();
+  }
+
+  /**
+   * @return the number of times a logging thread had to wait for buffer space.
+   */
+  public long getWaitCount() {
+    return waited.sum();
+  }
+
+  /**
+   * @return the number of records not yet written.
+   */
+  public long getPendingCount() {
+    return head.get() - tail;
+  }
+
+  @Override
+  public String toString() {
+    return "AsyncLogPrinter{" + "capacity=" + slots.length + ", policy=" + policy
+            + ", minBlockingLevel=" + minBlockingLevel + ", sampleRate=" + sampleRate + ", closed=" + closed + '}';
+  }
+
+  private static final class Slot {
+
+    private volatile long sequence = -1;
+
+    private byte[] data = new byte[INITIAL_SLOT_SIZE];
+
+    private int length;
+
+    private int sink;
+
+    void set(final byte[] bytes, final int len, final int toSink) {
+      if (len > data.length || (data.length > MAX_RETAINED_SLOT_SIZE && len <= INITIAL_SLOT_SIZE)) {
+        data = new byte[Math.max(len, INITIAL_SLOT_SIZE)];
+      }
+      System.arraycopy(bytes, 0, data, 0, len);
+      length = len;
+      sink = toSink;
+    }
+
+    ByteBuffer buffer() {
+      return ByteBuffer.wrap(data, 0, length);
+    }
+
+  }
+
+  private interface Sink extends Flushable {
+
+    void write(ByteBuffer[] buffers, int nr) throws IOException;
+
+  }
+
+  private static final class StreamSink implements Sink {
+
+    private final OutputStream os;
+
+    private final byte[] coalesced;
+
+    StreamSink(final OutputStream os) {
+      this.os = os;
+      this.coalesced = new byte[COALESCE_BUFFER_SIZE];
+    }
+
+    @Override
+    public void write(final ByteBuffer[] buffers, final int nr) throws IOException {
+      int pos = 0;
+      for (int i = 0; i < nr; i++) {
+        ByteBuffer b = buffers[i];
+        int len = b.remaining();
+        if (len > coalesced.length - pos) {
+          if (pos > 0) {
+            os.write(coalesced, 0, pos);
+            pos = 0;
+          }
+          if (len > coalesced.length) {
+            os.write(b.array(), b.arrayOffset() + b.position(), len);
+            continue;
+          }
+        }
+        System.arraycopy(b.array(), b.arrayOffset() + b.position(), coalesced, pos, len);
+        pos += len;
+      }
+      if (pos > 0) {
+        os.write(coalesced, 0, pos);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      os.flush();
+    }
+  }
+
+  private static final class ChannelSink implements Sink {
+
+    private final GatheringByteChannel channel;
+
+    ChannelSink(final GatheringByteChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(final ByteBuffer[] buffers, final int nr) throws IOException {
+      long remaining = 0;
+      for (int i = 0; i < nr; i++) {
+        remaining += buffers[i].remaining();
+      }
+      while (remaining > 0) {
+        remaining -= channel.write(buffers, 0, nr);
+      }
+    }
+
+    @Override
+    public void flush() {
+      // nothing to flush, data is handed over to the OS on write.
+    }
+  }
+
+}
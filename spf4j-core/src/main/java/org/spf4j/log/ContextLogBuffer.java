@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.temporal.TemporalAccessor;
+import java.util.Collections;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Marker;
+import org.spf4j.base.Slf4jMessageFormatter;
+import org.spf4j.concurrent.UID;
+
+/**
+ * A compact buffer for the logs captured by a execution context, it retains the most recent maxSize records.
+ *
+ * Records are stored in parallel arrays (format reference, logger, level, marker, timestamp, thread name),
+ * up to 4 arguments per record are stored inline with primitive wrappers unboxed, so that the captured records
+ * do not retain the argument wrappers or any per record objects. Records are materialized as Slf4jLogRecord
+ * (and formatted) only when they are streamed, which typically happens only when the context ends in error.
+ *
+ * Immutable arguments (Strings, primitive wrappers, enums, ...) are retained as is, all other arguments are
+ * snapshotted (formatted) when captured, so later changes to them are not reflected in the captured records.
+ * Throwable arguments are retained as is.
+ *
+ * Records that are materialized are retained, so changes made to them (setIsLogged, attach) are not lost.
+ *
+ * @author Zoltan Farkas
+ */
+@NotThreadSafe
+@ParametersAreNonnullByDefault
+public final class ContextLogBuffer {
+
+  private static final int INLINE_ARGS = 4;
+
+  private static final int INITIAL_CAPACITY = 8;
+
+  private static final byte REF = 0;
+  private static final byte INT = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte FLOAT = 4;
+  private static final byte BOOLEAN = 5;
+  private static final byte CHAR = 6;
+  private static final byte SHORT = 7;
+  private static final byte BYTE = 8;
+
+  private static final byte LOGGED = (byte) 0x80;
+
+  private static final Level[] LEVELS = Level.values();
+
+  private final int maxSize;
+
+  /** index of the oldest record. */
+  private int start;
+
+  private int size;
+
+  private long[] timestamps;
+
+  private byte[] levels;
+
+  private String[] loggers;
+
+  private String[] threadNames;
+
+  private String[] formats;
+
+  private Marker[] markers;
+
+  /** number of arguments, -1 if the arguments are in overflowArgs, or the record is in records. */
+  private byte[] nrArgs;
+
+  private byte[] argKinds;
+
+  private long[] primitiveArgs;
+
+  private Object[] refArgs;
+
+  /** arguments of records with more than INLINE_ARGS arguments. */
+  private Object[][] overflowArgs;
+
+  /** records added already materialized. */
+  private Slf4jLogRecord[] records;
+
+  /**
+   * @param maxSize the max number of records retained.
+   */
+  public ContextLogBuffer(final int maxSize) {
+    this.maxSize = maxSize;
+    allocate(Math.min(INITIAL_CAPACITY, maxSize));
+  }
+
+  private void allocate(final int capacity) {
+    timestamps = new long[capacity];
+    levels = new byte[capacity];
+    loggers = new String[capacity];
+    threadNames = new String[capacity];
+    formats = new String[capacity];
+    markers = new Marker[capacity];
+    nrArgs = new byte[capacity];
+    argKinds = new byte[capacity * INLINE_ARGS];
+    primitiveArgs = new long[capacity * INLINE_ARGS];
+    refArgs = new Object[capacity * INLINE_ARGS];
+    overflowArgs = new Object[capacity][];
+    records = new Slf4jLogRecord[capacity];
+  }
+
+  private void grow() {
+    int capacity = timestamps.length;
+    long[] oTimestamps = timestamps;
+    byte[] oLevels = levels;
+    String[] oLoggers = loggers;
+    String[] oThreadNames = threadNames;
+    String[] oFormats = formats;
+    Marker[] oMarkers = markers;
+    byte[] oNrArgs = nrArgs;
+    byte[] oArgKinds = argKinds;
+    long[] oPrimitiveArgs = primitiveArgs;
+    Object[] oRefArgs = refArgs;
+    Object[][] oOverflowArgs = overflowArgs;
+    Slf4jLogRecord[] oRecords = records;
+    allocate(Math.min(capacity * 2, maxSize));
+    // the buffer is full when growing, so the records are in [start, capacity) + [0, start)
+    int firstPart = capacity - start;
+    System.arraycopy(oTimestamps, start, timestamps, 0, firstPart);
+    System.arraycopy(oTimestamps, 0, timestamps, firstPart, start);
+    System.arraycopy(oLevels, start, levels, 0, firstPart);
+    System.arraycopy(oLevels, 0, levels, firstPart, start);
+    System.arraycopy(oLoggers, start, loggers, 0, firstPart);
+    System.arraycopy(oLoggers, 0, loggers, firstPart, start);
+    System.arraycopy(oThreadNames, start, threadNames, 0, firstPart);
+    System.arraycopy(oThreadNames, 0, threadNames, firstPart, start);
+    System.arraycopy(oFormats, start, formats, 0, firstPart);
+    System.arraycopy(oFormats, 0, formats, firstPart, start);
+    System.arraycopy(oMarkers, start, markers, 0, firstPart);
+    System.arraycopy(oMarkers, 0, markers, firstPart, start);
+    System.arraycopy(oNrArgs, start, nrArgs, 0, firstPart);
+    System.arraycopy(oNrArgs, 0, nrArgs, firstPart, start);
+    System.arraycopy(oOverflowArgs, start, overflowArgs, 0, firstPart);
+    System.arraycopy(oOverflowArgs, 0, overflowArgs, firstPart, start);
+    System.arraycopy(oRecords, start, records, 0, firstPart);
+    System.arraycopy(oRecords, 0, records, firstPart, start);
+    int aStart = start * INLINE_ARGS;
+    int aFirstPart = firstPart * INLINE_ARGS;
+    System.arraycopy(oArgKinds, aStart, argKinds, 0, aFirstPart);
+    System.arraycopy(oArgKinds, 0, argKinds, aFirstPart, aStart);
+    System.arraycopy(oPrimitiveArgs, aStart, primitiveArgs, 0, aFirstPart);
+    System.arraycopy(oPrimitiveArgs, 0, primitiveArgs, aFirstPart, aStart);
+    System.arraycopy(oRefArgs, aStart, refArgs, 0, aFirstPart);
+    System.arraycopy(oRefArgs, 0, refArgs, aFirstPart, aStart);
+    start = 0;
+  }
+
+  /**
+   * @return the slot index for a new record, evicting the oldest record if at max size.
+   */
+  private int nextSlot() {
+    int capacity = timestamps.length;
+    if (size == capacity) {
+      if (capacity < maxSize) {
+        grow();
+        capacity = timestamps.length;
+      } else {
+        int idx = start;
+        start = (start + 1) % capacity;
+        clearSlot(idx);
+        return idx;
+      }
+    }
+    int idx = (start + size) % capacity;
+    size++;
+    return idx;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Add a log record (logged now, from the current thread).
+   */
+  public void add(final boolean isLogged, final String loggerName, final Level level, @Nullable final Marker marker,
+          final String format, final Object... args) {
+    add(isLogged, loggerName, level, marker, System.currentTimeMillis(), Thread.currentThread().getName(),
+            format, args);
+  }
+
+  private void add(final boolean isLogged, final String loggerName, final Level level, @Nullable final Marker marker,
+          final long timestamp, final String threadName, final String format, final Object[] args) {
+    int idx = nextSlot();
+    timestamps[idx] = timestamp;
+    levels[idx] = isLogged ? (byte) (level.ordinal() | LOGGED) : (byte) level.ordinal();
+    loggers[idx] = loggerName;
+    threadNames[idx] = threadName;
+    formats[idx] = format;
+    markers[idx] = marker;
+    int nr = args.length;
+    if (nr > INLINE_ARGS) {
+      nrArgs[idx] = -1;
+      Object[] snapshot = new Object[nr];
+      for (int i = 0; i < nr; i++) {
+        snapshot[i] = snapshot(args[i]);
+      }
+      overflowArgs[idx] = snapshot;
+    } else {
+      nrArgs[idx] = (byte) nr;
+      int aidx = idx * INLINE_ARGS;
+      for (int i = 0; i < nr; i++) {
+        setArg(aidx + i, args[i]);
+      }
+    }
+  }
+
+  /**
+   * Add a already materialized log record.
+   */
+  public void add(final Slf4jLogRecord record) {
+    int idx = nextSlot();
+    timestamps[idx] = record.getTimeStamp();
+    nrArgs[idx] = -1;
+    records[idx] = record;
+  }
+
+  /**
+   * Add all records from another buffer, in order.
+   */
+  public void addAll(final ContextLogBuffer from) {
+    int fCapacity = from.timestamps.length;
+    for (int i = 0, j = from.start; i < from.size; i++, j = (j + 1) % fCapacity) {
+      Slf4jLogRecord rec = from.records[j];
+      if (rec != null) {
+        add(rec);
+      } else {
+        byte lvl = from.levels[j];
+        add((lvl & LOGGED) != 0, from.loggers[j], LEVELS[lvl & ~LOGGED], from.markers[j], from.timestamps[j],
+                from.threadNames[j], from.formats[j], from.args(j));
+      }
+    }
+  }
+
+  private void setArg(final int aidx, @Nullable final Object arg) {
+    if (arg instanceof Integer) {
+      argKinds[aidx] = INT;
+      primitiveArgs[aidx] = (Integer) arg;
+    } else if (arg instanceof Long) {
+      argKinds[aidx] = LONG;
+      primitiveArgs[aidx] = (Long) arg;
+    } else if (arg instanceof Double) {
+      argKinds[aidx] = DOUBLE;
+      primitiveArgs[aidx] = Double.doubleToRawLongBits((Double) arg);
+    } else if (arg instanceof Boolean) {
+      argKinds[aidx] = BOOLEAN;
+      primitiveArgs[aidx] = ((Boolean) arg) ? 1 : 0;
+    } else if (arg instanceof Float) {
+      argKinds[aidx] = FLOAT;
+      primitiveArgs[aidx] = Float.floatToRawIntBits((Float) arg);
+    } else if (arg instanceof Character) {
+      argKinds[aidx] = CHAR;
+      primitiveArgs[aidx] = (Character) arg;
+    } else if (arg instanceof Short) {
+      argKinds[aidx] = SHORT;
+      primitiveArgs[aidx] = (Short) arg;
+    } else if (arg instanceof Byte) {
+      argKinds[aidx] = BYTE;
+      primitiveArgs[aidx] = (Byte) arg;
+    } else {
+      argKinds[aidx] = REF;
+      refArgs[aidx] = snapshot(arg);
+    }
+  }
+
+  /**
+   * @return the argument if immutable, otherwise its formatted form.
+   */
+  @Nullable
+  private static Object snapshot(@Nullable final Object arg) {
+    if (isImmutableValue(arg)) {
+      return arg;
+    }
+    if (arg instanceof LogAttribute) {
+      LogAttribute<?> attr = (LogAttribute<?>) arg;
+      return LogAttribute.of(attr.getName(), snapshot(attr.getSecond()));
+    }
+    return Slf4jMessageFormatter.toString("{}", arg);
+  }
+
+  private static boolean isImmutable(final Object arg) {
+    Class<?> clasz = arg.getClass();
+    return clasz == String.class || clasz == Integer.class || clasz == Long.class || clasz == Double.class
+            || clasz == Boolean.class || clasz == Float.class || clasz == Character.class || clasz == Short.class
+            || clasz == Byte.class || clasz == BigInteger.class || clasz == BigDecimal.class || clasz == UID.class
+            || clasz == Class.class || arg instanceof Enum || arg instanceof Throwable
+            || (arg instanceof TemporalAccessor && clasz.getName().startsWith("java.time."))
+            || (arg instanceof LogAttribute && isImmutableValue(((LogAttribute<?>) arg).getSecond()));
+  }
+
+  private static boolean isImmutableValue(@Nullable final Object arg) {
+    return arg == null || isImmutable(arg);
+  }
+
+  @Nullable
+  private Object getArg(final int aidx) {
+    long val = primitiveArgs[aidx];
+    switch (argKinds[aidx]) {
+      case REF:
+        return refArgs[aidx];
+      case INT:
+        return (int) val;
+      case LONG:
+        return val;
+      case DOUBLE:
+        return Double.longBitsToDouble(val);
+      case BOOLEAN:
+        return val != 0;
+      case FLOAT:
+        return Float.intBitsToFloat((int) val);
+      case CHAR:
+        return (char) val;
+      case SHORT:
+        return (short) val;
+      case BYTE:
+        return (byte) val;
+      default:
+        throw new IllegalStateException("Invalid arg kind " + argKinds[aidx]);
+    }
+  }
+
+  private Object[] args(final int idx) {
+    int nr = nrArgs[idx];
+    if (nr < 0) {
+      return overflowArgs[idx];
+    }
+    Object[] result = new Object[nr];
+    int aidx = idx * INLINE_ARGS;
+    for (int i = 0; i < nr; i++) {
+      result[i] = getArg(aidx + i);
+    }
+    return result;
+  }
+
+  private Slf4jLogRecord materialize(final int idx) {
+    Slf4jLogRecord rec = records[idx];
+    if (rec != null) {
+      return rec;
+    }
+    byte lvl = levels[idx];
+    Marker marker = markers[idx];
+    rec = new Slf4jLogRecordImpl((lvl & LOGGED) != 0, loggers[idx], LEVELS[lvl & ~LOGGED],
+            marker == null ? Collections.emptyList() : Collections.singletonList(marker), Collections.emptyList(),
+            timestamps[idx], threadNames[idx], formats[idx], args(idx));
+    // keep the materialized record, changes made to it (setIsLogged, attach...) must be visible to later readers.
+    records[idx] = rec;
+    return rec;
+  }
+
+  /**
+   * Materialize and stream the most recent maxNr records, oldest first.
+   */
+  public void forEach(final Consumer<Slf4jLogRecord> to, final int maxNr) {
+    int capacity = timestamps.length;
+    int skip = Math.max(0, size - maxNr);
+    for (int i = skip, j = (start + skip) % capacity; i < size; i++, j = (j + 1) % capacity) {
+      to.accept(materialize(j));
+    }
+  }
+
+  public void forEach(final Consumer<Slf4jLogRecord> to) {
+    forEach(to, size);
+  }
+
+  private void clearSlot(final int idx) {
+    loggers[idx] = null;
+    threadNames[idx] = null;
+    formats[idx] = null;
+    markers[idx] = null;
+    overflowArgs[idx] = null;
+    records[idx] = null;
+    int aidx = idx * INLINE_ARGS;
+    for (int i = aidx, l = aidx + INLINE_ARGS; i < l; i++) {
+      refArgs[i] = null;
+    }
+  }
+
+  public void clear() {
+    int capacity = timestamps.length;
+    for (int i = 0, j = start; i < size; i++, j = (j + 1) % capacity) {
+      clearSlot(j);
+    }
+    start = 0;
+    size = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "ContextLogBuffer{" + "maxSize=" + maxSize + ", size=" + size + '}';
+  }
+
+}
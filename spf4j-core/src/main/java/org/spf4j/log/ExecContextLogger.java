@@ -153,7 +153,7 @@ public final class ExecContextLogger implements Logger, Wrapper<Logger> {
       }
     }
     if (ctx.getContextMinLogLevel(name).ordinal() <= level.ordinal()) {
-      ctx.addLog(new Slf4jLogRecordImpl(logged, name, level, marker, msg, args));
+      ctx.addLog(logged, name, level, marker, msg, args);
     }
   }
 
@@ -46,8 +46,8 @@ import org.slf4j.Marker;
 import org.spf4j.base.CharSequences;
 import org.spf4j.base.Json;
 import org.spf4j.base.JsonWriteable;
+import org.spf4j.base.JsonWriter;
 import org.spf4j.base.Pair;
-import org.spf4j.io.AppendableWriter;
 
 /**
  * @author Zoltan Farkas
@@ -113,16 +113,22 @@ public final class LogAttribute<T> extends Pair<String, T>
 
   @Override
   public void writeJsonTo(final Appendable appendable) throws IOException {
-    JsonGenerator gen = Json.FACTORY.createGenerator(new AppendableWriter(appendable));
-    gen.setCodec(Json.MAPPER);
-    writeJsonTo(gen);
-    gen.flush();
+    JsonWriter writer = new JsonWriter(appendable, 256);
+    writer.writeStartObject();
+    writer.writeFieldName(first);
+    writer.writeObject(second);
+    writer.writeEndObject();
+    writer.flush();
   }
 
   public void writeJsonTo(final JsonGenerator gen) throws IOException {
     gen.writeStartObject();
     gen.writeFieldName(first);
-    gen.writeObject(second);
+    if (second instanceof CharSequence) {
+      gen.writeString(second.toString());
+    } else {
+      gen.writeObject(second);
+    }
     gen.writeEndObject();
   }
 
@@ -24,6 +24,7 @@ import java.io.PrintStream;
 import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
@@ -32,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.ObjIntConsumer;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.concurrent.ThreadSafe;
@@ -46,6 +48,7 @@ import org.spf4j.base.avro.LogRecord;
 import org.spf4j.io.ByteArrayBuilder;
 import org.spf4j.io.ConfigurableAppenderSupplier;
 import org.spf4j.io.ObjectAppender;
+import org.spf4j.io.Utf8ByteAppendable;
 import org.spf4j.recyclable.impl.ArraySuppliers;
 import org.spf4j.recyclable.impl.ThreadLocalRecyclingSupplier;
 
@@ -110,23 +113,100 @@ public final class LogPrinter {
 
   }
 
-  private static final class Buffer implements BufferedAppendable {
+  private abstract static class Buffer implements BufferedAppendable {
 
     private static final int MAX_BUFFER_SIZE = Integer.getInteger("spf4j.logPrinter", 1024 * 32);
 
+    static Buffer create(final Charset charset) {
+      if (StandardCharsets.UTF_8.equals(charset)) {
+        return new Utf8Buffer();
+      } else {
+        return new WriterBuffer(charset);
+      }
+    }
+
+    abstract void clear();
+
+    abstract void flush();
+
+    abstract byte[] getBytes();
+
+    abstract int size();
+
+  }
+
+  /**
+   * UTF-8 buffer, chars are encoded (and json escaped) directly to bytes.
+   */
+  private static final class Utf8Buffer extends Buffer {
+
+    private final Utf8ByteAppendable bytes;
+
+    Utf8Buffer() {
+      bytes = new Utf8ByteAppendable(512);
+    }
+
+    @Override
+    void clear() {
+      bytes.reset();
+    }
+
+    @Override
+    public Appendable getAppendable() {
+      return bytes;
+    }
+
+    @Override
+    public Appendable getJsonStringEscapingAppendable() {
+      return bytes.getJsonStringEscaper();
+    }
+
+    @Override
+    void flush() {
+      // nothing to flush.
+    }
+
+    @Override
+    byte[] getBytes() {
+      return bytes.getBuffer();
+    }
+
+    @Override
+    int size() {
+      return bytes.size();
+    }
+
+    @Override
+    public int getCurrentPos() {
+      return bytes.size();
+    }
+
+    @Override
+    public void resetPos(final int pos) {
+      bytes.resetCountTo(pos);
+    }
+
+  }
+
+  /**
+   * Buffer for any charset, chars are encoded via a Writer.
+   */
+  private static final class WriterBuffer extends Buffer {
+
     private final ByteArrayBuilder bab;
 
     private final Writer writer;
 
     private final EscapeJsonStringAppendableWrapper writerEscaper;
 
-    Buffer(final Charset charset) {
+    WriterBuffer(final Charset charset) {
       bab = new ByteArrayBuilder(512, ArraySuppliers.Bytes.JAVA_NEW);
       writer = new BufferedWriter(new OutputStreamWriter(bab, charset));
       writerEscaper = new EscapeJsonStringAppendableWrapper(writer);
     }
 
-    private void clear() {
+    @Override
+    void clear() {
       try {
         writer.flush();
       } catch (IOException ex) {
@@ -135,15 +215,18 @@ public final class LogPrinter {
       bab.reset();
     }
 
+    @Override
     public Appendable getAppendable() {
       return writer;
     }
 
+    @Override
     public Appendable getJsonStringEscapingAppendable() {
       return writerEscaper;
     }
 
-    private void flush() {
+    @Override
+    void flush() {
       try {
         writer.flush();
       } catch (IOException ex) {
@@ -151,11 +234,13 @@ public final class LogPrinter {
       }
     }
 
-    private byte[] getBytes() {
+    @Override
+    byte[] getBytes() {
       return bab.getBuffer();
     }
 
-    private int size() {
+    @Override
+    int size() {
       return bab.size();
     }
 
@@ -191,7 +276,7 @@ public final class LogPrinter {
     this.fmt = fmt;
     this.toStringer = new ConfigurableAppenderSupplier();
     tlBuffer =  BUFFERS.computeIfAbsent(charset,
-            (cs) -> new ThreadLocalRecyclingSupplier<Buffer>(() -> new Buffer(cs)));
+            (cs) -> new ThreadLocalRecyclingSupplier<Buffer>(() -> Buffer.create(cs)));
   }
 
 
@@ -226,6 +311,31 @@ public final class LogPrinter {
     }
   }
 
+  /**
+   * Format the record and pass the formatted bytes to the consumer.
+   * The byte array is a reused buffer and is valid only for the duration of the consumer invocation.
+   */
+  public void print(final Slf4jLogRecord record, final ObjIntConsumer<byte[]> to) {
+    Buffer buff = tlBuffer.get();
+    boolean recycle = true;
+    try {
+      buff.clear();
+      print(record, buff, "");
+      buff.flush();
+      int len = buff.size();
+      to.accept(buff.getBytes(), len);
+      if (len > Buffer.MAX_BUFFER_SIZE) {
+        recycle = false;
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    } finally {
+      if (recycle) {
+        tlBuffer.recycle(buff);
+      }
+    }
+  }
+
   public byte[] printToBytes(final Slf4jLogRecord record) {
     Buffer buff = tlBuffer.get();
     boolean recycle = true;
@@ -318,7 +428,7 @@ public final class LogPrinter {
     wr.append(annotate);
     wr.append(record.getLevel().toCharRepresentation());
     wr.append(' ');
-    fmt.formatTo(Instant.ofEpochMilli(record.getTimeStamp()), wr);
+    formatTimeStamp(record.getTimeStamp(), wr);
     wr.append(' ');
     Marker marker = record.getMarker();
     if (marker != null) {
@@ -436,6 +546,14 @@ public final class LogPrinter {
     }
   }
 
+  private void formatTimeStamp(final long epochMillis, final Appendable wr) throws IOException {
+    if (fmt == DateTimeFormatter.ISO_INSTANT && wr instanceof Utf8ByteAppendable) {
+      ((Utf8ByteAppendable) wr).appendIsoInstant(epochMillis);
+    } else {
+      fmt.formatTo(Instant.ofEpochMilli(epochMillis), wr);
+    }
+  }
+
   /**
    * Function that will write the Object as a json representation.
    * If json appender not available a json string value will be written.
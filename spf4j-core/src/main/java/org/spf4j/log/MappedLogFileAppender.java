@@ -0,0 +1,426 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.spf4j.base.ErrLog;
+import org.spf4j.base.ShutdownHooks;
+import org.spf4j.base.ShutdownThread;
+import org.spf4j.base.avro.LogRecord;
+import org.spf4j.concurrent.DefaultExecutor;
+import org.spf4j.io.MappedFileOutputStream;
+import org.spf4j.log.index.LogSegmentIndex;
+
+/**
+ * A log file appender that writes into memory mapped, pre-allocated log segment files.
+ * Segments are rotated when they reach the max segment size or the max segment age.
+ *
+ * Two formats are supported:
+ * <ul>
+ * <li>TEXT - records are written with a LogPrinter, closed segments are compressed in the background
+ * (gzip, or zstd when zstd-jni is available) to [segment].gz/.zst.</li>
+ * <li>AVRO - records are written as org.spf4j.base.avro.LogRecord in a avro object container file,
+ * the compression is applied to the container blocks (deflate or zstandard) so that closed segments can be
+ * scanned (and split by the sync markers) without parsing any text. When a segment is closed, a sidecar index
+ * is written next to it, see LogSegmentIndex and LogSearch.</li>
+ * </ul>
+ *
+ * Segment files are named [baseName].[utc start timestamp].[sequence].[log|avro].
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+public final class MappedLogFileAppender implements Flushable, Closeable {
+
+  private static final int MAX_CHUNK_SIZE = Integer.getInteger("spf4j.mappedLogFile.maxChunkSize", 64 * 1024 * 1024);
+
+  private static final DateTimeFormatter SEGMENT_TS_FMT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS'Z'")
+          .withZone(ZoneOffset.UTC);
+
+  public enum Format {
+    TEXT("log"),
+    AVRO("avro");
+
+    private final String extension;
+
+    Format(final String extension) {
+      this.extension = extension;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+  }
+
+  public enum Compression {
+    NONE(""),
+    GZIP(".gz"),
+    /** zstd, if zstd-jni is not available, GZIP will be used. */
+    ZSTD(".zst");
+
+    private final String extension;
+
+    Compression(final String extension) {
+      this.extension = extension;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+  }
+
+  private final Path directory;
+
+  private final String baseName;
+
+  private final Format format;
+
+  private final long maxSegmentBytes;
+
+  private final long maxSegmentAgeMillis;
+
+  private final Compression compression;
+
+  private final LogPrinter printer;
+
+  private final String origin;
+
+  private final int chunkSize;
+
+  private final int syncInterval;
+
+  private final Runnable shutdownHook;
+
+  private final ObjIntConsumer<byte[]> textWriter;
+
+  @GuardedBy("this")
+  private MappedFileOutputStream out;
+
+  @GuardedBy("this")
+  @Nullable
+  private DataFileWriter<LogRecord> avroWriter;
+
+  @GuardedBy("this")
+  @Nullable
+  private LogSegmentIndex.Builder indexBuilder;
+
+  @GuardedBy("this")
+  private long segmentStartMillis;
+
+  @GuardedBy("this")
+  private int segmentSeq;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  /**
+   * Create a appender with no max segment age.
+   */
+  public MappedLogFileAppender(final Path directory, final String baseName, final Format format,
+          final long maxSegmentBytes, final Compression compression) throws IOException {
+    this(directory, baseName, format, maxSegmentBytes, Long.MAX_VALUE, compression,
+            new LogPrinter(StandardCharsets.UTF_8), "");
+  }
+
+  /**
+   * @param directory the folder the log segments will be written to.
+   * @param baseName the segment file name prefix.
+   * @param format the segment format.
+   * @param maxSegmentBytes the (soft) maximum segment size, a segment is rotated when the next record would exceed it.
+   * @param maxSegmentAgeMillis the maximum time a segment is appended to.
+   * @param compression the compression of closed segments (TEXT) or of the container blocks (AVRO).
+   * @param printer the printer to use for the TEXT format.
+   * @param origin the origin to write in the avro log records for the AVRO format.
+   */
+  public MappedLogFileAppender(final Path directory, final String baseName, final Format format,
+          final long maxSegmentBytes, final long maxSegmentAgeMillis, final Compression compression,
+          final LogPrinter printer, final String origin) throws IOException {
+    if (maxSegmentBytes <= 0 || maxSegmentAgeMillis <= 0) {
+      throw new IllegalArgumentException("Invalid segment limits " + maxSegmentBytes + ", " + maxSegmentAgeMillis);
+    }
+    this.directory = directory;
+    this.baseName = baseName;
+    this.format = format;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.maxSegmentAgeMillis = maxSegmentAgeMillis;
+    this.compression = compression == Compression.ZSTD && ZstdHolder.ZSTD_OUT == null
+            ? Compression.GZIP : compression;
+    this.printer = printer;
+    this.origin = origin;
+    this.chunkSize = (int) Math.min(maxSegmentBytes, MAX_CHUNK_SIZE);
+    this.syncInterval = (int) Math.min(DataFileConstants.DEFAULT_SYNC_INTERVAL, Math.max(32, maxSegmentBytes / 4));
+    this.textWriter = this::writeText;
+    this.closed = false;
+    this.segmentSeq = 0;
+    Files.createDirectories(directory);
+    synchronized (this) {
+      newSegment(System.currentTimeMillis());
+    }
+    this.shutdownHook = () -> {
+      try {
+        close();
+      } catch (IOException | RuntimeException ex) {
+        ErrLog.error("Failed to close " + this, ex);
+      }
+    };
+    if (!ShutdownThread.get().queueHook(ShutdownHooks.ShutdownPhase.OBSERVABILITY_SERVICES, shutdownHook)) {
+      ErrLog.error("Shutdown in progress, " + this + " will not be closed at shutdown");
+    }
+  }
+
+  /**
+   * Append a log record.
+   * @throws UncheckedIOException when writing fails.
+   */
+  public synchronized void append(final Slf4jLogRecord record) {
+    if (closed) {
+      throw new IllegalStateException("Appender closed " + this);
+    }
+    try {
+      long now = System.currentTimeMillis();
+      if (now - segmentStartMillis >= maxSegmentAgeMillis) {
+        rotate(now);
+      }
+      if (format == Format.TEXT) {
+        printer.print(record, textWriter);
+      } else {
+        LogRecord logRecord = record.toLogRecord(origin, "");
+        avroWriter.append(logRecord);
+        indexBuilder.add(logRecord);
+        if (out.getPosition() + syncInterval >= maxSegmentBytes) {
+          rotate(now);
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  @GuardedBy("this")
+  private void writeText(final byte[] bytes, final int len) {
+    try {
+      long pos = out.getPosition();
+      if (pos > 0 && pos + len > maxSegmentBytes) {
+        rotate(System.currentTimeMillis());
+      }
+      out.write(bytes, 0, len);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Close the current segment and start a new one.
+   */
+  public synchronized void rotate() throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Appender closed " + this);
+    }
+    rotate(System.currentTimeMillis());
+  }
+
+  @GuardedBy("this")
+  private void rotate(final long now) throws IOException {
+    Path closedSegment = closeSegment();
+    newSegment(now);
+    if (format == Format.TEXT && compression != Compression.NONE) {
+      try {
+        DefaultExecutor.INSTANCE.execute(() -> compressSegment(closedSegment));
+      } catch (RejectedExecutionException ex) {
+        compressSegment(closedSegment);
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private void newSegment(final long now) throws IOException {
+    Path file = directory.resolve(baseName + '.' + SEGMENT_TS_FMT.format(Instant.ofEpochMilli(now))
+            + '.' + (segmentSeq++) + '.' + format.getExtension());
+    out = new MappedFileOutputStream(file, chunkSize);
+    segmentStartMillis = now;
+    if (format == Format.AVRO) {
+      DataFileWriter<LogRecord> writer = new DataFileWriter<>(new SpecificDatumWriter<>(LogRecord.class));
+      writer.setSyncInterval(syncInterval);
+      switch (compression) {
+        case GZIP:
+          writer.setCodec(CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL));
+          break;
+        case ZSTD:
+          writer.setCodec(CodecFactory.zstandardCodec(CodecFactory.DEFAULT_ZSTANDARD_LEVEL));
+          break;
+        default:
+          writer.setCodec(CodecFactory.nullCodec());
+      }
+      try {
+        writer.create(LogRecord.getClassSchema(), out);
+      } catch (IOException | RuntimeException ex) {
+        out.close();
+        throw ex;
+      }
+      avroWriter = writer;
+      indexBuilder = new LogSegmentIndex.Builder();
+    }
+  }
+
+  @GuardedBy("this")
+  private Path closeSegment() throws IOException {
+    Path file = out.getFile();
+    if (avroWriter != null) {
+      avroWriter.close(); // will close the underlying stream.
+      avroWriter = null;
+    }
+    out.close();
+    if (indexBuilder != null) {
+      indexBuilder.build().write(LogSegmentIndex.indexPath(file));
+      indexBuilder = null;
+    }
+    return file;
+  }
+
+  @SuppressFBWarnings("PATH_TRAVERSAL_IN") // not user input.
+  private void compressSegment(final Path segment) {
+    Path target = segment.resolveSibling(segment.getFileName() + compression.getExtension());
+    Path tmp = segment.resolveSibling(segment.getFileName() + compression.getExtension() + ".tmp");
+    try {
+      try (InputStream is = Files.newInputStream(segment);
+           OutputStream os = compressingStream(Files.newOutputStream(tmp))) {
+        byte[] buffer = new byte[16384];
+        int nr;
+        while ((nr = is.read(buffer)) >= 0) {
+          os.write(buffer, 0, nr);
+        }
+      }
+      Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+      Files.delete(segment);
+    } catch (IOException | RuntimeException ex) {
+      ErrLog.error("Failed to compress log segment " + segment, ex);
+    }
+  }
+
+  private OutputStream compressingStream(final OutputStream os) throws IOException {
+    if (compression == Compression.ZSTD) {
+      try {
+        return ZstdHolder.ZSTD_OUT.newInstance(os);
+      } catch (InstantiationException | IllegalAccessException | InvocationTargetException ex) {
+        os.close();
+        throw new IOException("Cannot create zstd stream", ex);
+      }
+    }
+    return new GZIPOutputStream(os, 16384);
+  }
+
+  /**
+   * Make the written records visible to readers. (for AVRO, the current block is written)
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    if (closed) {
+      return;
+    }
+    if (avroWriter != null) {
+      avroWriter.flush();
+    }
+  }
+
+  /**
+   * flush and write the current segment to the storage device.
+   */
+  public synchronized void sync() throws IOException {
+    flush();
+    if (!closed) {
+      out.force();
+    }
+  }
+
+  /**
+   * Close the appender, the last segment is compressed synchronously (TEXT).
+   */
+  @Override
+  public void close() throws IOException {
+    Path segment;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      segment = closeSegment();
+    }
+    if (format == Format.TEXT && compression != Compression.NONE) {
+      compressSegment(segment);
+    }
+    ShutdownThread.get().removeQueuedShutdownHook(shutdownHook);
+  }
+
+  public synchronized Path getCurrentSegment() {
+    return out.getFile();
+  }
+
+  @Override
+  public String toString() {
+    return "MappedLogFileAppender{" + "directory=" + directory + ", baseName=" + baseName + ", format=" + format
+            + ", maxSegmentBytes=" + maxSegmentBytes + ", maxSegmentAgeMillis=" + maxSegmentAgeMillis
+            + ", compression=" + compression + '}';
+  }
+
+  private static final class ZstdHolder {
+
+    @Nullable
+    private static final Constructor<? extends OutputStream> ZSTD_OUT = zstdConstructor();
+
+    @Nullable
+    private static Constructor<? extends OutputStream> zstdConstructor() {
+      try {
+        Constructor<? extends OutputStream> result = Class.forName("com.github.luben.zstd.ZstdOutputStream")
+                .asSubclass(OutputStream.class).getConstructor(OutputStream.class);
+        // make sure the native library is loadable.
+        result.newInstance(new ByteArrayOutputStream()).close();
+        return result;
+      } catch (ClassNotFoundException | NoSuchMethodException | InstantiationException | IllegalAccessException
+              | InvocationTargetException | IOException | LinkageError ex) {
+        return null;
+      }
+    }
+  }
+
+}
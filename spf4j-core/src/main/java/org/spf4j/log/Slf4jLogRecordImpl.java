@@ -16,7 +16,6 @@
 package org.spf4j.log;
 
 import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
@@ -34,9 +33,9 @@ import org.slf4j.Marker;
 import org.slf4j.event.KeyValuePair;
 import org.spf4j.base.Arrays;
 import org.spf4j.base.JsonWriteable;
+import org.spf4j.base.JsonWriter;
 import org.spf4j.base.Slf4jMessageFormatter;
 import org.spf4j.base.Throwables;
-import org.spf4j.io.AppendableWriter;
 import org.spf4j.io.ObjectAppenderSupplier;
 
 /**
@@ -91,6 +90,18 @@ public class Slf4jLogRecordImpl implements JsonWriteable, Slf4jLogRecord {
   public Slf4jLogRecordImpl(final boolean isLogged, final String logger, final Level level,
           final List<Marker> markers, final List<KeyValuePair> keyValues, final long timestampMillis,
           final String format, final Object... arguments) {
+    this(isLogged, logger, level, markers, keyValues, timestampMillis, Thread.currentThread().getName(),
+            format, arguments);
+  }
+
+  /**
+   * Constructor for records materialized after the fact (from a ContextLogBuffer), on a thread different
+   * from the one that logged.
+   */
+  @SuppressFBWarnings("EI_EXPOSE_REP2")
+  Slf4jLogRecordImpl(final boolean isLogged, final String logger, final Level level,
+          final List<Marker> markers, final List<KeyValuePair> keyValues, final long timestampMillis,
+          final String threadName, final String format, final Object... arguments) {
     this.loggerName = logger;
     this.level = level;
     this.timeStamp = timestampMillis;
@@ -98,7 +109,7 @@ public class Slf4jLogRecordImpl implements JsonWriteable, Slf4jLogRecord {
     this.messageFormat = format;
     this.arguments = arguments;
     this.keyValues = keyValues;
-    this.threadName = Thread.currentThread().getName();
+    this.threadName = threadName;
     this.startExtra = -1;
     this.message = null;
     this.isLogged = isLogged;
@@ -260,33 +271,27 @@ public class Slf4jLogRecordImpl implements JsonWriteable, Slf4jLogRecord {
    */
   @Override
   public void writeJsonTo(final Appendable appendable) throws IOException {
-    JsonGenerator gen = Lazy.JSON.createGenerator(new AppendableWriter(appendable));
-    gen.setCodec(Lazy.MAPPER);
-    gen.writeStartObject();
-    gen.writeFieldName("ts");
-    gen.writeString(Instant.ofEpochMilli(timeStamp).toString());
-    gen.writeFieldName("logger");
-    gen.writeString(loggerName);
-    gen.writeFieldName("thread");
-    gen.writeString(threadName);
-    gen.writeFieldName("msg");
-    gen.writeString(getMessage());
+    JsonWriter writer = new JsonWriter(appendable);
+    writer.writeStartObject();
+    writer.writeStringField(Lazy.TS, Instant.ofEpochMilli(timeStamp).toString());
+    writer.writeStringField(Lazy.LOGGER, loggerName);
+    writer.writeStringField(Lazy.THREAD, threadName);
+    writer.writeStringField(Lazy.MSG, getMessage());
     Object[] extraArguments = getExtraArguments();
     if (extraArguments.length > 0) {
-      gen.writeFieldName("xObj");
-      gen.writeStartArray();
+      writer.writeFieldName(Lazy.X_OBJ);
+      writer.writeStartArray();
       for (Object obj : extraArguments) {
-        gen.writeObject(obj);
+        writer.writeObject(obj, Lazy.MAPPER);
       }
-      gen.writeEndArray();
+      writer.writeEndArray();
     }
     Throwable t = getExtraThrowable();
     if (t != null) {
-      gen.writeFieldName("throwable");
-      gen.writeString(Throwables.toString(t));
+      writer.writeStringField(Lazy.THROWABLE, Throwables.toString(t));
     }
-    gen.writeEndObject();
-    gen.flush();
+    writer.writeEndObject();
+    writer.flush();
   }
 
   @Override
@@ -328,6 +333,18 @@ public class Slf4jLogRecordImpl implements JsonWriteable, Slf4jLogRecord {
     private static final JsonFactory JSON = new JsonFactory();
 
     private static final ObjectMapper MAPPER = new ObjectMapper(JSON);
+
+    private static final JsonWriter.FieldName TS = JsonWriter.fieldName("ts");
+
+    private static final JsonWriter.FieldName LOGGER = JsonWriter.fieldName("logger");
+
+    private static final JsonWriter.FieldName THREAD = JsonWriter.fieldName("thread");
+
+    private static final JsonWriter.FieldName MSG = JsonWriter.fieldName("msg");
+
+    private static final JsonWriter.FieldName X_OBJ = JsonWriter.fieldName("xObj");
+
+    private static final JsonWriter.FieldName THROWABLE = JsonWriter.fieldName("throwable");
   }
 
 }
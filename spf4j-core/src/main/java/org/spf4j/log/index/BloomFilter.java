@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A simple bloom filter over 64 bit hashes, using double hashing (Kirsch-Mitzenmacher).
+ *
+ * @author Zoltan Farkas
+ */
+final class BloomFilter {
+
+  private final long[] words;
+
+  private final long nrBits;
+
+  private final int nrHashes;
+
+  private BloomFilter(final long[] words, final int nrHashes) {
+    this.words = words;
+    this.nrBits = (long) words.length * 64;
+    this.nrHashes = nrHashes;
+  }
+
+  /**
+   * @param expectedItems the expected number of distinct items.
+   * @param fpp the desired false positive probability.
+   */
+  static BloomFilter create(final int expectedItems, final double fpp) {
+    int n = Math.max(1, expectedItems);
+    long bits = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+    int nrWords = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64));
+    int k = (int) Math.max(1, Math.min(16, Math.round((double) nrWords * 64 / n * Math.log(2))));
+    return new BloomFilter(new long[nrWords], k);
+  }
+
+  void add(final long hash) {
+    long h2 = secondHash(hash);
+    long combined = hash;
+    for (int i = 0; i < nrHashes; i++) {
+      combined += h2;
+      long bit = bitIndex(combined);
+      words[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  boolean mightContain(final long hash) {
+    long h2 = secondHash(hash);
+    long combined = hash;
+    for (int i = 0; i < nrHashes; i++) {
+      combined += h2;
+      long bit = bitIndex(combined);
+      if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private long bitIndex(final long combinedHash) {
+    return (combinedHash & Long.MAX_VALUE) % nrBits;
+  }
+
+  /**
+   * Double hashing (h1 + i * h2) with both hashes 64 bits wide, h2 is derived by re-mixing the hash.
+   */
+  private static long secondHash(final long hash) {
+    long h = Long.rotateLeft(hash, 32) ^ 0x9e3779b97f4a7c15L;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h | 1;
+  }
+
+  /**
+   * 64 bit FNV-1a hash of the chars, with a murmur3 finalizer.
+   */
+  static long hash(final CharSequence cs) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0, l = cs.length(); i < l; i++) {
+      h ^= cs.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  void writeTo(final DataOutput out) throws IOException {
+    out.writeInt(nrHashes);
+    out.writeInt(words.length);
+    for (long word : words) {
+      out.writeLong(word);
+    }
+  }
+
+  static BloomFilter readFrom(final DataInput in) throws IOException {
+    int nrHashes = in.readInt();
+    int nrWords = in.readInt();
+    if (nrHashes <= 0 || nrWords <= 0) {
+      throw new IOException("Invalid bloom filter " + nrHashes + ", " + nrWords);
+    }
+    long[] words = new long[nrWords];
+    for (int i = 0; i < nrWords; i++) {
+      words[i] = in.readLong();
+    }
+    return new BloomFilter(words, nrHashes);
+  }
+
+  @Override
+  public String toString() {
+    return "BloomFilter{" + "nrBits=" + nrBits + ", nrHashes=" + nrHashes + '}';
+  }
+
+}
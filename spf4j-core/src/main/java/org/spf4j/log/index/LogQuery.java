@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log.index;
+
+import java.time.Instant;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+import org.spf4j.base.avro.LogLevel;
+import org.spf4j.base.avro.LogRecord;
+import org.spf4j.log.Level;
+
+/**
+ * A log search query: time range [from, to), min level, and optionally a trace id and a logger name prefix.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@Immutable
+public final class LogQuery {
+
+  private final long fromMillis;
+
+  private final long toMillis;
+
+  private final Level minLevel;
+
+  @Nullable
+  private final String traceId;
+
+  @Nullable
+  private final String loggerPrefix;
+
+  public LogQuery(final Instant from, final Instant to, final Level minLevel,
+          @Nullable final String traceId, @Nullable final String loggerPrefix) {
+    this.fromMillis = from.toEpochMilli();
+    this.toMillis = to.toEpochMilli();
+    this.minLevel = minLevel;
+    this.traceId = traceId;
+    this.loggerPrefix = loggerPrefix;
+  }
+
+  /**
+   * All logs of a trace in a time range.
+   */
+  public static LogQuery forTrace(final String traceId, final Instant from, final Instant to) {
+    return new LogQuery(from, to, Level.TRACE, traceId, null);
+  }
+
+  public long getFromMillis() {
+    return fromMillis;
+  }
+
+  public long getToMillis() {
+    return toMillis;
+  }
+
+  public Level getMinLevel() {
+    return minLevel;
+  }
+
+  @Nullable
+  public String getTraceId() {
+    return traceId;
+  }
+
+  @Nullable
+  public String getLoggerPrefix() {
+    return loggerPrefix;
+  }
+
+  public boolean matchesLevel(final LogLevel level) {
+    return Level.fromAvroLevel(level).ordinal() >= minLevel.ordinal();
+  }
+
+  public boolean matches(final LogRecord record) {
+    long ts = record.getTs().toEpochMilli();
+    return ts >= fromMillis && ts < toMillis
+            && matchesLevel(record.getLevel())
+            && (traceId == null || traceId.equals(record.getTrId()))
+            && (loggerPrefix == null || record.getLogger().startsWith(loggerPrefix));
+  }
+
+  @Override
+  public String toString() {
+    return "LogQuery{" + "fromMillis=" + fromMillis + ", toMillis=" + toMillis + ", minLevel=" + minLevel
+            + ", traceId=" + traceId + ", loggerPrefix=" + loggerPrefix + '}';
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log.index;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.UncheckedExecutionException;
+import org.spf4j.base.avro.LogRecord;
+import org.spf4j.concurrent.DefaultExecutor;
+
+/**
+ * Searches the avro log segments of a folder.
+ * Segments are pruned using their sidecar index (see LogSegmentIndex), the remaining segments are scanned in parallel,
+ * and the matching records are streamed in time order.
+ *
+ * Segments without a index (like the segment currently written) are always scanned,
+ * a incomplete last block is ignored.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+public final class LogSearch {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LogSearch.class);
+
+  private static final Comparator<LogRecord> TS_COMPARATOR = Comparator.comparing(LogRecord::getTs);
+
+  private final Path directory;
+
+  private final String extension;
+
+  private final ExecutorService executor;
+
+  private final ConcurrentMap<Path, LogSegmentIndex> indexes;
+
+  public LogSearch(final Path directory) {
+    this(directory, ".avro", DefaultExecutor.INSTANCE);
+  }
+
+  public LogSearch(final Path directory, final String segmentExtension, final ExecutorService executor) {
+    this.directory = directory;
+    this.extension = segmentExtension;
+    this.executor = executor;
+    this.indexes = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Search for log records.
+   * @param query the query.
+   * @return a stream of matching records ordered by timestamp. the stream must be closed.
+   */
+  public Stream<LogRecord> search(final LogQuery query) throws IOException {
+    List<SegmentScan> scans = new ArrayList<>();
+    for (Path segment : listSegments()) {
+      LogSegmentIndex index = getIndex(segment);
+      if (index == null) {
+        scans.add(new SegmentScan(Long.MIN_VALUE,
+                executor.submit(() -> scan(segment, query, true))));
+      } else if (index.mightMatch(query)) {
+        scans.add(new SegmentScan(index.getMinTimeMillis(),
+                executor.submit(() -> scan(segment, query, false))));
+      }
+    }
+    scans.sort((a, b) -> Long.compare(a.minTimeMillis, b.minTimeMillis));
+    MergingIterator it = new MergingIterator(scans);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it,
+            Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(it::cancel);
+  }
+
+  /**
+   * Create the missing sidecar indexes.
+   * @param skipLast do not index the most recent segment (which is usually still written to).
+   * @return the number of indexes created.
+   */
+  public int indexMissing(final boolean skipLast) throws IOException {
+    List<Path> segments = listSegments();
+    int n = skipLast ? segments.size() - 1 : segments.size();
+    int result = 0;
+    for (int i = 0; i < n; i++) {
+      Path segment = segments.get(i);
+      if (getIndex(segment) == null) {
+        indexes.put(segment, LogSegmentIndex.index(segment));
+        result++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the segments, oldest first.
+   */
+  private List<Path> listSegments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter((p) -> p.getFileName().toString().endsWith(extension))
+              .sorted(Comparator.comparing(LogSearch::lastModified))
+              .collect(Collectors.toList());
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  private static FileTime lastModified(final Path path) {
+    try {
+      return Files.getLastModifiedTime(path);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  @Nullable
+  private LogSegmentIndex getIndex(final Path segment) throws IOException {
+    LogSegmentIndex index = indexes.get(segment);
+    if (index == null) {
+      index = LogSegmentIndex.readIndexOf(segment);
+      if (index != null) {
+        indexes.put(segment, index);
+      }
+    }
+    return index;
+  }
+
+  private static List<LogRecord> scan(final Path segment, final LogQuery query, final boolean tolerateIncomplete)
+          throws IOException {
+    List<LogRecord> result = new ArrayList<>();
+    try (DataFileStream<LogRecord> stream = new DataFileStream<>(
+            new BufferedInputStream(Files.newInputStream(segment), 65536),
+            new SpecificDatumReader<>(LogRecord.class))) {
+      LogRecord reuse = null;
+      while (stream.hasNext()) {
+        LogRecord rec = stream.next(reuse);
+        if (query.matches(rec)) {
+          result.add(rec);
+          reuse = null;
+        } else {
+          reuse = rec;
+        }
+      }
+    } catch (IOException | AvroRuntimeException ex) {
+      if (!tolerateIncomplete) {
+        throw ex;
+      }
+      LOG.warn("Incomplete log segment {}, using the {} matching records read so far", segment, result.size(), ex);
+    }
+    result.sort(TS_COMPARATOR);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "LogSearch{" + "directory=" + directory + ", extension=" + extension + '}';
+  }
+
+  private static final class SegmentScan {
+
+    private final long minTimeMillis;
+
+    private final Future<List<LogRecord>> result;
+
+    SegmentScan(final long minTimeMillis, final Future<List<LogRecord>> result) {
+      this.minTimeMillis = minTimeMillis;
+      this.result = result;
+    }
+
+    List<LogRecord> get() {
+      try {
+        return result.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new UncheckedExecutionException(ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+          throw new UncheckedIOException((IOException) cause);
+        }
+        throw new UncheckedExecutionException(cause);
+      }
+    }
+  }
+
+  private static final class Cursor {
+
+    private final Iterator<LogRecord> records;
+
+    private LogRecord head;
+
+    Cursor(final Iterator<LogRecord> records) {
+      this.records = records;
+      this.head = records.next();
+    }
+
+    boolean advance() {
+      if (records.hasNext()) {
+        head = records.next();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * K way merge of the segment results, a segment result is awaited only when needed:
+   * when the next record to return is newer than the segment start time.
+   */
+  private static final class MergingIterator implements Iterator<LogRecord> {
+
+    private final List<SegmentScan> scans;
+
+    private final PriorityQueue<Cursor> heap;
+
+    private int nextScan;
+
+    MergingIterator(final List<SegmentScan> scans) {
+      this.scans = scans;
+      this.heap = new PriorityQueue<>(Math.max(1, scans.size()), (a, b) -> TS_COMPARATOR.compare(a.head, b.head));
+      this.nextScan = 0;
+    }
+
+    private void load() {
+      while (nextScan < scans.size()) {
+        Cursor top = heap.peek();
+        SegmentScan scan = scans.get(nextScan);
+        if (top != null && top.head.getTs().toEpochMilli() < scan.minTimeMillis) {
+          return;
+        }
+        nextScan++;
+        List<LogRecord> records = scan.get();
+        if (!records.isEmpty()) {
+          heap.add(new Cursor(records.iterator()));
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      load();
+      return !heap.isEmpty();
+    }
+
+    @Override
+    public LogRecord next() {
+      load();
+      Cursor top = heap.poll();
+      if (top == null) {
+        throw new NoSuchElementException();
+      }
+      LogRecord result = top.head;
+      if (top.advance()) {
+        heap.add(top);
+      }
+      return result;
+    }
+
+    void cancel() {
+      for (int i = nextScan; i < scans.size(); i++) {
+        scans.get(i).result.cancel(true);
+      }
+      heap.clear();
+      nextScan = scans.size();
+    }
+
+    @Override
+    public String toString() {
+      return "MergingIterator{" + "scans=" + scans.size() + ", nextScan=" + nextScan + '}';
+    }
+
+  }
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log.index;
+
+import gnu.trove.set.hash.TLongHashSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.spf4j.base.avro.LogLevel;
+import org.spf4j.base.avro.LogRecord;
+
+/**
+ * Sidecar index of a avro log segment, used to skip segments that cannot contain records matching a query.
+ * Contains the time range, the level histogram, a trace id bloom filter and the logger name dictionary.
+ *
+ * The index of [segment] is stored in [segment].idx
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@Immutable
+public final class LogSegmentIndex {
+
+  public static final String INDEX_EXTENSION = ".idx";
+
+  private static final int MAGIC = 0x534c4958; // SLIX
+
+  /** version 2: 64 bit bloom filter hashing, version 1 indexes are ignored (the segments are scanned). */
+  private static final int VERSION = 2;
+
+  private static final int MAX_LOGGERS = Integer.getInteger("spf4j.logIndex.maxLoggers", 1024);
+
+  private static final double TRACE_ID_FPP = 0.01;
+
+  private static final LogLevel[] LEVELS = LogLevel.values();
+
+  private final long nrRecords;
+
+  private final long minTimeMillis;
+
+  private final long maxTimeMillis;
+
+  private final long[] levelCounts;
+
+  private final BloomFilter traceIds;
+
+  /** null when there are too many distinct loggers. */
+  @Nullable
+  private final Set<String> loggers;
+
+  private LogSegmentIndex(final long nrRecords, final long minTimeMillis, final long maxTimeMillis,
+          final long[] levelCounts, final BloomFilter traceIds, @Nullable final Set<String> loggers) {
+    this.nrRecords = nrRecords;
+    this.minTimeMillis = minTimeMillis;
+    this.maxTimeMillis = maxTimeMillis;
+    this.levelCounts = levelCounts;
+    this.traceIds = traceIds;
+    this.loggers = loggers;
+  }
+
+  public static Path indexPath(final Path segment) {
+    return segment.resolveSibling(segment.getFileName() + INDEX_EXTENSION);
+  }
+
+  /**
+   * Create the index of a segment, by scanning it.
+   */
+  public static LogSegmentIndex create(final Path segment) throws IOException {
+    Builder builder = new Builder();
+    try (DataFileStream<LogRecord> stream = new DataFileStream<>(
+            new BufferedInputStream(Files.newInputStream(segment), 65536),
+            new SpecificDatumReader<>(LogRecord.class))) {
+      LogRecord rec = null;
+      while (stream.hasNext()) {
+        rec = stream.next(rec);
+        builder.add(rec);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Create and write the index of a segment.
+   */
+  public static LogSegmentIndex index(final Path segment) throws IOException {
+    LogSegmentIndex result = create(segment);
+    result.write(indexPath(segment));
+    return result;
+  }
+
+  /**
+   * @return the index of the segment, or null if the segment has no (up to date) index.
+   */
+  @Nullable
+  public static LogSegmentIndex readIndexOf(final Path segment) throws IOException {
+    Path idx = indexPath(segment);
+    if (!Files.exists(idx) || isOutdated(idx)) {
+      return null;
+    }
+    return read(idx);
+  }
+
+  /**
+   * @return true if the index file was written by a older version, and needs to be re-created.
+   */
+  private static boolean isOutdated(final Path indexFile) throws IOException {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(indexFile))) {
+      return in.readInt() == MAGIC && in.readInt() < VERSION;
+    }
+  }
+
+  public static LogSegmentIndex read(final Path indexFile) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a log segment index " + indexFile);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported log segment index version " + version + " for " + indexFile);
+      }
+      long nrRecords = in.readLong();
+      long minTs = in.readLong();
+      long maxTs = in.readLong();
+      int nrLevels = in.readInt();
+      long[] levelCounts = new long[LEVELS.length];
+      for (int i = 0; i < nrLevels; i++) {
+        long count = in.readLong();
+        if (i < levelCounts.length) {
+          levelCounts[i] = count;
+        }
+      }
+      BloomFilter traceIds = BloomFilter.readFrom(in);
+      int nrLoggers = in.readInt();
+      Set<String> loggers;
+      if (nrLoggers < 0) {
+        loggers = null;
+      } else {
+        TreeSet<String> ls = new TreeSet<>();
+        for (int i = 0; i < nrLoggers; i++) {
+          ls.add(in.readUTF());
+        }
+        loggers = Collections.unmodifiableSet(ls);
+      }
+      return new LogSegmentIndex(nrRecords, minTs, maxTs, levelCounts, traceIds, loggers);
+    }
+  }
+
+  /**
+   * Write this index, atomically.
+   */
+  public void write(final Path indexFile) throws IOException {
+    Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(nrRecords);
+      out.writeLong(minTimeMillis);
+      out.writeLong(maxTimeMillis);
+      out.writeInt(levelCounts.length);
+      for (long count : levelCounts) {
+        out.writeLong(count);
+      }
+      traceIds.writeTo(out);
+      if (loggers == null) {
+        out.writeInt(-1);
+      } else {
+        out.writeInt(loggers.size());
+        for (String logger : loggers) {
+          out.writeUTF(logger);
+        }
+      }
+    }
+    Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return false if the segment is guaranteed not to contain records matching the query.
+   */
+  public boolean mightMatch(final LogQuery query) {
+    if (nrRecords == 0 || maxTimeMillis < query.getFromMillis() || minTimeMillis >= query.getToMillis()) {
+      return false;
+    }
+    boolean hasLevel = false;
+    for (LogLevel level : LEVELS) {
+      if (levelCounts[level.ordinal()] > 0 && query.matchesLevel(level)) {
+        hasLevel = true;
+        break;
+      }
+    }
+    if (!hasLevel) {
+      return false;
+    }
+    String traceId = query.getTraceId();
+    if (traceId != null && !traceIds.mightContain(BloomFilter.hash(traceId))) {
+      return false;
+    }
+    String loggerPrefix = query.getLoggerPrefix();
+    if (loggerPrefix != null && loggers != null) {
+      for (String logger : loggers) {
+        if (logger.startsWith(loggerPrefix)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return true;
+  }
+
+  public long getNrRecords() {
+    return nrRecords;
+  }
+
+  public long getMinTimeMillis() {
+    return minTimeMillis;
+  }
+
+  public long getMaxTimeMillis() {
+    return maxTimeMillis;
+  }
+
+  public long getNrRecords(final LogLevel level) {
+    return levelCounts[level.ordinal()];
+  }
+
+  /**
+   * @return the logger names in this segment, or null if not available.
+   */
+  @Nullable
+  public Set<String> getLoggers() {
+    return loggers;
+  }
+
+  @Override
+  public String toString() {
+    return "LogSegmentIndex{" + "nrRecords=" + nrRecords + ", minTimeMillis=" + minTimeMillis
+            + ", maxTimeMillis=" + maxTimeMillis + ", levelCounts=" + Arrays.toString(levelCounts)
+            + ", traceIds=" + traceIds + ", loggers=" + loggers + '}';
+  }
+
+  /**
+   * Builds a index incrementally, as records are written to a segment.
+   */
+  @NotThreadSafe
+  public static final class Builder {
+
+    private long nrRecords;
+
+    private long minTimeMillis;
+
+    private long maxTimeMillis;
+
+    private final long[] levelCounts;
+
+    private final TLongHashSet traceIdHashes;
+
+    @Nullable
+    private TreeSet<String> loggers;
+
+    public Builder() {
+      nrRecords = 0;
+      minTimeMillis = Long.MAX_VALUE;
+      maxTimeMillis = Long.MIN_VALUE;
+      levelCounts = new long[LEVELS.length];
+      traceIdHashes = new TLongHashSet();
+      loggers = new TreeSet<>();
+    }
+
+    public void add(final LogRecord record) {
+      nrRecords++;
+      long ts = record.getTs().toEpochMilli();
+      if (ts < minTimeMillis) {
+        minTimeMillis = ts;
+      }
+      if (ts > maxTimeMillis) {
+        maxTimeMillis = ts;
+      }
+      levelCounts[record.getLevel().ordinal()]++;
+      String trId = record.getTrId();
+      if (!trId.isEmpty()) {
+        traceIdHashes.add(BloomFilter.hash(trId));
+      }
+      if (loggers != null && loggers.add(record.getLogger()) && loggers.size() > MAX_LOGGERS) {
+        loggers = null;
+      }
+    }
+
+    public LogSegmentIndex build() {
+      BloomFilter traceIds = BloomFilter.create(traceIdHashes.size(), TRACE_ID_FPP);
+      traceIdHashes.forEach((hash) -> {
+        traceIds.add(hash);
+        return true;
+      });
+      return new LogSegmentIndex(nrRecords, minTimeMillis, maxTimeMillis, levelCounts.clone(), traceIds,
+              loggers == null ? null : Collections.unmodifiableSet(new TreeSet<>(loggers)));
+    }
+
+    @Override
+    public String toString() {
+      return "Builder{" + "nrRecords=" + nrRecords + ", minTimeMillis=" + minTimeMillis
+              + ", maxTimeMillis=" + maxTimeMillis + '}';
+    }
+
+  }
+
+}
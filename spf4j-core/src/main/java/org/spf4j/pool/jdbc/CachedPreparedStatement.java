@@ -0,0 +1,661 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.pool.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLType;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A prepared statement lease of a pooled connection, a delegating wrapper around the raw statement.
+ * Closing a cached statement will return it to the connection statement cache.
+ * The statement limits and timeouts are reset when returned to the cache, statements where settings that cannot be
+ * reset were changed are not reused.
+ * A new instance is handed out for every lease, once closed the instance close is a no-op
+ * and all other operations throw a SQLException. The result sets obtained from the lease are closed with it,
+ * and their getStatement returns the lease.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class CachedPreparedStatement implements PreparedStatement {
+
+  private final StatementHolder holder;
+
+  private final int leaseId;
+
+  private final PooledConnection connection;
+
+  CachedPreparedStatement(final StatementHolder holder, final int leaseId, final PooledConnection connection) {
+    this.holder = holder;
+    this.leaseId = leaseId;
+    this.connection = connection;
+  }
+
+  private PreparedStatement raw() throws SQLException {
+    if (!holder.isLeased(leaseId)) {
+      throw new SQLException("Statement is closed " + this);
+    }
+    return holder.getRaw();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (holder.isLeased(leaseId)) {
+      holder.release();
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return !holder.isLeased(leaseId) || holder.getRaw().isClosed();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    raw();
+    return connection;
+  }
+
+  @Override
+  public void setQueryTimeout(final int seconds) throws SQLException {
+    raw().setQueryTimeout(seconds);
+    holder.markDirty();
+  }
+
+  @Override
+  public void setMaxRows(final int max) throws SQLException {
+    raw().setMaxRows(max);
+    holder.markDirty();
+  }
+
+  @Override
+  public void setLargeMaxRows(final long max) throws SQLException {
+    raw().setLargeMaxRows(max);
+    holder.markDirty();
+  }
+
+  @Override
+  public void setMaxFieldSize(final int max) throws SQLException {
+    raw().setMaxFieldSize(max);
+    holder.markDirty();
+  }
+
+  @Override
+  public void setFetchSize(final int rows) throws SQLException {
+    raw().setFetchSize(rows);
+    holder.markDirty();
+  }
+
+  @Override
+  public void addBatch() throws SQLException {
+    raw().addBatch();
+    holder.markBatched();
+  }
+
+  @Override
+  public void setFetchDirection(final int direction) throws SQLException {
+    PreparedStatement raw = raw();
+    holder.uncache();
+    raw.setFetchDirection(direction);
+  }
+
+  @Override
+  public void setEscapeProcessing(final boolean enable) throws SQLException {
+    PreparedStatement raw = raw();
+    holder.uncache();
+    raw.setEscapeProcessing(enable);
+  }
+
+  @Override
+  public void setCursorName(final String name) throws SQLException {
+    PreparedStatement raw = raw();
+    holder.uncache();
+    raw.setCursorName(name);
+  }
+
+  @Override
+  public void setPoolable(final boolean poolable) throws SQLException {
+    PreparedStatement raw = raw();
+    if (!poolable) {
+      holder.uncache();
+    }
+    raw.setPoolable(poolable);
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    PreparedStatement raw = raw();
+    holder.uncache();
+    raw.closeOnCompletion();
+  }
+
+  @Override
+  public <T> T unwrap(final Class<T> iface) throws SQLException {
+    PreparedStatement raw = raw();
+    if (iface.isInstance(raw)) {
+      return (T) raw;
+    }
+    return raw.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+    PreparedStatement raw = raw();
+    return iface.isInstance(raw) || raw.isWrapperFor(iface);
+  }
+
+  @Override
+  public ResultSet executeQuery(final String sql) throws SQLException {
+    return holder.track(raw().executeQuery(sql), this);
+  }
+
+  @Override
+  public int executeUpdate(final String sql) throws SQLException {
+    return raw().executeUpdate(sql);
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    return raw().getMaxFieldSize();
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    return raw().getMaxRows();
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    return raw().getQueryTimeout();
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    raw().cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return raw().getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    raw().clearWarnings();
+  }
+
+  @Override
+  public boolean execute(final String sql) throws SQLException {
+    return raw().execute(sql);
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    return holder.track(raw().getResultSet(), this);
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    return raw().getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    return raw().getMoreResults();
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return raw().getFetchDirection();
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return raw().getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    return raw().getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    return raw().getResultSetType();
+  }
+
+  @Override
+  public void addBatch(final String sql) throws SQLException {
+    raw().addBatch(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    raw().clearBatch();
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    return raw().executeBatch();
+  }
+
+  @Override
+  public boolean getMoreResults(final int current) throws SQLException {
+    return raw().getMoreResults(current);
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return holder.track(raw().getGeneratedKeys(), this);
+  }
+
+  @Override
+  public int executeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
+    return raw().executeUpdate(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public int executeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
+    return raw().executeUpdate(sql, columnIndexes);
+  }
+
+  @Override
+  public int executeUpdate(final String sql, final String[] columnNames) throws SQLException {
+    return raw().executeUpdate(sql, columnNames);
+  }
+
+  @Override
+  public boolean execute(final String sql, final int autoGeneratedKeys) throws SQLException {
+    return raw().execute(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public boolean execute(final String sql, final int[] columnIndexes) throws SQLException {
+    return raw().execute(sql, columnIndexes);
+  }
+
+  @Override
+  public boolean execute(final String sql, final String[] columnNames) throws SQLException {
+    return raw().execute(sql, columnNames);
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    return raw().getResultSetHoldability();
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    return raw().isPoolable();
+  }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException {
+    return raw().isCloseOnCompletion();
+  }
+
+  @Override
+  public long getLargeUpdateCount() throws SQLException {
+    return raw().getLargeUpdateCount();
+  }
+
+  @Override
+  public long getLargeMaxRows() throws SQLException {
+    return raw().getLargeMaxRows();
+  }
+
+  @Override
+  public long[] executeLargeBatch() throws SQLException {
+    return raw().executeLargeBatch();
+  }
+
+  @Override
+  public long executeLargeUpdate(final String sql) throws SQLException {
+    return raw().executeLargeUpdate(sql);
+  }
+
+  @Override
+  public long executeLargeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
+    return raw().executeLargeUpdate(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public long executeLargeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
+    return raw().executeLargeUpdate(sql, columnIndexes);
+  }
+
+  @Override
+  public long executeLargeUpdate(final String sql, final String[] columnNames) throws SQLException {
+    return raw().executeLargeUpdate(sql, columnNames);
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    return holder.track(raw().executeQuery(), this);
+  }
+
+  @Override
+  public int executeUpdate() throws SQLException {
+    return raw().executeUpdate();
+  }
+
+  @Override
+  public void setNull(final int parameterIndex, final int sqlType) throws SQLException {
+    raw().setNull(parameterIndex, sqlType);
+  }
+
+  @Override
+  public void setBoolean(final int parameterIndex, final boolean x) throws SQLException {
+    raw().setBoolean(parameterIndex, x);
+  }
+
+  @Override
+  public void setByte(final int parameterIndex, final byte x) throws SQLException {
+    raw().setByte(parameterIndex, x);
+  }
+
+  @Override
+  public void setShort(final int parameterIndex, final short x) throws SQLException {
+    raw().setShort(parameterIndex, x);
+  }
+
+  @Override
+  public void setInt(final int parameterIndex, final int x) throws SQLException {
+    raw().setInt(parameterIndex, x);
+  }
+
+  @Override
+  public void setLong(final int parameterIndex, final long x) throws SQLException {
+    raw().setLong(parameterIndex, x);
+  }
+
+  @Override
+  public void setFloat(final int parameterIndex, final float x) throws SQLException {
+    raw().setFloat(parameterIndex, x);
+  }
+
+  @Override
+  public void setDouble(final int parameterIndex, final double x) throws SQLException {
+    raw().setDouble(parameterIndex, x);
+  }
+
+  @Override
+  public void setBigDecimal(final int parameterIndex, final BigDecimal x) throws SQLException {
+    raw().setBigDecimal(parameterIndex, x);
+  }
+
+  @Override
+  public void setString(final int parameterIndex, final String x) throws SQLException {
+    raw().setString(parameterIndex, x);
+  }
+
+  @Override
+  public void setBytes(final int parameterIndex, final byte[] x) throws SQLException {
+    raw().setBytes(parameterIndex, x);
+  }
+
+  @Override
+  public void setDate(final int parameterIndex, final Date x) throws SQLException {
+    raw().setDate(parameterIndex, x);
+  }
+
+  @Override
+  public void setTime(final int parameterIndex, final Time x) throws SQLException {
+    raw().setTime(parameterIndex, x);
+  }
+
+  @Override
+  public void setTimestamp(final int parameterIndex, final Timestamp x) throws SQLException {
+    raw().setTimestamp(parameterIndex, x);
+  }
+
+  @Override
+  public void setAsciiStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
+    raw().setAsciiStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setUnicodeStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
+    raw().setUnicodeStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
+    raw().setBinaryStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void clearParameters() throws SQLException {
+    raw().clearParameters();
+  }
+
+  @Override
+  public void setObject(final int parameterIndex, final Object x, final int targetSqlType) throws SQLException {
+    raw().setObject(parameterIndex, x, targetSqlType);
+  }
+
+  @Override
+  public void setObject(final int parameterIndex, final Object x) throws SQLException {
+    raw().setObject(parameterIndex, x);
+  }
+
+  @Override
+  public boolean execute() throws SQLException {
+    return raw().execute();
+  }
+
+  @Override
+  public void setCharacterStream(final int parameterIndex, final Reader reader, final int length) throws SQLException {
+    raw().setCharacterStream(parameterIndex, reader, length);
+  }
+
+  @Override
+  public void setRef(final int parameterIndex, final Ref x) throws SQLException {
+    raw().setRef(parameterIndex, x);
+  }
+
+  @Override
+  public void setBlob(final int parameterIndex, final Blob x) throws SQLException {
+    raw().setBlob(parameterIndex, x);
+  }
+
+  @Override
+  public void setClob(final int parameterIndex, final Clob x) throws SQLException {
+    raw().setClob(parameterIndex, x);
+  }
+
+  @Override
+  public void setArray(final int parameterIndex, final Array x) throws SQLException {
+    raw().setArray(parameterIndex, x);
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    return raw().getMetaData();
+  }
+
+  @Override
+  public void setDate(final int parameterIndex, final Date x, final Calendar cal) throws SQLException {
+    raw().setDate(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setTime(final int parameterIndex, final Time x, final Calendar cal) throws SQLException {
+    raw().setTime(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setTimestamp(final int parameterIndex, final Timestamp x, final Calendar cal) throws SQLException {
+    raw().setTimestamp(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setNull(final int parameterIndex, final int sqlType, final String typeName) throws SQLException {
+    raw().setNull(parameterIndex, sqlType, typeName);
+  }
+
+  @Override
+  public void setURL(final int parameterIndex, final URL x) throws SQLException {
+    raw().setURL(parameterIndex, x);
+  }
+
+  @Override
+  public ParameterMetaData getParameterMetaData() throws SQLException {
+    return raw().getParameterMetaData();
+  }
+
+  @Override
+  public void setRowId(final int parameterIndex, final RowId x) throws SQLException {
+    raw().setRowId(parameterIndex, x);
+  }
+
+  @Override
+  public void setNString(final int parameterIndex, final String value) throws SQLException {
+    raw().setNString(parameterIndex, value);
+  }
+
+  @Override
+  public void setNCharacterStream(final int parameterIndex, final Reader value, final long length) throws SQLException {
+    raw().setNCharacterStream(parameterIndex, value, length);
+  }
+
+  @Override
+  public void setNClob(final int parameterIndex, final NClob value) throws SQLException {
+    raw().setNClob(parameterIndex, value);
+  }
+
+  @Override
+  public void setClob(final int parameterIndex, final Reader reader, final long length) throws SQLException {
+    raw().setClob(parameterIndex, reader, length);
+  }
+
+  @Override
+  public void setBlob(final int parameterIndex, final InputStream inputStream, final long length) throws SQLException {
+    raw().setBlob(parameterIndex, inputStream, length);
+  }
+
+  @Override
+  public void setNClob(final int parameterIndex, final Reader reader, final long length) throws SQLException {
+    raw().setNClob(parameterIndex, reader, length);
+  }
+
+  @Override
+  public void setSQLXML(final int parameterIndex, final SQLXML xmlObject) throws SQLException {
+    raw().setSQLXML(parameterIndex, xmlObject);
+  }
+
+  @Override
+  public void setObject(final int parameterIndex, final Object x, final int targetSqlType,
+          final int scaleOrLength) throws SQLException {
+    raw().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+  }
+
+  @Override
+  public void setAsciiStream(final int parameterIndex, final InputStream x, final long length) throws SQLException {
+    raw().setAsciiStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(final int parameterIndex, final InputStream x, final long length) throws SQLException {
+    raw().setBinaryStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setCharacterStream(final int parameterIndex, final Reader reader, final long length) throws SQLException {
+    raw().setCharacterStream(parameterIndex, reader, length);
+  }
+
+  @Override
+  public void setAsciiStream(final int parameterIndex, final InputStream x) throws SQLException {
+    raw().setAsciiStream(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(final int parameterIndex, final InputStream x) throws SQLException {
+    raw().setBinaryStream(parameterIndex, x);
+  }
+
+  @Override
+  public void setCharacterStream(final int parameterIndex, final Reader reader) throws SQLException {
+    raw().setCharacterStream(parameterIndex, reader);
+  }
+
+  @Override
+  public void setNCharacterStream(final int parameterIndex, final Reader value) throws SQLException {
+    raw().setNCharacterStream(parameterIndex, value);
+  }
+
+  @Override
+  public void setClob(final int parameterIndex, final Reader reader) throws SQLException {
+    raw().setClob(parameterIndex, reader);
+  }
+
+  @Override
+  public void setBlob(final int parameterIndex, final InputStream inputStream) throws SQLException {
+    raw().setBlob(parameterIndex, inputStream);
+  }
+
+  @Override
+  public void setNClob(final int parameterIndex, final Reader reader) throws SQLException {
+    raw().setNClob(parameterIndex, reader);
+  }
+
+  @Override
+  public void setObject(final int parameterIndex, final Object x, final SQLType targetSqlType,
+          final int scaleOrLength) throws SQLException {
+    raw().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+  }
+
+  @Override
+  public void setObject(final int parameterIndex, final Object x, final SQLType targetSqlType) throws SQLException {
+    raw().setObject(parameterIndex, x, targetSqlType);
+  }
+
+  @Override
+  public long executeLargeUpdate() throws SQLException {
+    return raw().executeLargeUpdate();
+  }
+
+  @Override
+  public String toString() {
+    return "CachedPreparedStatement{" + "holder=" + holder + ", leaseId=" + leaseId + '}';
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.pool.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The object pooled by PooledDataSource: a raw connection and its prepared statement cache.
+ * Every borrow of the holder is handed out as a distinct PooledConnection, so that a connection handle
+ * that has been closed cannot act on a later borrow of the same raw connection.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class ConnectionHolder {
+
+  private final Connection raw;
+
+  private final PooledDataSource dataSource;
+
+  @Nullable
+  private final StatementCache statementCache;
+
+  ConnectionHolder(final Connection raw, final PooledDataSource dataSource, final int statementCacheSize) {
+    this.raw = raw;
+    this.dataSource = dataSource;
+    this.statementCache = statementCacheSize > 0 ? new StatementCache(raw, statementCacheSize) : null;
+  }
+
+  PooledConnection lease() {
+    return new PooledConnection(this);
+  }
+
+  Connection getRaw() {
+    return raw;
+  }
+
+  PooledDataSource getDataSource() {
+    return dataSource;
+  }
+
+  @Nullable
+  StatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * Release the statements left open by the borrower, and return this holder to the pool.
+   * @param ex the last exception encountered by the borrower, will trigger a connection validation.
+   */
+  void release(@Nullable final Exception ex) throws SQLException {
+    if (statementCache != null) {
+      try {
+        statementCache.releaseAll();
+      } catch (SQLException | RuntimeException sex) {
+        if (ex != null) {
+          sex.addSuppressed(ex);
+        }
+        dataSource.recycle(this, sex);
+        throw sex;
+      }
+    }
+    dataSource.recycle(this, ex);
+  }
+
+  /**
+   * Close the cached statements, invoked when the connection is evicted from the pool.
+   */
+  void closeStatements() throws SQLException {
+    if (statementCache != null) {
+      statementCache.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ConnectionHolder{" + "raw=" + raw + ", statementCache=" + statementCache + '}';
+  }
+
+}
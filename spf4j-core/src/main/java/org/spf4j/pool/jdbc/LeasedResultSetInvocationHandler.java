@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.pool.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A result set of a prepared statement lease, delegates to the raw result set, except getStatement
+ * which returns the statement lease, so that closing the statement via the result set returns it to the cache.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+final class LeasedResultSetInvocationHandler implements InvocationHandler {
+
+  private final ResultSet raw;
+
+  private final Statement statement;
+
+  private LeasedResultSetInvocationHandler(final ResultSet raw, final Statement statement) {
+    this.raw = raw;
+    this.statement = statement;
+  }
+
+  static ResultSet wrap(final ResultSet raw, final Statement statement) {
+    return (ResultSet) Proxy.newProxyInstance(LeasedResultSetInvocationHandler.class.getClassLoader(),
+            new Class[] {ResultSet.class}, new LeasedResultSetInvocationHandler(raw, statement));
+  }
+
+  @Override
+  public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+    String mName = method.getName();
+    int nrArgs = args == null ? 0 : args.length;
+    if (nrArgs == 0) {
+      switch (mName) {
+        case "getStatement":
+          return statement;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return toString();
+        default:
+          break;
+      }
+    } else if (nrArgs == 1 && "equals".equals(mName)) {
+      return proxy == args[0];
+    }
+    try {
+      return method.invoke(raw, args);
+    } catch (InvocationTargetException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "LeasedResultSetInvocationHandler{" + "raw=" + raw + ", statement=" + statement + '}';
+  }
+
+}
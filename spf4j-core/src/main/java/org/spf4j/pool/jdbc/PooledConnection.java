@@ -0,0 +1,676 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.pool.jdbc;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The connection handed out by PooledDataSource, a delegating wrapper around the raw connection.
+ * A new instance is handed out for every borrow, once closed the instance close is a no-op
+ * and all other operations throw a SQLException.
+ * Exceptions encountered are recorded, and will trigger the connection validation when returned to the pool.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class PooledConnection implements Connection {
+
+  private final ConnectionHolder holder;
+
+  private final Connection raw;
+
+  @Nullable
+  private final StatementCache statementCache;
+
+  private boolean borrowed;
+
+  @Nullable
+  private Exception lastException;
+
+  PooledConnection(final ConnectionHolder holder) {
+    this.holder = holder;
+    this.raw = holder.getRaw();
+    this.statementCache = holder.getStatementCache();
+    this.borrowed = true;
+    this.lastException = null;
+  }
+
+  private void checkBorrowed() throws SQLException {
+    if (!borrowed) {
+      throw new SQLException(closedMessage());
+    }
+  }
+
+  private String closedMessage() {
+    return "Connection closed, it has been returned already to " + holder.getDataSource();
+  }
+
+  /**
+   * Returns this connection to the pool.
+   */
+  @Override
+  public void close() throws SQLException {
+    if (borrowed) {
+      borrowed = false;
+      Exception ex = lastException;
+      lastException = null;
+      holder.release(ex);
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return !borrowed || raw.isClosed();
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql) throws SQLException {
+    return prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final int resultSetType,
+          final int resultSetConcurrency) throws SQLException {
+    checkBorrowed();
+    try {
+      if (statementCache == null) {
+        return raw.prepareStatement(sql, resultSetType, resultSetConcurrency);
+      }
+      return statementCache.prepare(sql, resultSetType, resultSetConcurrency, this);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public <T> T unwrap(final Class<T> iface) throws SQLException {
+    checkBorrowed();
+    if (iface.isInstance(raw)) {
+      return (T) raw;
+    }
+    return raw.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+    return iface.isInstance(raw) || raw.isWrapperFor(iface);
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createStatement();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public CallableStatement prepareCall(final String sql) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.prepareCall(sql);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public String nativeSQL(final String sql) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.nativeSQL(sql);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setAutoCommit(final boolean autoCommit) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.setAutoCommit(autoCommit);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getAutoCommit();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    checkBorrowed();
+    try {
+      raw.commit();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    checkBorrowed();
+    try {
+      raw.rollback();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getMetaData();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setReadOnly(final boolean readOnly) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.setReadOnly(readOnly);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.isReadOnly();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setCatalog(final String catalog) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.setCatalog(catalog);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getCatalog();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setTransactionIsolation(final int level) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.setTransactionIsolation(level);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getTransactionIsolation();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getWarnings();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    checkBorrowed();
+    try {
+      raw.clearWarnings();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Statement createStatement(final int resultSetType, final int resultSetConcurrency) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createStatement(resultSetType, resultSetConcurrency);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public CallableStatement prepareCall(final String sql, final int resultSetType,
+          final int resultSetConcurrency) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.prepareCall(sql, resultSetType, resultSetConcurrency);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getTypeMap();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setTypeMap(final Map<String, Class<?>> map) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.setTypeMap(map);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setHoldability(final int holdability) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.setHoldability(holdability);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getHoldability();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.setSavepoint();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Savepoint setSavepoint(final String name) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.setSavepoint(name);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void rollback(final Savepoint savepoint) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.rollback(savepoint);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void releaseSavepoint(final Savepoint savepoint) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.releaseSavepoint(savepoint);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Statement createStatement(final int resultSetType, final int resultSetConcurrency,
+          final int resultSetHoldability) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final int resultSetType,
+          final int resultSetConcurrency, final int resultSetHoldability) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency,
+          final int resultSetHoldability) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.prepareStatement(sql, autoGeneratedKeys);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.prepareStatement(sql, columnIndexes);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final String[] columnNames) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.prepareStatement(sql, columnNames);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Clob createClob() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createClob();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createBlob();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createNClob();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createSQLXML();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public boolean isValid(final int timeout) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.isValid(timeout);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setClientInfo(final String name, final String value) throws SQLClientInfoException {
+    if (!borrowed) {
+      throw new SQLClientInfoException(closedMessage(), null);
+    }
+    try {
+      raw.setClientInfo(name, value);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setClientInfo(final Properties properties) throws SQLClientInfoException {
+    if (!borrowed) {
+      throw new SQLClientInfoException(closedMessage(), null);
+    }
+    try {
+      raw.setClientInfo(properties);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public String getClientInfo(final String name) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getClientInfo(name);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getClientInfo();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Array createArrayOf(final String typeName, final Object[] elements) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createArrayOf(typeName, elements);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public Struct createStruct(final String typeName, final Object[] attributes) throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.createStruct(typeName, attributes);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setSchema(final String schema) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.setSchema(schema);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public String getSchema() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getSchema();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void abort(final Executor executor) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.abort(executor);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public void setNetworkTimeout(final Executor executor, final int milliseconds) throws SQLException {
+    checkBorrowed();
+    try {
+      raw.setNetworkTimeout(executor, milliseconds);
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public int getNetworkTimeout() throws SQLException {
+    checkBorrowed();
+    try {
+      return raw.getNetworkTimeout();
+    } catch (SQLException | RuntimeException ex) {
+      lastException = ex;
+      throw ex;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "PooledConnection{" + "holder=" + holder + ", borrowed=" + borrowed + '}';
+  }
+
+}
@@ -33,10 +33,6 @@ package org.spf4j.pool.jdbc;
 
 import com.google.common.annotations.Beta;
 import java.io.PrintWriter;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
@@ -45,7 +41,9 @@ import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 import javax.sql.DataSource;
+import org.spf4j.concurrent.DefaultScheduler;
 import org.spf4j.jdbc.DataSourceEx;
 import org.spf4j.recyclable.ObjectBorrowException;
 import org.spf4j.recyclable.ObjectCreationException;
@@ -54,13 +52,23 @@ import org.spf4j.recyclable.RecyclingSupplier;
 import org.spf4j.recyclable.impl.RecyclingSupplierBuilder;
 
 /**
+ * A pooling data source.
+ * The connections handed out are light delegating wrappers (one per borrow) around the pooled connections,
+ * with a per connection prepared statement cache. Idle connections can be validated in the background
+ * (spf4j.jdbc.pool.validationIntervalMillis, disabled by default).
  *
  * @author zoly
  */
 @Beta
 public final class PooledDataSource implements DataSourceEx, AutoCloseable {
 
-  private final RecyclingSupplier<Connection> pool;
+  private static final int DEFAULT_STATEMENT_CACHE_SIZE
+          = Integer.getInteger("spf4j.jdbc.pool.statementCacheSize", 64);
+
+  private static final long DEFAULT_VALIDATION_INTERVAL_MILLIS
+          = Long.getLong("spf4j.jdbc.pool.validationIntervalMillis", 0L);
+
+  private final RecyclingSupplier<ConnectionHolder> pool;
 
   public PooledDataSource(final int initialSize, final int maxSize,
           final String driverName, final String url, final String user, final String password)
@@ -76,39 +84,59 @@ public final class PooledDataSource implements DataSourceEx, AutoCloseable {
 
   public PooledDataSource(final int initialSize, final int maxSize,
           final RecyclingSupplier.Factory<Connection> jdbcConnectionFactory) throws ObjectCreationException {
-    RecyclingSupplierBuilder<Connection> builder
-            = new RecyclingSupplierBuilder<>(maxSize, jdbcConnectionFactory);
-    builder.withInitialSize(initialSize);
+    this(initialSize, maxSize, jdbcConnectionFactory, DEFAULT_STATEMENT_CACHE_SIZE,
+            DEFAULT_VALIDATION_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param initialSize the initial number of connections.
+   * @param maxSize the max number of connections.
+   * @param jdbcConnectionFactory the raw connection factory.
+   * @param statementCacheSize the max number of prepared statements cached per connection, 0 disables caching.
+   * @param validationIntervalMillis the interval at which idle connections are validated, 0 disables validation.
+   */
+  public PooledDataSource(final int initialSize, final int maxSize,
+          final RecyclingSupplier.Factory<Connection> jdbcConnectionFactory,
+          final int statementCacheSize, final long validationIntervalMillis) throws ObjectCreationException {
+    RecyclingSupplierBuilder<ConnectionHolder> builder
+            = new RecyclingSupplierBuilder<>(maxSize,
+                    new PooledConnectionFactory(jdbcConnectionFactory, this, statementCacheSize));
+    builder.withInitialSize(initialSize).threadAffine();
+    if (validationIntervalMillis > 0) {
+      builder.withMaintenance(DefaultScheduler.INSTANCE, validationIntervalMillis, false);
+    }
     pool = builder.build();
   }
 
   @Override
   public Connection getConnection() throws SQLException {
-    Connection raw;
+    ConnectionHolder conn;
     try {
-      raw = pool.get();
+      conn = pool.get();
     } catch (InterruptedException | ObjectBorrowException | ObjectCreationException ex) {
       throw new SQLException(ex);
     } catch (TimeoutException ex) {
       throw new SQLTimeoutException(ex);
     }
-    return (Connection) Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
-            new Class<?>[]{Connection.class}, new PooledConnectionInvocationHandler(raw, pool));
+    return conn.lease();
   }
 
   @Override
   public Connection getConnection(final long timeout, final TimeUnit unit) throws SQLException {
-    Connection raw;
+    ConnectionHolder conn;
     try {
-      raw = pool.tryGet(timeout, unit);
-      if (raw == null) {
+      conn = pool.tryGet(timeout, unit);
+      if (conn == null) {
         throw new SQLTimeoutException("Unable to obtain connection in " + timeout + " " + unit);
       }
     } catch (InterruptedException | ObjectBorrowException | ObjectCreationException ex) {
       throw new SQLException(ex);
     }
-    return (Connection) Proxy.newProxyInstance(Thread.currentThread().getContextClassLoader(),
-            new Class<?>[]{Connection.class}, new PooledConnectionInvocationHandler(raw, pool));
+    return conn.lease();
+  }
+
+  void recycle(final ConnectionHolder conn, @Nullable final Exception ex) {
+    pool.recycle(conn, ex);
   }
 
   @Override
@@ -166,41 +194,51 @@ public final class PooledDataSource implements DataSourceEx, AutoCloseable {
     pool.dispose();
   }
 
-  private static final class PooledConnectionInvocationHandler implements InvocationHandler {
+  private static final class PooledConnectionFactory implements RecyclingSupplier.Factory<ConnectionHolder> {
 
-    private final Connection raw;
+    private final RecyclingSupplier.Factory<Connection> rawFactory;
 
-    private final RecyclingSupplier<Connection> pool;
+    private final PooledDataSource dataSource;
 
-    PooledConnectionInvocationHandler(final Connection raw, final RecyclingSupplier<Connection> pool) {
-      this.raw = raw;
-      this.pool = pool;
+    private final int statementCacheSize;
+
+    PooledConnectionFactory(final RecyclingSupplier.Factory<Connection> rawFactory,
+            final PooledDataSource dataSource, final int statementCacheSize) {
+      this.rawFactory = rawFactory;
+      this.dataSource = dataSource;
+      this.statementCacheSize = statementCacheSize;
     }
-    private Exception ex;
-    private boolean closed = false;
 
     @Override
-    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Exception {
-      String mName = method.getName();
-      if ("close".equals(mName)) {
-        if (!closed) {
-          pool.recycle(raw, ex);
-          ex = null;
-          closed = true;
-        }
-        return null;
-      } else {
-        if (closed) {
-          throw new IllegalStateException("not aowner of this connection,"
-                  + " it has been returned already to " + pool);
-        }
+    public ConnectionHolder create() throws ObjectCreationException {
+      return new ConnectionHolder(rawFactory.create(), dataSource, statementCacheSize);
+    }
+
+    @Override
+    public void dispose(final ConnectionHolder object) throws ObjectDisposeException {
+      try {
+        object.closeStatements();
+      } catch (SQLException ex) {
+        ObjectDisposeException dex = new ObjectDisposeException(ex);
         try {
-          return method.invoke(raw, args);
-        } catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
-          ex = e;
-          throw e;
+          rawFactory.dispose(object.getRaw());
+        } catch (ObjectDisposeException ex2) {
+          dex.addSuppressed(ex2);
         }
+        throw dex;
       }
+      rawFactory.dispose(object.getRaw());
+    }
+
+    @Override
+    public boolean validate(final ConnectionHolder object, @Nullable final Exception e) throws Exception {
+      return rawFactory.validate(object.getRaw(), e);
+    }
+
+    @Override
+    public String toString() {
+      return "PooledConnectionFactory{" + "rawFactory=" + rawFactory
+              + ", statementCacheSize=" + statementCacheSize + '}';
     }
   }
 
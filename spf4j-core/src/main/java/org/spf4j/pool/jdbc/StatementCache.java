@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.pool.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LRU cache of the prepared statements of a pooled connection.
+ * Closing a cached statement returns it to the cache; the statements evicted from the cache are closed.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class StatementCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StatementCache.class);
+
+  private final Connection raw;
+
+  private final int maxSize;
+
+  private final LinkedHashMap<Key, StatementHolder> statements;
+
+  private int hits;
+
+  private int misses;
+
+  /** nr of cached statements currently in use. */
+  private int nrInUse;
+
+  StatementCache(final Connection raw, final int maxSize) {
+    this.raw = raw;
+    this.maxSize = maxSize;
+    this.statements = new LinkedHashMap<Key, StatementHolder>(Math.min(maxSize, 256) * 2, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Key, StatementHolder> eldest) {
+        if (size() > StatementCache.this.maxSize) {
+          evict(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  PreparedStatement prepare(final String sql, final int resultSetType, final int resultSetConcurrency,
+          final PooledConnection lease) throws SQLException {
+    Key key = new Key(sql, resultSetType, resultSetConcurrency);
+    StatementHolder stmt = statements.get(key);
+    if (stmt != null && !stmt.isInUse() && stmt.getRaw().isClosed()) {
+      // closed by the user via the raw statement.
+      statements.remove(key);
+      stmt.evict();
+      stmt = null;
+    }
+    if (stmt != null) {
+      if (!stmt.isInUse()) {
+        hits++;
+        nrInUse++;
+        return stmt.lease(lease);
+      }
+      // same statement used twice at the same time, the second one is not cached.
+      return new StatementHolder(raw.prepareStatement(sql, resultSetType, resultSetConcurrency), null)
+              .lease(lease);
+    }
+    misses++;
+    stmt = new StatementHolder(raw.prepareStatement(sql, resultSetType, resultSetConcurrency), this);
+    nrInUse++;
+    statements.put(key, stmt);
+    return stmt.lease(lease);
+  }
+
+  /**
+   * Make a statement available for reuse, the statement is closed if it cannot be reused.
+   */
+  void release(final StatementHolder stmt) throws SQLException {
+    nrInUse--;
+    if (stmt.isEvicted()) {
+      stmt.closeRaw();
+      return;
+    }
+    if (stmt.getRaw().isClosed()) {
+      remove(stmt);
+      return;
+    }
+    try {
+      stmt.reset();
+    } catch (SQLException | RuntimeException ex) {
+      remove(stmt);
+      stmt.closeRaw();
+      throw ex;
+    }
+  }
+
+  /**
+   * Remove a statement from the cache, the statement will be closed on release.
+   */
+  void remove(final StatementHolder stmt) {
+    Iterator<StatementHolder> it = statements.values().iterator();
+    while (it.hasNext()) {
+      if (it.next() == stmt) {
+        it.remove();
+        stmt.evict();
+        return;
+      }
+    }
+  }
+
+  private static void evict(final StatementHolder stmt) {
+    stmt.evict();
+    if (!stmt.isInUse()) {
+      try {
+        stmt.closeRaw();
+      } catch (SQLException | RuntimeException ex) {
+        LOG.warn("Failed to close evicted statement {}", stmt, ex);
+      }
+    }
+  }
+
+  /**
+   * Release the statements that were not closed by the connection user.
+   */
+  void releaseAll() throws SQLException {
+    if (nrInUse <= 0) {
+      return;
+    }
+    SQLException exception = null;
+    for (StatementHolder stmt : new ArrayList<>(statements.values())) {
+      if (stmt.isInUse()) {
+        try {
+          stmt.release();
+        } catch (SQLException ex) {
+          if (exception == null) {
+            exception = ex;
+          } else {
+            exception.addSuppressed(ex);
+          }
+        }
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  void close() throws SQLException {
+    List<StatementHolder> all = new ArrayList<>(statements.values());
+    statements.clear();
+    SQLException exception = null;
+    for (StatementHolder stmt : all) {
+      try {
+        stmt.closeRaw();
+      } catch (SQLException ex) {
+        if (exception == null) {
+          exception = ex;
+        } else {
+          exception.addSuppressed(ex);
+        }
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "StatementCache{" + "maxSize=" + maxSize + ", size=" + statements.size()
+            + ", hits=" + hits + ", misses=" + misses + '}';
+  }
+
+  private static final class Key {
+
+    private final String sql;
+
+    private final int resultSetType;
+
+    private final int resultSetConcurrency;
+
+    Key(final String sql, final int resultSetType, final int resultSetConcurrency) {
+      this.sql = sql;
+      this.resultSetType = resultSetType;
+      this.resultSetConcurrency = resultSetConcurrency;
+    }
+
+    @Override
+    public int hashCode() {
+      return (sql.hashCode() * 31 + resultSetType) * 31 + resultSetConcurrency;
+    }
+
+    @Override
+    public boolean equals(@Nullable final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || obj.getClass() != Key.class) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return resultSetType == other.resultSetType && resultSetConcurrency == other.resultSetConcurrency
+              && sql.equals(other.sql);
+    }
+
+    @Override
+    public String toString() {
+      return "Key{" + "sql=" + sql + ", resultSetType=" + resultSetType
+              + ", resultSetConcurrency=" + resultSetConcurrency + '}';
+    }
+  }
+
+}
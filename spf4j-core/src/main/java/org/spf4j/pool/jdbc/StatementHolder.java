@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.pool.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A raw prepared statement of a pooled connection, and its reuse state.
+ * The holder is reused across leases, every lease is handed out as a distinct CachedPreparedStatement,
+ * so that a statement handle that has been closed cannot act on a later lease.
+ * The result sets obtained during a lease are closed when the lease ends.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+final class StatementHolder {
+
+  private final PreparedStatement raw;
+
+  /** null for a statement that is not cached. */
+  @Nullable
+  private final StatementCache cache;
+
+  /** incremented on every lease. */
+  private int leaseId;
+
+  private boolean inUse;
+
+  private boolean evicted;
+
+  /** limits or timeouts have been changed. */
+  private boolean dirty;
+
+  private boolean batched;
+
+  /** the raw result sets obtained during the current lease, that might still be open. */
+  private final ArrayList<ResultSet> resultSets;
+
+  StatementHolder(final PreparedStatement raw, @Nullable final StatementCache cache) {
+    this.raw = raw;
+    this.cache = cache;
+    this.leaseId = 0;
+    this.inUse = false;
+    this.evicted = cache == null;
+    this.dirty = false;
+    this.batched = false;
+    this.resultSets = new ArrayList<>(2);
+  }
+
+  CachedPreparedStatement lease(final PooledConnection connection) {
+    inUse = true;
+    return new CachedPreparedStatement(this, ++leaseId, connection);
+  }
+
+  boolean isLeased(final int lease) {
+    return inUse && leaseId == lease;
+  }
+
+  /**
+   * Track a result set obtained during the current lease.
+   * @return the result set to hand out, whose getStatement returns the statement lease.
+   */
+  @Nullable
+  ResultSet track(@Nullable final ResultSet rs, final CachedPreparedStatement lease) throws SQLException {
+    if (rs == null) {
+      return null;
+    }
+    boolean tracked = false;
+    Iterator<ResultSet> it = resultSets.iterator();
+    while (it.hasNext()) {
+      ResultSet next = it.next();
+      if (next == rs) {
+        tracked = true;
+      } else if (next.isClosed()) {
+        it.remove();
+      }
+    }
+    if (!tracked) {
+      resultSets.add(rs);
+    }
+    return LeasedResultSetInvocationHandler.wrap(rs, lease);
+  }
+
+  private void closeResultSets() throws SQLException {
+    if (resultSets.isEmpty()) {
+      return;
+    }
+    SQLException exception = null;
+    for (ResultSet rs : resultSets) {
+      try {
+        rs.close();
+      } catch (SQLException ex) {
+        if (exception == null) {
+          exception = ex;
+        } else {
+          exception.addSuppressed(ex);
+        }
+      }
+    }
+    resultSets.clear();
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  PreparedStatement getRaw() {
+    return raw;
+  }
+
+  boolean isInUse() {
+    return inUse;
+  }
+
+  boolean isEvicted() {
+    return evicted;
+  }
+
+  void evict() {
+    evicted = true;
+  }
+
+  void markDirty() {
+    dirty = true;
+  }
+
+  void markBatched() {
+    batched = true;
+  }
+
+  void reset() throws SQLException {
+    raw.clearParameters();
+    if (batched) {
+      raw.clearBatch();
+      batched = false;
+    }
+    if (dirty) {
+      raw.setQueryTimeout(0);
+      raw.setMaxRows(0);
+      raw.setMaxFieldSize(0);
+      raw.setFetchSize(0);
+      dirty = false;
+    }
+  }
+
+  void closeRaw() throws SQLException {
+    raw.close();
+  }
+
+  /**
+   * stop caching this statement, it will be closed when released.
+   */
+  void uncache() {
+    if (!evicted && cache != null) {
+      cache.remove(this);
+    }
+  }
+
+  /**
+   * End the current lease, the statement is returned to the cache or closed.
+   */
+  void release() throws SQLException {
+    if (!inUse) {
+      return;
+    }
+    inUse = false;
+    try {
+      closeResultSets();
+    } finally {
+      if (cache == null) {
+        raw.close();
+      } else {
+        cache.release(this);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "StatementHolder{" + "raw=" + raw + ", leaseId=" + leaseId + ", inUse=" + inUse
+            + ", evicted=" + evicted + '}';
+  }
+
+}
@@ -56,12 +56,14 @@ public final class RecyclingSupplierBuilder<T> {
     private Handler<T, ? extends Exception> returnHook;
     private int initialSize;
     private boolean collectBorrowed;
+    private boolean threadAffine;
 
     public RecyclingSupplierBuilder(final int maxSize, @Nonnull final RecyclingSupplier.Factory<T> factory) {
         this.fair = true;
         this.maxSize = maxSize;
         this.factory = factory;
         this.initialSize = 0;
+        this.threadAffine = false;
     }
 
     public RecyclingSupplierBuilder<T> unfair() {
@@ -69,6 +71,15 @@ public final class RecyclingSupplierBuilder<T> {
         return this;
     }
 
+    /**
+     * Build a pool with a lock free borrow/recycle path, where objects are cached by the recycling thread.
+     * This pool cannot request borrowers to return objects, collectBorrowed maintenance is ignored.
+     */
+    public RecyclingSupplierBuilder<T> threadAffine() {
+        this.threadAffine = true;
+        return this;
+    }
+
     public RecyclingSupplierBuilder<T> withInitialSize(final int pinitialSize) {
         this.initialSize = pinitialSize;
         return this;
@@ -94,6 +105,9 @@ public final class RecyclingSupplierBuilder<T> {
     }
 
     public RecyclingSupplier<T> build() throws ObjectCreationException {
+        if (threadAffine) {
+            return buildThreadAffine();
+        }
         final ScalableObjectPool<T> underlyingPool =
                 new ScalableObjectPool<>(initialSize, maxSize, factory, fair);
         final RecyclingSupplier<T> pool;
@@ -109,6 +123,26 @@ public final class RecyclingSupplierBuilder<T> {
         return pool;
     }
 
+    private RecyclingSupplier<T> buildThreadAffine() throws ObjectCreationException {
+        final ThreadAffineObjectPool<T> underlyingPool =
+                new ThreadAffineObjectPool<>(initialSize, maxSize, factory, fair);
+        final RecyclingSupplier<T> pool;
+        if (borrowHook != null || returnHook != null) {
+            pool = new ObjectPoolWrapper<>(underlyingPool, borrowHook, returnHook);
+        } else {
+            pool = underlyingPool;
+        }
+        if (maintenanceExecutor != null) {
+            underlyingPool.setMaintenance(maintenanceExecutor.scheduleWithFixedDelay(new AbstractRunnable(true) {
+                @Override
+                public void doRun() {
+                    underlyingPool.validateIdle();
+                }
+            }, maintenanceIntervalMillis, maintenanceIntervalMillis, TimeUnit.MILLISECONDS));
+        }
+        return pool;
+    }
+
     private static final class MaintenanceRunner<T> extends AbstractRunnable {
 
         private final ScalableObjectPool<T> underlyingPool;
@@ -141,7 +175,8 @@ public final class RecyclingSupplierBuilder<T> {
         return "RecyclingSupplierBuilder{" + "maxSize=" + maxSize + ", factory=" + factory + ", fair="
                 + fair + ", maintenanceExecutor=" + maintenanceExecutor + ", maintenanceIntervalMillis="
                 + maintenanceIntervalMillis + ", borrowHook=" + borrowHook + ", returnHook=" + returnHook
-                + ", initialSize=" + initialSize + ", collectBorrowed=" + collectBorrowed + '}';
+                + ", initialSize=" + initialSize + ", collectBorrowed=" + collectBorrowed
+                + ", threadAffine=" + threadAffine + '}';
     }
 
 
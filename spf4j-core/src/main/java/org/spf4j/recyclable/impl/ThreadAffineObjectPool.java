@@ -0,0 +1,572 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.recyclable.impl;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.Throwables;
+import org.spf4j.base.TimeSource;
+import org.spf4j.recyclable.ObjectBorrowException;
+import org.spf4j.recyclable.ObjectCreationException;
+import org.spf4j.recyclable.ObjectDisposeException;
+import org.spf4j.recyclable.RecyclingSupplier;
+
+/**
+ * A object pool where the borrow/recycle hot path does not lock.
+ *
+ * Every pooled object lives in a slot, a slot is owned via CAS on its state:
+ * <ul>
+ * <li>a recycled object is cached in the recycling thread local slot, and will be re-borrowed
+ * by the same thread with a single CAS.</li>
+ * <li>objects not cached locally are in a global MPMC free list.</li>
+ * <li>objects cached by other threads can be stolen via CAS.</li>
+ * <li>the borrowed slots are tracked in a small thread local stack, so recycle does not need a object -> holder
+ * map, objects recycled by a different thread than the borrower are found by scanning the slots.</li>
+ * <li>the lock is used only to wait when the pool is exhausted, recycle will signal only when there are waiters.</li>
+ * </ul>
+ *
+ * Unlike ScalableObjectPool, this pool cannot request borrowers to return objects.
+ *
+ * @author Zoltan Farkas
+ */
+// a pool instance is tipically alive for the entire life of the process
+@SuppressFBWarnings("PMB_INSTANCE_BASED_THREAD_LOCAL")
+@ParametersAreNonnullByDefault
+@ThreadSafe
+final class ThreadAffineObjectPool<T> implements RecyclingSupplier<T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ThreadAffineObjectPool.class);
+
+  /** slot has no object, is in the empty list. */
+  private static final int EMPTY = 0;
+  /** slot object is available, slot is in the free list. */
+  private static final int FREE = 1;
+  /** slot object is available, and cached by a thread. */
+  private static final int CACHED = 2;
+  /** slot object is borrowed (or the slot object is being created). */
+  private static final int BORROWED = 3;
+  /** pool is disposed, slot is not usable anymore. */
+  private static final int CLOSED = 4;
+
+  private final RecyclingSupplier.Factory<T> factory;
+
+  private final AtomicReferenceArray<Slot<T>> slots;
+
+  private final ConcurrentLinkedQueue<Slot<T>> freeList;
+
+  private final ConcurrentLinkedQueue<Slot<T>> emptyList;
+
+  private final ThreadLocal<LocalSlots<T>> local;
+
+  private final ReentrantLock lock;
+
+  private final Condition available;
+
+  private final AtomicInteger nrWaiters;
+
+  /** the slots with index >= highWater were never populated. */
+  private final AtomicInteger highWater;
+
+  private volatile boolean closed;
+
+  @Nullable
+  private volatile Future<?> maintenance;
+
+  ThreadAffineObjectPool(final int initialSize, final int maxSize,
+          final RecyclingSupplier.Factory<T> factory, final boolean fair) throws ObjectCreationException {
+    if (maxSize <= 0 || initialSize > maxSize) {
+      throw new IllegalArgumentException("Invalid pool sizes initial =  " + initialSize + ", max = " + maxSize);
+    }
+    this.factory = factory;
+    this.slots = new AtomicReferenceArray<>(maxSize);
+    this.freeList = new ConcurrentLinkedQueue<>();
+    this.emptyList = new ConcurrentLinkedQueue<>();
+    this.local = ThreadLocal.withInitial(LocalSlots::new);
+    this.lock = new ReentrantLock(fair);
+    this.available = lock.newCondition();
+    this.nrWaiters = new AtomicInteger();
+    this.closed = false;
+    for (int i = 0; i < maxSize; i++) {
+      Slot<T> slot = new Slot<>(i);
+      slots.set(i, slot);
+      if (i < initialSize) {
+        slot.object = factory.create();
+        slot.set(FREE);
+        freeList.add(slot);
+      } else {
+        emptyList.add(slot);
+      }
+    }
+    this.highWater = new AtomicInteger(initialSize);
+  }
+
+  @Override
+  @Nullable
+  public T tryGet(final long deadlineNanos) throws ObjectCreationException, ObjectBorrowException,
+          InterruptedException {
+    LocalSlots<T> ls = local.get();
+    Slot<T> slot = tryAcquire(ls);
+    if (slot != null) {
+      return slot.object;
+    }
+    nrWaiters.incrementAndGet();
+    try {
+      lock.lock();
+      try {
+        while (true) {
+          slot = tryAcquire(ls);
+          if (slot != null) {
+            return slot.object;
+          }
+          long waitNanos = deadlineNanos - TimeSource.nanoTime();
+          if (waitNanos <= 0) {
+            return null;
+          }
+          available.await(waitNanos, TimeUnit.NANOSECONDS);
+        }
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      nrWaiters.decrementAndGet();
+    }
+  }
+
+  @Nullable
+  private Slot<T> tryAcquire(final LocalSlots<T> ls) throws ObjectCreationException, ObjectBorrowException {
+    if (closed) {
+      throw new ObjectBorrowException("Pool is disposed " + this);
+    }
+    Slot<T> slot = ls.cached;
+    if (slot != null) {
+      ls.cached = null;
+      if (slot.compareAndSet(CACHED, BORROWED)) {
+        ls.push(slot);
+        return slot;
+      }
+    }
+    while ((slot = freeList.poll()) != null) {
+      if (slot.compareAndSet(FREE, BORROWED)) {
+        ls.push(slot);
+        return slot;
+      }
+    }
+    slot = steal();
+    if (slot != null) {
+      ls.push(slot);
+      return slot;
+    }
+    while ((slot = emptyList.poll()) != null) {
+      if (slot.compareAndSet(EMPTY, BORROWED)) {
+        T object;
+        try {
+          object = factory.create();
+        } catch (ObjectCreationException | RuntimeException ex) {
+          release(slot);
+          throw ex;
+        }
+        slot.object = object;
+        highWater.accumulateAndGet(slot.index + 1, Math::max);
+        ls.push(slot);
+        return slot;
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private Slot<T> steal() {
+    int hw = highWater.get();
+    if (hw == 0) {
+      return null;
+    }
+    int start = (int) (Thread.currentThread().getId() % hw);
+    for (int i = 0; i < hw; i++) {
+      int idx = start + i;
+      if (idx >= hw) {
+        idx -= hw;
+      }
+      Slot<T> slot = slots.get(idx);
+      if (slot.get() == CACHED && slot.compareAndSet(CACHED, BORROWED)) {
+        return slot;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void recycle(final T object, @Nullable final Exception e) {
+    LocalSlots<T> ls = local.get();
+    Slot<T> slot = ls.remove(object);
+    if (slot == null) {
+      slot = findBorrowed(object);
+      if (slot == null) {
+        throw new IllegalStateException("Cannot return something that was not borrowed from here " + object);
+      }
+    }
+    if (e != null) {
+      boolean isValid;
+      Exception vex = null;
+      try {
+        isValid = factory.validate(object, e);
+      } catch (Exception ex) {
+        isValid = false;
+        vex = ex;
+      }
+      if (!isValid) {
+        LOG.warn("Validation of {} failed, detail {}", object, vex, e);
+        disposeQuietly(slot);
+        return;
+      }
+    }
+    if (closed) {
+      disposeQuietly(slot);
+      return;
+    }
+    if (nrWaiters.get() == 0) {
+      Slot<T> prev = ls.cached;
+      if (prev != null && prev.compareAndSet(CACHED, FREE)) {
+        freeList.add(prev);
+      }
+      ls.cached = slot;
+      slot.set(CACHED);
+      // a waiter might have arrived before the object was cached.
+      if (nrWaiters.get() != 0) {
+        signalWaiters();
+      }
+    } else {
+      slot.set(FREE);
+      freeList.add(slot);
+      signalWaiters();
+    }
+  }
+
+  @Nullable
+  private Slot<T> findBorrowed(final T object) {
+    for (int i = 0, hw = highWater.get(); i < hw; i++) {
+      Slot<T> slot = slots.get(i);
+      if (slot.object == object && slot.get() == BORROWED) {
+        return slot;
+      }
+    }
+    return null;
+  }
+
+  private void signalWaiters() {
+    lock.lock();
+    try {
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void disposeQuietly(final Slot<T> slot) {
+    T object = slot.object;
+    try {
+      factory.dispose(object);
+    } catch (ObjectDisposeException ex) {
+      LOG.warn("Failed to dispose {}", object, ex);
+    } catch (RuntimeException ex) {
+      LOG.error("Failed to dispose {}", object, ex);
+    }
+    release(slot);
+  }
+
+  /**
+   * Make a slot that holds no object available for creation, or close it if the pool is disposed.
+   */
+  private void release(final Slot<T> slot) {
+    slot.object = null;
+    if (closed) {
+      slot.set(CLOSED);
+    } else {
+      slot.set(EMPTY);
+      emptyList.add(slot);
+    }
+    if (nrWaiters.get() != 0) {
+      signalWaiters();
+    }
+  }
+
+  /**
+   * Validate the objects that are not borrowed, the invalid ones are disposed.
+   * Locally cached objects that are validated are moved to the global free list.
+   */
+  void validateIdle() {
+    // free slots are validated by taking them out of the free list, this also drops stale free list entries.
+    ArrayList<Slot<T>> valid = new ArrayList<>();
+    for (int i = 0, n = freeList.size(); i < n; i++) {
+      Slot<T> slot = freeList.poll();
+      if (slot == null) {
+        break;
+      }
+      if (slot.compareAndSet(FREE, BORROWED) && validate(slot)) {
+        valid.add(slot);
+      }
+    }
+    for (int i = 0, hw = highWater.get(); i < hw; i++) {
+      Slot<T> slot = slots.get(i);
+      if (slot.get() == CACHED && slot.compareAndSet(CACHED, BORROWED) && validate(slot)) {
+        valid.add(slot);
+      }
+    }
+    if (valid.isEmpty()) {
+      return;
+    }
+    for (Slot<T> slot : valid) {
+      slot.set(FREE);
+      freeList.add(slot);
+    }
+    if (nrWaiters.get() != 0) {
+      signalWaiters();
+    }
+  }
+
+  /**
+   * @return true if the slot object is valid, otherwise the slot object is disposed and false is returned.
+   */
+  private boolean validate(final Slot<T> slot) {
+    T object = slot.object;
+    Exception vex = null;
+    boolean isValid;
+    try {
+      isValid = factory.validate(object, null);
+    } catch (Exception ex) {
+      isValid = false;
+      vex = ex;
+    }
+    if (!isValid) {
+      LOG.warn("Validation of {} failed, detail {} ", object, vex);
+      disposeQuietly(slot);
+    }
+    return isValid;
+  }
+
+  /**
+   * @return the number of free list entries, O(n), for diagnostics and tests.
+   */
+  int freeListSize() {
+    return freeList.size();
+  }
+
+  /**
+   * @param maintenance the scheduled maintenance of this pool, will be canceled when the pool is disposed.
+   */
+  void setMaintenance(final Future<?> maintenance) {
+    this.maintenance = maintenance;
+  }
+
+  @Override
+  public boolean tryDispose(final long timeoutMillis) throws ObjectDisposeException, InterruptedException {
+    long deadlineNanos = TimeSource.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    closed = true;
+    Future<?> m = maintenance;
+    if (m != null) {
+      m.cancel(false);
+    }
+    ObjectDisposeException exception = null;
+    nrWaiters.incrementAndGet();
+    try {
+      lock.lock();
+      try {
+        available.signalAll();
+        while (true) {
+          boolean allClosed = true;
+          for (int i = 0, l = slots.length(); i < l; i++) {
+            Slot<T> slot = slots.get(i);
+            int state = slot.get();
+            if (state == EMPTY) {
+              if (!slot.compareAndSet(EMPTY, CLOSED)) {
+                allClosed = false;
+              }
+            } else if (state == FREE || state == CACHED) {
+              if (slot.compareAndSet(state, BORROWED)) {
+                exception = dispose(slot, exception);
+              } else {
+                allClosed = false;
+              }
+            } else if (state != CLOSED) {
+              allClosed = false;
+            }
+          }
+          if (allClosed) {
+            break;
+          }
+          long waitNanos = deadlineNanos - TimeSource.nanoTime();
+          if (waitNanos <= 0) {
+            return false;
+          }
+          available.await(Math.min(waitNanos, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+        }
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      nrWaiters.decrementAndGet();
+    }
+    freeList.clear();
+    emptyList.clear();
+    if (exception != null) {
+      throw exception;
+    }
+    return true;
+  }
+
+  @Nullable
+  private ObjectDisposeException dispose(final Slot<T> slot, @Nullable final ObjectDisposeException prevEx) {
+    ObjectDisposeException result = prevEx;
+    try {
+      factory.dispose(slot.object);
+    } catch (ObjectDisposeException ex) {
+      if (result != null) {
+        Throwables.suppressLimited(ex, result);
+      }
+      result = ex;
+    } catch (RuntimeException ex) {
+      ObjectDisposeException nex = new ObjectDisposeException(ex);
+      if (result != null) {
+        Throwables.suppressLimited(nex, result);
+      }
+      result = nex;
+    } finally {
+      slot.object = null;
+      slot.set(CLOSED);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    int nrBorrowed = 0;
+    int nrAvailable = 0;
+    for (int i = 0, hw = highWater.get(); i < hw; i++) {
+      int state = slots.get(i).get();
+      if (state == BORROWED) {
+        nrBorrowed++;
+      } else if (state == FREE || state == CACHED) {
+        nrAvailable++;
+      }
+    }
+    return "ThreadAffineObjectPool{" + "maxSize=" + slots.length() + ", borrowed=" + nrBorrowed
+            + ", available=" + nrAvailable + ", waiters=" + nrWaiters.get() + ", closed=" + closed
+            + ", factory=" + factory + '}';
+  }
+
+  /**
+   * The object holder, the slot state is the AtomicInteger value.
+   * the object field is published by the state transitions.
+   */
+  @SuppressFBWarnings("SE_BAD_FIELD")
+  private static final class Slot<T> extends AtomicInteger {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int index;
+
+    private T object;
+
+    Slot(final int index) {
+      super(EMPTY);
+      this.index = index;
+    }
+
+    @Override
+    public String toString() {
+      return "Slot{" + "index=" + index + ", state=" + get() + ", object=" + object + '}';
+    }
+  }
+
+  /**
+   * Thread local state: the cached slot and the slots borrowed by the thread.
+   */
+  private static final class LocalSlots<T> {
+
+    @Nullable
+    private Slot<T> cached;
+
+    private Slot<T>[] borrowed;
+
+    private int nrBorrowed;
+
+    @SuppressWarnings("unchecked")
+    LocalSlots() {
+      this.borrowed = new Slot[4];
+      this.nrBorrowed = 0;
+    }
+
+    void push(final Slot<T> slot) {
+      if (nrBorrowed == borrowed.length) {
+        purge();
+        if (nrBorrowed == borrowed.length) {
+          borrowed = Arrays.copyOf(borrowed, nrBorrowed << 1);
+        }
+      }
+      borrowed[nrBorrowed++] = slot;
+    }
+
+    /**
+     * remove the slots recycled by other threads.
+     */
+    private void purge() {
+      int j = 0;
+      for (int i = 0; i < nrBorrowed; i++) {
+        Slot<T> slot = borrowed[i];
+        if (slot.get() == BORROWED) {
+          borrowed[j++] = slot;
+        }
+      }
+      Arrays.fill(borrowed, j, nrBorrowed, null);
+      nrBorrowed = j;
+    }
+
+    @Nullable
+    Slot<T> remove(final T object) {
+      for (int i = nrBorrowed - 1; i >= 0; i--) {
+        Slot<T> slot = borrowed[i];
+        if (slot.object == object && slot.get() == BORROWED) {
+          int last = nrBorrowed - 1;
+          if (i < last) {
+            System.arraycopy(borrowed, i + 1, borrowed, i, last - i);
+          }
+          borrowed[last] = null;
+          nrBorrowed = last;
+          return slot;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "LocalSlots{" + "cached=" + cached + ", nrBorrowed=" + nrBorrowed + '}';
+    }
+  }
+
+}
@@ -32,55 +32,72 @@
 package org.spf4j.reflect;
 
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import gnu.trove.set.hash.THashSet;
 import java.lang.reflect.Type;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
-import org.spf4j.base.UncheckedExecutionException;
-import org.spf4j.concurrent.UnboundedLoadingCache;
 
 /**
+ * A TypeMap of suppliers wrapper, that caches the supplied objects per class (see TypeCache),
+ * a cached lookup is a single ClassValue.get. The cache is invalidated on every registration change.
+ *
  * @author Zoltan Farkas
  */
 @ThreadSafe
 public final class CachingTypeMapSupplierWrapper<H, E extends Exception> implements ByTypeSupplier<H, E> {
 
-  private final LoadingCache<Type, Set<H>> cache;
+  private final TypeCache<Handlers<H>> cache;
 
   @GuardedBy("syncObj")
   private final TypeMap<ByTypeSupplier<H, E>> wrapped;
 
   private final Object syncObj;
 
-  private final Class<E> exClass;
+  private final TypeCache.Loader<Handlers<H>, E> loader;
 
+  /**
+   * @deprecated the cache builder is not used anymore, lookups are cached per class, use the other constructor.
+   */
+  @Deprecated
   @SuppressFBWarnings("EI_EXPOSE_REP2")
   public CachingTypeMapSupplierWrapper(final CacheBuilder<Type, Set<H>> cacheBuilder, final TypeMap wrapped,
           final Class<E> exClass) {
-    this.syncObj = new Object();
-    this.wrapped = wrapped;
-    this.exClass = exClass;
-    cache = cacheBuilder.build(new TypeMapedObjLoader());
+    this(wrapped, exClass);
   }
 
+  /**
+   * @param wrapped the type map of suppliers.
+   * @param exClass the exception thrown by the suppliers, exceptions are propagated as thrown by the suppliers.
+   */
   @SuppressFBWarnings("EI_EXPOSE_REP2")
   public CachingTypeMapSupplierWrapper(final TypeMap wrapped, final Class<E> exClass) {
     this.syncObj = new Object();
     this.wrapped = wrapped;
-    this.exClass = exClass;
-    cache = new UnboundedLoadingCache<>(16, new TypeMapedObjLoader());
+    this.cache = new TypeCache<>();
+    this.loader = this::load;
   }
 
+  private Handlers<H> load(final Type type) throws E {
+    synchronized (syncObj) {
+      Set<ByTypeSupplier<H, E>> all = wrapped.getAll(type);
+      Set<H> result = new THashSet<>(all.size());
+      for (ByTypeSupplier<H, E> s : all) {
+        result.add(s.get(type));
+      }
+      return new Handlers<>(result);
+    }
+  }
 
   public boolean putIfNotPresent(final Type type, final ByTypeSupplier<H, E> appender) {
     synchronized (syncObj) {
-      return wrapped.putIfNotPresent(type, appender);
+      if (wrapped.putIfNotPresent(type, appender)) {
+        cache.invalidateAll();
+        return true;
+      }
+      return false;
     }
   }
 
@@ -91,14 +108,11 @@ public final class CachingTypeMapSupplierWrapper<H, E extends Exception> impleme
   }
 
   public boolean remove(final Type type) {
-    boolean remove;
     synchronized (syncObj) {
-      remove = wrapped.remove(type);
-    }
-    if (remove) {
-      cache.invalidateAll(); // a bit lazy
-      return true;
-    } else {
+      if (wrapped.remove(type)) {
+        cache.invalidateAll();
+        return true;
+      }
       return false;
     }
   }
@@ -107,50 +121,28 @@ public final class CachingTypeMapSupplierWrapper<H, E extends Exception> impleme
     cache.invalidateAll();
   }
 
-  @Override
-  @SuppressFBWarnings({ "BC_UNCONFIRMED_CAST_OF_RETURN_VALUE", "SPP_USE_ISEMPTY", "LEST_LOST_EXCEPTION_STACK_TRACE" })
+  /**
+   * @return the object for the type if already supplied and cached, null otherwise (or if ambiguous).
+   */
   @Nullable
-  public H get(final Type type) throws E {
-    Set<H> get;
-    try {
-      get = cache.get(type);
-    } catch (ExecutionException ex) {
-      Throwable cause = ex.getCause();
-      if (cause.getClass() == exClass) {
-        throw (E) cause;
-      } else {
-        throw new UncheckedExecutionException(ex);
-      }
-    }
-    int size = get.size();
-    if (size == 1) {
-      return get.iterator().next();
-    } else if (size == 0) {
+  public H getIfPresent(final Type type) {
+    Handlers<H> handlers = cache.getIfPresent(type);
+    if (handlers == null || handlers.getAll().size() > 1) {
       return null;
-    } else {
-      throw new IllegalArgumentException("Ambiguous handlers " + get + " for " + type + " in  " + this);
     }
+    return handlers.get(type, this);
   }
 
-  private final class TypeMapedObjLoader extends CacheLoader<Type, Set<H>> {
-
-    @Override
-    public Set<H> load(final Type key) throws Exception {
-      synchronized (wrapped) {
-        Set<ByTypeSupplier<H, E>> all = wrapped.getAll(key);
-        Set<H> result = new THashSet<>(all.size());
-        for (ByTypeSupplier<H, E> s : all) {
-          result.add(s.get(key));
-        }
-        return result;
-      }
-    }
+  @Override
+  @Nullable
+  public H get(final Type type) throws E {
+    return cache.get(type, loader).get(type, this);
   }
 
   @Override
   public String toString() {
     String wts;
-    synchronized (wrapped) {
+    synchronized (syncObj) {
       wts = wrapped.toString();
     }
     return "CachingTypeMapWrapper{" + "cache=" + cache + ", wrapped=" + wts + '}';
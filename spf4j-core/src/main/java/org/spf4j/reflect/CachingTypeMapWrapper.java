@@ -32,106 +32,114 @@
 package org.spf4j.reflect;
 
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.lang.reflect.Type;
 import java.util.Set;
 import java.util.function.Function;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
-import org.spf4j.concurrent.UnboundedLoadingCache;
 
 /**
+ * A TypeMap wrapper that caches the lookup results per class (see TypeCache),
+ * a cached lookup is a single ClassValue.get. The cache is invalidated on every registration change.
+ *
  * @author Zoltan Farkas
  */
 @ThreadSafe
 public final class CachingTypeMapWrapper<H> implements TypeMap<H> {
 
-  private final LoadingCache<Type, Set<H>> cache;
+  private final TypeCache<Handlers<H>> cache;
 
   @GuardedBy("syncObj")
   private final TypeMap<H> wrapped;
 
   private final Object syncObj;
 
+  private final TypeCache.Loader<Handlers<H>, RuntimeException> loader;
+
+  /**
+   * @deprecated the cache builder is not used anymore, lookups are cached per class, use the other constructor.
+   */
+  @Deprecated
   @SuppressFBWarnings("EI_EXPOSE_REP2")
   public CachingTypeMapWrapper(final CacheBuilder<Type, Set<H>> cacheBuilder, final TypeMap wrapped) {
-    this.syncObj = new Object();
-    this.wrapped = wrapped;
-    cache = cacheBuilder.build(new TypeMapedObjLoader());
+    this(wrapped);
   }
 
   @SuppressFBWarnings("EI_EXPOSE_REP2")
   public CachingTypeMapWrapper(final TypeMap wrapped) {
     this.syncObj = new Object();
     this.wrapped = wrapped;
-    cache = new UnboundedLoadingCache<>(16, new TypeMapedObjLoader());
+    this.cache = new TypeCache<>();
+    this.loader = this::load;
   }
 
+  private Handlers<H> load(final Type type) {
+    synchronized (syncObj) {
+      return new Handlers<>(wrapped.getAll(type));
+    }
+  }
 
   @Override
   public Set<H> getAll(final Type t) {
-    return cache.getUnchecked(t);
+    return cache.get(t, loader).getAll();
+  }
+
+  @Override
+  @Nullable
+  public H get(final Type t) {
+    return cache.get(t, loader).get(t, this);
   }
 
   @Override
   public boolean putIfNotPresent(final Type type, final H appender) {
     synchronized (syncObj) {
-      return wrapped.putIfNotPresent(type, appender);
+      if (wrapped.putIfNotPresent(type, appender)) {
+        cache.invalidateAll();
+        return true;
+      }
+      return false;
     }
   }
 
   @Override
   public boolean remove(final Type type) {
-    boolean remove;
     synchronized (syncObj) {
-      remove = wrapped.remove(type);
-    }
-    if (remove) {
-      cache.invalidateAll(); // a bit lazy
-      return true;
-    } else {
+      if (wrapped.remove(type)) {
+        cache.invalidateAll();
+        return true;
+      }
       return false;
     }
   }
 
   @Override
   public H getExact(final Type t) {
-    synchronized (wrapped) {
+    synchronized (syncObj) {
       return wrapped.getExact(t);
     }
   }
 
   public void replace(final Type t, final Function<H, H> f) {
-    synchronized (wrapped) {
+    synchronized (syncObj) {
       H exact = wrapped.getExact(t);
       if (exact != null && !wrapped.remove(t)) {
         throw new IllegalStateException("Illegal Stat, type = " + t + " wrapped =  " + wrapped);
       }
       wrapped.safePut(t, f.apply(exact));
-     }
-    cache.invalidateAll(); // a bit lazy :-)
+      cache.invalidateAll();
+    }
   }
 
   public void clearCache() {
     cache.invalidateAll();
   }
 
-  private final class TypeMapedObjLoader extends CacheLoader<Type, Set<H>> {
-
-    @Override
-    public Set<H> load(final Type key) throws Exception {
-      synchronized (wrapped) {
-        return wrapped.getAll(key);
-      }
-    }
-  }
-
   @Override
   public String toString() {
     String wts;
-    synchronized (wrapped) {
+    synchronized (syncObj) {
       wts = wrapped.toString();
     }
     return "CachingTypeMapWrapper{" + "cache=" + cache + ", wrapped=" + wts + '}';
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.reflect;
+
+import java.lang.reflect.Type;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The resolved handlers of a type, with the single handler dispatch precomputed.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@Immutable
+final class Handlers<H> {
+
+  private final Set<H> all;
+
+  @Nullable
+  private final H single;
+
+  Handlers(final Set<H> all) {
+    this.all = all;
+    this.single = all.size() == 1 ? all.iterator().next() : null;
+  }
+
+  Set<H> getAll() {
+    return all;
+  }
+
+  /**
+   * @return the handler if only one, null if none.
+   * @throws IllegalArgumentException if there are multiple handlers.
+   */
+  @Nullable
+  H get(final Type type, final Object lookup) {
+    if (single == null && !all.isEmpty()) {
+      throw new IllegalArgumentException("Ambiguous handlers " + all + " for " + type + " in  " + lookup);
+    }
+    return single;
+  }
+
+  @Override
+  public String toString() {
+    return "Handlers{" + "all=" + all + '}';
+  }
+
+}
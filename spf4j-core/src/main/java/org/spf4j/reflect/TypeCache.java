@@ -0,0 +1,179 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.reflect;
+
+import com.google.common.reflect.TypeToken;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A per class lookup cache, backed by a ClassValue.
+ * The value for a class is a single ClassValue.get, values for generic types (like ParameterizedType)
+ * are stored with their raw class, in a map that is created only when needed.
+ *
+ * Invalidation is epoch based: invalidateAll() increments the epoch, and the class values of a older epoch are
+ * discarded (and recomputed) when accessed.
+ * Values are computed by the caller provided loader, outside the ClassValue computation, so loaders can throw
+ * checked exceptions and can call back into the cache. Failures are not cached.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@ThreadSafe
+public final class TypeCache<V> {
+
+  /**
+   * The value loader.
+   */
+  @FunctionalInterface
+  public interface Loader<V, E extends Exception> {
+    V load(Type type) throws E;
+  }
+
+  private final AtomicInteger epoch;
+
+  private final ClassValue<Entry<V>> classValue;
+
+  public TypeCache() {
+    this.epoch = new AtomicInteger();
+    this.classValue = new ClassValue<Entry<V>>() {
+      @Override
+      protected Entry<V> computeValue(final Class<?> type) {
+        return new Entry<>(epoch.get());
+      }
+    };
+  }
+
+  private static Class<?> rawType(final Type type) {
+    if (type instanceof Class) {
+      return (Class<?>) type;
+    } else if (type instanceof ParameterizedType) {
+      return (Class<?>) ((ParameterizedType) type).getRawType();
+    } else {
+      return TypeToken.of(type).getRawType();
+    }
+  }
+
+  private Entry<V> entry(final Class<?> clasz) {
+    Entry<V> entry = classValue.get(clasz);
+    while (entry.epoch != epoch.get()) {
+      classValue.remove(clasz);
+      entry = classValue.get(clasz);
+    }
+    return entry;
+  }
+
+  /**
+   * @return the cached value for the type, or null if not cached.
+   */
+  @Nullable
+  public V getIfPresent(final Type type) {
+    Class<?> raw = rawType(type);
+    Entry<V> entry = entry(raw);
+    if (raw == type) {
+      return entry.value;
+    }
+    ConcurrentMap<Type, V> typeValues = entry.typeValues;
+    return typeValues == null ? null : typeValues.get(type);
+  }
+
+  /**
+   * Get the cached value for the type, compute it with the loader if not cached.
+   * The loader must read the state it depends on after invalidateAll was called for the last change to that state.
+   */
+  public <E extends Exception> V get(final Type type, final Loader<V, E> loader) throws E {
+    Class<?> raw = rawType(type);
+    Entry<V> entry = entry(raw);
+    if (raw == type) {
+      V result = entry.value;
+      if (result == null) {
+        result = loader.load(type);
+        entry.value = result;
+      }
+      return result;
+    }
+    ConcurrentMap<Type, V> typeValues = entry.getTypeValues();
+    V result = typeValues.get(type);
+    if (result == null) {
+      result = loader.load(type);
+      V existing = typeValues.putIfAbsent(type, result);
+      if (existing != null) {
+        result = existing;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Invalidate all cached values, must be called after every change of the state the values are computed from.
+   */
+  public void invalidateAll() {
+    epoch.incrementAndGet();
+  }
+
+  /**
+   * @return the current epoch, the number of invalidations.
+   */
+  public int getEpoch() {
+    return epoch.get();
+  }
+
+  @Override
+  public String toString() {
+    return "TypeCache{" + "epoch=" + epoch + '}';
+  }
+
+  private static final class Entry<V> {
+
+    private final int epoch;
+
+    @Nullable
+    private volatile V value;
+
+    @Nullable
+    private volatile ConcurrentMap<Type, V> typeValues;
+
+    Entry(final int epoch) {
+      this.epoch = epoch;
+    }
+
+    ConcurrentMap<Type, V> getTypeValues() {
+      ConcurrentMap<Type, V> result = typeValues;
+      if (result == null) {
+        synchronized (this) {
+          result = typeValues;
+          if (result == null) {
+            result = new ConcurrentHashMap<>(4);
+            typeValues = result;
+          }
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "Entry{" + "epoch=" + epoch + ", value=" + value + '}';
+    }
+  }
+
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.spf4j.base.Json;
+import org.spf4j.base.Pair;
+import org.spf4j.base.avro.Method;
+
+/**
+ * A sample tree stored in a handful of primitive arrays, used to collect samples and to load large profiles.
+ * A SampleNode tree has a hash map at every node, a deep profile is millions of small heap objects,
+ * this tree has a constant number of objects no matter how many nodes it has.
+ *
+ * Nodes are int handles (0 is the root), a node is created after its parent, so node handles
+ * are a topological order (parent &lt; child), which allows iteration and merging in a single linear pass.
+ * For each node the arrays hold: the method id, the sample count, the parent, the first child and the next sibling.
+ * Methods are interned into int ids by a MethodDictionary, and the children of all nodes are indexed
+ * in a single open addressing table keyed by (parent node, method id).
+ *
+ * SampleNode trees can be materialized on demand for the whole tree, the top N levels,
+ * or the sub-tree of a node (see {@link #find(Predicate)}).
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class FlatSampleTree {
+
+  public static final int NONE = -1;
+
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private final MethodDictionary dictionary;
+
+  /** node -> method id, NONE for a root without method. */
+  private int[] nodeMethods;
+
+  /** node -> sample count. */
+  private int[] counts;
+
+  /** node -> parent node. */
+  private int[] parents;
+
+  /** node -> first child node. */
+  private int[] firstChildren;
+
+  /** node -> next sibling node. */
+  private int[] nextSiblings;
+
+  private int size;
+
+  /** open addressing table keys, (parent node << 32 | method id). */
+  private long[] childKeys;
+
+  /** open addressing table values, child node, 0 (the root cannot be a child) for a empty slot. */
+  private int[] childNodes;
+
+  public FlatSampleTree() {
+    this(64);
+  }
+
+  /**
+   * @param initialCapacity the expected number of nodes.
+   */
+  public FlatSampleTree(final int initialCapacity) {
+    this(initialCapacity, new MethodDictionary(Math.max(16, initialCapacity >> 2)));
+  }
+
+  /**
+   * @param initialCapacity the expected number of nodes.
+   * @param dictionary the method dictionary to use, can be shared with other trees of the same thread.
+   */
+  public FlatSampleTree(final int initialCapacity, final MethodDictionary dictionary) {
+    this.dictionary = dictionary;
+    int nCap = Math.max(16, initialCapacity);
+    nodeMethods = new int[nCap];
+    counts = new int[nCap];
+    parents = new int[nCap];
+    firstChildren = new int[nCap];
+    nextSiblings = new int[nCap];
+    int tCap = tableCapacity(nCap);
+    childKeys = new long[tCap];
+    childNodes = new int[tCap];
+    nodeMethods[0] = NONE;
+    parents[0] = NONE;
+    firstChildren[0] = NONE;
+    nextSiblings[0] = NONE;
+    size = 1;
+  }
+
+  private static int tableCapacity(final int nrElements) {
+    return Integer.highestOneBit(Math.max(16, (int) (nrElements / LOAD_FACTOR)) - 1) << 1;
+  }
+
+  /**
+   * Parse a tree written with SampleNode.writeJsonTo.
+   */
+  public static FlatSampleTree parse(@WillNotClose final Reader r) throws IOException {
+    return parse(r, new MethodDictionary(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Parse a tree written with SampleNode.writeJsonTo.
+   * @param dictionary the method dictionary to use.
+   * @param maxDepth the number of levels to load. (the samples of the deeper levels are accounted in their ancestors)
+   */
+  public static FlatSampleTree parse(@WillNotClose final Reader r, final MethodDictionary dictionary,
+          final int maxDepth) throws IOException {
+    JsonParser jsonP = Json.FACTORY.createParser(r);
+    SampleTreeParser.consume(jsonP, JsonToken.START_OBJECT);
+    FlatSampleTree result = new FlatSampleTree(1024, dictionary);
+    SampleTreeParser.parse(jsonP, result.new Builder(), dictionary, maxDepth);
+    return result;
+  }
+
+  /**
+   * Parse a tree written with SampleNode.writeD3JsonTo.
+   */
+  public static FlatSampleTree parseD3Json(@WillNotClose final Reader r) throws IOException {
+    return parseD3Json(r, new MethodDictionary(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Parse a tree written with SampleNode.writeD3JsonTo.
+   * @param dictionary the method dictionary to use.
+   * @param maxDepth the number of levels to load. (the samples of the deeper levels are accounted in their ancestors)
+   */
+  public static FlatSampleTree parseD3Json(@WillNotClose final Reader r, final MethodDictionary dictionary,
+          final int maxDepth) throws IOException {
+    JsonParser jsonP = Json.FACTORY.createParser(r);
+    SampleTreeParser.consume(jsonP, JsonToken.START_OBJECT);
+    FlatSampleTree result = new FlatSampleTree(1024, dictionary);
+    SampleTreeParser.parseD3(jsonP, result.new Builder(), dictionary, maxDepth);
+    return result;
+  }
+
+  /**
+   * Add a stack sample.
+   * @param stackTrace the stack trace, top of the stack first (like Thread.getStackTrace).
+   */
+  public void addSample(final StackTraceElement[] stackTrace) {
+    counts[0]++;
+    int node = 0;
+    for (int i = stackTrace.length - 1; i >= 0; i--) {
+      StackTraceElement elem = stackTrace[i];
+      node = getOrCreateChild(node, dictionary.getId(elem.getClassName(), elem.getMethodName()));
+      counts[node]++;
+    }
+  }
+
+  /**
+   * Add all samples of another tree to this tree.
+   * Since nodes are in topological order, this is a single linear pass over the other tree arrays.
+   */
+  public void add(final FlatSampleTree other) {
+    MethodDictionary oDictionary = other.dictionary;
+    int[] methodMap = null;
+    if (oDictionary != dictionary) {
+      methodMap = new int[oDictionary.size()];
+      Arrays.fill(methodMap, NONE);
+    }
+    int[] nodeMap = new int[other.size];
+    counts[0] += other.counts[0];
+    for (int i = 1; i < other.size; i++) {
+      int mid = other.nodeMethods[i];
+      if (methodMap != null) {
+        int id = methodMap[mid];
+        if (id == NONE) {
+          Method m = oDictionary.getMethod(mid);
+          id = dictionary.getId(m.getDeclaringClass(), m.getName());
+          methodMap[mid] = id;
+        }
+        mid = id;
+      }
+      int node = getOrCreateChild(nodeMap[other.parents[i]], mid);
+      counts[node] += other.counts[i];
+      nodeMap[i] = node;
+    }
+  }
+
+  /**
+   * Add all samples of a SampleNode tree to this tree.
+   */
+  public void add(final SampleNode samples) {
+    add(0, samples);
+  }
+
+  private void add(final int node, final SampleNode samples) {
+    int[] nodeStack = new int[16];
+    SampleNode[] sampleStack = new SampleNode[16];
+    nodeStack[0] = node;
+    sampleStack[0] = samples;
+    int sp = 1;
+    while (sp > 0) {
+      sp--;
+      int n = nodeStack[sp];
+      SampleNode s = sampleStack[sp];
+      sampleStack[sp] = null;
+      counts[n] += s.getSampleCount();
+      for (Map.Entry<Method, SampleNode> entry : s.entrySet()) {
+        Method m = entry.getKey();
+        if (sp == nodeStack.length) {
+          nodeStack = Arrays.copyOf(nodeStack, sp << 1);
+          sampleStack = Arrays.copyOf(sampleStack, sp << 1);
+        }
+        nodeStack[sp] = getOrCreateChild(n, dictionary.getId(m.getDeclaringClass(), m.getName()));
+        sampleStack[sp] = entry.getValue();
+        sp++;
+      }
+    }
+  }
+
+  /**
+   * @return the child node of parent for the method, or NONE.
+   */
+  public int getChild(final int parent, final Method method) {
+    int mid = dictionary.findId(method.getDeclaringClass(), method.getName());
+    if (mid < 0) {
+      return NONE;
+    }
+    long key = childKey(parent, mid);
+    int mask = childKeys.length - 1;
+    int i = hash(key) & mask;
+    int child;
+    while ((child = childNodes[i]) != 0) {
+      if (childKeys[i] == key) {
+        return child;
+      }
+      i = (i + 1) & mask;
+    }
+    return NONE;
+  }
+
+  private int getOrCreateChild(final int parent, final int methodId) {
+    long key = childKey(parent, methodId);
+    int mask = childKeys.length - 1;
+    int i = hash(key) & mask;
+    int child;
+    while ((child = childNodes[i]) != 0) {
+      if (childKeys[i] == key) {
+        return child;
+      }
+      i = (i + 1) & mask;
+    }
+    if (size == counts.length) {
+      int nCap = size << 1;
+      nodeMethods = Arrays.copyOf(nodeMethods, nCap);
+      counts = Arrays.copyOf(counts, nCap);
+      parents = Arrays.copyOf(parents, nCap);
+      firstChildren = Arrays.copyOf(firstChildren, nCap);
+      nextSiblings = Arrays.copyOf(nextSiblings, nCap);
+    }
+    child = size++;
+    nodeMethods[child] = methodId;
+    counts[child] = 0;
+    parents[child] = parent;
+    firstChildren[child] = NONE;
+    // children are prepended, order is not relevant.
+    nextSiblings[child] = firstChildren[parent];
+    firstChildren[parent] = child;
+    childKeys[i] = key;
+    childNodes[i] = child;
+    if (size > childKeys.length * LOAD_FACTOR) {
+      rehashChildren(childKeys.length << 1);
+    }
+    return child;
+  }
+
+  private void rehashChildren(final int newCapacity) {
+    long[] oKeys = childKeys;
+    int[] oNodes = childNodes;
+    childKeys = new long[newCapacity];
+    childNodes = new int[newCapacity];
+    int mask = newCapacity - 1;
+    for (int j = 0; j < oNodes.length; j++) {
+      int child = oNodes[j];
+      if (child != 0) {
+        long key = oKeys[j];
+        int i = hash(key) & mask;
+        while (childNodes[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        childKeys[i] = key;
+        childNodes[i] = child;
+      }
+    }
+  }
+
+  private static long childKey(final int parent, final int methodId) {
+    return ((long) parent << 32) | (methodId & 0xFFFFFFFFL);
+  }
+
+  private static int hash(final long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * @return the number of nodes, including the root.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return true if no samples have been added.
+   */
+  public boolean isEmpty() {
+    return counts[0] == 0;
+  }
+
+  public int getRoot() {
+    return 0;
+  }
+
+  public MethodDictionary getDictionary() {
+    return dictionary;
+  }
+
+  public int getSampleCount(final int node) {
+    return counts[node];
+  }
+
+  /**
+   * @return the parent node, or NONE for the root.
+   */
+  public int getParent(final int node) {
+    return parents[node];
+  }
+
+  /**
+   * @return the first child of the node, or NONE.
+   */
+  public int getFirstChild(final int node) {
+    return firstChildren[node];
+  }
+
+  /**
+   * @return the next sibling of the node, or NONE.
+   */
+  public int getNextSibling(final int node) {
+    return nextSiblings[node];
+  }
+
+  /**
+   * @return the method of the node, or null for a root without method. (collected samples)
+   */
+  @Nullable
+  public Method getMethod(final int node) {
+    int mid = nodeMethods[node];
+    return mid < 0 ? null : dictionary.getMethod(mid);
+  }
+
+  /**
+   * @return the first node (in creation order) whose method matches the predicate, or NONE.
+   */
+  public int find(final Predicate<Method> predicate) {
+    return find(predicate, 0);
+  }
+
+  /**
+   * @return the first node (in creation order) starting with fromNode whose method matches the predicate, or NONE.
+   */
+  public int find(final Predicate<Method> predicate, final int fromNode) {
+    for (int i = fromNode; i < size; i++) {
+      Method m = getMethod(i);
+      if (m != null && predicate.test(m)) {
+        return i;
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Discard all samples, the allocated arrays and the method dictionary are reused.
+   */
+  public void reset() {
+    Arrays.fill(childNodes, 0);
+    nodeMethods[0] = NONE;
+    counts[0] = 0;
+    firstChildren[0] = NONE;
+    size = 1;
+  }
+
+  /**
+   * @return the tree as SampleNodes, or null if there are no samples.
+   */
+  @Nullable
+  public SampleNode toSampleNode() {
+    if (isEmpty()) {
+      return null;
+    }
+    SampleNode[] nodes = new SampleNode[size];
+    nodes[0] = new SampleNode(counts[0]);
+    for (int i = 1; i < size; i++) {
+      SampleNode node = new SampleNode(counts[i]);
+      nodes[parents[i]].put(getMethod(i), node);
+      nodes[i] = node;
+    }
+    return nodes[0];
+  }
+
+  /**
+   * Materialize the sub-tree of node.
+   * @param node the sub-tree root.
+   * @param maxDepth the number of levels to materialize.
+   * @return the sub-tree root method (null for a root without method) and node.
+   */
+  public Pair<Method, SampleNode> toSampleNode(final int node, final int maxDepth) {
+    SampleNode root = new SampleNode(counts[node]);
+    if (maxDepth > 1) {
+      int[] nodeStack = new int[16];
+      int[] depthStack = new int[16];
+      SampleNode[] targetStack = new SampleNode[16];
+      int sp = 0;
+      nodeStack[0] = node;
+      depthStack[0] = 1;
+      targetStack[0] = root;
+      sp++;
+      while (sp > 0) {
+        sp--;
+        int n = nodeStack[sp];
+        int depth = depthStack[sp];
+        SampleNode target = targetStack[sp];
+        targetStack[sp] = null;
+        for (int c = firstChildren[n]; c != NONE; c = nextSiblings[c]) {
+          SampleNode child = new SampleNode(counts[c]);
+          target.put(getMethod(c), child);
+          if (firstChildren[c] != NONE && depth + 1 < maxDepth) {
+            if (sp == nodeStack.length) {
+              nodeStack = Arrays.copyOf(nodeStack, sp << 1);
+              depthStack = Arrays.copyOf(depthStack, sp << 1);
+              targetStack = Arrays.copyOf(targetStack, sp << 1);
+            }
+            nodeStack[sp] = c;
+            depthStack[sp] = depth + 1;
+            targetStack[sp] = child;
+            sp++;
+          }
+        }
+      }
+    }
+    return Pair.of(getMethod(node), root);
+  }
+
+  @Override
+  public String toString() {
+    return "FlatSampleTree{" + "size=" + size + ", sampleCount=" + counts[0] + ", dictionary=" + dictionary + '}';
+  }
+
+  /**
+   * Parser builder, the parsed root is the tree root, children with the same method are merged.
+   */
+  private final class Builder implements SampleTreeParser.TreeBuilder {
+
+    @Override
+    public int child(final int parent, final int methodId, final int count) {
+      int node;
+      if (parent == NONE) {
+        node = 0;
+        nodeMethods[0] = methodId;
+      } else {
+        node = getOrCreateChild(parent, methodId);
+      }
+      counts[node] += count;
+      return node;
+    }
+
+    @Override
+    public void addCount(final int node, final int count) {
+      counts[node] += count;
+    }
+
+    @Override
+    public String toString() {
+      return "Builder{" + FlatSampleTree.this + '}';
+    }
+  }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.concurrent.NotThreadSafe;
+import org.spf4j.base.Methods;
+import org.spf4j.base.avro.Method;
+
+/**
+ * A dictionary of methods, interning methods into dense int ids.
+ * Methods can be looked up by their "name@declaringClass" representation, directly on the parser char buffers
+ * (no String is created for known methods), or by class and method name (stack trace elements).
+ * Methods of the same class share the class name.
+ *
+ * A dictionary can be shared between the profiles loaded/collected by the same thread,
+ * to share the Method instances and ids.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+@NotThreadSafe
+public final class MethodDictionary {
+
+  public static final int NONE = -1;
+
+  private static final float LOAD_FACTOR = 0.5f;
+
+  /** open addressing table, method id + 1, 0 for a empty slot. */
+  private int[] table;
+
+  /** method id -> method. */
+  private Method[] methods;
+
+  /** method id -> hash. */
+  private int[] hashes;
+
+  private int size;
+
+  private final Map<String, String> classNames;
+
+  public MethodDictionary() {
+    this(256);
+  }
+
+  public MethodDictionary(final int initialCapacity) {
+    int cap = Math.max(16, initialCapacity);
+    this.table = new int[Integer.highestOneBit(Math.max(16, (int) (cap / LOAD_FACTOR)) - 1) << 1];
+    this.methods = new Method[cap];
+    this.hashes = new int[cap];
+    this.size = 0;
+    this.classNames = new HashMap<>(cap);
+  }
+
+  public Method get(final CharSequence representation) {
+    char[] chars = representation.toString().toCharArray();
+    return get(chars, 0, chars.length);
+  }
+
+  /**
+   * @param chars the buffer containing the method representation.
+   * @param off the offset of the method representation.
+   * @param len the length of the method representation.
+   * @return the Method.
+   * @throws IllegalArgumentException if the representation is not valid.
+   */
+  public Method get(final char[] chars, final int off, final int len) {
+    return methods[getId(chars, off, len)];
+  }
+
+  /**
+   * @param chars the buffer containing the method representation ("name@declaringClass").
+   * @param off the offset of the method representation.
+   * @param len the length of the method representation.
+   * @return the method id.
+   * @throws IllegalArgumentException if the representation is not valid.
+   */
+  public int getId(final char[] chars, final int off, final int len) {
+    int end = off + len;
+    int at = end;
+    for (int i = off; i < end; i++) {
+      if (chars[i] == '@') {
+        at = i;
+        break;
+      }
+    }
+    int h = hash(hash(chars, off, at), at < end ? hash(chars, at + 1, end) : 0);
+    int mask = table.length - 1;
+    int i = h & mask;
+    int idp1;
+    while ((idp1 = table[i]) != 0) {
+      int id = idp1 - 1;
+      if (hashes[id] == h && matches(methods[id], chars, off, at, end)) {
+        return id;
+      }
+      i = (i + 1) & mask;
+    }
+    if (at == end) {
+      throw new IllegalArgumentException("Invalid method representation: " + new String(chars, off, len));
+    }
+    return add(i, h, new String(chars, at + 1, end - at - 1), new String(chars, off, at - off));
+  }
+
+  /**
+   * @return the method id, the method is added to the dictionary if not present.
+   */
+  public int getId(final String className, final String methodName) {
+    int h = hash(methodName.hashCode(), className.hashCode());
+    int mask = table.length - 1;
+    int i = h & mask;
+    int idp1;
+    while ((idp1 = table[i]) != 0) {
+      int id = idp1 - 1;
+      if (hashes[id] == h && matches(methods[id], className, methodName)) {
+        return id;
+      }
+      i = (i + 1) & mask;
+    }
+    return add(i, h, className, methodName);
+  }
+
+  /**
+   * @return the method id, or NONE if the method is not in the dictionary.
+   */
+  public int findId(final String className, final String methodName) {
+    int h = hash(methodName.hashCode(), className.hashCode());
+    int mask = table.length - 1;
+    int i = h & mask;
+    int idp1;
+    while ((idp1 = table[i]) != 0) {
+      int id = idp1 - 1;
+      if (hashes[id] == h && matches(methods[id], className, methodName)) {
+        return id;
+      }
+      i = (i + 1) & mask;
+    }
+    return NONE;
+  }
+
+  public Method getMethod(final int id) {
+    return methods[id];
+  }
+
+  /**
+   * @return the number of distinct methods, method ids are in the [0, size) range.
+   */
+  public int size() {
+    return size;
+  }
+
+  private int add(final int slot, final int hash, final String className, final String methodName) {
+    String mClassName = classNames.putIfAbsent(className, className);
+    if (mClassName == null) {
+      mClassName = className;
+    }
+    Method method;
+    if (Methods.ROOT.getName().equals(methodName) && Methods.ROOT.getDeclaringClass().equals(mClassName)) {
+      method = Methods.ROOT;
+    } else {
+      method = new Method(mClassName, methodName);
+    }
+    if (size == methods.length) {
+      int nCap = size << 1;
+      methods = Arrays.copyOf(methods, nCap);
+      hashes = Arrays.copyOf(hashes, nCap);
+    }
+    int id = size++;
+    methods[id] = method;
+    hashes[id] = hash;
+    table[slot] = id + 1;
+    if (size > table.length * LOAD_FACTOR) {
+      rehash(table.length << 1);
+    }
+    return id;
+  }
+
+  private void rehash(final int newCapacity) {
+    table = new int[newCapacity];
+    int mask = newCapacity - 1;
+    for (int id = 0; id < size; id++) {
+      int i = hashes[id] & mask;
+      while (table[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      table[i] = id + 1;
+    }
+  }
+
+  /**
+   * @return the hash of a method, from the String hash codes of the method and class names.
+   */
+  private static int hash(final int methodNameHash, final int classNameHash) {
+    int h = methodNameHash * 31 + classNameHash;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * @return the String.hashCode of the chars between from and to.
+   */
+  private static int hash(final char[] chars, final int from, final int to) {
+    int h = 0;
+    for (int i = from; i < to; i++) {
+      h = 31 * h + chars[i];
+    }
+    return h;
+  }
+
+  private static boolean matches(final Method method, final String className, final String methodName) {
+    String mName = method.getName();
+    String cName = method.getDeclaringClass();
+    // stack trace element names are usually the same instances.
+    return (mName == methodName || mName.equals(methodName))
+            && (cName == className || cName.equals(className));
+  }
+
+  private static boolean matches(final Method method, final char[] chars, final int off, final int at,
+          final int end) {
+    return at < end && regionEquals(method.getName(), chars, off, at)
+            && regionEquals(method.getDeclaringClass(), chars, at + 1, end);
+  }
+
+  private static boolean regionEquals(final String str, final char[] chars, final int from, final int to) {
+    int len = to - from;
+    if (str.length() != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (str.charAt(i) != chars[from + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "MethodDictionary{" + "size=" + size + ", capacity=" + table.length
+            + ", classes=" + classNames.size() + '}';
+  }
+
+}
@@ -31,7 +31,6 @@
  */
 package org.spf4j.stackmonitor;
 
-import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.annotations.VisibleForTesting;
@@ -45,10 +44,10 @@ import java.io.ObjectOutput;
 import java.io.Reader;
 import java.io.Serializable;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import javax.annotation.CheckReturnValue;
@@ -56,8 +55,8 @@ import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.WillNotClose;
 import org.spf4j.base.Json;
+import org.spf4j.base.JsonWriter;
 import org.spf4j.base.Methods;
-import org.spf4j.base.MutableHolder;
 import org.spf4j.base.Pair;
 import org.spf4j.base.avro.Method;
 
@@ -69,6 +68,17 @@ public final class SampleNode extends MethodMap<SampleNode> implements Serializa
 
   private static final long serialVersionUID = 1L;
 
+  /** marker for the end of the children of a node, when writing json. */
+  private static final Object END_CHILDREN = new Object();
+
+  private static final JsonWriter.FieldName JSON_CHILDREN = JsonWriter.fieldName("c");
+
+  private static final JsonWriter.FieldName D3_NAME = JsonWriter.fieldName("name");
+
+  private static final JsonWriter.FieldName D3_VALUE = JsonWriter.fieldName("value");
+
+  private static final JsonWriter.FieldName D3_CHILDREN = JsonWriter.fieldName("children");
+
   private int sampleCount;
 
   public SampleNode(final int count, final int capacity) {
@@ -516,37 +526,36 @@ public final class SampleNode extends MethodMap<SampleNode> implements Serializa
     writeTo(Methods.ROOT, appendable);
   }
 
-  @SuppressFBWarnings("ITC_INHERITANCE_TYPE_CHECKING")
   public void writeTo(final Method m, final Appendable appendable) throws IOException {
+    JsonWriter writer = new JsonWriter(appendable, 8192);
     Deque<Object> dq = new ArrayDeque<>();
     dq.add(Pair.of(m, this));
     while (!dq.isEmpty()) {
       Object obj = dq.removeLast();
-      if (obj instanceof CharSequence) {
-        appendable.append((CharSequence) obj);
-      } else if (obj instanceof Map.Entry) {
+      if (obj == END_CHILDREN) {
+        writer.writeEndArray();
+        writer.writeEndObject();
+      } else {
         Map.Entry<Method, SampleNode> s = (Map.Entry<Method, SampleNode>) obj;
-        appendable.append("{\"");
-        Methods.writeTo(s.getKey(), appendable);
-        appendable.append("\":");
+        writer.writeStartObject();
+        Methods.writeTo(s.getKey(), writer.writeStartFieldName());
+        writer.writeEndFieldName();
         SampleNode sn = s.getValue();
-        appendable.append(Integer.toString(sn.getSampleCount()));
-          Iterator<Map.Entry<Method, SampleNode>> iterator = sn.entrySet().iterator();
-          if (iterator.hasNext()) {
-            appendable.append(",\"c\":[");
-            dq.addLast("]}");
+        writer.writeNumber(sn.getSampleCount());
+        Iterator<Map.Entry<Method, SampleNode>> iterator = sn.entrySet().iterator();
+        if (iterator.hasNext()) {
+          writer.writeFieldName(JSON_CHILDREN);
+          writer.writeStartArray();
+          dq.addLast(END_CHILDREN);
+          do {
             dq.addLast(iterator.next());
-            while (iterator.hasNext()) {
-              dq.addLast(",");
-              dq.addLast(iterator.next());
-            }
-          } else {
-            appendable.append('}');
-          }
-      } else {
-        throw new IllegalStateException("Invalid objct: " + obj);
+          } while (iterator.hasNext());
+        } else {
+          writer.writeEndObject();
+        }
       }
     }
+    writer.flush();
   }
 
   /**
@@ -564,37 +573,37 @@ public final class SampleNode extends MethodMap<SampleNode> implements Serializa
    * @param appendable
    * @throws IOException
    */
-  @SuppressFBWarnings("ITC_INHERITANCE_TYPE_CHECKING")
   public void writeD3JsonFormatTo(final Method m, final Appendable appendable) throws IOException {
+    JsonWriter writer = new JsonWriter(appendable, 8192);
     Deque<Object> dq = new ArrayDeque<>();
     dq.add(Pair.of(m, this));
     while (!dq.isEmpty()) {
       Object obj = dq.removeLast();
-      if (obj instanceof CharSequence) {
-        appendable.append((CharSequence) obj);
-      } else if (obj instanceof Map.Entry) {
+      if (obj == END_CHILDREN) {
+        writer.writeEndArray();
+        writer.writeEndObject();
+      } else {
         Map.Entry<Method, SampleNode> s = (Map.Entry<Method, SampleNode>) obj;
-        appendable.append("{\"name\":\"");
-        Methods.writeTo(s.getKey(), appendable);
-        appendable.append("\",\"value\":");
+        writer.writeStartObject();
+        writer.writeFieldName(D3_NAME);
+        Methods.writeTo(s.getKey(), writer.writeStartString());
+        writer.writeEndString();
         SampleNode sn = s.getValue();
-        appendable.append(Integer.toString(sn.getSampleCount()));
-          Iterator<Map.Entry<Method, SampleNode>> iterator = sn.entrySet().iterator();
-          if (iterator.hasNext()) {
-            appendable.append(",\"children\":[");
-            dq.addLast("]}");
+        writer.writeNumberField(D3_VALUE, sn.getSampleCount());
+        Iterator<Map.Entry<Method, SampleNode>> iterator = sn.entrySet().iterator();
+        if (iterator.hasNext()) {
+          writer.writeFieldName(D3_CHILDREN);
+          writer.writeStartArray();
+          dq.addLast(END_CHILDREN);
+          do {
             dq.addLast(iterator.next());
-            while (iterator.hasNext()) {
-              dq.addLast(",");
-              dq.addLast(iterator.next());
-            }
-          } else {
-            appendable.append('}');
-          }
-      } else {
-        throw new IllegalStateException("Invalid objct: " + obj);
+          } while (iterator.hasNext());
+        } else {
+          writer.writeEndObject();
+        }
       }
     }
+    writer.flush();
   }
 
 
@@ -651,131 +660,96 @@ public final class SampleNode extends MethodMap<SampleNode> implements Serializa
 
   public static Pair<Method, SampleNode> parse(@WillNotClose final Reader r) throws IOException {
     JsonParser jsonP = Json.FACTORY.createParser(r);
-    consume(jsonP, JsonToken.START_OBJECT);
-    MutableHolder<Method> method  = MutableHolder.of(null);
-    MutableHolder<SampleNode> samples = MutableHolder.of((SampleNode) null);
-    parse(jsonP, (m, s) -> {
-      method.setValue(m); samples.setValue(s);
-    });
-    return Pair.of(method.get(), samples.get());
-  }
-
-  private static void parse(final JsonParser jsonP, final BiConsumer<Method, SampleNode> consumer) throws IOException {
-    consume(jsonP, JsonToken.FIELD_NAME);
-    String name = jsonP.getCurrentName();
-    consume(jsonP, JsonToken.VALUE_NUMBER_INT);
-    int sc = jsonP.getIntValue();
-    JsonToken nextToken = jsonP.nextToken();
-    if (nextToken == JsonToken.END_OBJECT) {
-      consumer.accept(Methods.from(name), new SampleNode(sc));
-    } else if (nextToken == JsonToken.FIELD_NAME) {
-      consume(jsonP, JsonToken.START_ARRAY);
-      SampleNode sn = new SampleNode(sc);
-      while (jsonP.nextToken() != JsonToken.END_ARRAY) {
-        parse(jsonP, sn::put);
-      }
-      consume(jsonP, JsonToken.END_OBJECT);
-      consumer.accept(Methods.from(name), sn);
-    } else {
-      throw new JsonParseException(jsonP, "Expected field name or end Object, not: " + nextToken);
-    }
+    SampleTreeParser.consume(jsonP, JsonToken.START_OBJECT);
+    MethodDictionary dictionary = new MethodDictionary();
+    NodeBuilder builder = new NodeBuilder(null, dictionary);
+    Method method = SampleTreeParser.parse(jsonP, builder, dictionary, Integer.MAX_VALUE);
+    return Pair.of(method, builder.getRoot());
   }
 
   public static void parseInto(@WillNotClose final Reader r, final SampleNode root) throws IOException {
     JsonParser jsonP = Json.FACTORY.createParser(r);
-    consume(jsonP, JsonToken.START_OBJECT);
+    SampleTreeParser.consume(jsonP, JsonToken.START_OBJECT);
     SampleNode sn = new SampleNode();
     sn.put(Methods.ROOT, root);
     parseInto(jsonP, sn);
   }
 
-
+  /**
+   * Parse a node and merge it into parentNode.
+   * @param jsonP the parser, the current token must be the START_OBJECT of the node.
+   * @param parentNode the parent node to merge into.
+   */
   public static void parseInto(final JsonParser jsonP, final SampleNode parentNode) throws IOException {
-    consume(jsonP, JsonToken.FIELD_NAME);
-    String name = jsonP.getCurrentName();
-    consume(jsonP, JsonToken.VALUE_NUMBER_INT);
-    int sc = jsonP.getIntValue();
-    JsonToken nextToken = jsonP.nextToken();
-    Method method = Methods.from(name);
-    SampleNode sn = parentNode.get(method);
-    if (sn == null) {
-      sn =  new SampleNode(sc);
-      parentNode.put(method, sn);
-    } else {
-      sn.sampleCount += sc;
-    }
-    if (nextToken == JsonToken.END_OBJECT) {
-      return;
-    } else if (nextToken == JsonToken.FIELD_NAME) {
-      consume(jsonP, JsonToken.START_ARRAY);
-      while (jsonP.nextToken() != JsonToken.END_ARRAY) {
-        parseInto(jsonP, sn);
-      }
-      consume(jsonP, JsonToken.END_OBJECT);
-    } else {
-      throw new JsonParseException(jsonP, "Expected field name or end Object, not: " + nextToken);
-    }
+    MethodDictionary dictionary = new MethodDictionary();
+    SampleTreeParser.parse(jsonP, new NodeBuilder(parentNode, dictionary), dictionary, Integer.MAX_VALUE);
   }
 
   public static Pair<Method, SampleNode> parseD3Json(@WillNotClose final Reader r) throws IOException {
     JsonParser jsonP = Json.FACTORY.createParser(r);
-    consume(jsonP, JsonToken.START_OBJECT);
-    MutableHolder<Method> method  = MutableHolder.of(null);
-    MutableHolder<SampleNode> samples = MutableHolder.of((SampleNode) null);
-    parseD3Json(jsonP, (m, s) -> {
-      method.setValue(m); samples.setValue(s);
-    });
-    return Pair.of(method.get(), samples.get());
-  }
-
-  @SuppressFBWarnings("WEM_WEAK_EXCEPTION_MESSAGING") // not that weak here...
-  private static void parseD3Json(final JsonParser jsonP, final BiConsumer<Method, SampleNode> consumer)
-          throws IOException {
-    String methodName = null;
-    SampleNode sn = new SampleNode(-1);
-    while (true) {
-    JsonToken nextToken = jsonP.nextToken();
-      if (nextToken == JsonToken.FIELD_NAME) {
-        String fieldName = jsonP.getCurrentName();
-        switch (fieldName) {
-          case "name":
-            consume(jsonP, JsonToken.VALUE_STRING);
-            methodName = jsonP.getText();
-            break;
-          case "value":
-            consume(jsonP, JsonToken.VALUE_NUMBER_INT);
-            sn.sampleCount = jsonP.getIntValue();
-            break;
-          case "children":
-            consume(jsonP, JsonToken.START_ARRAY);
-            while (jsonP.nextToken() != JsonToken.END_ARRAY) {
-              parseD3Json(jsonP, sn::put);
-            }
-            break;
-          default:
-            throw new JsonParseException(jsonP, "Unexpected field name : " + fieldName);
-        }
-      } else if (nextToken == JsonToken.END_OBJECT) {
-        if (methodName == null) {
-          throw new JsonParseException(jsonP, "name field not found");
-        }
-        if (sn.sampleCount < 0) {
-          throw new JsonParseException(jsonP, "value field not found");
-        }
-        consumer.accept(Methods.from(methodName), sn);
-        return;
+    SampleTreeParser.consume(jsonP, JsonToken.START_OBJECT);
+    MethodDictionary dictionary = new MethodDictionary();
+    NodeBuilder builder = new NodeBuilder(null, dictionary);
+    Method method = SampleTreeParser.parseD3(jsonP, builder, dictionary, Integer.MAX_VALUE);
+    return Pair.of(method, builder.getRoot());
+  }
+
+  /**
+   * builds SampleNodes while parsing, nodes with the same method are merged.
+   */
+  private static final class NodeBuilder implements SampleTreeParser.TreeBuilder {
+
+    @Nullable
+    private final SampleNode rootParent;
+
+    private final MethodDictionary dictionary;
+
+    private SampleNode[] nodes;
+
+    private int size;
+
+    NodeBuilder(@Nullable final SampleNode rootParent, final MethodDictionary dictionary) {
+      this.rootParent = rootParent;
+      this.dictionary = dictionary;
+      this.nodes = new SampleNode[64];
+      this.size = 0;
+    }
+
+    @Override
+    public int child(final int parent, final int methodId, final int count) {
+      SampleNode p = parent == SampleTreeParser.NONE ? rootParent : nodes[parent];
+      SampleNode sn;
+      if (p == null) {
+        sn = new SampleNode(count);
       } else {
-        throw new JsonParseException(jsonP, "Unexpected " + nextToken);
+        Method method = dictionary.getMethod(methodId);
+        sn = p.get(method);
+        if (sn == null) {
+          sn = new SampleNode(count);
+          p.put(method, sn);
+        } else {
+          sn.sampleCount += count;
+        }
+      }
+      if (size == nodes.length) {
+        nodes = Arrays.copyOf(nodes, size << 1);
       }
+      nodes[size] = sn;
+      return size++;
     }
 
-  }
+    @Override
+    public void addCount(final int node, final int count) {
+      nodes[node].sampleCount += count;
+    }
+
+    SampleNode getRoot() {
+      return nodes[0];
+    }
 
-  private static void consume(final JsonParser jsonP, final JsonToken token)
-          throws IOException {
-    JsonToken nextToken = jsonP.nextToken();
-    if (nextToken != token) {
-      throw new JsonParseException(jsonP, "Expected start object, not " + nextToken);
+    @Override
+    public String toString() {
+      return "NodeBuilder{" + "size=" + size + '}';
     }
   }
 
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.ParametersAreNonnullByDefault;
+import org.spf4j.base.avro.Method;
+
+/**
+ * Iterative (no recursion, deep stacks are fine) streaming parsers for the sample tree json formats.
+ * The method names are interned via a MethodDictionary, directly from the parser buffers.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+final class SampleTreeParser {
+
+  private SampleTreeParser() { }
+
+  /** the parent handle of the root node. */
+  static final int NONE = -1;
+
+  /**
+   * The tree being built, nodes are identified by int handles.
+   */
+  interface TreeBuilder {
+
+    /**
+     * add a child node (or add count to a existing one, when merging).
+     * @param parent the parent node handle, NONE for the root.
+     * @param methodId the MethodDictionary id of the node method.
+     * @param count the sample count of the node.
+     * @return the child node handle.
+     */
+    int child(int parent, int methodId, int count);
+
+    void addCount(int node, int count);
+  }
+
+  /**
+   * Parse a tree in the {"method":count,"c":[children...]} format.
+   * The current token of the parser must be the START_OBJECT of the root node.
+   *
+   * @param maxDepth the number of levels to load, the children of the nodes of the last level are skipped.
+   * (their samples are still accounted for in the node sample counts)
+   * @return the root method.
+   */
+  static Method parse(final JsonParser jsonP, final TreeBuilder builder,
+          final MethodDictionary dictionary, final int maxDepth) throws IOException {
+    int[] stack = new int[16];
+    int sp = 0;
+    int rootMethod = NONE;
+    int current = NONE;
+    while (true) {
+      // at a node START_OBJECT
+      consume(jsonP, JsonToken.FIELD_NAME);
+      int method = dictionary.getId(jsonP.getTextCharacters(), jsonP.getTextOffset(), jsonP.getTextLength());
+      consume(jsonP, JsonToken.VALUE_NUMBER_INT);
+      int node = builder.child(current, method, jsonP.getIntValue());
+      if (rootMethod == NONE) {
+        rootMethod = method;
+      }
+      JsonToken nextToken = jsonP.nextToken();
+      if (nextToken == JsonToken.FIELD_NAME) {
+        consume(jsonP, JsonToken.START_ARRAY);
+        if (sp + 1 >= maxDepth) {
+          jsonP.skipChildren();
+          consume(jsonP, JsonToken.END_OBJECT);
+        } else {
+          nextToken = jsonP.nextToken();
+          if (nextToken == JsonToken.START_OBJECT) {
+            if (sp == stack.length) {
+              stack = Arrays.copyOf(stack, sp << 1);
+            }
+            stack[sp++] = current;
+            current = node;
+            continue;
+          } else if (nextToken != JsonToken.END_ARRAY) {
+            throw new JsonParseException(jsonP, "Expected start object, not: " + nextToken);
+          }
+          consume(jsonP, JsonToken.END_OBJECT);
+        }
+      } else if (nextToken != JsonToken.END_OBJECT) {
+        throw new JsonParseException(jsonP, "Expected field name or end Object, not: " + nextToken);
+      }
+      // node done, move to the next sibling or up.
+      while (true) {
+        if (sp == 0) {
+          return dictionary.getMethod(rootMethod);
+        }
+        nextToken = jsonP.nextToken();
+        if (nextToken == JsonToken.START_OBJECT) {
+          break;
+        } else if (nextToken == JsonToken.END_ARRAY) {
+          consume(jsonP, JsonToken.END_OBJECT);
+          current = stack[--sp];
+        } else {
+          throw new JsonParseException(jsonP, "Expected start object or end array, not: " + nextToken);
+        }
+      }
+    }
+  }
+
+  /**
+   * Parse a tree in the d3 flame graph format: {"name":"method","value":count,"children":[...]}.
+   * The value field can be anywhere, the name field must precede the children field.
+   * The current token of the parser must be the START_OBJECT of the root node.
+   *
+   * @param maxDepth the number of levels to load, the children of the nodes of the last level are skipped.
+   * @return the root method.
+   */
+  static Method parseD3(final JsonParser jsonP, final TreeBuilder builder,
+          final MethodDictionary dictionary, final int maxDepth) throws IOException {
+    List<D3Frame> frames = new ArrayList<>();
+    int depth = 0;
+    D3Frame frame = new D3Frame();
+    frames.add(frame);
+    frame.reset(NONE);
+    while (true) {
+      JsonToken nextToken = jsonP.nextToken();
+      if (nextToken == JsonToken.FIELD_NAME) {
+        String fieldName = jsonP.getCurrentName();
+        switch (fieldName) {
+          case "name":
+            consume(jsonP, JsonToken.VALUE_STRING);
+            frame.method = dictionary.getId(jsonP.getTextCharacters(), jsonP.getTextOffset(),
+                    jsonP.getTextLength());
+            break;
+          case "value":
+            consume(jsonP, JsonToken.VALUE_NUMBER_INT);
+            frame.addCount(builder, jsonP.getIntValue());
+            break;
+          case "children":
+            if (frame.method == NONE) {
+              throw new JsonParseException(jsonP, "name field must precede the children field");
+            }
+            frame.create(builder);
+            consume(jsonP, JsonToken.START_ARRAY);
+            if (depth + 1 >= maxDepth) {
+              jsonP.skipChildren();
+            }
+            break;
+          default:
+            throw new JsonParseException(jsonP, "Unexpected field name : " + fieldName);
+        }
+      } else if (nextToken == JsonToken.START_OBJECT) { // a child
+        int parent = frame.node;
+        depth++;
+        if (depth == frames.size()) {
+          frames.add(new D3Frame());
+        }
+        frame = frames.get(depth);
+        frame.reset(parent);
+      } else if (nextToken == JsonToken.END_OBJECT) {
+        if (frame.method == NONE) {
+          throw new JsonParseException(jsonP, "name field not found");
+        }
+        if (!frame.hasValue) {
+          throw new JsonParseException(jsonP, "value field not found");
+        }
+        frame.create(builder);
+        if (depth == 0) {
+          return dictionary.getMethod(frame.method);
+        }
+        depth--;
+        frame = frames.get(depth);
+      } else if (nextToken != JsonToken.END_ARRAY) {
+        throw new JsonParseException(jsonP, "Unexpected " + nextToken);
+      }
+    }
+  }
+
+  static void consume(final JsonParser jsonP, final JsonToken token)
+          throws IOException {
+    JsonToken nextToken = jsonP.nextToken();
+    if (nextToken != token) {
+      throw new JsonParseException(jsonP, "Expected " + token + ", not " + nextToken);
+    }
+  }
+
+  private static final class D3Frame {
+
+    private int parent;
+
+    /** the method id, NONE if not known yet. */
+    private int method;
+
+    private int count;
+
+    private boolean hasValue;
+
+    private int node;
+
+    void reset(final int pParent) {
+      this.parent = pParent;
+      this.method = NONE;
+      this.count = 0;
+      this.hasValue = false;
+      this.node = NONE;
+    }
+
+    void addCount(final TreeBuilder builder, final int value) {
+      hasValue = true;
+      if (node == NONE) {
+        count += value;
+      } else {
+        builder.addCount(node, value);
+      }
+    }
+
+    void create(final TreeBuilder builder) {
+      if (node == NONE) {
+        node = builder.child(parent, method, count);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "D3Frame{" + "method=" + method + ", count=" + count + '}';
+    }
+  }
+
+}
@@ -35,38 +35,36 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
+ * Collects samples into a FlatSampleTree, SampleNodes are created only when the samples are retrieved.
  * @author zoly
  */
 @NotThreadSafe
 public final class StackCollectorImpl implements StackCollector {
 
-  private SampleNode samples;
+  private final FlatSampleTree samples;
+
+  public StackCollectorImpl() {
+    samples = new FlatSampleTree();
+  }
 
   @Override
   @Nullable
   public SampleNode getAndReset() {
-    SampleNode result = samples;
-    samples = null;
+    SampleNode result = samples.toSampleNode();
+    samples.reset();
     return result;
   }
 
   @Override
   @Nullable
   public SampleNode get() {
-    if (samples == null) {
-      return null;
-    }
-    return SampleNode.clone(samples);
+    return samples.toSampleNode();
   }
 
 
   @Override
   public void collect(final StackTraceElement[] stackTrace) {
-    if (samples == null) {
-      samples = SampleNode.createSampleNode(stackTrace);
-    } else {
-      SampleNode.addToSampleNode(samples, stackTrace);
-    }
+    samples.addSample(stackTrace);
   }
 
   @Override
@@ -75,10 +73,10 @@ public final class StackCollectorImpl implements StackCollector {
   }
 
   public int getNrNodes() {
-    if (samples == null) {
+    if (samples.isEmpty()) {
       return 0;
     } else {
-      return samples.getNrNodes();
+      return samples.size();
     }
   }
 
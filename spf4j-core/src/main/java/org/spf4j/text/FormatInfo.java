@@ -104,7 +104,7 @@ final class FormatInfo implements Serializable, Cloneable {
 
   @Override
   protected FormatInfo clone() {
-    return new FormatInfo((Format) format.clone(), offset, argumentNumber);
+    return new FormatInfo(format == null ? null : (Format) format.clone(), offset, argumentNumber);
   }
 
 
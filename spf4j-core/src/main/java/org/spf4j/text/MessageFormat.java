@@ -71,10 +71,13 @@ import java.util.BitSet;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.spf4j.base.CharSequences;
+import org.spf4j.concurrent.TwoGenerationCache;
 
 /**
  * Performance mutation of the JDK message formatter.
@@ -378,6 +381,11 @@ public final class MessageFormat extends Format {
 
   private static final long serialVersionUID = 1L;
 
+  private static final int MAX_CACHED_PATTERNS = Integer.getInteger("spf4j.messageFormat.maxCachedPatterns", 1024);
+
+  private static final ConcurrentMap<Locale, TwoGenerationCache<String, MessageFormat>> PARSED =
+          new ConcurrentHashMap<>(4);
+
   // Indices for segments
   private static final int SEG_RAW = 0;
   private static final int SEG_INDEX = 1;
@@ -913,10 +921,34 @@ public final class MessageFormat extends Format {
    * array is not of the type expected by the format element(s) that use it.
    */
   public static String format(final String pattern, final Object... arguments) {
-    MessageFormat temp = new MessageFormat(pattern);
+    MessageFormat temp = getInstance(pattern);
     return temp.format(arguments);
   }
 
+  /**
+   * Get a MessageFormat for the default FORMAT locale.
+   * @see #getInstance(java.lang.String, java.util.Locale)
+   */
+  public static MessageFormat getInstance(final String pattern) {
+    return getInstance(pattern, Locale.getDefault(Locale.Category.FORMAT));
+  }
+
+  /**
+   * Get a MessageFormat for a pattern and locale. Patterns are parsed once and the parsed prototypes are cached
+   * (the most recently used spf4j.messageFormat.maxCachedPatterns per locale), the returned instance is a clone of
+   * the prototype, owned by the caller.
+   *
+   * @param pattern the pattern for this message format
+   * @param locale the locale for this message format
+   * @return a new MessageFormat instance.
+   * @exception IllegalArgumentException if the pattern is invalid
+   */
+  public static MessageFormat getInstance(final String pattern, final Locale locale) {
+    TwoGenerationCache<String, MessageFormat> parsed
+            = PARSED.computeIfAbsent(locale, (l) -> new TwoGenerationCache<>(MAX_CACHED_PATTERNS));
+    return parsed.computeIfAbsent(pattern, (p) -> new MessageFormat(p, locale)).clone();
+  }
+
   // Overrides
   /**
    * Formats an array of objects and appends the <code>MessageFormat</code>'s pattern, with format elements replaced by
@@ -83,7 +83,7 @@ final class Slf4jFormatImpl implements Slf4jFormat {
         if (subFormatter instanceof ChoiceFormat) {
           String strArg = subFormatter.format(obj);
           if (strArg.indexOf('{') >= 0) {
-            MessageFormat mformat = new MessageFormat(strArg, locale);
+            MessageFormat mformat = MessageFormat.getInstance(strArg, locale);
             Slf4jFormat sfmt = mformat.subformatSlf4j();
             String slf4jFmt = sfmt.getFormat();
             Object[] converted = sfmt.convert(used, args);
@@ -31,8 +31,17 @@
  */
 package org.spf4j.base;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
 import org.junit.Assert;
 import org.junit.Test;
+import org.spf4j.io.Base64InputStream;
+import org.spf4j.io.Base64OutputStream;
 
 /**
  *
@@ -57,4 +66,108 @@ public final class Base64Test {
     Assert.assertArrayEquals(testArray, parseBase64);
   }
 
+  @Test
+  public void testSameAsJdk() throws IOException {
+    Random rnd = new Random(7);
+    for (int i = 0; i < 500; i++) {
+      byte[] data = new byte[rnd.nextInt(300)];
+      rnd.nextBytes(data);
+      int off = data.length == 0 ? 0 : rnd.nextInt(data.length);
+      int len = data.length - off;
+      String expected = java.util.Base64.getEncoder().encodeToString(java.util.Arrays.copyOfRange(data, off,
+              off + len));
+      Assert.assertEquals(expected, Base64.encodeBase64(data, off, len));
+      Assert.assertEquals(expected, Base64.encodeBase64V2(data, off, len).toString());
+      StringWriter sw = new StringWriter();
+      Base64.encodeBase64(data, off, len, sw);
+      Assert.assertEquals(expected, sw.toString());
+      byte[] ascii = new byte[Base64.encodedLength(len) + 1];
+      Assert.assertEquals(ascii.length, Base64.encodeBase64(data, off, len, ascii, 1));
+      Assert.assertEquals(expected, new String(ascii, 1, ascii.length - 1, StandardCharsets.US_ASCII));
+      byte[] decoded = Base64.decodeBase64(expected);
+      Assert.assertArrayEquals(java.util.Arrays.copyOfRange(data, off, off + len), decoded);
+      Assert.assertArrayEquals(decoded, Base64.decodeBase64V2(expected, 0, expected.length()));
+      char[] chars = expected.toCharArray();
+      Assert.assertArrayEquals(decoded, Base64.decodeBase64(chars, 0, chars.length));
+    }
+  }
+
+  @Test
+  public void testDecodeWithWhiteSpace() {
+    byte[] data = generateTestArray(1000);
+    String mime = java.util.Base64.getMimeEncoder().encodeToString(data);
+    Assert.assertArrayEquals(data, Base64.decodeBase64(mime));
+    Assert.assertArrayEquals(data, Base64.decodeBase64(mime.toCharArray(), 0, mime.length()));
+    ByteBuffer out = ByteBuffer.allocate(data.length);
+    Base64.decodeBase64(ByteBuffer.wrap(mime.getBytes(StandardCharsets.US_ASCII)), out);
+    Assert.assertArrayEquals(data, out.array());
+  }
+
+  @Test
+  public void testByteBuffers() {
+    byte[] data = generateTestArray(10007);
+    for (boolean direct : new boolean[] {false, true}) {
+      ByteBuffer src = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+      src.put(data);
+      src.flip();
+      int encLen = Base64.encodedLength(data.length);
+      ByteBuffer enc = direct ? ByteBuffer.allocateDirect(encLen) : ByteBuffer.allocate(encLen);
+      Assert.assertEquals(encLen, Base64.encodeBase64(src, enc));
+      Assert.assertFalse(src.hasRemaining());
+      Assert.assertFalse(enc.hasRemaining());
+      enc.flip();
+      byte[] encBytes = new byte[encLen];
+      enc.duplicate().get(encBytes);
+      Assert.assertEquals(java.util.Base64.getEncoder().encodeToString(data),
+              new String(encBytes, StandardCharsets.US_ASCII));
+      ByteBuffer dec = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length + 10);
+      Assert.assertEquals(data.length, Base64.decodeBase64(enc, dec));
+      dec.flip();
+      byte[] decBytes = new byte[dec.remaining()];
+      dec.get(decBytes);
+      Assert.assertArrayEquals(data, decBytes);
+    }
+  }
+
+  @Test
+  public void testStreams() throws IOException {
+    Random rnd = new Random(11);
+    for (int size : new int[] {0, 1, 2, 3, 4, 5, 100, 10000}) {
+      byte[] data = new byte[size];
+      rnd.nextBytes(data);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      try (Base64OutputStream os = new Base64OutputStream(bos)) {
+        int i = 0;
+        while (i < size) {
+          int n = Math.min(size - i, rnd.nextInt(10));
+          if (n == 1) {
+            os.write(data[i]);
+          } else {
+            os.write(data, i, n);
+          }
+          i += n;
+        }
+      }
+      String encoded = new String(bos.toByteArray(), StandardCharsets.US_ASCII);
+      Assert.assertEquals(java.util.Base64.getEncoder().encodeToString(data), encoded);
+      String unpadded = java.util.Base64.getMimeEncoder().withoutPadding().encodeToString(data);
+      for (String enc : new String[] {encoded, unpadded}) {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (Base64InputStream is = new Base64InputStream(
+                new ByteArrayInputStream(enc.getBytes(StandardCharsets.US_ASCII)))) {
+          int b = is.read();
+          if (b >= 0) {
+            decoded.write(b);
+            byte[] buff = new byte[77];
+            int nr;
+            while ((nr = is.read(buff)) >= 0) {
+              decoded.write(buff, 0, nr);
+            }
+          }
+        }
+        Assert.assertArrayEquals(data, decoded.toByteArray());
+      }
+    }
+  }
+
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.base;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class JsonWriterTest {
+
+  private static final JsonWriter.FieldName NAME = JsonWriter.fieldName("na\"me");
+
+  @Test
+  public void testSameAsJackson() throws IOException {
+    String str = "abc \" \\ \n \t \u0001 \u001f ăîș" + String.join("", java.util.Collections.nCopies(3000, "x"));
+    StringBuilder sb = new StringBuilder();
+    JsonWriter writer = new JsonWriter(sb, 64);
+    writer.writeStartObject();
+    writer.writeStringField(NAME, str);
+    writer.writeFieldName("num");
+    writer.writeNumber(Long.MIN_VALUE);
+    writer.writeFieldName("arr");
+    writer.writeStartArray();
+    writer.writeNumber(0);
+    writer.writeNumber(-12345);
+    writer.writeNumber(Long.MAX_VALUE);
+    writer.writeNumber(1.5);
+    writer.writeNumber(Double.NaN);
+    writer.writeBoolean(true);
+    writer.writeNull();
+    writer.writeStartObject();
+    writer.writeEndObject();
+    writer.writeStartArray();
+    writer.writeEndArray();
+    writer.writeEndArray();
+    Methods.writeTo(Methods.ROOT, writer.writeStartFieldName().append('\n'));
+    writer.writeEndFieldName();
+    Appendable sa = writer.writeStartString();
+    sa.append("a\"b");
+    sa.append('"');
+    writer.writeEndString();
+    writer.writeFieldName("obj");
+    writer.writeObject(Arrays.asList(1, "a"));
+    writer.writeEndObject();
+    writer.flush();
+
+    StringWriter sw = new StringWriter();
+    JsonGenerator gen = Json.FACTORY.createGenerator(sw);
+    gen.writeStartObject();
+    gen.writeStringField("na\"me", str);
+    gen.writeNumberField("num", Long.MIN_VALUE);
+    gen.writeFieldName("arr");
+    gen.writeStartArray();
+    gen.writeNumber(0);
+    gen.writeNumber(-12345);
+    gen.writeNumber(Long.MAX_VALUE);
+    gen.writeNumber(1.5);
+    gen.writeNumber(Double.NaN);
+    gen.writeBoolean(true);
+    gen.writeNull();
+    gen.writeStartObject();
+    gen.writeEndObject();
+    gen.writeStartArray();
+    gen.writeEndArray();
+    gen.writeEndArray();
+    gen.writeStringField("\n" + Methods.toString(Methods.ROOT), "a\"b\"");
+    gen.writeFieldName("obj");
+    gen.writeObject(Arrays.asList(1, "a"));
+    gen.writeEndObject();
+    gen.flush();
+    Assert.assertEquals(sw.toString(), sb.toString());
+    Map<String, Object> parsed = Json.MAPPER.readValue(sb.toString(), Map.class);
+    Assert.assertEquals(str, parsed.get("na\"me"));
+  }
+
+  @Test
+  public void testNumbers() throws IOException {
+    StringWriter sw = new StringWriter();
+    JsonWriter writer = new JsonWriter(sw, 32);
+    writer.writeStartArray();
+    long[] values = {1, 9, 10, 99, 100, 999999999999999999L, 1000000000000000000L, -1, -10, Long.MAX_VALUE,
+      Long.MIN_VALUE + 1, Integer.MIN_VALUE};
+    for (long v : values) {
+      writer.writeNumber(v);
+    }
+    writer.writeEndArray();
+    writer.flush();
+    long[] parsed = Json.MAPPER.readValue(sw.toString(), long[].class);
+    Assert.assertArrayEquals(values, parsed);
+  }
+
+  @Test
+  public void testJsonWriteable() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    JsonWriter writer = new JsonWriter(sb);
+    writer.writeStartArray();
+    writer.writeString("a");
+    writer.writeObject((JsonWriteable) (a) -> a.append("{\"x\":1}"));
+    writer.writeNumber(2);
+    writer.writeEndArray();
+    writer.flush();
+    Assert.assertEquals("[\"a\",{\"x\":1},2]", sb.toString());
+  }
+
+}
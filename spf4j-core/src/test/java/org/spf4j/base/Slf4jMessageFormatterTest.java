@@ -36,11 +36,13 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.MessageFormatter;
 import org.spf4j.base.avro.Method;
 import org.spf4j.io.AppendableLimiterWithOverflow;
 import org.spf4j.io.ConfigurableAppenderSupplier;
@@ -64,6 +66,31 @@ public class Slf4jMessageFormatterTest {
   }
 
 
+  @Test
+  public void testCompiledPatternsMatchSlf4j() throws IOException {
+    String[] tokens = {"a", " ", "{}", "\\{}", "\\\\{}", "{", "}", "\\"};
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      StringBuilder pattern = new StringBuilder();
+      for (int j = 0, l = rnd.nextInt(12); j < l; j++) {
+        pattern.append(tokens[rnd.nextInt(tokens.length)]);
+      }
+      Object[] args = new Object[rnd.nextInt(5)];
+      for (int j = 0; j < args.length; j++) {
+        args[j] = rnd.nextBoolean() ? "s" + j : j;
+      }
+      String pat = pattern.toString();
+      sb.setLength(0);
+      Slf4jMessageFormatter.format(sb, pat, args);
+      Assert.assertEquals(pat, MessageFormatter.arrayFormat(pat, args).getMessage(), sb.toString());
+      // second time from the cache.
+      sb.setLength(0);
+      Slf4jMessageFormatter.format(sb, pat, args);
+      Assert.assertEquals(pat, MessageFormatter.arrayFormat(pat, args).getMessage(), sb.toString());
+    }
+  }
+
   @Test
   public void testFormatter() throws IOException {
     StringBuilder sb = new StringBuilder();
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Zoltan Farkas
+ */
+public final class BoundedLoadingCacheTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BoundedLoadingCacheTest.class);
+
+  @Test
+  public void testLoadAndStats() throws ExecutionException {
+    AtomicInteger nrLoads = new AtomicInteger();
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .maximumSize(100).recordStats()
+            .build(new CountingLoader(nrLoads));
+    Assert.assertEquals("1", cache.get(1));
+    Assert.assertEquals("1", cache.get(1));
+    Assert.assertEquals("2", cache.getUnchecked(2));
+    Assert.assertEquals(2, nrLoads.get());
+    Assert.assertNull(cache.getIfPresent(3));
+    cache.invalidate(1);
+    Assert.assertNull(cache.getIfPresent(1));
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals(1, cache.weight());
+    CacheStats stats = cache.stats();
+    LOG.debug("Stats {}, cache {}", stats, cache);
+    Assert.assertEquals(1, stats.hitCount());
+    Assert.assertEquals(4, stats.missCount());
+    Assert.assertEquals(2, stats.loadSuccessCount());
+  }
+
+  @Test
+  public void testLoadFailure() {
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .maximumSize(100)
+            .build(new CacheLoader<Integer, String>() {
+              @Override
+              public String load(final Integer key) {
+                if (key < 0) {
+                  throw new IllegalArgumentException("Negative " + key);
+                }
+                return null;
+              }
+            });
+    try {
+      cache.get(-1);
+      Assert.fail();
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof IllegalArgumentException);
+    }
+    try {
+      cache.get(1);
+      Assert.fail();
+    } catch (ExecutionException ex) {
+      Assert.assertTrue(ex.getCause() instanceof CacheLoader.InvalidCacheLoadException);
+    }
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.weight());
+  }
+
+  @Test
+  public void testSizeBound() throws ExecutionException {
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .maximumSize(100).recordStats()
+            .build(new CountingLoader(new AtomicInteger()));
+    // the first 50 keys are hot, interleaved with a scan of one hit wonders.
+    for (int i = 0; i < 10000; i++) {
+      cache.get(i % 50);
+      cache.get(1000 + i);
+      Assert.assertTrue(cache.size() <= 100);
+    }
+    int nrHot = 0;
+    for (int i = 0; i < 50; i++) {
+      if (cache.getIfPresent(i) != null) {
+        nrHot++;
+      }
+    }
+    LOG.debug("Hot keys retained {}, stats {}", nrHot, cache.stats());
+    Assert.assertTrue("retained hot keys " + nrHot, nrHot > 40);
+    Assert.assertTrue(cache.stats().evictionCount() > 0);
+    Assert.assertEquals(cache.size(), cache.weight());
+  }
+
+  @Test
+  public void testWeightBound() throws ExecutionException {
+    BoundedLoadingCache<String, String> cache = BoundedLoadingCache.newBuilder()
+            .maximumWeight(1000, (String k, String v) -> v.length())
+            .build(new CacheLoader<String, String>() {
+              @Override
+              public String load(final String key) {
+                return key + key;
+              }
+            });
+    for (int i = 0; i < 1000; i++) {
+      cache.get("key" + i);
+      Assert.assertTrue(cache.weight() <= 1000);
+    }
+    Assert.assertTrue(cache.weight() > 500);
+  }
+
+  @Test
+  public void testExpiry() throws ExecutionException, InterruptedException {
+    AtomicInteger nrLoads = new AtomicInteger();
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .expireAfterWrite(50, TimeUnit.MILLISECONDS)
+            .build(new CountingLoader(nrLoads));
+    cache.get(1);
+    cache.get(1);
+    Assert.assertEquals(1, nrLoads.get());
+    Thread.sleep(100);
+    Assert.assertNull(cache.getIfPresent(1));
+    cache.get(1);
+    Assert.assertEquals(2, nrLoads.get());
+    Thread.sleep(100);
+    cache.cleanUp();
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testRefresh() throws ExecutionException, InterruptedException {
+    AtomicInteger nrLoads = new AtomicInteger();
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .refreshAfterWrite(10, TimeUnit.MILLISECONDS)
+            .build(new CountingLoader(nrLoads) {
+              @Override
+              public ListenableFuture<String> reload(final Integer key, final String oldValue) {
+                return Futures.immediateFuture(oldValue + 'r');
+              }
+            });
+    Assert.assertEquals("1", cache.get(1));
+    Thread.sleep(20);
+    Assert.assertEquals("1", cache.get(1)); // triggers the async refresh.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!"1r".equals(cache.get(1)) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertTrue(cache.get(1).startsWith("1r"));
+    Assert.assertEquals(1, nrLoads.get());
+  }
+
+  @Test
+  public void testConcurrentLoad() throws ExecutionException, InterruptedException {
+    AtomicInteger nrLoads = new AtomicInteger();
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .maximumSize(1000)
+            .build(new CountingLoader(nrLoads));
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(DefaultExecutor.INSTANCE.submit(() -> {
+        for (int i = 0; i < 10000; i++) {
+          int key = i % 500;
+          Assert.assertEquals(Integer.toString(key), cache.getUnchecked(key));
+        }
+        return null;
+      }));
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    Assert.assertEquals(500, nrLoads.get());
+    Assert.assertEquals(500, cache.weight());
+  }
+
+  @Test
+  public void testAsMap() {
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .maximumSize(10)
+            .build(new CountingLoader(new AtomicInteger()));
+    Assert.assertNull(cache.asMap().put(1, "a"));
+    Assert.assertEquals("a", cache.asMap().put(1, "b"));
+    Assert.assertEquals("b", cache.asMap().putIfAbsent(1, "c"));
+    Assert.assertEquals("b", cache.getUnchecked(1));
+    Assert.assertEquals(1, cache.weight());
+    Assert.assertEquals("b", cache.asMap().remove(1));
+    Assert.assertEquals(0, cache.weight());
+    Assert.assertNull(cache.asMap().replace(1, "a"));
+    Assert.assertFalse(cache.asMap().replace(1, "a", "b"));
+    Assert.assertNull(cache.getIfPresent(1));
+    cache.put(1, "a");
+    Assert.assertEquals("a", cache.asMap().replace(1, "b"));
+    Assert.assertFalse(cache.asMap().replace(1, "a", "c"));
+    Assert.assertTrue(cache.asMap().replace(1, "b", "c"));
+    Assert.assertEquals("c", cache.getUnchecked(1));
+    Assert.assertEquals(1, cache.weight());
+    cache.put(2, "x");
+    Assert.assertTrue(cache.asMap().keySet().remove(1));
+    Assert.assertFalse(cache.asMap().keySet().remove(1));
+    Assert.assertEquals(1, cache.weight());
+    Iterator<Integer> it = cache.asMap().keySet().iterator();
+    Assert.assertEquals(2, (int) it.next());
+    it.remove();
+    Assert.assertFalse(it.hasNext());
+    Assert.assertEquals(0, cache.weight());
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testAsMapLiveViews() {
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .maximumSize(10)
+            .build(new CountingLoader(new AtomicInteger()));
+    Map<Integer, String> map = cache.asMap();
+    Collection<String> values = map.values();
+    Set<Map.Entry<Integer, String>> entries = map.entrySet();
+    cache.put(1, "a");
+    cache.put(2, "b");
+    cache.put(3, "c");
+    Assert.assertEquals(3, values.size());
+    Assert.assertTrue(values.contains("b"));
+    Assert.assertTrue(entries.contains(new AbstractMap.SimpleEntry<>(2, "b")));
+    Assert.assertFalse(entries.contains(new AbstractMap.SimpleEntry<>(2, "c")));
+    Assert.assertTrue(values.remove("a"));
+    Assert.assertNull(cache.getIfPresent(1));
+    Assert.assertEquals(2, cache.weight());
+    Assert.assertFalse(entries.remove(new AbstractMap.SimpleEntry<>(2, "c")));
+    Assert.assertTrue(entries.remove(new AbstractMap.SimpleEntry<>(2, "b")));
+    Assert.assertEquals(1, cache.weight());
+    Iterator<Map.Entry<Integer, String>> it = entries.iterator();
+    Map.Entry<Integer, String> entry = it.next();
+    Assert.assertEquals(3, (int) entry.getKey());
+    entry.setValue("d");
+    Assert.assertEquals("d", cache.getIfPresent(3));
+    it.remove();
+    Assert.assertFalse(it.hasNext());
+    Assert.assertEquals(0, cache.weight());
+    Assert.assertEquals(0, cache.size());
+    cache.put(4, "e");
+    values.clear();
+    Assert.assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testUnbounded() {
+    AtomicInteger nrLoads = new AtomicInteger();
+    BoundedLoadingCache<Integer, String> cache = BoundedLoadingCache.newBuilder()
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build(new CountingLoader(nrLoads));
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(Integer.toString(i), cache.getUnchecked(i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertEquals(Integer.toString(i), cache.getUnchecked(i));
+    }
+    Assert.assertEquals(1000, nrLoads.get());
+    Assert.assertEquals(1000, cache.weight());
+  }
+
+  private static class CountingLoader extends CacheLoader<Integer, String> {
+
+    private final AtomicInteger nrLoads;
+
+    CountingLoader(final AtomicInteger nrLoads) {
+      this.nrLoads = nrLoads;
+    }
+
+    @Override
+    public String load(final Integer key) {
+      nrLoads.incrementAndGet();
+      return key.toString();
+    }
+  }
+
+}
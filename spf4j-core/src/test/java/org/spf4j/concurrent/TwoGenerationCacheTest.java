@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class TwoGenerationCacheTest {
+
+  @Test
+  public void testBoundedWithRecentlyUsedRetained() {
+    TwoGenerationCache<Integer, String> cache = new TwoGenerationCache<>(100);
+    AtomicInteger nrComputes = new AtomicInteger();
+    for (int i = 0; i < 10000; i++) {
+      Assert.assertEquals(Integer.toString(i), cache.computeIfAbsent(i, (k) -> {
+        nrComputes.incrementAndGet();
+        return k.toString();
+      }));
+      // keep 0 hot.
+      Assert.assertEquals("0", cache.computeIfAbsent(0, (k) -> {
+        nrComputes.incrementAndGet();
+        return k.toString();
+      }));
+      Assert.assertTrue(cache.size() <= 100);
+    }
+    Assert.assertEquals(10000, nrComputes.get());
+    Assert.assertEquals("0", cache.get(0));
+    Assert.assertEquals("9999", cache.get(9999));
+    Assert.assertNull(cache.get(1));
+    cache.clear();
+    Assert.assertNull(cache.get(0));
+    Assert.assertEquals(0, cache.size());
+  }
+
+}
@@ -31,6 +31,8 @@
  */
 package org.spf4j.concurrent;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
@@ -65,4 +67,44 @@ public final class UIDGeneratorTest {
     LOG.debug("Slow = {}", (end - sw1));
   }
 
+  @Test
+  public void testUID() throws IOException {
+    UIDGenerator idGen = new UIDGenerator(new ScalableSequence(0, 50), "T", System.currentTimeMillis());
+    Set<String> ids = new HashSet<>(1000);
+    String prevCrockford = "";
+    for (int i = 0; i < 1000; i++) {
+      UID uid = idGen.nextUID();
+      Assert.assertEquals(idGen.getNode(), uid.getNode());
+      Assert.assertEquals("T", uid.getPrefix());
+      StringBuilder chars = new StringBuilder(uid.length());
+      for (int j = 0; j < uid.length(); j++) {
+        chars.append(uid.charAt(j));
+      }
+      String text = uid.toString();
+      Assert.assertEquals(text, chars.toString());
+      Assert.assertEquals(1 + 2 * UID.B64_LONG_CHARS, text.length());
+      Assert.assertTrue(ids.add(text));
+      StringBuilder appended = new StringBuilder();
+      uid.appendTo(appended);
+      Assert.assertEquals(text, appended.toString());
+      byte[] ascii = new byte[64];
+      int len = uid.writeTextTo(ascii, 1);
+      Assert.assertEquals(text, new String(ascii, 1, len, StandardCharsets.US_ASCII));
+      byte[] binary = new byte[16];
+      uid.writeTo(binary, 0);
+      UID fromBytes = UID.fromBytes("T", binary, 0);
+      Assert.assertEquals(uid, fromBytes);
+      Assert.assertEquals(text, fromBytes.toString());
+      StringBuilder crockford = new StringBuilder();
+      uid.appendCrockford32To(crockford);
+      Assert.assertEquals(1 + 2 * UID.B32_LONG_CHARS, crockford.length());
+      Assert.assertTrue(crockford.toString().compareTo(prevCrockford) > 0);
+      prevCrockford = crockford.toString();
+    }
+    StringBuilder sb = new StringBuilder();
+    idGen.appendNextUID(sb);
+    Assert.assertTrue(ids.add(sb.toString()));
+    LOG.debug("UID sample {}", sb);
+  }
+
 }
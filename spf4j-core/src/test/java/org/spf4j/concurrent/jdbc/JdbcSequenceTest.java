@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.concurrent.jdbc;
+
+import com.google.common.io.Resources;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spf4j.concurrent.DefaultExecutor;
+import org.spf4j.jdbc.DbType;
+
+/**
+ * @author Zoltan Farkas
+ */
+@SuppressFBWarnings({"HARD_CODE_PASSWORD", "SQL_INJECTION_JDBC"})
+public final class JdbcSequenceTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JdbcSequenceTest.class);
+
+  @Test
+  public void testSequence() throws SQLException, IOException, InterruptedException, ExecutionException {
+    JdbcDataSource ds = new JdbcDataSource();
+    ds.setURL("jdbc:h2:mem:seqtest;DB_CLOSE_DELAY=-1");
+    ds.setUser("sa");
+    ds.setPassword("sa");
+    try (Connection conn = ds.getConnection(); Statement stmt = conn.createStatement()) {
+      stmt.execute(Resources.toString(Resources.getResource("sequenceTable.sql"), StandardCharsets.US_ASCII));
+    }
+    SequenceTableDesc desc = SequenceTableDesc.DEFAULT.withDbType(DbType.H2);
+    // two sequence instances, like two processes sharing the same table.
+    JdbcSequence seq1 = new JdbcSequence(ds, desc, "test", 100, 1000, 10, 10, DefaultExecutor.INSTANCE);
+    JdbcSequence seq2 = new JdbcSequence(ds, desc, "test", 100, 1000, 10, 10, DefaultExecutor.INSTANCE);
+    int nrThreads = 4;
+    int nrValues = 10000;
+    List<Future<long[]>> futures = new ArrayList<>(nrThreads);
+    for (int t = 0; t < nrThreads; t++) {
+      JdbcSequence seq = t % 2 == 0 ? seq1 : seq2;
+      futures.add(DefaultExecutor.INSTANCE.submit(() -> {
+        long[] values = new long[nrValues];
+        for (int i = 0; i < nrValues; i++) {
+          values[i] = seq.next();
+        }
+        return values;
+      }));
+    }
+    long[] all = new long[nrThreads * nrValues];
+    int pos = 0;
+    for (Future<long[]> f : futures) {
+      long[] values = f.get();
+      System.arraycopy(values, 0, all, pos, values.length);
+      pos += values.length;
+    }
+    java.util.Arrays.sort(all);
+    for (int i = 1; i < all.length; i++) {
+      Assert.assertTrue("duplicate " + all[i], all[i] > all[i - 1]);
+    }
+    Assert.assertTrue(all[0] >= 100);
+    // dense, with a max of 2 ranges (including the prefetched ones) per instance unused.
+    Assert.assertTrue("max " + all[all.length - 1], all[all.length - 1] < 100 + all.length + 4 * 1000);
+    LOG.debug("Sequences {}, {}", seq1, seq2);
+  }
+
+}
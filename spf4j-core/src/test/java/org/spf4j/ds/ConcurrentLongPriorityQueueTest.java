@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.concurrent.DefaultExecutor;
+
+/**
+ * @author Zoltan Farkas
+ */
+public final class ConcurrentLongPriorityQueueTest {
+
+  @Test
+  public void testOrderUpdateRemove() {
+    ConcurrentLongPriorityQueue<String> queue = new ConcurrentLongPriorityQueue<>(2);
+    ConcurrentLongPriorityQueue<String>.ElementRef a = queue.add("a", 10);
+    ConcurrentLongPriorityQueue<String>.ElementRef b = queue.add("b", 20);
+    ConcurrentLongPriorityQueue<String>.ElementRef c = queue.add("c", 30);
+    queue.add("d", 40);
+    Assert.assertEquals(4, queue.size());
+    Assert.assertEquals("a", queue.peek());
+    Assert.assertTrue(c.setPriority(5));
+    Assert.assertEquals("c", queue.peek());
+    Assert.assertEquals(5, queue.peekPriority(-1));
+    Assert.assertTrue(a.setPriority(50));
+    Assert.assertTrue(b.remove());
+    Assert.assertFalse(b.remove());
+    Assert.assertNull(queue.pollIfPriorityAtMost(4));
+    Assert.assertEquals("c", queue.pollIfPriorityAtMost(5));
+    Assert.assertFalse(c.setPriority(1));
+    List<String> drained = new ArrayList<>();
+    Assert.assertEquals(1, queue.drainTo(45, drained::add));
+    Assert.assertEquals("d", drained.get(0));
+    Assert.assertEquals("a", queue.poll());
+    Assert.assertNull(queue.poll());
+    Assert.assertTrue(queue.isEmpty());
+    Assert.assertEquals(-1, queue.peekPriority(-1));
+  }
+
+  @Test
+  public void testRandom() {
+    Random rnd = new Random(7);
+    ConcurrentLongPriorityQueue<Integer> queue = new ConcurrentLongPriorityQueue<>();
+    List<ConcurrentLongPriorityQueue<Integer>.ElementRef> refs = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      refs.add(queue.add(i, rnd.nextInt(10000)));
+    }
+    for (int i = 0; i < 300; i++) {
+      refs.get(rnd.nextInt(refs.size())).setPriority(rnd.nextInt(10000));
+    }
+    int removed = 0;
+    for (int i = 0; i < 100; i++) {
+      if (refs.get(rnd.nextInt(refs.size())).remove()) {
+        removed++;
+      }
+    }
+    Assert.assertEquals(1000 - removed, queue.size());
+    long prev = Long.MIN_VALUE;
+    int nr = 0;
+    while (!queue.isEmpty()) {
+      long p = queue.peekPriority(Long.MAX_VALUE);
+      Integer val = queue.poll();
+      Assert.assertEquals(p, refs.get(val).getPriority());
+      Assert.assertTrue(p >= prev);
+      prev = p;
+      nr++;
+    }
+    Assert.assertEquals(1000 - removed, nr);
+  }
+
+  @Test
+  public void testConcurrentProducers() throws InterruptedException, ExecutionException {
+    ConcurrentLongPriorityQueue<Integer> queue = new ConcurrentLongPriorityQueue<>();
+    int nrThreads = 4;
+    int nrElems = 10000;
+    List<Future<?>> futures = new ArrayList<>(nrThreads);
+    for (int t = 0; t < nrThreads; t++) {
+      int base = t * nrElems;
+      futures.add(DefaultExecutor.INSTANCE.submit(() -> {
+        Random rnd = new Random(base);
+        for (int i = 0; i < nrElems; i++) {
+          ConcurrentLongPriorityQueue<Integer>.ElementRef ref = queue.add(base + i, rnd.nextInt(1000000));
+          if (i % 10 == 0) {
+            ref.setPriority(rnd.nextInt(1000000));
+          }
+        }
+      }));
+    }
+    int polled = 0;
+    boolean done = false;
+    while (!done) {
+      done = true;
+      for (Future<?> f : futures) {
+        if (!f.isDone()) {
+          done = false;
+        }
+      }
+      if (queue.pollIfPriorityAtMost(1000) != null) {
+        polled++;
+      }
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    long prev = Long.MIN_VALUE;
+    while (!queue.isEmpty()) {
+      long p = queue.peekPriority(Long.MAX_VALUE);
+      Assert.assertNotNull(queue.poll());
+      Assert.assertTrue(p >= prev);
+      prev = p;
+      polled++;
+    }
+    Assert.assertEquals(nrThreads * nrElems, polled);
+  }
+
+}
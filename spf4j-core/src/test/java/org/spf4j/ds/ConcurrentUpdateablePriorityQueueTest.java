@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.MutableHolder;
+
+/**
+ * @author Zoltan Farkas
+ */
+public final class ConcurrentUpdateablePriorityQueueTest {
+
+  @Test
+  public void testUpdates() {
+    ConcurrentUpdateablePriorityQueue<MutableHolder<Integer>> queue =
+            new ConcurrentUpdateablePriorityQueue<>(4, Comparator.comparing(MutableHolder::getValue));
+    Random rnd = new Random(3);
+    List<ConcurrentUpdateablePriorityQueue<MutableHolder<Integer>>.ElementRef> refs = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      refs.add(queue.add(MutableHolder.of(rnd.nextInt(1000))));
+    }
+    for (int i = 0; i < 200; i++) {
+      ConcurrentUpdateablePriorityQueue<MutableHolder<Integer>>.ElementRef ref = refs.get(rnd.nextInt(refs.size()));
+      switch (i % 3) {
+        case 0:
+          ref.setElem(MutableHolder.of(rnd.nextInt(1000)));
+          break;
+        case 1:
+          int val = rnd.nextInt(1000);
+          ref.mutate((h) -> h.setValue(val));
+          break;
+        default:
+          ref.getElem().setValue(rnd.nextInt(1000));
+          ref.elementMutated();
+      }
+    }
+    Assert.assertTrue(refs.get(0).remove());
+    Assert.assertFalse(refs.get(0).remove());
+    Assert.assertEquals(499, queue.size());
+    int prev = Integer.MIN_VALUE;
+    MutableHolder<Integer> h;
+    int nr = 0;
+    while ((h = queue.poll()) != null) {
+      Assert.assertTrue(h.getValue() >= prev);
+      prev = h.getValue();
+      nr++;
+    }
+    Assert.assertEquals(499, nr);
+    Assert.assertFalse(refs.get(1).elementMutated());
+  }
+
+  @Test
+  public void testNaturalOrder() {
+    ConcurrentUpdateablePriorityQueue<Integer> queue = new ConcurrentUpdateablePriorityQueue<>();
+    queue.add(3);
+    queue.add(1);
+    queue.add(2);
+    Assert.assertEquals(Integer.valueOf(1), queue.peek());
+    Assert.assertEquals(Integer.valueOf(1), queue.poll());
+    queue.clear();
+    Assert.assertTrue(queue.isEmpty());
+    Assert.assertNull(queue.peekEntry());
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class CopyOnWritePersistentMapTest {
+
+  @Test
+  public void testMap() {
+    CopyOnWritePersistentMap<String, Integer> map = new CopyOnWritePersistentMap<>();
+    Assert.assertNull(map.put("a", 1));
+    Assert.assertEquals((Integer) 1, map.put("a", 2));
+    Assert.assertEquals((Integer) 2, map.putIfAbsent("a", 3));
+    Assert.assertNull(map.putIfAbsent("b", 3));
+    Map<String, Integer> snapshot = map.snapshot();
+    Assert.assertFalse(map.replace("a", 1, 5));
+    Assert.assertTrue(map.replace("a", 2, 5));
+    Assert.assertEquals((Integer) 5, map.replace("a", 6));
+    Assert.assertNull(map.replace("c", 6));
+    Assert.assertFalse(map.remove("b", 4));
+    Assert.assertTrue(map.remove("b", 3));
+    Assert.assertEquals((Integer) 6, map.remove("a"));
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertEquals(2, snapshot.size());
+    Assert.assertEquals((Integer) 2, snapshot.get("a"));
+    map.update((b) -> {
+      for (int i = 0; i < 1000; i++) {
+        b.put("k" + i, i);
+      }
+    });
+    Assert.assertEquals(1000, map.size());
+    Assert.assertEquals((Integer) 999, map.get("k999"));
+    CopyOnWritePersistentMap<String, Integer> copy = map.copy();
+    map.putAll(snapshot);
+    Assert.assertEquals(1002, map.size());
+    Assert.assertEquals(1000, copy.size());
+    Assert.assertEquals((Integer) 2, map.computeIfAbsent("x", (k) -> 2));
+    map.clear();
+    Assert.assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testFlatReads() {
+    CopyOnWritePersistentMap<String, Integer> map = new CopyOnWritePersistentMap<>();
+    map.update((b) -> {
+      for (int i = 0; i < 100; i++) {
+        b.put("k" + i, i);
+      }
+    });
+    // enough reads to publish the flat copy, then writes must be visible to the following reads.
+    for (int r = 0; r < 3; r++) {
+      for (int i = 0; i < 1000; i++) {
+        Assert.assertEquals((Integer) (i % 100), map.get("k" + (i % 100)));
+      }
+      Assert.assertNull(map.get("x"));
+      Assert.assertEquals(1, map.getOrDefault("x", 1).intValue());
+      map.put("k0", 0);
+    }
+    map.put("x", 5);
+    Assert.assertEquals((Integer) 5, map.get("x"));
+    map.remove("k1");
+    Assert.assertFalse(map.containsKey("k1"));
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertTrue(map.containsKey("k2"));
+    }
+    Assert.assertFalse(map.containsKey("k1"));
+    map.clear();
+    Assert.assertNull(map.get("k2"));
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Zoltan Farkas
+ */
+public final class PackedRTreeTest {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PackedRTreeTest.class);
+
+  @Test
+  public void testEmptyAndSingle() {
+    PackedRTree<String> empty = PackedRTree.<String>newBuilder(2).build();
+    Assert.assertTrue(empty.search(new float[] {0, 0}, new float[] {10, 10}).isEmpty());
+    Assert.assertTrue(empty.nearest(new float[] {0, 0}, 3).isEmpty());
+    PackedRTree<String> single = PackedRTree.<String>newBuilder(2)
+            .add(new float[] {1, 1}, new float[] {2, 2}, "a").build();
+    Assert.assertEquals(Collections.singletonList("a"),
+            single.search(new float[] {0, 0}, new float[] {1.5f, 1.5f}));
+    Assert.assertTrue(single.search(new float[] {4, 4}, new float[] {1, 1}).isEmpty());
+    Assert.assertEquals(Collections.singletonList("a"), single.nearest(new float[] {10, 10}, 3));
+  }
+
+  @Test
+  public void testSearchAndNearest() {
+    testRandom(false);
+  }
+
+  @Test
+  public void testParallelBuild() {
+    testRandom(true);
+  }
+
+  private static void testRandom(final boolean parallel) {
+    Random rnd = new Random(42);
+    int n = 20000;
+    float[][] rects = new float[n][];
+    PackedRTree.Builder<Integer> builder = PackedRTree.newBuilder(2, 8);
+    for (int i = 0; i < n; i++) {
+      float[] r = {rnd.nextFloat() * 1000 - 500, rnd.nextFloat() * 1000 - 500,
+        rnd.nextFloat() * 5, rnd.nextFloat() * 5};
+      rects[i] = r;
+      builder.add(new float[] {r[0], r[1]}, new float[] {r[2], r[3]}, i);
+    }
+    PackedRTree<Integer> tree = builder.build(parallel);
+    LOG.debug("Tree {}", tree);
+    Assert.assertEquals(n, tree.size());
+    for (int q = 0; q < 100; q++) {
+      float x = rnd.nextFloat() * 1000 - 500;
+      float y = rnd.nextFloat() * 1000 - 500;
+      float w = rnd.nextFloat() * 50;
+      float h = rnd.nextFloat() * 50;
+      Set<Integer> expected = new HashSet<>();
+      for (int i = 0; i < n; i++) {
+        float[] r = rects[i];
+        if (r[0] <= x + w && r[0] + r[2] >= x && r[1] <= y + h && r[1] + r[3] >= y) {
+          expected.add(i);
+        }
+      }
+      List<Integer> found = tree.search(new float[] {x, y}, new float[] {w, h});
+      Assert.assertEquals(expected.size(), found.size());
+      Assert.assertEquals(expected, new HashSet<>(found));
+      List<Integer> nearest = tree.nearest(new float[] {x, y}, 10);
+      List<Integer> all = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        all.add(i);
+      }
+      all.sort(Comparator.comparingDouble((Integer i) -> distanceSq(rects[i], x, y)));
+      Assert.assertEquals(10, nearest.size());
+      for (int i = 0; i < 10; i++) {
+        Assert.assertEquals(distanceSq(rects[all.get(i)], x, y), distanceSq(rects[nearest.get(i)], x, y), 0.01);
+      }
+    }
+  }
+
+  private static double distanceSq(final float[] r, final float x, final float y) {
+    float dx = x < r[0] ? r[0] - x : (x > r[0] + r[2] ? x - r[0] - r[2] : 0);
+    float dy = y < r[1] ? r[1] - y : (y > r[1] + r[3] ? y - r[1] - r[3] : 0);
+    return dx * dx + dy * dy;
+  }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class PersistentHashMapTest {
+
+  /** a key with a bad hash, to test collisions. */
+  private static final class BadKey {
+
+    private final int id;
+
+    BadKey(final int id) {
+      this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+      return id % 7;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof BadKey && ((BadKey) obj).id == id;
+    }
+
+    @Override
+    public String toString() {
+      return "BadKey{" + "id=" + id + '}';
+    }
+  }
+
+  @Test
+  public void testRandomOps() {
+    Random rnd = new Random(3);
+    Map<Integer, Integer> expected = new HashMap<>();
+    PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+    for (int i = 0; i < 100000; i++) {
+      int key = rnd.nextInt(20000) - 10000;
+      if (rnd.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.without(key);
+      } else {
+        expected.put(key, i);
+        map = map.with(key, i);
+      }
+      Assert.assertEquals(expected.size(), map.size());
+    }
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(map, expected);
+    Assert.assertEquals(expected.hashCode(), map.hashCode());
+    for (int i = -10000; i < 10000; i++) {
+      Assert.assertEquals(expected.get(i), map.get(i));
+      Assert.assertEquals(expected.containsKey(i), map.containsKey(i));
+    }
+    Map<Integer, Integer> fe = new HashMap<>();
+    map.forEach(fe::put);
+    Assert.assertEquals(expected, fe);
+  }
+
+  @Test
+  public void testStructuralSharing() {
+    PersistentHashMap<String, String> m1 = PersistentHashMap.<String, String>empty().with("a", "1").with("b", "2");
+    PersistentHashMap<String, String> m2 = m1.with("a", "3");
+    PersistentHashMap<String, String> m3 = m2.without("b");
+    Assert.assertEquals("1", m1.get("a"));
+    Assert.assertEquals("3", m2.get("a"));
+    Assert.assertEquals(2, m2.size());
+    Assert.assertEquals(1, m3.size());
+    Assert.assertNull(m3.get("b"));
+    Assert.assertSame(m3, m3.without("x"));
+    Assert.assertSame(m2, m2.with("a", "3"));
+    PersistentHashMap<String, String> m4 = m1.with("n", null);
+    Assert.assertTrue(m4.containsKey("n"));
+    Assert.assertNull(m4.get("n"));
+    Assert.assertEquals("x", m1.getOrDefault("n", "x"));
+    Assert.assertNull(m4.getOrDefault("n", "x"));
+  }
+
+  @Test
+  public void testCollisions() {
+    Map<BadKey, Integer> expected = new HashMap<>();
+    PersistentHashMap<BadKey, Integer> map = PersistentHashMap.empty();
+    for (int i = 0; i < 200; i++) {
+      expected.put(new BadKey(i), i);
+      map = map.with(new BadKey(i), i);
+    }
+    Assert.assertEquals(expected, map);
+    for (int i = 0; i < 200; i += 3) {
+      expected.remove(new BadKey(i));
+      map = map.without(new BadKey(i));
+    }
+    Assert.assertEquals(expected, map);
+    PersistentHashMap.Builder<BadKey, Integer> builder = map.toBuilder();
+    for (int i = 0; i < 200; i += 2) {
+      builder.remove(new BadKey(i));
+    }
+    PersistentHashMap<BadKey, Integer> built = builder.build();
+    Assert.assertEquals(expected, map);
+    for (int i = 0; i < 200; i += 2) {
+      expected.remove(new BadKey(i));
+    }
+    Assert.assertEquals(expected, built);
+  }
+
+  @Test
+  public void testBuilder() {
+    Random rnd = new Random(7);
+    Map<Integer, Integer> expected = new HashMap<>();
+    PersistentHashMap.Builder<Integer, Integer> builder = PersistentHashMap.newBuilder();
+    PersistentHashMap<Integer, Integer> snapshot = builder.build();
+    Map<Integer, Integer> snapshotExpected = new HashMap<>();
+    for (int i = 0; i < 50000; i++) {
+      int key = rnd.nextInt(10000);
+      if (rnd.nextInt(4) == 0) {
+        expected.remove(key);
+        builder.remove(key);
+      } else {
+        expected.put(key, i);
+        builder.put(key, i);
+      }
+      Assert.assertEquals(expected.size(), builder.size());
+      if (i % 5000 == 0) {
+        // previous snapshots must not be affected by the builder.
+        Assert.assertEquals(snapshotExpected, snapshot);
+        snapshot = builder.build();
+        snapshotExpected = new HashMap<>(expected);
+      }
+    }
+    Assert.assertEquals(snapshotExpected, snapshot);
+    Assert.assertEquals(expected, builder.build());
+    Assert.assertEquals(expected, PersistentHashMap.of(expected));
+    Assert.assertTrue(builder.clear().build().isEmpty());
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class MappedFileOutputStreamTest {
+
+  @Test
+  public void testMultipleChunks() throws IOException {
+    testWrite(false);
+  }
+
+  @Test
+  public void testMultipleChunksForceOnRollover() throws IOException {
+    testWrite(true);
+  }
+
+  private static void testWrite(final boolean forceOnRollover) throws IOException {
+    File tmp = File.createTempFile("mapped", ".bin");
+    Assert.assertTrue(tmp.delete());
+    Path file = tmp.toPath();
+    byte[] expected = new byte[10000];
+    for (int i = 0; i < expected.length; i++) {
+      expected[i] = (byte) i;
+    }
+    try {
+      try (MappedFileOutputStream out = new MappedFileOutputStream(file, 1024, forceOnRollover)) {
+        out.write(expected, 0, 5000);
+        out.force();
+        for (int i = 5000; i < expected.length; i++) {
+          out.write(expected[i]);
+        }
+        Assert.assertEquals(expected.length, out.getPosition());
+      }
+      Assert.assertArrayEquals(expected, Files.readAllBytes(file));
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.recyclable.impl.ArraySuppliers;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class SegmentedByteArrayBuilderTest {
+
+  @Test
+  public void testWriteRead() throws IOException {
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    try (SegmentedByteArrayBuilder builder = new SegmentedByteArrayBuilder(100, ArraySuppliers.Bytes.JAVA_NEW)) {
+      for (int k = 0; k < 10; k++) {
+        builder.reset();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0, n = rnd.nextInt(50); i < n; i++) {
+          if (rnd.nextBoolean()) {
+            int b = rnd.nextInt(256);
+            expected.write(b);
+            builder.write(b);
+          } else {
+            byte[] bytes = new byte[rnd.nextInt(300)];
+            rnd.nextBytes(bytes);
+            expected.write(bytes);
+            builder.write(bytes);
+          }
+        }
+        byte[] exp = expected.toByteArray();
+        Assert.assertEquals(exp.length, builder.size());
+        Assert.assertArrayEquals(exp, builder.toByteArray());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        builder.writeTo(bos);
+        Assert.assertArrayEquals(exp, bos.toByteArray());
+        bos.reset();
+        Assert.assertEquals(exp.length, builder.writeTo(Channels.newChannel(bos)));
+        Assert.assertArrayEquals(exp, bos.toByteArray());
+        bos.reset();
+        try (InputStream is = builder.getInputStream()) {
+          Assert.assertEquals(exp.length, is.available());
+          if (exp.length > 10) {
+            for (int i = 0; i < 5; i++) {
+              bos.write(is.read());
+            }
+            Assert.assertEquals(3, is.skip(3));
+            bos.write(exp, 5, 3);
+          }
+          byte[] buff = new byte[rnd.nextInt(1, 200)];
+          int nr;
+          while ((nr = is.read(buff)) >= 0) {
+            bos.write(buff, 0, nr);
+          }
+        }
+        Assert.assertArrayEquals(exp, bos.toByteArray());
+        try (SegmentedByteArrayBuilder copy = new SegmentedByteArrayBuilder()) {
+          copy.readFrom(new ByteArrayInputStream(exp));
+          Assert.assertArrayEquals(exp, copy.toByteArray());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testGatheringWrite() throws IOException {
+    byte[] data = new byte[1000000];
+    ThreadLocalRandom.current().nextBytes(data);
+    Path file = Files.createTempFile("segmented", ".bin");
+    try (SegmentedByteArrayBuilder builder = new SegmentedByteArrayBuilder();
+            FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      builder.write(data);
+      Assert.assertTrue(builder.getNrSegments() > 1);
+      Assert.assertEquals(data.length, builder.writeTo(ch));
+    }
+    Assert.assertArrayEquals(data, Files.readAllBytes(file));
+    Files.delete(file);
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.EscapeJsonStringAppendableWrapper;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class Utf8ByteAppendableTest {
+
+  @Test
+  public void testEncodingSameAsWriter() throws IOException {
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    Utf8ByteAppendable app = new Utf8ByteAppendable(4);
+    for (int i = 0; i < 1000; i++) {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      Writer writer = new OutputStreamWriter(bos, StandardCharsets.UTF_8);
+      EscapeJsonStringAppendableWrapper wEscaper = new EscapeJsonStringAppendableWrapper(writer);
+      app.reset();
+      for (int j = 0, l = rnd.nextInt(10); j < l; j++) {
+        String str = randomString(rnd);
+        switch (rnd.nextInt(5)) {
+          case 0:
+            writer.append(str);
+            app.append(str);
+            break;
+          case 1:
+            wEscaper.append(str);
+            app.getJsonStringEscaper().append(str);
+            break;
+          case 2:
+            for (int k = 0; k < str.length(); k++) {
+              char c = str.charAt(k);
+              wEscaper.append(c);
+              app.getJsonStringEscaper().append(c);
+            }
+            break;
+          case 3:
+            long nr = rnd.nextLong();
+            writer.append(Long.toString(nr));
+            app.append(nr);
+            break;
+          default:
+            for (int k = 0; k < str.length(); k++) {
+              char c = str.charAt(k);
+              writer.append(c);
+              app.append(c);
+            }
+        }
+      }
+      writer.flush();
+      Assert.assertArrayEquals(bos.toByteArray(), app.toByteArray());
+    }
+  }
+
+  @Test
+  public void testNumbers() {
+    Utf8ByteAppendable app = new Utf8ByteAppendable();
+    long[] nrs = {0, -1, 9, 10, 99, 100, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1,
+      Integer.MIN_VALUE, 999999999999999999L, 1000000000000000000L};
+    for (long nr : nrs) {
+      app.reset();
+      app.append(nr);
+      Assert.assertEquals(Long.toString(nr), app.toString());
+    }
+  }
+
+  @Test
+  public void testIsoInstant() {
+    ThreadLocalRandom rnd = ThreadLocalRandom.current();
+    Utf8ByteAppendable app = new Utf8ByteAppendable();
+    long[] special = {0, -1, 1, 999, 1000, 951782400000L, 253402300799999L, 253402300800000L, -62167219200000L,
+      -62167219200001L, System.currentTimeMillis()};
+    for (long ts : special) {
+      app.reset();
+      app.appendIsoInstant(ts);
+      Assert.assertEquals(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(ts)), app.toString());
+    }
+    for (int i = 0; i < 10000; i++) {
+      long ts = rnd.nextLong(-100000000000000L, 300000000000000L);
+      app.reset();
+      app.appendIsoInstant(ts);
+      Assert.assertEquals(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(ts)), app.toString());
+    }
+  }
+
+  private static String randomString(final ThreadLocalRandom rnd) {
+    int len = rnd.nextInt(20);
+    StringBuilder sb = new StringBuilder(len);
+    for (int i = 0; i < len; i++) {
+      switch (rnd.nextInt(6)) {
+        case 0:
+          sb.append((char) rnd.nextInt(0x20));
+          break;
+        case 1:
+          sb.append((char) rnd.nextInt(0x80, 0x800));
+          break;
+        case 2:
+          sb.append((char) rnd.nextInt(0xD800, 0xE000)); // surrogates, paired or not.
+          break;
+        case 3:
+          sb.appendCodePoint(rnd.nextInt(0x10000, 0x110000));
+          break;
+        case 4:
+          sb.append((char) rnd.nextInt(0xE000, 0x10000));
+          break;
+        default:
+          sb.append((char) rnd.nextInt(0x20, 0x80));
+      }
+    }
+    return sb.toString();
+  }
+
+}
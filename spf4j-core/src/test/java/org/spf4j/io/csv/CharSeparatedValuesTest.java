@@ -31,13 +31,21 @@
  */
 package org.spf4j.io.csv;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -239,4 +247,164 @@ public class CharSeparatedValuesTest {
   }
 
 
+  @Test
+  public void testByteBufferReader() throws IOException, CsvParseException {
+    CharSeparatedValues csv = new CharSeparatedValues(',');
+    String[] inputs = {"", "\r", "a,b,c\nd,e", "a,b,c\nd,e\n", "a,b,c\r\nd,e\r\n", "a,b,c\n\rd,e\n\r",
+      "\"a,\"\"b\"\"\",c,\"multi\nline\"\n,,\n", "\u00e9\u4e2d\ud83d\ude00,long ascii element over a word,x",
+      "\uFEFFh1,h2\n1,2"};
+    for (String input : inputs) {
+      ByteBufferCsvReader bReader = csv.reader(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+      Assert.assertEquals(input, tokens(csv.reader(new StringReader(input))), tokens(bReader));
+    }
+  }
+
+  @Test
+  public void testByteBufferReaderSlices() throws IOException, CsvParseException {
+    CharSeparatedValues csv = new CharSeparatedValues(';');
+    ByteBufferCsvReader reader = csv.reader(ByteBuffer.wrap("12;\"a\"\"b\"\n".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertEquals(CsvReader.TokenType.ELEMENT, reader.next());
+    Assert.assertEquals(12L, reader.getElementAsLong());
+    Assert.assertEquals(0, reader.getElementOffset());
+    Assert.assertEquals(2, reader.getElementByteLength());
+    Assert.assertEquals(CsvReader.TokenType.ELEMENT, reader.next());
+    Assert.assertTrue(reader.isElementQuoted());
+    Assert.assertEquals(4, reader.getElementOffset());
+    Assert.assertEquals(4, reader.getElementByteLength());
+    Assert.assertEquals("a\"b", reader.getElement().toString());
+    Assert.assertEquals(CsvReader.TokenType.END_ROW, reader.next());
+    Assert.assertEquals(CsvReader.TokenType.END_DOCUMENT, reader.next());
+  }
+
+  @Test
+  public void testParallelRead() throws IOException, CsvParseException, InterruptedException {
+    CharSeparatedValues csv = new CharSeparatedValues(',');
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      csv.writeCsvRow(sb, i, "x\n" + i, "\"" + i + "\"", "\u00e9" + i, "");
+    }
+    String input = sb.toString();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(input.length() * 3);
+    buffer.put(input.getBytes(StandardCharsets.UTF_8));
+    buffer.flip();
+    List<List<String>> expected = tokens(csv.reader(new StringReader(input)));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (int nrChunks : new int[] {1, 3, 7, 64}) {
+        List<ByteBuffer> chunks = csv.splitRows(buffer, nrChunks);
+        List<List<String>> rows = new ArrayList<>();
+        for (ByteBuffer chunk : chunks) {
+          rows.addAll(tokens(csv.readerNoBOM(chunk)));
+        }
+        Assert.assertEquals(expected, rows);
+        List<List<List<String>>> pRows = csv.readParallel(buffer, nrChunks, executor, RowsHandler::new);
+        rows.clear();
+        pRows.forEach(rows::addAll);
+        Assert.assertEquals(expected, rows);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testParallelReadRegions() throws IOException, CsvParseException, InterruptedException {
+    CharSeparatedValues csv = new CharSeparatedValues(',');
+    StringBuilder sb = new StringBuilder();
+    sb.append('\uFEFF');
+    for (int i = 0; i < 1000; i++) {
+      csv.writeCsvRow(sb, i, "x\n" + i, "\"" + i + "\"", "\u00e9" + i, "");
+    }
+    String input = sb.toString();
+    List<List<String>> expected = tokens(csv.reader(new StringReader(input.substring(1))));
+    File file = File.createTempFile("test", ".csv");
+    file.deleteOnExit();
+    Files.write(file.toPath(), input.getBytes(StandardCharsets.UTF_8));
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      for (int nrChunks : new int[] {1, 3, 64}) {
+        // small regions, to read the file in multiple mapped regions.
+        List<List<List<String>>> pRows = csv.readParallel(ch, nrChunks, 256, executor, RowsHandler::new);
+        Assert.assertTrue(pRows.size() >= 100);
+        List<List<String>> rows = new ArrayList<>();
+        pRows.forEach(rows::addAll);
+        Assert.assertEquals(expected, rows);
+      }
+      List<List<String>> rows = new ArrayList<>();
+      csv.readParallel(file, 3, executor, RowsHandler::new).forEach(rows::addAll);
+      Assert.assertEquals(expected, rows);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testSplitRowsNewLineAtChunkBoundary() throws IOException, CsvParseException, InterruptedException {
+    CharSeparatedValues csv = new CharSeparatedValues(',');
+    // 2 rows of 8 bytes, split in 2 the nominal chunk boundary is right after the first row end.
+    ByteBuffer buffer = ByteBuffer.wrap("abc,def\nghi,jkl\n".getBytes(StandardCharsets.UTF_8));
+    List<ByteBuffer> chunks = csv.splitRows(buffer, 2);
+    for (ByteBuffer chunk : chunks) {
+      Assert.assertTrue(chunk.hasRemaining());
+    }
+    List<List<String>> rows = new ArrayList<>();
+    for (ByteBuffer chunk : chunks) {
+      rows.addAll(tokens(csv.readerNoBOM(chunk)));
+    }
+    Assert.assertEquals(Arrays.asList(Arrays.asList("abc", "def"), Arrays.asList("ghi", "jkl")), rows);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<List<List<String>>> pRows = csv.readParallel(buffer, 2, executor, RowsHandler::new);
+      Assert.assertEquals(chunks.size(), pRows.size());
+      for (List<List<String>> chunkRows : pRows) {
+        Assert.assertFalse(chunkRows.isEmpty());
+      }
+      Assert.assertEquals(1, csv.splitRows(ByteBuffer.allocate(0), 4).size());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static List<List<String>> tokens(final CsvReader reader) throws IOException, CsvParseException {
+    List<List<String>> result = new ArrayList<>();
+    List<String> row = new ArrayList<>();
+    CsvReader.TokenType tok;
+    while ((tok = reader.next()) != CsvReader.TokenType.END_DOCUMENT) {
+      if (tok == CsvReader.TokenType.ELEMENT) {
+        row.add(reader.getElement().toString());
+      } else {
+        result.add(row);
+        row = new ArrayList<>();
+      }
+    }
+    return result;
+  }
+
+  private static final class RowsHandler implements CsvHandler<List<List<String>>> {
+
+    private final List<List<String>> rows = new ArrayList<>();
+
+    private List<String> row;
+
+    @Override
+    public void startRow() {
+      row = new ArrayList<>();
+    }
+
+    @Override
+    public void element(final CharSequence elem) {
+      row.add(elem.toString());
+    }
+
+    @Override
+    public void endRow() {
+      rows.add(row);
+    }
+
+    @Override
+    public List<List<String>> eof() {
+      return rows;
+    }
+  }
+
 }
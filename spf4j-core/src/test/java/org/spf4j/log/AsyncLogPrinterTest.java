@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class AsyncLogPrinterTest {
+
+  private static final LogPrinter PRINTER = new LogPrinter(DateTimeFormatter.ISO_DATE_TIME.withZone(ZoneId.of("Z")),
+            StandardCharsets.UTF_8);
+
+  @Test
+  public void testMultiThreadedOrdering() throws InterruptedException, ExecutionException, IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    AsyncLogPrinter printer = new AsyncLogPrinter(PRINTER, out, err, 16, AsyncLogPrinter.OverflowPolicy.BLOCK,
+            Level.WARN, 1);
+    ExecutorService exec = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>(4);
+    for (int t = 0; t < 4; t++) {
+      final int thread = t;
+      futures.add(exec.submit(() -> {
+        for (int i = 0; i < 1000; i++) {
+          printer.print(new Slf4jLogRecordImpl("test", i % 100 == 0 ? Level.ERROR : Level.INFO,
+                  "t{} m{}", thread, i));
+        }
+      }));
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    exec.shutdown();
+    printer.close();
+    String[] lines = out.toString(StandardCharsets.UTF_8.name()).split("\n");
+    Assert.assertEquals(4 * 990, lines.length);
+    Assert.assertEquals(4 * 10, err.toString(StandardCharsets.UTF_8.name()).split("\n").length);
+    int[] last = {-1, -1, -1, -1};
+    for (String line : lines) {
+      int ti = line.indexOf("\"t") + 2;
+      int thread = line.charAt(ti) - '0';
+      int msg = Integer.parseInt(line.substring(line.indexOf(" m", ti) + 2, line.lastIndexOf('"')));
+      Assert.assertTrue(line, msg > last[thread]);
+      last[thread] = msg;
+    }
+    Assert.assertEquals(0, printer.getDroppedCount());
+    printer.print(new Slf4jLogRecordImpl("test", Level.INFO, "after close"));
+    Assert.assertTrue(out.toString(StandardCharsets.UTF_8.name()).contains("after close"));
+  }
+
+  @Test
+  public void testDropByLevel() throws IOException, InterruptedException {
+    SlowOutputStream out = new SlowOutputStream();
+    AsyncLogPrinter printer = new AsyncLogPrinter(PRINTER, out, out, 4, AsyncLogPrinter.OverflowPolicy.DROP_BY_LEVEL,
+            Level.WARN, 1);
+    for (int i = 0; i < 100; i++) {
+      printer.print(new Slf4jLogRecordImpl("test", Level.DEBUG, "debug {}", i));
+      printer.print(new Slf4jLogRecordImpl("test", Level.WARN, "warn {}", i));
+    }
+    printer.flush();
+    String written = out.toString(StandardCharsets.UTF_8.name());
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(written.contains("\"warn " + i + '"'));
+    }
+    Assert.assertTrue(printer.getDroppedCount() > 0);
+    Assert.assertEquals(200 - printer.getDroppedCount(), written.split("\n").length);
+    printer.close();
+  }
+
+  @Test
+  public void testSample() throws IOException, InterruptedException {
+    SlowOutputStream out = new SlowOutputStream();
+    AsyncLogPrinter printer = new AsyncLogPrinter(PRINTER, out, out, 8, AsyncLogPrinter.OverflowPolicy.SAMPLE,
+            Level.ERROR, 3);
+    for (int i = 0; i < 100; i++) {
+      printer.print(new Slf4jLogRecordImpl("test", Level.INFO, "info {}", i));
+    }
+    printer.close();
+    String written = out.toString(StandardCharsets.UTF_8.name());
+    Assert.assertTrue(printer.getSampledOutCount() > 0);
+    Assert.assertEquals(100 - printer.getSampledOutCount() - printer.getDroppedCount(),
+            written.split("\n").length);
+  }
+
+  @Test
+  public void testGatheringChannel() throws IOException {
+    File file = File.createTempFile("asyncLog", ".log");
+    try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+      AsyncLogPrinter printer = new AsyncLogPrinter(PRINTER, ch, 64, AsyncLogPrinter.OverflowPolicy.BLOCK,
+              Level.WARN, 1);
+      for (int i = 0; i < 1000; i++) {
+        printer.print(new Slf4jLogRecordImpl("test", Level.INFO, "message {}", i));
+      }
+      printer.close();
+    }
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    Assert.assertEquals(1000, lines.size());
+    Assert.assertTrue(lines.get(999).contains("\"message 999\""));
+    Assert.assertTrue(file.delete());
+  }
+
+  @Test
+  public void testIdleWriterParksUntilPublish() throws IOException, InterruptedException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    AsyncLogPrinter printer = new AsyncLogPrinter(PRINTER, out, out, 16, AsyncLogPrinter.OverflowPolicy.BLOCK,
+            Level.WARN, 1);
+    try {
+      for (int i = 0; i < 10; i++) {
+        Thread writer = waitForParkedWriter(printer);
+        Assert.assertEquals(Thread.State.WAITING, writer.getState());
+        printer.print(new Slf4jLogRecordImpl("test", Level.INFO, "idle {}", i));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!out.toString(StandardCharsets.UTF_8.name()).contains("\"idle " + i + '"')) {
+          Assert.assertTrue("record " + i + " not written by the parked writer",
+                  System.currentTimeMillis() < deadline);
+          Thread.sleep(1);
+        }
+      }
+      Assert.assertEquals(0, printer.getPendingCount());
+    } finally {
+      printer.close();
+    }
+  }
+
+  private static Thread waitForParkedWriter(final AsyncLogPrinter printer) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    do {
+      for (Thread thread : Thread.getAllStackTraces().keySet()) {
+        if (LockSupport.getBlocker(thread) == printer) {
+          return thread;
+        }
+      }
+      Thread.sleep(1);
+    } while (System.currentTimeMillis() < deadline);
+    throw new AssertionError("writer of " + printer + " not parked");
+  }
+
+  private static final class SlowOutputStream extends OutputStream {
+
+    private final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    @Override
+    public synchronized void write(final int b) {
+      bos.write(b);
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) {
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      bos.write(b, off, len);
+    }
+
+    public synchronized String toString(final String charsetName) throws IOException {
+      return bos.toString(charsetName);
+    }
+
+  }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.spf4j.base.ExecutionContext;
+import org.spf4j.base.ExecutionContexts;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class ContextLogBufferTest {
+
+  @Test
+  public void testBoundedAndOrdered() {
+    ContextLogBuffer buff = new ContextLogBuffer(10);
+    for (int i = 0; i < 25; i++) {
+      buff.add(i % 2 == 0, "test", Level.DEBUG, null, "msg {}", i);
+    }
+    Assert.assertEquals(10, buff.size());
+    List<Slf4jLogRecord> records = new ArrayList<>();
+    buff.forEach(records::add);
+    for (int i = 0; i < 10; i++) {
+      Slf4jLogRecord rec = records.get(i);
+      Assert.assertEquals("msg " + (i + 15), rec.getMessage());
+      Assert.assertEquals((i + 15) % 2 == 0, rec.isLogged());
+      Assert.assertEquals(Level.DEBUG, rec.getLevel());
+      Assert.assertEquals(Thread.currentThread().getName(), rec.getThreadName());
+    }
+    records.clear();
+    buff.forEach(records::add, 3);
+    Assert.assertEquals(3, records.size());
+    Assert.assertEquals("msg 22", records.get(0).getMessage());
+  }
+
+  @Test
+  public void testArguments() {
+    ContextLogBuffer buff = new ContextLogBuffer(100);
+    Object obj = new Object();
+    buff.add(false, "test", Level.TRACE, null, "{} {} {} {}", 1, 2L, 3.5d, true);
+    buff.add(false, "test", Level.TRACE, null, "{} {} {} {}", 'c', (short) 4, (byte) 5, 6.5f);
+    buff.add(false, "test", Level.TRACE, null, "{} {} {} {} {}", 1, 2, 3, 4, obj);
+    buff.add(false, "test", Level.TRACE, null, "{}", (Object) null);
+    buff.add(new Slf4jLogRecordImpl("other", Level.ERROR, "rec"));
+    ContextLogBuffer copy = new ContextLogBuffer(100);
+    copy.add(false, "test", Level.INFO, null, "first");
+    copy.addAll(buff);
+    buff.clear();
+    List<Slf4jLogRecord> records = new ArrayList<>();
+    copy.forEach(records::add);
+    Assert.assertEquals(6, records.size());
+    Assert.assertArrayEquals(new Object[] {1, 2L, 3.5d, true}, records.get(1).getArguments());
+    Assert.assertArrayEquals(new Object[] {'c', (short) 4, (byte) 5, 6.5f}, records.get(2).getArguments());
+    Assert.assertArrayEquals(new Object[] {1, 2, 3, 4, obj.toString()}, records.get(3).getArguments());
+    Assert.assertArrayEquals(new Object[] {null}, records.get(4).getArguments());
+    Assert.assertEquals("other", records.get(5).getLoggerName());
+    Assert.assertEquals(Level.ERROR, records.get(5).getLevel());
+    copy.clear();
+    Assert.assertTrue(copy.isEmpty());
+  }
+
+  @Test
+  public void testMutableArgumentsSnapshot() {
+    ContextLogBuffer buff = new ContextLogBuffer(10);
+    StringBuilder sb = new StringBuilder("before");
+    int[] arr = {1, 2};
+    List<String> list = new ArrayList<>();
+    list.add("a");
+    Exception ex = new RuntimeException("test");
+    buff.add(false, "test", Level.DEBUG, null, "{} {} {}", sb, arr, list, LogAttribute.of("attr", list), ex);
+    buff.add(false, "test", Level.DEBUG, null, "{}", sb, LogAttribute.of("attr", "val"));
+    sb.append(" after");
+    arr[0] = 3;
+    list.add("b");
+    List<Slf4jLogRecord> records = new ArrayList<>();
+    buff.forEach(records::add);
+    Assert.assertEquals("before [1, 2] [a]", records.get(0).getMessage());
+    Object[] args = records.get(0).getArguments();
+    Assert.assertEquals("[a]", ((LogAttribute) args[3]).getSecond());
+    Assert.assertSame(ex, records.get(0).getExtraThrowable());
+    Assert.assertEquals("before", records.get(1).getMessage());
+    Assert.assertEquals("val", ((LogAttribute) records.get(1).getArguments()[1]).getSecond());
+  }
+
+  @Test
+  public void testContextCapture() {
+    ExecContextLogger log = new ExecContextLogger(LoggerFactory.getLogger("test.capture"));
+    try (ExecutionContext ctx = ExecutionContexts.start("test", 10, TimeUnit.SECONDS)) {
+      try (ExecutionContext child = ctx.startChild("child", 10, TimeUnit.SECONDS)) {
+        log.trace("child {} {}", 1, "a");
+      }
+      log.trace("parent {}", 2);
+      List<Slf4jLogRecord> records = new ArrayList<>();
+      ctx.streamLogs(records::add);
+      Assert.assertEquals(2, records.size());
+      Assert.assertEquals("child 1 a", records.get(0).getMessage());
+      Assert.assertEquals("test.capture", records.get(0).getLoggerName());
+      Assert.assertEquals(Level.TRACE, records.get(0).getLevel());
+      Assert.assertEquals("parent 2", records.get(1).getMessage());
+    }
+  }
+
+  @Test
+  public void testMaterializedRecordRetained() {
+    ContextLogBuffer buff = new ContextLogBuffer(10);
+    buff.add(false, "test", Level.DEBUG, null, "msg {}", 1);
+    Object attachment = new Object();
+    buff.forEach((rec) -> {
+      rec.setIsLogged();
+      rec.attach(attachment);
+    });
+    List<Slf4jLogRecord> records = new ArrayList<>();
+    buff.forEach(records::add);
+    Assert.assertTrue(records.get(0).isLogged());
+    Assert.assertTrue(records.get(0).getAttachments().contains(attachment));
+  }
+
+  @Test
+  public void testLogsReadableAfterClose() {
+    ExecContextLogger log = new ExecContextLogger(LoggerFactory.getLogger("test.capture"));
+    ExecutionContext ctx = ExecutionContexts.start("test", 10, TimeUnit.SECONDS);
+    log.trace("before close {}", 1);
+    ctx.close();
+    List<Slf4jLogRecord> records = new ArrayList<>();
+    ctx.streamLogs(records::add);
+    Assert.assertEquals(1, records.size());
+    Assert.assertEquals("before close 1", records.get(0).getMessage());
+  }
+
+}
@@ -32,6 +32,7 @@
 package org.spf4j.log;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.time.ZoneId;
@@ -39,6 +40,8 @@ import java.time.format.DateTimeFormatter;
 import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Test;
+import org.spf4j.base.ExecutionContext;
+import org.spf4j.base.ExecutionContexts;
 
 /**
  *
@@ -57,4 +60,30 @@ public class LogPrinterTest {
 
   }
 
+  @Test
+  public void testTraceIdJson() throws IOException {
+    try (ExecutionContext ctx = ExecutionContexts.start("traceTest")) {
+      CharSequence id = ctx.getId();
+      String expected = "{\"trId\":\"" + id + "\"}";
+      Slf4jLogRecordImpl rec = new Slf4jLogRecordImpl("test", Level.INFO, "msg", LogAttribute.traceId(id));
+      LogPrinter printer = new LogPrinter(StandardCharsets.UTF_8);
+      String printed = new String(printer.printToBytes(rec), StandardCharsets.UTF_8);
+      Assert.assertTrue(printed, printed.contains("[\"" + expected.replace("\"", "\\\"") + "\"]"));
+      StringBuilder json = new StringBuilder();
+      rec.writeJsonTo(json);
+      Assert.assertTrue(json.toString(), json.toString().contains("\"xObj\":[" + expected + ']'));
+      Assert.assertEquals(expected, LogAttribute.traceId(id).toString());
+    }
+  }
+
+  @Test
+  public void testUtf8SameAsWriterEncoding() {
+    LogPrinter utf8Printer = new LogPrinter(StandardCharsets.UTF_8);
+    LogPrinter utf16Printer = new LogPrinter(StandardCharsets.UTF_16);
+    Slf4jLogRecord rec = new Slf4jLogRecordImpl("test", Level.INFO, "msg \"{}\" {} \u00e9\u4e2d\ud83d\ude00 {}\n\t",
+            "a\"b\\c\u0001", 42, 123456789012L, new int[] {1, 2}, "extra\u20ac");
+    Assert.assertEquals(new String(utf16Printer.printToBytes(rec), StandardCharsets.UTF_16),
+            new String(utf8Printer.printToBytes(rec), StandardCharsets.UTF_8));
+  }
+
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.avro.LogRecord;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class MappedLogFileAppenderTest {
+
+  @Test
+  public void testTextRotationAndCompression() throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("mappedLogTest");
+    LogPrinter printer = new LogPrinter(StandardCharsets.UTF_8);
+    StringBuilder expected = new StringBuilder();
+    try (MappedLogFileAppender appender = new MappedLogFileAppender(dir, "test", MappedLogFileAppender.Format.TEXT,
+            4096, MappedLogFileAppender.Compression.GZIP)) {
+      for (int i = 0; i < 500; i++) {
+        Slf4jLogRecord rec = new Slf4jLogRecordImpl("test", Level.INFO, "message {} é", i);
+        appender.append(rec);
+        expected.append(new String(printer.printToBytes(rec), StandardCharsets.UTF_8));
+      }
+    }
+    List<Path> segments = waitForSegments(dir, ".gz");
+    Assert.assertTrue(segments.size() > 1);
+    StringBuilder actual = new StringBuilder();
+    for (Path segment : segments) {
+      Assert.assertTrue(Files.size(segment) > 0);
+      try (InputStream is = new GZIPInputStream(Files.newInputStream(segment))) {
+        actual.append(new String(readAll(is), StandardCharsets.UTF_8));
+      }
+    }
+    Assert.assertEquals(expected.toString(), actual.toString());
+  }
+
+  @Test
+  public void testAvroSegments() throws IOException {
+    Path dir = Files.createTempDirectory("mappedLogTest");
+    int nr = 2000;
+    try (MappedLogFileAppender appender = new MappedLogFileAppender(dir, "test", MappedLogFileAppender.Format.AVRO,
+            16384, MappedLogFileAppender.Compression.GZIP)) {
+      for (int i = 0; i < nr; i++) {
+        appender.append(new Slf4jLogRecordImpl("test", Level.INFO, "message {}", i));
+      }
+    }
+    List<Path> segments = listSegments(dir, ".avro");
+    Assert.assertTrue(segments.size() > 1);
+    int i = 0;
+    for (Path segment : segments) {
+      try (DataFileStream<LogRecord> stream = new DataFileStream<>(Files.newInputStream(segment),
+              new SpecificDatumReader<>(LogRecord.class))) {
+        for (LogRecord rec : stream) {
+          Assert.assertEquals("message {}", rec.getMsg());
+          Assert.assertEquals(Integer.toString(i++), rec.getMsgArgs().get(0).toString());
+        }
+      }
+    }
+    Assert.assertEquals(nr, i);
+  }
+
+  private static List<Path> waitForSegments(final Path dir, final String suffix)
+          throws IOException, InterruptedException {
+    // rotated segments are compressed asynchronously.
+    for (int i = 0; i < 100; i++) {
+      try (Stream<Path> files = Files.list(dir)) {
+        if (files.allMatch((p) -> p.toString().endsWith(suffix))) {
+          break;
+        }
+      }
+      Thread.sleep(50);
+    }
+    return listSegments(dir, suffix);
+  }
+
+  private static List<Path> listSegments(final Path dir, final String suffix) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      List<Path> result = files.filter((p) -> p.toString().endsWith(suffix)).collect(Collectors.toList());
+      // the segment sequence number defines the order.
+      result.sort((a, b) -> Integer.compare(segmentSeq(a), segmentSeq(b)));
+      return new ArrayList<>(result);
+    }
+  }
+
+  private static int segmentSeq(final Path segment) {
+    String[] parts = segment.getFileName().toString().split("\\.");
+    return Integer.parseInt(parts[2]);
+  }
+
+  private static byte[] readAll(final InputStream is) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte[] buff = new byte[4096];
+    int nr;
+    while ((nr = is.read(buff)) >= 0) {
+      bos.write(buff, 0, nr);
+    }
+    return bos.toByteArray();
+  }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log.index;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class BloomFilterTest {
+
+  @Test
+  public void testFalsePositiveRate() {
+    BloomFilter filter = BloomFilter.create(100000, 0.01);
+    for (int i = 0; i < 100000; i++) {
+      filter.add(BloomFilter.hash("in" + i));
+    }
+    for (int i = 0; i < 100000; i++) {
+      Assert.assertTrue(filter.mightContain(BloomFilter.hash("in" + i)));
+    }
+    int nrFalsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain(BloomFilter.hash("out" + i))) {
+        nrFalsePositives++;
+      }
+    }
+    Assert.assertTrue("false positives " + nrFalsePositives, nrFalsePositives < 1500);
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log.index;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.avro.LogRecord;
+import org.spf4j.log.Level;
+import org.spf4j.log.LogAttribute;
+import org.spf4j.log.LogPrinter;
+import org.spf4j.log.MappedLogFileAppender;
+import org.spf4j.log.Slf4jLogRecordImpl;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class LogSearchTest {
+
+  @Test
+  public void testSearchByTrace() throws IOException {
+    Path dir = Files.createTempDirectory("logSearchTest");
+    try (MappedLogFileAppender appender = new MappedLogFileAppender(dir, "test", MappedLogFileAppender.Format.AVRO,
+            16384, Long.MAX_VALUE, MappedLogFileAppender.Compression.NONE,
+            new LogPrinter(StandardCharsets.UTF_8), "test")) {
+      for (int i = 0; i < 5000; i++) {
+        appender.append(new Slf4jLogRecordImpl("test", i % 100 == 0 ? Level.WARN : Level.INFO, "message {}", i,
+                LogAttribute.traceId("tr" + (i % 50))));
+      }
+      appender.flush();
+      LogSearch search = new LogSearch(dir);
+      // the query end is exclusive, leave room for records written in the same millisecond.
+      Instant now = Instant.now().plusSeconds(1);
+      try (Stream<LogRecord> result = search.search(LogQuery.forTrace("tr7", now.minusSeconds(3600), now))) {
+        List<LogRecord> records = result.collect(Collectors.toList());
+        Assert.assertEquals(100, records.size());
+        Instant prev = Instant.MIN;
+        for (LogRecord rec : records) {
+          Assert.assertEquals("tr7", rec.getTrId());
+          Assert.assertFalse(rec.getTs().isBefore(prev));
+          prev = rec.getTs();
+        }
+      }
+      try (Stream<LogRecord> result = search.search(new LogQuery(now.minusSeconds(3600), now, Level.WARN,
+              null, null))) {
+        Assert.assertEquals(50, result.count());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.log.index;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.avro.LogLevel;
+import org.spf4j.base.avro.LogRecord;
+import org.spf4j.log.Level;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class LogSegmentIndexTest {
+
+  @Test
+  public void testIndexPruning() throws IOException {
+    LogSegmentIndex.Builder builder = new LogSegmentIndex.Builder();
+    for (int i = 0; i < 1000; i++) {
+      builder.add(record("tr" + i, i % 2 == 0 ? LogLevel.DEBUG : LogLevel.INFO,
+              Instant.ofEpochMilli(1000 + i), "org.spf4j.L" + (i % 10)));
+    }
+    Path file = Files.createTempFile("segment", ".avro.idx");
+    builder.build().write(file);
+    LogSegmentIndex index = LogSegmentIndex.read(file);
+    Assert.assertEquals(1000, index.getNrRecords());
+    Assert.assertEquals(1000, index.getMinTimeMillis());
+    Assert.assertEquals(1999, index.getMaxTimeMillis());
+    Assert.assertEquals(500, index.getNrRecords(LogLevel.INFO));
+    Assert.assertEquals(10, index.getLoggers().size());
+    Instant from = Instant.ofEpochMilli(0);
+    Instant to = Instant.ofEpochMilli(3000);
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertTrue(index.mightMatch(LogQuery.forTrace("tr" + i, from, to)));
+    }
+    int falsePositives = 0;
+    for (int i = 1000; i < 11000; i++) {
+      if (index.mightMatch(LogQuery.forTrace("tr" + i, from, to))) {
+        falsePositives++;
+      }
+    }
+    Assert.assertTrue("false positives " + falsePositives, falsePositives < 300);
+    Assert.assertFalse(index.mightMatch(LogQuery.forTrace("tr1", Instant.ofEpochMilli(2000), to)));
+    Assert.assertFalse(index.mightMatch(LogQuery.forTrace("tr1", from, Instant.ofEpochMilli(1000))));
+    Assert.assertFalse(index.mightMatch(new LogQuery(from, to, Level.WARN, null, null)));
+    Assert.assertTrue(index.mightMatch(new LogQuery(from, to, Level.INFO, null, "org.spf4j")));
+    Assert.assertFalse(index.mightMatch(new LogQuery(from, to, Level.INFO, null, "com.")));
+  }
+
+  private static LogRecord record(final String traceId, final LogLevel level, final Instant ts, final String logger) {
+    return new LogRecord("", traceId, level, ts, logger, "thread", "message", Collections.emptyList(),
+            Collections.emptyList(), Collections.emptyMap(), null);
+  }
+
+}
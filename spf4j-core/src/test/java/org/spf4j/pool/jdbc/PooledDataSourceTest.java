@@ -34,12 +34,18 @@ package org.spf4j.pool.jdbc;
 import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.h2.tools.Server;
 import org.junit.Assert;
 import org.junit.Test;
 import org.spf4j.recyclable.ObjectCreationException;
+import org.spf4j.recyclable.ObjectDisposeException;
 
 /**
  * @author Zoltan Farkas
@@ -63,4 +69,149 @@ public class PooledDataSourceTest {
     }
   }
 
+  @Test
+  public void testStatementCache()
+          throws SQLException, ObjectCreationException, ObjectDisposeException, InterruptedException {
+    PooledDataSource pds = new PooledDataSource(1, 1, new JdbcConnectionFactory("org.h2.Driver",
+            "jdbc:h2:mem:stmtCacheTest;DB_CLOSE_DELAY=-1", "sa", "sa"), 2, 0);
+    try {
+      try (Connection conn = pds.getConnection(); Statement stmt = conn.createStatement()) {
+        stmt.execute("CREATE TABLE T (ID INT PRIMARY KEY, NAME VARCHAR(32))");
+      }
+      Connection conn1;
+      Connection rawConn;
+      PreparedStatement rawInsert;
+      try (Connection conn = pds.getConnection()) {
+        conn1 = conn;
+        rawConn = conn.unwrap(Connection.class);
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO T VALUES (?, ?)")) {
+          Assert.assertSame(conn, stmt.getConnection());
+          rawInsert = stmt.unwrap(PreparedStatement.class);
+          stmt.setQueryTimeout(10);
+          stmt.setInt(1, 1);
+          stmt.setString(2, "a");
+          Assert.assertEquals(1, stmt.executeUpdate());
+        }
+      }
+      try (Connection conn = pds.getConnection()) {
+        Assert.assertNotSame(conn1, conn);
+        Assert.assertSame(rawConn, conn.unwrap(Connection.class));
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO T VALUES (?, ?)")) {
+          Assert.assertSame(rawInsert, stmt.unwrap(PreparedStatement.class));
+          Assert.assertEquals(0, stmt.getQueryTimeout());
+          stmt.setInt(1, 2);
+          stmt.setString(2, "b");
+          Assert.assertEquals(1, stmt.executeUpdate());
+          // same statement prepared while the cached one is in use.
+          try (PreparedStatement stmt2 = conn.prepareStatement("INSERT INTO T VALUES (?, ?)")) {
+            Assert.assertNotSame(rawInsert, stmt2.unwrap(PreparedStatement.class));
+          }
+        }
+        // evict the insert statement.
+        conn.prepareStatement("SELECT 1").close();
+        conn.prepareStatement("SELECT 2").close();
+        Assert.assertTrue(rawInsert.isClosed());
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM T");
+                ResultSet rs = stmt.executeQuery()) {
+          Assert.assertTrue(rs.next());
+          Assert.assertEquals(2, rs.getInt(1));
+        }
+      }
+      Assert.assertTrue(conn1.isClosed());
+      try {
+        conn1.prepareStatement("SELECT 1");
+        Assert.fail();
+      } catch (SQLException ex) {
+        // expected, connection has been returned to the pool.
+      }
+    } finally {
+      pds.close();
+    }
+  }
+
+  @Test
+  public void testStaleHandles()
+          throws SQLException, ObjectCreationException, ObjectDisposeException, InterruptedException {
+    PooledDataSource pds = new PooledDataSource(1, 1, new JdbcConnectionFactory("org.h2.Driver",
+            "jdbc:h2:mem:staleHandleTest;DB_CLOSE_DELAY=-1", "sa", "sa"), 2, 0);
+    try {
+      Connection conn1 = pds.getConnection();
+      conn1.close();
+      try (Connection conn2 = pds.getConnection()) {
+        // second close of a stale handle must not return the current borrower's connection.
+        conn1.close();
+        Assert.assertTrue(conn1.isClosed());
+        Assert.assertFalse(conn2.isClosed());
+        try {
+          pds.getConnection(100, TimeUnit.MILLISECONDS).close();
+          Assert.fail();
+        } catch (SQLTimeoutException ex) {
+          // expected, the only connection is still borrowed by conn2.
+        }
+        try {
+          conn1.createStatement();
+          Assert.fail();
+        } catch (SQLException ex) {
+          // expected
+        }
+        PreparedStatement stmt1 = conn2.prepareStatement("SELECT 1");
+        PreparedStatement raw1 = stmt1.unwrap(PreparedStatement.class);
+        stmt1.close();
+        try (PreparedStatement stmt2 = conn2.prepareStatement("SELECT 1")) {
+          Assert.assertSame(raw1, stmt2.unwrap(PreparedStatement.class));
+          stmt1.close();
+          Assert.assertTrue(stmt1.isClosed());
+          Assert.assertFalse(stmt2.isClosed());
+          try {
+            stmt1.executeQuery();
+            Assert.fail();
+          } catch (SQLException ex) {
+            // expected
+          }
+          try (ResultSet rs = stmt2.executeQuery()) {
+            Assert.assertTrue(rs.next());
+            Assert.assertEquals(1, rs.getInt(1));
+          }
+        }
+      }
+    } finally {
+      pds.close();
+    }
+  }
+
+  @Test
+  public void testResultSetLifecycle()
+          throws SQLException, ObjectCreationException, ObjectDisposeException, InterruptedException {
+    PooledDataSource pds = new PooledDataSource(1, 1, new JdbcConnectionFactory("org.h2.Driver",
+            "jdbc:h2:mem:resultSetTest;DB_CLOSE_DELAY=-1", "sa", "sa"), 2, 0);
+    try (Connection conn = pds.getConnection()) {
+      PreparedStatement stmt = conn.prepareStatement("SELECT 1");
+      ResultSet rs = stmt.executeQuery();
+      Assert.assertSame(stmt, rs.getStatement());
+      stmt.close();
+      // closing the statement lease closes its result sets.
+      Assert.assertTrue(rs.isClosed());
+      stmt = conn.prepareStatement("SELECT 1");
+      PreparedStatement raw = stmt.unwrap(PreparedStatement.class);
+      rs = stmt.executeQuery();
+      Assert.assertTrue(rs.next());
+      // typical cleanup via the result set returns the statement to the cache.
+      rs.getStatement().close();
+      Assert.assertTrue(rs.isClosed());
+      Assert.assertFalse(raw.isClosed());
+      // a cached statement closed via the raw statement is evicted.
+      stmt = conn.prepareStatement("SELECT 1");
+      Assert.assertSame(raw, stmt.unwrap(PreparedStatement.class));
+      raw.close();
+      stmt.close();
+      try (PreparedStatement stmt2 = conn.prepareStatement("SELECT 1"); ResultSet rs2 = stmt2.executeQuery()) {
+        Assert.assertNotSame(raw, stmt2.unwrap(PreparedStatement.class));
+        Assert.assertTrue(rs2.next());
+        Assert.assertEquals(1, rs2.getInt(1));
+      }
+    } finally {
+      pds.close();
+    }
+  }
+
 }
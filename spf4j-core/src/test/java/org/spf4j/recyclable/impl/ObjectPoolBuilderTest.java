@@ -214,6 +214,21 @@ public final class ObjectPoolBuilderTest {
     }
   }
 
+  @Test(timeout = 20000)
+  public void testPoolUseThreadAffine()
+          throws ObjectCreationException, ObjectBorrowException, InterruptedException,
+          TimeoutException, ObjectReturnException, ObjectDisposeException, ExecutionException {
+    final RecyclingSupplier<ExpensiveTestObject> pool =
+            new RecyclingSupplierBuilder<>(10, new ExpensiveTestObjectFactory())
+            .withMaintenance(DefaultScheduler.INSTANCE, 10, false).threadAffine().build();
+    runTest(pool, 0, 10000);
+    try {
+      pool.dispose();
+    } catch (ObjectDisposeException ex) {
+      Throwables.writeTo(ex, System.err, Throwables.PackageDetail.SHORT);
+    }
+  }
+
   @Test(timeout = 20000)
   public void testPoolUseWithMaintenance()
           throws ObjectCreationException, ObjectBorrowException, InterruptedException,
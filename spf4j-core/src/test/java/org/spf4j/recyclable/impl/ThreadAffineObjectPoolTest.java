@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.recyclable.impl;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.log.Level;
+import org.spf4j.recyclable.ObjectBorrowException;
+import org.spf4j.recyclable.RecyclingSupplier;
+import org.spf4j.test.log.LogAssert;
+import org.spf4j.test.log.TestLoggers;
+import org.spf4j.test.matchers.LogMatchers;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class ThreadAffineObjectPoolTest {
+
+  @Test
+  public void testLocalReuse() throws Exception {
+    CountingFactory factory = new CountingFactory();
+    RecyclingSupplier<Object> pool = new RecyclingSupplierBuilder<>(4, factory).threadAffine().build();
+    Object o1 = pool.get(1, TimeUnit.SECONDS);
+    pool.recycle(o1);
+    Object o2 = pool.get(1, TimeUnit.SECONDS);
+    Assert.assertSame(o1, o2);
+    Object o3 = pool.get(1, TimeUnit.SECONDS);
+    Assert.assertNotSame(o1, o3);
+    pool.recycle(o3);
+    pool.recycle(o2);
+    Assert.assertEquals(2, factory.created.get());
+    pool.dispose();
+    Assert.assertEquals(2, factory.disposed.get());
+  }
+
+  @Test
+  public void testExhaustion() throws Exception {
+    RecyclingSupplier<Object> pool = new RecyclingSupplierBuilder<>(1, new CountingFactory())
+            .threadAffine().build();
+    Object o1 = pool.get(1, TimeUnit.SECONDS);
+    Assert.assertNull(pool.tryGet(10, TimeUnit.MILLISECONDS));
+    ExecutorService exec = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> fut = exec.submit(() -> pool.get(10, TimeUnit.SECONDS));
+      Thread.sleep(50);
+      pool.recycle(o1);
+      Object o2 = fut.get(10, TimeUnit.SECONDS);
+      Assert.assertSame(o1, o2);
+      // recycled by a different thread than the borrower.
+      pool.recycle(o2);
+      Assert.assertSame(o1, pool.get(1, TimeUnit.SECONDS));
+      exec.submit(() -> pool.recycle(o1)).get();
+      Assert.assertSame(o1, pool.get(1, TimeUnit.SECONDS));
+      pool.recycle(o1);
+    } finally {
+      exec.shutdown();
+    }
+    pool.dispose();
+  }
+
+  @Test
+  public void testSteal() throws Exception {
+    CountingFactory factory = new CountingFactory();
+    RecyclingSupplier<Object> pool = new RecyclingSupplierBuilder<>(2, factory).threadAffine().build();
+    Object o1 = pool.get(1, TimeUnit.SECONDS);
+    pool.recycle(o1);
+    ExecutorService exec = Executors.newSingleThreadExecutor();
+    try {
+      Object o2 = exec.submit(() -> pool.get(1, TimeUnit.SECONDS)).get();
+      Assert.assertSame(o1, o2);
+      Assert.assertEquals(1, factory.created.get());
+      pool.recycle(o2);
+    } finally {
+      exec.shutdown();
+    }
+    pool.dispose();
+  }
+
+  @Test
+  public void testInvalidObjectRetired() throws Exception {
+    CountingFactory factory = new CountingFactory();
+    RecyclingSupplier<Object> pool = new RecyclingSupplierBuilder<>(1, factory).threadAffine().build();
+    Object o1 = pool.get(1, TimeUnit.SECONDS);
+    LogAssert expect = TestLoggers.sys().expect(ThreadAffineObjectPool.class.getName(), Level.WARN,
+            LogMatchers.hasFormat("Validation of {} failed, detail {}"));
+    pool.recycle(o1, new IOException("broken"));
+    expect.assertObservation();
+    Assert.assertEquals(1, factory.disposed.get());
+    Object o2 = pool.get(1, TimeUnit.SECONDS);
+    Assert.assertNotSame(o1, o2);
+    pool.recycle(o2, new RuntimeException("not fatal"));
+    Assert.assertSame(o2, pool.get(1, TimeUnit.SECONDS));
+    pool.recycle(o2);
+    pool.dispose();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRecycleNotBorrowed() throws Exception {
+    RecyclingSupplier<Object> pool = new RecyclingSupplierBuilder<>(1, new CountingFactory())
+            .threadAffine().build();
+    pool.recycle(new Object());
+  }
+
+  @Test
+  public void testDispose() throws Exception {
+    CountingFactory factory = new CountingFactory();
+    RecyclingSupplier<Object> pool = new RecyclingSupplierBuilder<>(2, factory)
+            .withInitialSize(1).threadAffine().build();
+    Object o1 = pool.get(1, TimeUnit.SECONDS);
+    Assert.assertFalse(pool.tryDispose(10));
+    try {
+      pool.get(1, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ObjectBorrowException ex) {
+      // expected
+    }
+    pool.recycle(o1);
+    Assert.assertTrue(pool.tryDispose(1000));
+    Assert.assertEquals(1, factory.created.get());
+    Assert.assertEquals(1, factory.disposed.get());
+  }
+
+  @Test
+  public void testValidateIdleDoesNotGrowFreeList() throws Exception {
+    CountingFactory factory = new CountingFactory();
+    ThreadAffineObjectPool<Object> pool = new ThreadAffineObjectPool<>(4, 4, factory, false);
+    Assert.assertEquals(4, pool.freeListSize());
+    for (int i = 0; i < 1000; i++) {
+      pool.validateIdle();
+    }
+    Assert.assertEquals(4, pool.freeListSize());
+    Object o1 = pool.get(1, TimeUnit.SECONDS);
+    pool.recycle(o1);
+    Assert.assertEquals(3, pool.freeListSize());
+    // the locally cached object is moved to the free list.
+    for (int i = 0; i < 1000; i++) {
+      pool.validateIdle();
+    }
+    Assert.assertEquals(4, pool.freeListSize());
+    Object o2 = pool.get(1, TimeUnit.SECONDS);
+    Assert.assertEquals(3, pool.freeListSize());
+    pool.recycle(o2);
+    Assert.assertTrue(pool.tryDispose(1000));
+    Assert.assertEquals(4, factory.created.get());
+    Assert.assertEquals(4, factory.disposed.get());
+  }
+
+  @Test(timeout = 30000)
+  public void testConcurrentUse() throws Exception {
+    CountingFactory factory = new CountingFactory();
+    RecyclingSupplier<Object> pool = new RecyclingSupplierBuilder<>(4, factory).threadAffine().build();
+    ConcurrentHashMap<Object, Thread> inUse = new ConcurrentHashMap<>();
+    ExecutorService exec = Executors.newFixedThreadPool(8);
+    try {
+      Future<?>[] futures = new Future[8];
+      for (int t = 0; t < futures.length; t++) {
+        futures[t] = exec.submit(() -> {
+          for (int i = 0; i < 20000; i++) {
+            Object o = pool.get(10, TimeUnit.SECONDS);
+            if (inUse.putIfAbsent(o, Thread.currentThread()) != null) {
+              throw new IllegalStateException("Object borrowed twice " + o);
+            }
+            inUse.remove(o);
+            pool.recycle(o);
+          }
+          return null;
+        });
+      }
+      for (Future<?> fut : futures) {
+        fut.get();
+      }
+    } finally {
+      exec.shutdown();
+    }
+    Assert.assertTrue(factory.created.get() <= 4);
+    pool.dispose();
+    Assert.assertEquals(factory.created.get(), factory.disposed.get());
+  }
+
+  private static final class CountingFactory implements RecyclingSupplier.Factory<Object> {
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final AtomicInteger disposed = new AtomicInteger();
+
+    @Override
+    public Object create() {
+      return "obj" + created.incrementAndGet();
+    }
+
+    @Override
+    public void dispose(final Object object) {
+      disposed.incrementAndGet();
+    }
+
+    @Override
+    public boolean validate(final Object object, final Exception e) {
+      return !(e instanceof IOException);
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.reflect;
+
+import com.google.common.reflect.TypeToken;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class CachingTypeMapWrapperTest {
+
+  @Test
+  public void testInvalidation() {
+    CachingTypeMapWrapper<String> registry = new CachingTypeMapWrapper<>(new GraphTypeMap());
+    registry.safePut(Object.class, "OBJECT");
+    Assert.assertEquals("OBJECT", registry.get(ArrayList.class));
+    Assert.assertEquals("OBJECT", registry.get(ArrayList.class));
+    registry.safePut(List.class, "LIST");
+    Assert.assertEquals("LIST", registry.get(ArrayList.class));
+    registry.replace(List.class, (h) -> h + "2");
+    Assert.assertEquals("LIST2", registry.get(ArrayList.class));
+    Assert.assertTrue(registry.remove(List.class));
+    Assert.assertEquals("OBJECT", registry.get(ArrayList.class));
+    Assert.assertEquals("OBJECT", registry.getExact(Object.class));
+  }
+
+  @Test
+  public void testParameterizedTypes() {
+    CachingTypeMapWrapper<String> registry = new CachingTypeMapWrapper<>(new GraphTypeMap());
+    registry.safePut(Object.class, "OBJECT");
+    registry.safePut(new TypeToken<Supplier<? extends CharSequence>>() { }.getType(), "CHAR_SUPPLIER");
+    Type strSupplier = new TypeToken<Supplier<String>>() { }.getType();
+    Type intSupplier = new TypeToken<Supplier<Integer>>() { }.getType();
+    Assert.assertEquals("CHAR_SUPPLIER", registry.get(strSupplier));
+    Assert.assertEquals("OBJECT", registry.get(intSupplier));
+    Assert.assertEquals("OBJECT", registry.get(Supplier.class));
+    Assert.assertEquals("CHAR_SUPPLIER", registry.get(new TypeToken<Supplier<String>>() { }.getType()));
+    Type listArray = new TypeToken<List<String>[]>() { }.getType();
+    Assert.assertEquals("OBJECT", registry.get(listArray));
+    registry.safePut(Object[].class, "ARRAY");
+    Assert.assertEquals("ARRAY", registry.get(listArray));
+  }
+
+  @Test
+  public void testSupplierWrapper() {
+    CachingTypeMapSupplierWrapper<String, RuntimeException> registry
+            = new CachingTypeMapSupplierWrapper<>(new GraphTypeMap(), RuntimeException.class);
+    registry.safePut(Object.class, (t) -> "OBJECT:" + t.getTypeName());
+    Assert.assertNull(registry.getIfPresent(Map.class));
+    Assert.assertEquals("OBJECT:java.util.Map", registry.get(Map.class));
+    Assert.assertEquals("OBJECT:java.util.Map", registry.getIfPresent(Map.class));
+    registry.safePut(Map.class, (t) -> "MAP:" + t.getTypeName());
+    Assert.assertNull(registry.getIfPresent(Map.class));
+    Type mapType = new TypeToken<Map<String, Integer>>() { }.getType();
+    Assert.assertEquals("MAP:" + mapType.getTypeName(), registry.get(mapType));
+    Assert.assertEquals("MAP:" + mapType.getTypeName(), registry.getIfPresent(mapType));
+  }
+
+}
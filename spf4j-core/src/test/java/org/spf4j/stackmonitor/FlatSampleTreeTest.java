@@ -0,0 +1,189 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.stackmonitor;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.base.Methods;
+import org.spf4j.base.Pair;
+import org.spf4j.base.avro.Method;
+
+/**
+ * @author Zoltan Farkas
+ */
+public class FlatSampleTreeTest {
+
+  private static List<StackTraceElement[]> randomStacks(final int nrSamples, final int maxDepth, final long seed) {
+    Random rnd = new Random(seed);
+    List<StackTraceElement[]> result = new ArrayList<>(nrSamples);
+    for (int i = 0; i < nrSamples; i++) {
+      int depth = 1 + rnd.nextInt(maxDepth);
+      StackTraceElement[] st = new StackTraceElement[depth];
+      for (int j = 0; j < depth; j++) {
+        int c = rnd.nextInt(3 + j);
+        st[j] = new StackTraceElement("org.test.C" + c, "m" + (c % 3), "C.java", 1);
+      }
+      result.add(st);
+    }
+    return result;
+  }
+
+  @Test
+  public void testCollect() {
+    SampleNode expected = new SampleNode();
+    FlatSampleTree tree = new FlatSampleTree(16);
+    Assert.assertTrue(tree.isEmpty());
+    Assert.assertNull(tree.toSampleNode());
+    for (StackTraceElement[] st : randomStacks(1000, 40, 5)) {
+      SampleNode.addToSampleNode(expected, st);
+      tree.addSample(st);
+    }
+    Assert.assertEquals(expected.getNrNodes(), tree.size());
+    Assert.assertEquals(expected, tree.toSampleNode());
+    Assert.assertEquals(1000, tree.getSampleCount(tree.getRoot()));
+    int child = tree.getChild(tree.getRoot(), Methods.getMethod("org.test.C0", "m0"));
+    Assert.assertEquals(expected.get(Methods.getMethod("org.test.C0", "m0")).getSampleCount(),
+            tree.getSampleCount(child));
+    Assert.assertEquals(tree.getRoot(), tree.getParent(child));
+    Assert.assertEquals(FlatSampleTree.NONE, tree.getChild(child, Methods.getMethod("org.test.X", "m0")));
+    tree.reset();
+    Assert.assertTrue(tree.isEmpty());
+    Assert.assertEquals(1, tree.size());
+    tree.addSample(new StackTraceElement[] {new StackTraceElement("C1", "m1", "C1.java", 10)});
+    Assert.assertEquals(2, tree.size());
+    Assert.assertEquals(Methods.getMethod("C1", "m1"), tree.getMethod(tree.getFirstChild(tree.getRoot())));
+    Assert.assertEquals(FlatSampleTree.NONE, tree.getNextSibling(tree.getFirstChild(tree.getRoot())));
+  }
+
+  @Test
+  public void testMerge() {
+    List<StackTraceElement[]> stacks1 = randomStacks(500, 30, 7);
+    List<StackTraceElement[]> stacks2 = randomStacks(500, 30, 11);
+    SampleNode expected = new SampleNode();
+    FlatSampleTree tree1 = new FlatSampleTree();
+    for (StackTraceElement[] st : stacks1) {
+      SampleNode.addToSampleNode(expected, st);
+      tree1.addSample(st);
+    }
+    FlatSampleTree tree2 = new FlatSampleTree();
+    SampleNode node2 = new SampleNode();
+    for (StackTraceElement[] st : stacks2) {
+      SampleNode.addToSampleNode(expected, st);
+      SampleNode.addToSampleNode(node2, st);
+      tree2.addSample(st);
+    }
+    FlatSampleTree merged = new FlatSampleTree();
+    merged.add(tree1);
+    merged.add(tree2);
+    Assert.assertEquals(expected, merged.toSampleNode());
+    tree1.add(node2);
+    Assert.assertEquals(expected, tree1.toSampleNode());
+  }
+
+  private static SampleNode randomTree(final int nrSamples, final int maxDepth) {
+    Random rnd = new Random(5);
+    SampleNode root = new SampleNode();
+    for (int i = 0; i < nrSamples; i++) {
+      int depth = 1 + rnd.nextInt(maxDepth);
+      StackTraceElement[] st = new StackTraceElement[depth];
+      for (int j = 0; j < depth; j++) {
+        int c = rnd.nextInt(3 + j);
+        st[j] = new StackTraceElement("org.test.C" + c, "m" + (c % 3), "C.java", 1);
+      }
+      SampleNode.addToSampleNode(root, st);
+    }
+    return root;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    SampleNode node = randomTree(500, 30);
+    StringBuilder sb = new StringBuilder();
+    node.writeJsonTo(sb);
+    FlatSampleTree tree = FlatSampleTree.parse(new StringReader(sb.toString()));
+    Assert.assertEquals(node.getNrNodes(), tree.size());
+    Pair<Method, SampleNode> full = tree.toSampleNode(tree.getRoot(), Integer.MAX_VALUE);
+    Assert.assertEquals(Methods.ROOT, full.getFirst());
+    Assert.assertEquals(node, full.getSecond());
+    StringBuilder d3 = new StringBuilder();
+    node.writeD3JsonTo(d3);
+    FlatSampleTree tree2 = FlatSampleTree.parseD3Json(new StringReader(d3.toString()));
+    Assert.assertEquals(node, tree2.toSampleNode());
+  }
+
+  @Test
+  public void testPartialLoad() throws IOException {
+    SampleNode node = randomTree(500, 30);
+    StringBuilder sb = new StringBuilder();
+    node.writeJsonTo(sb);
+    MethodDictionary dictionary = new MethodDictionary();
+    FlatSampleTree tree = FlatSampleTree.parse(new StringReader(sb.toString()), dictionary, 2);
+    Assert.assertEquals(1 + node.getSubNodes().size(), tree.size());
+    SampleNode top = tree.toSampleNode();
+    Assert.assertEquals(node.getSampleCount(), top.getSampleCount());
+    node.getSubNodes().forEachEntry((m, n) -> {
+      Assert.assertEquals(n.getSampleCount(), top.getSubNodes().get(m).getSampleCount());
+      Assert.assertTrue(top.getSubNodes().get(m).getSubNodes().isEmpty());
+      return true;
+    });
+    // methods are interned.
+    FlatSampleTree tree2 = FlatSampleTree.parse(new StringReader(sb.toString()), dictionary, 3);
+    Assert.assertSame(tree.getMethod(tree.getFirstChild(0)), tree2.getMethod(tree2.getFirstChild(0)));
+    // sub tree.
+    FlatSampleTree full = FlatSampleTree.parse(new StringReader(sb.toString()));
+    Method m = Methods.getMethod("org.test.C4", "m1");
+    int n = full.find(m::equals);
+    Assert.assertNotEquals(FlatSampleTree.NONE, n);
+    Pair<Method, SampleNode> sub = full.toSampleNode(n, Integer.MAX_VALUE);
+    Assert.assertEquals(m, sub.getFirst());
+    Assert.assertEquals(full.getSampleCount(n), sub.getSecond().getSampleCount());
+    SampleNode parent = full.toSampleNode(full.getParent(n), 2).getSecond();
+    Assert.assertEquals(full.getSampleCount(n), parent.getSubNodes().get(m).getSampleCount());
+  }
+
+  @Test
+  public void testDeepTree() throws IOException {
+    int depth = 20000;
+    StackTraceElement[] st = new StackTraceElement[depth];
+    for (int j = 0; j < depth; j++) {
+      st[j] = new StackTraceElement("org.test.C" + j, "m", "C.java", 1);
+    }
+    SampleNode node = SampleNode.createSampleNode(st);
+    StringBuilder sb = new StringBuilder();
+    node.writeJsonTo(sb);
+    Assert.assertEquals(depth + 1, FlatSampleTree.parse(new StringReader(sb.toString())).size());
+    Assert.assertEquals(depth + 1, depth(SampleNode.parse(new StringReader(sb.toString())).getSecond()));
+    sb.setLength(0);
+    node.writeD3JsonTo(sb);
+    Assert.assertEquals(depth + 1, depth(SampleNode.parseD3Json(new StringReader(sb.toString())).getSecond()));
+  }
+
+  private static int depth(final SampleNode node) {
+    int result = 1;
+    SampleNode n = node;
+    while (!n.getSubNodes().isEmpty()) {
+      n = n.getSubNodes().values().iterator().next();
+      result++;
+    }
+    return result;
+  }
+
+}
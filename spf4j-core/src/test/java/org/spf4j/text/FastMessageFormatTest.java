@@ -58,6 +58,18 @@ public class FastMessageFormatTest {
     Assert.assertEquals("a, b, c, d, e", sb.toString());
   }
 
+  @Test
+  public void testCachedInstance() throws IOException {
+    MessageFormat format = MessageFormat.getInstance("pre {1}, {0}, {2,number,#.#} suf", java.util.Locale.US);
+    MessageFormat format2 = MessageFormat.getInstance("pre {1}, {0}, {2,number,#.#} suf", java.util.Locale.US);
+    Assert.assertNotSame(format, format2);
+    Assert.assertEquals(format, format2);
+    StringBuilder sb = new StringBuilder();
+    format2.format(new Object[]{"a", "b", 1.25}, sb, null);
+    Assert.assertEquals("pre b, a, 1.2 suf", sb.toString());
+    Assert.assertEquals("x a", MessageFormat.format("x {0}", "a"));
+  }
+
   @Test
   public void testFormatter2() throws IOException {
     StringBuilder sb = new StringBuilder();
@@ -0,0 +1,7 @@
+
+CREATE TABLE SEQUENCES (
+  SEQUENCE_NAME VARCHAR(255) NOT NULL PRIMARY KEY,
+  NEXT_VALUE BIGINT NOT NULL,
+  LAST_UPDATED_BY VARCHAR(255) NOT NULL,
+  LAST_UPDATED_AT BIGINT NOT NULL
+);
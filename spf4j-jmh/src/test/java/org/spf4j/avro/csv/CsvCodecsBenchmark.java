@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.avro.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.util.Utf8;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spf4j.io.csv.CharSeparatedValues;
+import org.spf4j.io.csv.CsvParseException;
+
+/**
+ * Compares the schema specialized FastCsvDecoder with the grammar based CsvDecoder, the CsvEncoder
+ * and the avro binary decoder, decoding/encoding the same records.
+ *
+ * run with: java -cp [test classpath] org.openjdk.jmh.Main CsvCodecsBenchmark
+ *
+ * @author Zoltan Farkas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CsvCodecsBenchmark {
+
+  private static final Schema ROW_SCHEMA = SchemaBuilder.record("BenchRow").fields()
+            .requiredBoolean("boolField")
+            .requiredInt("intField")
+            .requiredLong("longField")
+            .requiredString("stringField")
+            .requiredDouble("doubleField")
+            .requiredFloat("floatField")
+            .optionalString("nullableString")
+            .endRecord();
+
+  private static final Schema CSV_SCHEMA = Schema.createArray(ROW_SCHEMA);
+
+  @Param({"1000"})
+  private int nrRows;
+
+  private List<GenericRecord> records;
+
+  private String csv;
+
+  private byte[] binary;
+
+  private GenericDatumReader<List<GenericRecord>> reader;
+
+  private GenericDatumWriter<List<GenericRecord>> writer;
+
+  @Setup
+  public void setup() throws IOException {
+    records = new ArrayList<>(nrRows);
+    for (int i = 0; i < nrRows; i++) {
+      GenericRecord rec = new GenericData.Record(ROW_SCHEMA);
+      rec.put("boolField", i % 2 == 0);
+      rec.put("intField", i - 500);
+      rec.put("longField", i * 1000000007L);
+      rec.put("stringField", new Utf8("some text " + i));
+      rec.put("doubleField", Math.PI * i);
+      rec.put("floatField", i / 3f);
+      rec.put("nullableString", i % 3 == 0 ? null : new Utf8("nstr" + i));
+      records.add(rec);
+    }
+    reader = new GenericDatumReader<>(CSV_SCHEMA);
+    writer = new GenericDatumWriter<>(CSV_SCHEMA);
+    csv = csvEncode();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(nrRows * 64);
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(bos, null);
+    writer.write(records, encoder);
+    encoder.flush();
+    binary = bos.toByteArray();
+  }
+
+  @Benchmark
+  public List<GenericRecord> fastCsvDecode() throws IOException {
+    FastCsvDecoder decoder = new FastCsvDecoder(new StringReader(csv), CSV_SCHEMA);
+    decoder.skipHeader();
+    return reader.read(null, decoder);
+  }
+
+  @Benchmark
+  public List<GenericRecord> csvDecode() throws IOException, CsvParseException {
+    CsvDecoder decoder = new CsvDecoder(new CharSeparatedValues(',').reader(new StringReader(csv)), CSV_SCHEMA);
+    decoder.skipHeader();
+    return reader.read(null, decoder);
+  }
+
+  @Benchmark
+  public List<GenericRecord> binaryDecode() throws IOException {
+    return reader.read(null, DecoderFactory.get().binaryDecoder(binary, null));
+  }
+
+  @Benchmark
+  public String csvEncode() throws IOException {
+    StringWriter writeTo = new StringWriter(nrRows * 64);
+    CsvEncoder encoder = new CsvEncoder(new CharSeparatedValues(',').writer(writeTo), CSV_SCHEMA);
+    encoder.writeHeader();
+    writer.write(records, encoder);
+    encoder.flush();
+    return writeTo.toString();
+  }
+
+}
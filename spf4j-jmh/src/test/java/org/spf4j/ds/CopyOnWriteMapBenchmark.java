@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Read and update burst costs of CopyOnWritePersistentMap vs CopyOnWriteMap and ConcurrentHashMap:
+ * point reads of a stable map, a burst of 100 updates, and a burst of 100 updates followed by 2 reads per key.
+ *
+ * run with: java -cp [test classpath] org.openjdk.jmh.Main CopyOnWriteMapBenchmark
+ *
+ * @author Zoltan Farkas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CopyOnWriteMapBenchmark {
+
+  private static final int BURST_SIZE = 100;
+
+  @Param({"cowPersistent", "cow", "chm"})
+  private String mapType;
+
+  @Param({"10000"})
+  private int nrKeys;
+
+  private String[] keys;
+
+  /**
+   * the keys in a random order, reads in insertion order would favor the maps whose nodes were allocated in that order.
+   */
+  private String[] readKeys;
+
+  private Map<String, Integer> map;
+
+  private int idx;
+
+  @Setup
+  public void setup() {
+    keys = new String[nrKeys];
+    for (int i = 0; i < nrKeys; i++) {
+      keys[i] = "key" + i;
+    }
+    readKeys = keys.clone();
+    Random rnd = new Random(42);
+    for (int i = nrKeys - 1; i > 0; i--) {
+      int j = rnd.nextInt(i + 1);
+      String tmp = readKeys[i];
+      readKeys[i] = readKeys[j];
+      readKeys[j] = tmp;
+    }
+    switch (mapType) {
+      case "cowPersistent":
+        map = new CopyOnWritePersistentMap<>();
+        break;
+      case "cow":
+        map = new CopyOnWriteMap<>();
+        break;
+      case "chm":
+        map = new ConcurrentHashMap<>();
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported map type " + mapType);
+    }
+    for (int i = 0; i < nrKeys; i++) {
+      map.put(keys[i], i);
+    }
+    idx = 0;
+  }
+
+  @Benchmark
+  public Integer get() {
+    int i = idx;
+    idx = i + 1 == nrKeys ? 0 : i + 1;
+    return map.get(readKeys[i]);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void updateBurst() {
+    int i = idx;
+    for (int j = 0; j < BURST_SIZE; j++) {
+      map.put(keys[i], j);
+      i = i + 1 == nrKeys ? 0 : i + 1;
+    }
+    idx = i;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void updateBurstThenRead(final Blackhole bh) {
+    updateBurst();
+    for (int r = 0; r < 2; r++) {
+      for (String key : readKeys) {
+        bh.consume(map.get(key));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.ds;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Build, range search and k nearest neighbour query costs of PackedRTree (STR bulk loaded) vs RTree
+ * (one at a time inserts), over random rectangles in a 1000 x 1000 area.
+ *
+ * run with: java -cp [test classpath] org.openjdk.jmh.Main RTreeBenchmark
+ *
+ * @author Zoltan Farkas
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RTreeBenchmark {
+
+  private static final int NR_QUERIES = 1024;
+
+  @Param({"100000"})
+  private int nrEntries;
+
+  private float[][] coords;
+
+  private float[][] dimensions;
+
+  private float[][] queryCoords;
+
+  private float[][] queryDimensions;
+
+  private PackedRTree<Integer> packedTree;
+
+  private RTree<Integer> tree;
+
+  private int queryIdx;
+
+  @Setup
+  public void setup() {
+    Random rnd = new Random(42);
+    coords = new float[nrEntries][];
+    dimensions = new float[nrEntries][];
+    for (int i = 0; i < nrEntries; i++) {
+      coords[i] = new float[] {rnd.nextFloat() * 1000, rnd.nextFloat() * 1000};
+      dimensions[i] = new float[] {rnd.nextFloat() * 2, rnd.nextFloat() * 2};
+    }
+    queryCoords = new float[NR_QUERIES][];
+    queryDimensions = new float[NR_QUERIES][];
+    for (int i = 0; i < NR_QUERIES; i++) {
+      queryCoords[i] = new float[] {rnd.nextFloat() * 1000, rnd.nextFloat() * 1000};
+      queryDimensions[i] = new float[] {rnd.nextFloat() * 20, rnd.nextFloat() * 20};
+    }
+    packedTree = buildPacked();
+    tree = buildRTree();
+    queryIdx = 0;
+  }
+
+  @Benchmark
+  public PackedRTree<Integer> buildPacked() {
+    PackedRTree.Builder<Integer> builder = PackedRTree.newBuilder(2);
+    for (int i = 0; i < nrEntries; i++) {
+      builder.add(coords[i], dimensions[i], i);
+    }
+    return builder.build(false);
+  }
+
+  @Benchmark
+  public PackedRTree<Integer> buildPackedParallel() {
+    PackedRTree.Builder<Integer> builder = PackedRTree.newBuilder(2);
+    for (int i = 0; i < nrEntries; i++) {
+      builder.add(coords[i], dimensions[i], i);
+    }
+    return builder.build(true);
+  }
+
+  @Benchmark
+  public RTree<Integer> buildRTree() {
+    RTree<Integer> result = new RTree<>(2);
+    for (int i = 0; i < nrEntries; i++) {
+      result.insert(coords[i], dimensions[i], i);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public void rangeSearchPacked(final Blackhole bh) {
+    int q = nextQuery();
+    packedTree.searchIndexes(queryCoords[q], queryDimensions[q], bh::consume);
+  }
+
+  @Benchmark
+  public void rangeSearchRTree(final Blackhole bh) {
+    int q = nextQuery();
+    tree.search(queryCoords[q], queryDimensions[q], bh::consume);
+  }
+
+  @Benchmark
+  public void nearest10Packed(final Blackhole bh) {
+    packedTree.nearestIndexes(queryCoords[nextQuery()], 10, bh::consume);
+  }
+
+  private int nextQuery() {
+    int q = queryIdx;
+    queryIdx = (q + 1) & (NR_QUERIES - 1);
+    return q;
+  }
+
+}
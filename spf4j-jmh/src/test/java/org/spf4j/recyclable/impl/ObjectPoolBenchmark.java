@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 SPF4J.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.recyclable.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spf4j.recyclable.ObjectBorrowException;
+import org.spf4j.recyclable.ObjectCreationException;
+import org.spf4j.recyclable.ObjectDisposeException;
+import org.spf4j.recyclable.RecyclingSupplier;
+
+/**
+ * Borrow/recycle cost of the pools built by RecyclingSupplierBuilder:
+ * the default (ScalableObjectPool) and the thread affine (ThreadAffineObjectPool) pool,
+ * uncontended and with 8 threads sharing a pool of 16 objects.
+ *
+ * run with: java -cp [test classpath] org.openjdk.jmh.Main ObjectPoolBenchmark
+ *
+ * @author Zoltan Farkas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ObjectPoolBenchmark {
+
+  @Param({"scalable", "threadAffine"})
+  private String poolType;
+
+  private RecyclingSupplier<Object> pool;
+
+  @Setup
+  public void setup() throws ObjectCreationException {
+    RecyclingSupplierBuilder<Object> builder = new RecyclingSupplierBuilder<>(16, new ObjectFactory());
+    if ("threadAffine".equals(poolType)) {
+      builder.threadAffine();
+    }
+    pool = builder.build();
+  }
+
+  @TearDown
+  public void tearDown() throws ObjectDisposeException, InterruptedException {
+    pool.dispose();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Object borrowRecycle()
+          throws ObjectCreationException, ObjectBorrowException, InterruptedException, TimeoutException {
+    Object obj = pool.get();
+    pool.recycle(obj);
+    return obj;
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Object borrowRecycleContended()
+          throws ObjectCreationException, ObjectBorrowException, InterruptedException, TimeoutException {
+    Object obj = pool.get();
+    pool.recycle(obj);
+    return obj;
+  }
+
+  private static final class ObjectFactory implements RecyclingSupplier.Factory<Object> {
+
+    @Override
+    public Object create() {
+      return new Object();
+    }
+
+    @Override
+    public void dispose(final Object object) {
+      // nothing to dispose.
+    }
+
+    @Override
+    public boolean validate(final Object object, final Exception e) {
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      return "ObjectFactory{}";
+    }
+  }
+
+}
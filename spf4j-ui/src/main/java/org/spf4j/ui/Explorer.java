@@ -52,8 +52,8 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.text.DefaultEditorKit;
 import org.spf4j.base.AbstractRunnable;
-import org.spf4j.base.Pair;
-import org.spf4j.base.avro.Method;
+import org.spf4j.stackmonitor.FlatSampleTree;
+import org.spf4j.stackmonitor.MethodDictionary;
 import org.spf4j.stackmonitor.SampleNode;
 import org.spf4j.stackmonitor.Sampler;
 
@@ -66,6 +66,11 @@ public class Explorer extends javax.swing.JFrame {
 
   private static final long serialVersionUID = 1L;
 
+  /**
+   * the maximum number of stack levels loaded from json profiles.
+   */
+  private static final int MAX_PROFILE_DEPTH = Integer.getInteger("spf4j.ui.maxProfileDepth", 1024);
+
   private File folder;
 
   private Sampler sampler;
@@ -401,17 +406,11 @@ public class Explorer extends javax.swing.JFrame {
       Instant now = Instant.now();
       return new MultiStackSampleSupplier(now, now, loadLabeledDumps);
     } else if (Spf4jFileFilter.D3_JSON.accept(file)) {
-      try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
-        Pair<Method, SampleNode> parse = SampleNode.parseD3Json(br);
-        Instant now = Instant.now();
-        return new OneStackSampleSupplier(now, now, parse.getSecond());
-      }
+      Instant now = Instant.now();
+      return new OneStackSampleSupplier(now, now, loadJsonProfile(file, true));
     } else if (Spf4jFileFilter.SPF4J_JSON.accept(file)) {
-      try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
-        Pair<Method, SampleNode> parse = SampleNode.parse(br);
-        Instant now = Instant.now();
-        return new OneStackSampleSupplier(now, now, parse.getSecond());
-      }
+      Instant now = Instant.now();
+      return new OneStackSampleSupplier(now, now, loadJsonProfile(file, false));
     } else if (Spf4jFileFilter.PROFILE_AVRO.accept(file)) {
       return new AvroStackSampleSupplier(file.toPath());
     } else {
@@ -419,6 +418,18 @@ public class Explorer extends javax.swing.JFrame {
     }
   }
 
+  /**
+   * Load a json profile via a FlatSampleTree, only the top MAX_PROFILE_DEPTH levels are loaded,
+   * the samples of the deeper levels are accounted in their ancestors.
+   */
+  private static SampleNode loadJsonProfile(final File file, final boolean d3) throws IOException {
+    try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      FlatSampleTree tree = d3
+              ? FlatSampleTree.parseD3Json(br, new MethodDictionary(), MAX_PROFILE_DEPTH)
+              : FlatSampleTree.parse(br, new MethodDictionary(), MAX_PROFILE_DEPTH);
+      return tree.toSampleNode(tree.getRoot(), Integer.MAX_VALUE).getSecond();
+    }
+  }
 
   private void openFile(final File file) throws IOException {
     String fileName = file.getName();
@@ -442,15 +453,9 @@ public class Explorer extends javax.swing.JFrame {
       Map<String, SampleNode> loadLabeledDumps = org.spf4j.ssdump2.Converter.loadLabeledDumps(file);
       setFrames(loadLabeledDumps, fileName);
     } else if (Spf4jFileFilter.D3_JSON.accept(file)) {
-      try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
-        Pair<Method, SampleNode> parse = SampleNode.parseD3Json(br);
-        setFrames(parse.getSecond(), fileName);
-      }
+      setFrames(loadJsonProfile(file, true), fileName);
     } else if (Spf4jFileFilter.SPF4J_JSON.accept(file)) {
-      try (BufferedReader br = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
-        Pair<Method, SampleNode> parse = SampleNode.parse(br);
-        setFrames(parse.getSecond(), fileName);
-      }
+      setFrames(loadJsonProfile(file, false), fileName);
     } else if (Spf4jFileFilter.PROFILE_AVRO.accept(file)) {
       setFrames(new AvroStackSampleSupplier(file.toPath()), fileName);
     }else {
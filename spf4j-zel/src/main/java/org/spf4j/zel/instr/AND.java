@@ -48,9 +48,14 @@ public final class AND extends Instruction {
   @Override
   public int execute(final ExecutionContext context)
           throws SuspendedException, ExecutionException {
-    final Object[] vals = context.tuple();
-    context.popSyncStackVals(vals);
-    context.push(((java.lang.Boolean) vals[0]) && ((java.lang.Boolean) vals[1]));
+    if (context.hasUnboxedBooleans(2)) {
+      boolean v2 = context.popUnboxedBoolean();
+      context.pushBoolean(context.popUnboxedBoolean() && v2);
+    } else {
+      final Object[] vals = context.tuple();
+      context.popSyncStackVals(vals);
+      context.pushBoolean(((java.lang.Boolean) vals[0]) && ((java.lang.Boolean) vals[1]));
+    }
     return 1;
   }
 
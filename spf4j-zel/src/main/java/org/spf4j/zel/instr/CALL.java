@@ -64,8 +64,7 @@ public final class CALL extends Instruction {
         case DETERMINISTIC:
           nctx = context.getSubProgramContext(p, nrParameters);
           context.pop();
-          List<Object> params = getParameters(nctx, nrParameters);
-          obj = context.getResultCache().getResult(p, params, nctx::executeSyncOrAsync);
+          obj = context.getResultCache().getResult(p, nctx.getMem(), nrParameters, nctx::executeSyncOrAsync);
           break;
         case NONDETERMINISTIC:
           nctx = context.getSubProgramContext(p, nrParameters);
@@ -49,9 +49,11 @@ public final class DIV extends Instruction {
 
   @Override
   public int execute(final ExecutionContext context) throws SuspendedException, ExecutionException {
-    final Object[] vals = context.tuple();
-    context.popSyncStackVals(vals);
-    context.push(Operators.apply(Operator.Enum.Div, vals[0], vals[1]));
+    if (!context.applyUnboxed(Operator.Enum.Div)) {
+      final Object[] vals = context.tuple();
+      context.popSyncStackVals(vals);
+      context.push(Operators.apply(Operator.Enum.Div, vals[0], vals[1]));
+    }
     return 1;
   }
 
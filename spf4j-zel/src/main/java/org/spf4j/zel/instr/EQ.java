@@ -48,9 +48,14 @@ public final class EQ extends Instruction {
 
   @Override
   public int execute(final ExecutionContext context) throws SuspendedException, ExecutionException {
-    final Object[] vals = context.tuple();
-    context.popSyncStackVals(vals);
-    context.push(Objects.equal(vals[0], vals[1]));
+    final int cmp = context.compareUnboxed();
+    if (cmp != ExecutionContext.NOT_COMPARABLE) {
+      context.pushBoolean(cmp == 0);
+    } else {
+      final Object[] vals = context.tuple();
+      context.popSyncStackVals(vals);
+      context.pushBoolean(Objects.equal(vals[0], vals[1]));
+    }
     return 1;
   }
 
@@ -48,7 +48,8 @@ public final class FJMP extends Instruction {
   @Override
   public int execute(final ExecutionContext context)
           throws SuspendedException, ExecutionException {
-    boolean cond = (java.lang.Boolean) context.popSyncStackVal();
+    boolean cond = context.hasUnboxedBooleans(1) ? context.popUnboxedBoolean()
+            : (java.lang.Boolean) context.popSyncStackVal();
     if (!cond) {
       return relAddr;
     } else {
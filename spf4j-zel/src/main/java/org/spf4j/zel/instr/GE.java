@@ -47,10 +47,15 @@ public final class GE extends Instruction {
 
   @Override
   public int execute(final ExecutionContext context) throws SuspendedException, ExecutionException {
-    final Object[] vals = context.tuple();
-    context.popSyncStackVals(vals);
-    context.push(((Comparable) vals[0]).
-            compareTo(vals[1]) >= 0);
+    final int cmp = context.compareUnboxed();
+    if (cmp != ExecutionContext.NOT_COMPARABLE) {
+      context.pushBoolean(cmp >= 0);
+    } else {
+      final Object[] vals = context.tuple();
+      context.popSyncStackVals(vals);
+      context.pushBoolean(((Comparable) vals[0]).
+              compareTo(vals[1]) >= 0);
+    }
     return 1;
   }
 
@@ -48,10 +48,15 @@ public final class GT extends Instruction {
   @Override
   public int execute(final ExecutionContext context)
           throws SuspendedException, ExecutionException {
-    final Object[] vals = context.tuple();
-    context.popSyncStackVals(vals);
-    context.push(((Comparable) vals[1]).
-            compareTo(vals[0]) < 0);
+    final int cmp = context.compareUnboxed();
+    if (cmp != ExecutionContext.NOT_COMPARABLE) {
+      context.pushBoolean(cmp > 0);
+    } else {
+      final Object[] vals = context.tuple();
+      context.popSyncStackVals(vals);
+      context.pushBoolean(((Comparable) vals[1]).
+              compareTo(vals[0]) < 0);
+    }
     return 1;
   }
 
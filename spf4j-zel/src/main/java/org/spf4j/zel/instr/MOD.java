@@ -50,9 +50,11 @@ public final class MOD extends Instruction {
   @Override
   public int execute(final ExecutionContext context)
           throws SuspendedException, ExecutionException {
-    final Object[] vals = context.tuple();
-    context.popSyncStackVals(vals);
-    context.push(Operators.apply(Operator.Enum.Mod, vals[0], vals[1]));
+    if (!context.applyUnboxed(Operator.Enum.Mod)) {
+      final Object[] vals = context.tuple();
+      context.popSyncStackVals(vals);
+      context.push(Operators.apply(Operator.Enum.Mod, vals[0], vals[1]));
+    }
     return 1;
   }
 
@@ -48,7 +48,11 @@ public final class NOT extends Instruction {
   @Override
   public int execute(final ExecutionContext context)
           throws SuspendedException, ExecutionException {
-    context.push(!((java.lang.Boolean) context.popSyncStackVal()));
+    if (context.hasUnboxedBooleans(1)) {
+      context.pushBoolean(!context.popUnboxedBoolean());
+    } else {
+      context.pushBoolean(!((java.lang.Boolean) context.popSyncStackVal()));
+    }
     return 1;
   }
 
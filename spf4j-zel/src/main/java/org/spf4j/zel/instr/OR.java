@@ -48,12 +48,17 @@ public final class OR extends Instruction {
   @Override
   public int execute(final ExecutionContext context)
           throws SuspendedException, ExecutionException {
-    final Object[] vals = context.tuple();
-    context.popSyncStackVals(vals);
-    // TODO: optimize this for or we don't need to sync wait for both values
-    boolean v1 = (java.lang.Boolean) vals[0];
-    boolean v2 = (java.lang.Boolean) vals[1];
-    context.push(v1 || v2);
+    if (context.hasUnboxedBooleans(2)) {
+      boolean v2 = context.popUnboxedBoolean();
+      context.pushBoolean(context.popUnboxedBoolean() || v2);
+    } else {
+      final Object[] vals = context.tuple();
+      context.popSyncStackVals(vals);
+      // TODO: optimize this for or we don't need to sync wait for both values
+      boolean v1 = (java.lang.Boolean) vals[0];
+      boolean v2 = (java.lang.Boolean) vals[1];
+      context.pushBoolean(v1 || v2);
+    }
     return 1;
   }
 
@@ -50,9 +50,11 @@ public final class SUB extends Instruction {
   @Override
   public int execute(final ExecutionContext context)
           throws SuspendedException, ExecutionException {
-    final Object[] vals = context.tuple();
-    context.popSyncStackVals(vals);
-    context.push(Operators.apply(Operator.Enum.Sub, vals[0], vals[1]));
+    if (!context.applyUnboxed(Operator.Enum.Sub)) {
+      final Object[] vals = context.tuple();
+      context.popSyncStackVals(vals);
+      context.push(Operators.apply(Operator.Enum.Sub, vals[0], vals[1]));
+    }
     return 1;
   }
 
@@ -132,11 +132,10 @@ public final class IntegerOperators {
                     long aa = a;
                     long bb = (Long) b;
                     long result = aa - bb;
-                    if ((aa ^ bb) < 0 || (aa ^ result) >= 0) {
+                    if ((aa ^ bb) >= 0 || (aa ^ result) >= 0) {
                         return result;
                     } else {
-                        BigInteger rr = BigInteger.valueOf(bb);
-                        return rr.add(BigInteger.valueOf(aa));
+                        return BigInteger.valueOf(aa).subtract(BigInteger.valueOf(bb));
                     }
                 }
             });
@@ -103,7 +103,7 @@ public final class LongOperators {
                     long a = pa;
                     long bb = b.longValue();
                     long result = a - bb;
-                    if ((a ^ bb) < 0 || (a ^ result) >= 0) {
+                    if ((a ^ bb) >= 0 || (a ^ result) >= 0) {
                         return result;
                     } else {
                         return BigInteger.valueOf(a).subtract(BigInteger.valueOf(bb));
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.zel.vm;
+
+import com.google.common.base.Objects;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Base class of the JVM bytecode generated by {@link ProgramCompiler} for hot synchronous programs.
+ *
+ * The static methods are invoked by the generated code, and replicate the semantics of the equivalent
+ * interpreter instructions (LT, GT, ...). They are public only because the generated classes are defined
+ * in their own class loader.
+ *
+ * @author Zoltan Farkas
+ */
+@ParametersAreNonnullByDefault
+public abstract class CompiledProgram {
+
+  /**
+   * Constants referenced by the generated code. (pushed values, and instructions the generated code delegates to)
+   */
+  protected final Object[] constants;
+
+  protected CompiledProgram(final Object[] constants) {
+    this.constants = constants;
+  }
+
+  /**
+   * Execute the compiled program.
+   * @param context the execution context, with an empty stack and no executor.
+   * @param mem the local memory.
+   * @param globalMem the global memory.
+   * @return the program result, or ExecutionContext.VOID if the program does not return anything.
+   */
+  public abstract Object execute(ExecutionContext context, Object[] mem, Object[] globalMem)
+          throws ExecutionException, InterruptedException, SuspendedException;
+
+  public static ZExecutionException failedAt(final ZExecutionException ex, final ExecutionContext context,
+          final int ip) {
+    context.setInstructionPointer(ip);
+    return ex;
+  }
+
+  /**
+   * Continue the execution in the interpreter, used by the generated code when a primitive operation
+   * cannot produce the interpreter result. (int to long promotion, long overflow, division by zero...)
+   * @param context the execution context, with the stack of the compiled code pushed.
+   * @param ip the address of the instruction to continue with.
+   * @return the program result.
+   */
+  public static Object deoptimize(final ExecutionContext context, final int ip)
+          throws ExecutionException, InterruptedException, SuspendedException {
+    context.setInstructionPointer(ip);
+    return context.interpret();
+  }
+
+  public static boolean addOverflows(final long a, final long b, final long result) {
+    return ((a ^ result) & (b ^ result)) < 0;
+  }
+
+  public static boolean subOverflows(final long a, final long b, final long result) {
+    return ((a ^ b) & (a ^ result)) < 0;
+  }
+
+  public static boolean mulOverflows(final long a, final long b, final long result) {
+    return ((Math.abs(a) | Math.abs(b)) >>> 31) != 0
+            && ((b != 0 && result / b != a) || (a == Long.MIN_VALUE && b == -1));
+  }
+
+  public static boolean toBoolean(final Object obj) {
+    return (Boolean) obj;
+  }
+
+  public static boolean eq(@Nullable final Object a, @Nullable final Object b) {
+    return Objects.equal(a, b);
+  }
+
+  public static boolean lt(final Object a, final Object b) {
+    return ((Comparable) b).compareTo(a) > 0;
+  }
+
+  public static boolean gt(final Object a, final Object b) {
+    return ((Comparable) b).compareTo(a) < 0;
+  }
+
+  public static boolean ge(final Object a, final Object b) {
+    return ((Comparable) a).compareTo(b) >= 0;
+  }
+
+  public static boolean le(final Object a, final Object b) {
+    return ((Comparable) b).compareTo(a) >= 0;
+  }
+
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.zel.vm;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import org.spf4j.zel.operators.Operator;
+
+/**
+ * The VM operand stack.
+ *
+ * Integer, Long, Double and Boolean values are stored unboxed in parallel primitive arrays with a type tag,
+ * so that arithmetic and comparison instructions can operate on them without allocating.
+ * Values pushed as objects retain their reference (no re-boxing when popped), values computed unboxed are boxed
+ * (and the box cached) only when they are accessed as objects.
+ *
+ * @author Zoltan Farkas
+ */
+final class OperandStack {
+
+  static final byte REF = 0;
+  static final byte INT = 1;
+  static final byte LONG = 2;
+  static final byte DOUBLE = 3;
+  static final byte BOOL = 4;
+
+  /**
+   * returned by compareTop when the top values cannot be compared unboxed.
+   */
+  static final int NOT_COMPARABLE = Integer.MIN_VALUE;
+
+  private Object[] refs;
+
+  private long[] longs;
+
+  private double[] doubles;
+
+  private byte[] tags;
+
+  private int top;
+
+  OperandStack(final int size) {
+    refs = new Object[size];
+    longs = new long[size];
+    doubles = new double[size];
+    tags = new byte[size];
+    top = 0;
+  }
+
+  private void ensureCapacity(final int minCapacity) {
+    int oldCapacity = refs.length;
+    if (minCapacity > oldCapacity) {
+      int newCapacity = (oldCapacity * 3) / 2 + 1;
+      if (newCapacity < minCapacity) {
+        newCapacity = minCapacity;
+      }
+      refs = Arrays.copyOf(refs, newCapacity);
+      longs = Arrays.copyOf(longs, newCapacity);
+      doubles = Arrays.copyOf(doubles, newCapacity);
+      tags = Arrays.copyOf(tags, newCapacity);
+    }
+  }
+
+  boolean isEmpty() {
+    return top == 0;
+  }
+
+  int size() {
+    return top;
+  }
+
+  void push(@Nullable final Object o) {
+    int t = top + 1;
+    ensureCapacity(t);
+    set(top, o);
+    top = t;
+  }
+
+  void pushNull() {
+    push(null);
+  }
+
+  void pushInt(final int value) {
+    int t = top + 1;
+    ensureCapacity(t);
+    setLong(top, INT, value);
+    top = t;
+  }
+
+  void pushLong(final long value) {
+    int t = top + 1;
+    ensureCapacity(t);
+    setLong(top, LONG, value);
+    top = t;
+  }
+
+  void pushDouble(final double value) {
+    int t = top + 1;
+    ensureCapacity(t);
+    setDouble(top, value);
+    top = t;
+  }
+
+  void pushBoolean(final boolean value) {
+    int t = top + 1;
+    ensureCapacity(t);
+    setLong(top, BOOL, value ? 1 : 0);
+    top = t;
+  }
+
+  private void set(final int idx, @Nullable final Object o) {
+    refs[idx] = o;
+    if (o == null) {
+      tags[idx] = REF;
+      return;
+    }
+    Class<?> clasz = o.getClass();
+    if (clasz == Integer.class) {
+      tags[idx] = INT;
+      longs[idx] = (Integer) o;
+    } else if (clasz == Long.class) {
+      tags[idx] = LONG;
+      longs[idx] = (Long) o;
+    } else if (clasz == Double.class) {
+      tags[idx] = DOUBLE;
+      doubles[idx] = (Double) o;
+    } else if (clasz == Boolean.class) {
+      tags[idx] = BOOL;
+      longs[idx] = ((Boolean) o) ? 1 : 0;
+    } else {
+      tags[idx] = REF;
+    }
+  }
+
+  private void setLong(final int idx, final byte tag, final long value) {
+    refs[idx] = null;
+    tags[idx] = tag;
+    longs[idx] = value;
+  }
+
+  private void setDouble(final int idx, final double value) {
+    refs[idx] = null;
+    tags[idx] = DOUBLE;
+    doubles[idx] = value;
+  }
+
+  /**
+   * @return the value at idx as a object. (boxing it if needed)
+   */
+  @Nullable
+  private Object get(final int idx) {
+    Object ref = refs[idx];
+    if (ref != null) {
+      return ref;
+    }
+    switch (tags[idx]) {
+      case REF:
+        return null;
+      case INT:
+        ref = (int) longs[idx];
+        break;
+      case LONG:
+        ref = longs[idx];
+        break;
+      case DOUBLE:
+        ref = doubles[idx];
+        break;
+      case BOOL:
+        ref = longs[idx] != 0;
+        break;
+      default:
+        throw new IllegalStateException("Invalid tag " + tags[idx]);
+    }
+    refs[idx] = ref;
+    return ref;
+  }
+
+  @Nullable
+  Object pop() {
+    final Object o = get(--top);
+    refs[top] = null;
+    return o;
+  }
+
+  void remove() {
+    refs[--top] = null;
+  }
+
+  Object[] pop(final int n) {
+    Object[] result = new Object[n];
+    popTo(result, n);
+    return result;
+  }
+
+  void popTo(final Object[] to, final int n) {
+    int ot = top;
+    top -= n;
+    for (int i = top, j = 0; i < ot; i++, j++) {
+      to[j] = get(i);
+      refs[i] = null;
+    }
+  }
+
+  void removeFromTop(final int n) {
+    int ot = top;
+    top -= n;
+    for (int i = top; i < ot; i++) {
+      refs[i] = null;
+    }
+  }
+
+  @Nullable
+  Object peek() {
+    return get(top - 1);
+  }
+
+  @Nullable
+  Object peekFromTop(final int n) {
+    return get(top - 1 - n);
+  }
+
+  void replaceFromTop(final int n, @Nullable final Object value) {
+    set(top - 1 - n, value);
+  }
+
+  /**
+   * @return true if the n top values are unboxed booleans.
+   */
+  boolean areBooleans(final int n) {
+    for (int i = top - n; i < top; i++) {
+      if (tags[i] != BOOL) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * pop a unboxed boolean, to be used only when areBooleans(1) is true.
+   */
+  boolean popBoolean() {
+    refs[--top] = null;
+    return longs[top] != 0;
+  }
+
+  /**
+   * Compare the 2 top values (a = second from top, b = top) if they are unboxed values of the same type,
+   * and remove them from the stack.
+   * @return a negative, zero or positive value as a is less, equal or greater than b
+   * (consistent with the Comparable implementations of the boxed values),
+   * or NOT_COMPARABLE if the values cannot be compared unboxed (stack is left unchanged in this case).
+   */
+  int compareTop() {
+    final int b = top - 1;
+    final int a = b - 1;
+    final byte tag = tags[b];
+    if (tag == REF || tags[a] != tag) {
+      return NOT_COMPARABLE;
+    }
+    final int result;
+    if (tag == DOUBLE) {
+      result = Double.compare(doubles[a], doubles[b]);
+    } else {
+      result = Long.compare(longs[a], longs[b]);
+    }
+    removeFromTop(2);
+    return result;
+  }
+
+  /**
+   * Apply a arithmetic operator to the 2 top values (a = second from top, b = top) if both are unboxed numbers,
+   * and replace them with the result, with the same result types as the boxed Operators implementations.
+   * @return true if applied, false if the boxed implementation needs to be used (non primitive values,
+   * overflow, division by zero, ...), the stack is left unchanged in this case.
+   */
+  @SuppressWarnings("checkstyle:CyclomaticComplexity")
+  boolean applyTop(final Operator.Enum op) {
+    final int b = top - 1;
+    final int a = b - 1;
+    final byte tb = tags[b];
+    final byte ta = tags[a];
+    if (ta < INT || ta > DOUBLE || tb < INT || tb > DOUBLE) {
+      return false;
+    }
+    if (ta == DOUBLE || tb == DOUBLE) {
+      if (op == Operator.Enum.Mod || op == Operator.Enum.Pow) {
+        return false;
+      }
+      double da = ta == DOUBLE ? doubles[a] : longs[a];
+      double db = tb == DOUBLE ? doubles[b] : longs[b];
+      double result;
+      switch (op) {
+        case Add:
+          result = da + db;
+          break;
+        case Sub:
+          result = da - db;
+          break;
+        case Mul:
+          result = da * db;
+          break;
+        case Div:
+          result = da / db;
+          break;
+        default:
+          throw new IllegalStateException("Unsupported " + op);
+      }
+      top = b;
+      refs[b] = null;
+      setDouble(a, result);
+      return true;
+    }
+    final long la = longs[a];
+    final long lb = longs[b];
+    final boolean isInt = ta == INT && tb == INT;
+    long result;
+    switch (op) {
+      case Add:
+        result = la + lb;
+        if (((la ^ result) & (lb ^ result)) < 0) {
+          return false;
+        }
+        break;
+      case Sub:
+        result = la - lb;
+        if (((la ^ lb) & (la ^ result)) < 0) {
+          return false;
+        }
+        break;
+      case Mul:
+        result = la * lb;
+        if (((Math.abs(la) | Math.abs(lb)) >>> 31) != 0
+                && ((lb != 0 && result / lb != la) || (la == Long.MIN_VALUE && lb == -1))) {
+          return false;
+        }
+        break;
+      case Div:
+        if (lb == 0) {
+          return false;
+        }
+        result = la / lb;
+        if (isInt) {
+          result = (int) result;
+        }
+        break;
+      case Mod:
+        if (lb == 0) {
+          return false;
+        }
+        result = la % lb;
+        break;
+      default:
+        return false;
+    }
+    top = b;
+    refs[b] = null;
+    if (isInt && result == (int) result) {
+      setLong(a, INT, result);
+    } else {
+      setLong(a, LONG, result);
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    if (top == 0) {
+      return "";
+    }
+    final StringBuilder result = new StringBuilder(32);
+    result.append(get(0));
+    for (int i = 1; i < top; i++) {
+      result.append('.');
+      result.append(get(i));
+    }
+    return result.toString();
+  }
+
+}
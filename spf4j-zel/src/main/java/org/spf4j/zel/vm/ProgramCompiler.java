@@ -0,0 +1,1025 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.zel.vm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.spf4j.zel.instr.ABS;
+import org.spf4j.zel.instr.ADD;
+import org.spf4j.zel.instr.AND;
+import org.spf4j.zel.instr.ARR;
+import org.spf4j.zel.instr.CALL;
+import org.spf4j.zel.instr.CALLREF;
+import org.spf4j.zel.instr.CDEREFX;
+import org.spf4j.zel.instr.DEREF;
+import org.spf4j.zel.instr.DEREFX;
+import org.spf4j.zel.instr.DIV;
+import org.spf4j.zel.instr.DUP;
+import org.spf4j.zel.instr.EQ;
+import org.spf4j.zel.instr.FJMP;
+import org.spf4j.zel.instr.GE;
+import org.spf4j.zel.instr.GT;
+import org.spf4j.zel.instr.HALT;
+import org.spf4j.zel.instr.Instruction;
+import org.spf4j.zel.instr.JMP;
+import org.spf4j.zel.instr.LE;
+import org.spf4j.zel.instr.LODAX;
+import org.spf4j.zel.instr.LODAXF;
+import org.spf4j.zel.instr.LODX;
+import org.spf4j.zel.instr.LODXF;
+import org.spf4j.zel.instr.LT;
+import org.spf4j.zel.instr.MCTX;
+import org.spf4j.zel.instr.MOD;
+import org.spf4j.zel.instr.MOV;
+import org.spf4j.zel.instr.MUL;
+import org.spf4j.zel.instr.NEQ;
+import org.spf4j.zel.instr.NJMP;
+import org.spf4j.zel.instr.NOP;
+import org.spf4j.zel.instr.NOT;
+import org.spf4j.zel.instr.OR;
+import org.spf4j.zel.instr.POW;
+import org.spf4j.zel.instr.PUSH;
+import org.spf4j.zel.instr.PUSHM;
+import org.spf4j.zel.instr.REF;
+import org.spf4j.zel.instr.RLIKE;
+import org.spf4j.zel.instr.SUB;
+import org.spf4j.zel.instr.SWAP;
+import org.spf4j.zel.instr.SYNC;
+import org.spf4j.zel.instr.THROW;
+import org.spf4j.zel.instr.XOR;
+import org.spf4j.zel.operators.Operator;
+
+/**
+ * Second execution tier of the ZEL VM: translates the instructions of a synchronous program into a JVM method.
+ *
+ * The operand stack is replaced with local variables (the stack depth at every instruction is statically known),
+ * and boolean, int, long and double values are kept unboxed, their types are tracked from constants the same way
+ * {@link OperandStack} does. Arithmetic on known number types is done with primitive operations, when the result
+ * would differ from the interpreter result (int overflow to long, long overflow, division by zero) the execution
+ * continues in the interpreter. Arithmetic on unknown types is done by Operators.apply. Comparisons, logical
+ * operators, constants, local/global loads and jumps are translated directly, calls/dereferences/assignments are
+ * delegated to the interpreter instruction implementation.
+ * Programs that are async, use instructions that can suspend execution (FIRST, SLEEP, CALLA...), or
+ * have a stack depth that is not statically known (loops that accumulate values) are not compiled,
+ * and will continue to be interpreted.
+ *
+ * @author Zoltan Farkas
+ */
+final class ProgramCompiler {
+
+  /**
+   * number of interpreted executions after which a program is compiled to bytecode. (negative to disable)
+   */
+  static final int JIT_THRESHOLD = Integer.getInteger("zel.jit.threshold", 1000);
+
+  /**
+   * marker for programs that cannot be compiled.
+   */
+  static final CompiledProgram NOT_COMPILABLE = new CompiledProgram(org.spf4j.base.Arrays.EMPTY_OBJ_ARRAY) {
+    @Override
+    public Object execute(final ExecutionContext context, final Object[] mem, final Object[] globalMem) {
+      throw new UnsupportedOperationException();
+    }
+  };
+
+  private static final String OBJECT = "java/lang/Object";
+  private static final String COMPILED_PROGRAM = "org/spf4j/zel/vm/CompiledProgram";
+  private static final String EXEC_CONTEXT = "org/spf4j/zel/vm/ExecutionContext";
+  private static final String INSTRUCTION = "org/spf4j/zel/instr/Instruction";
+  private static final String OPERATOR_ENUM = "org/spf4j/zel/operators/Operator$Enum";
+  private static final String BIN_PRED_DESC = "(Ljava/lang/Object;Ljava/lang/Object;)Z";
+
+  private static final int CTX = 1;
+  private static final int MEM = 2;
+  private static final int GLOBAL_MEM = 3;
+  private static final int CONSTANTS = 4;
+  private static final int IP = 5;
+  private static final int STACK = 6;
+
+  private ProgramCompiler() { }
+
+  /**
+   * Compile a program.
+   * @param program the program to compile.
+   * @return the compiled program or NOT_COMPILABLE.
+   */
+  static CompiledProgram compile(final Program program) {
+    if (program.getExecType() != Program.ExecutionType.SYNC) {
+      return NOT_COMPILABLE;
+    }
+    Instruction[] code = program.getCodeInternal();
+    byte[][] states = analyze(code);
+    if (states == null) {
+      return NOT_COMPILABLE;
+    }
+    List<Object> constants = new ArrayList<>();
+    String className = "org/spf4j/zel/vm/jit/ZelProgram" + Integer.toHexString(program.hashCode());
+    byte[] byteCode = generate(className, code, states, constants);
+    ProgramClassLoader loader = new ProgramClassLoader(ProgramCompiler.class.getClassLoader());
+    Class<?> clasz = loader.define(className.replace('/', '.'), byteCode);
+    try {
+      return (CompiledProgram) clasz.getConstructor(Object[].class)
+              .newInstance((Object) constants.toArray());
+    } catch (NoSuchMethodException | InstantiationException | IllegalAccessException
+            | InvocationTargetException ex) {
+      throw new IllegalStateException("Unable to instantiate compiled " + program, ex);
+    }
+  }
+
+  /**
+   * Data flow analysis computing the stack state at the entry of every instruction.
+   * @return a array of stack states (the OperandStack type tag of every slot), indexed by instruction address,
+   * with the end of program state at index code.length, null elements for unreachable code.
+   * returns null if the code cannot be compiled.
+   */
+  @Nullable
+  static byte[][] analyze(final Instruction[] code) {
+    final int n = code.length;
+    byte[][] states = new byte[n + 1][];
+    states[0] = new byte[0];
+    ArrayDeque<Integer> todo = new ArrayDeque<>();
+    todo.add(0);
+    while (!todo.isEmpty()) {
+      int ip = todo.poll();
+      if (ip == n) {
+        continue;
+      }
+      byte[] in = states[ip];
+      Instruction instr = code[ip];
+      int depth = in.length;
+      byte[] out;
+      int jumpTo = -1;
+      boolean fallsThrough = true;
+      if (instr instanceof PUSH) {
+        out = push(in, constantType(instr.getParameters()[0]));
+      } else if (instr instanceof LODXF) {
+        out = push(in, OperandStack.REF);
+      } else if (isArithmetic(instr)) {
+        out = depth < 2 ? null
+                : binary(in, arithmeticType(arithmeticOp(instr), in[depth - 2], in[depth - 1]));
+      } else if (isComparison(instr) || instr instanceof AND || instr instanceof OR
+              || instr instanceof XOR) {
+        out = binary(in, OperandStack.BOOL);
+      } else if (instr instanceof NOT) {
+        if (depth < 1) {
+          return null;
+        }
+        out = in.clone();
+        out[depth - 1] = OperandStack.BOOL;
+      } else if (instr instanceof DUP) {
+        if (depth < 1) {
+          return null;
+        }
+        out = push(in, in[depth - 1]);
+      } else if (instr instanceof NOP || instr instanceof SYNC) {
+        out = in;
+      } else if (instr instanceof JMP) {
+        out = in;
+        fallsThrough = false;
+        jumpTo = ip + (Integer) instr.getParameters()[0];
+      } else if (instr instanceof FJMP) {
+        if (depth < 1) {
+          return null;
+        }
+        out = Arrays.copyOf(in, depth - 1);
+        jumpTo = ip + (Integer) instr.getParameters()[0];
+      } else if (instr instanceof NJMP) {
+        if (depth < 1) {
+          return null;
+        }
+        out = in;
+        jumpTo = ip + (Integer) instr.getParameters()[0];
+      } else if (instr instanceof HALT) {
+        out = in;
+        fallsThrough = false;
+        jumpTo = n;
+      } else if (instr instanceof THROW) {
+        if (depth < 1) {
+          return null;
+        }
+        continue;
+      } else {
+        int[] effect = delegatedStackEffect(instr);
+        if (effect == null || depth < effect[0]) {
+          return null;
+        }
+        out = Arrays.copyOf(in, depth - effect[0] + effect[1]);
+        if (effect[1] > 0) {
+          out[out.length - 1] = OperandStack.REF;
+        }
+      }
+      if (out == null) {
+        return null;
+      }
+      if (fallsThrough && !merge(states, ip + 1, out, todo)) {
+        return null;
+      }
+      if (jumpTo >= 0 && !merge(states, jumpTo, out, todo)) {
+        return null;
+      }
+    }
+    return states;
+  }
+
+  /**
+   * merge a state into the state of the instruction at address to, slots of different types become objects.
+   */
+  private static boolean merge(final byte[][] states, final int to, final byte[] state,
+          final ArrayDeque<Integer> todo) {
+    if (to < 0 || to >= states.length) {
+      return false;
+    }
+    byte[] existing = states[to];
+    if (existing == null) {
+      states[to] = state.clone();
+      todo.add(to);
+      return true;
+    }
+    if (existing.length != state.length) {
+      return false;
+    }
+    boolean changed = false;
+    for (int i = 0; i < state.length; i++) {
+      if (existing[i] != state[i] && existing[i] != OperandStack.REF) {
+        existing[i] = OperandStack.REF;
+        changed = true;
+      }
+    }
+    if (changed) {
+      todo.add(to);
+    }
+    return true;
+  }
+
+  @Nullable
+  private static byte[] binary(final byte[] in, final byte type) {
+    int depth = in.length;
+    if (depth < 2) {
+      return null;
+    }
+    byte[] out = Arrays.copyOf(in, depth - 1);
+    out[depth - 2] = type;
+    return out;
+  }
+
+  private static byte[] push(final byte[] in, final byte type) {
+    byte[] out = Arrays.copyOf(in, in.length + 1);
+    out[in.length] = type;
+    return out;
+  }
+
+  private static byte constantType(@Nullable final Object value) {
+    if (value instanceof Boolean) {
+      return OperandStack.BOOL;
+    } else if (value instanceof Integer) {
+      return OperandStack.INT;
+    } else if (value instanceof Long) {
+      return OperandStack.LONG;
+    } else if (value instanceof Double) {
+      return OperandStack.DOUBLE;
+    } else {
+      return OperandStack.REF;
+    }
+  }
+
+  private static boolean isNumber(final byte type) {
+    return type >= OperandStack.INT && type <= OperandStack.DOUBLE;
+  }
+
+  /**
+   * @return the type of the result of a arithmetic operation, the same as OperandStack.applyTop would produce,
+   * REF when the operation is done by Operators.apply.
+   * (int results out of the int range and long overflows are handed over to the interpreter)
+   */
+  static byte arithmeticType(final Operator.Enum op, final byte ta, final byte tb) {
+    if (op == Operator.Enum.Pow || !isNumber(ta) || !isNumber(tb)) {
+      return OperandStack.REF;
+    }
+    if (ta == OperandStack.DOUBLE || tb == OperandStack.DOUBLE) {
+      return op == Operator.Enum.Mod ? OperandStack.REF : OperandStack.DOUBLE;
+    }
+    if (ta == OperandStack.LONG || tb == OperandStack.LONG) {
+      return OperandStack.LONG;
+    }
+    return OperandStack.INT;
+  }
+
+  private static boolean isArithmetic(final Instruction instr) {
+    return instr instanceof ADD || instr instanceof SUB || instr instanceof MUL
+            || instr instanceof DIV || instr instanceof MOD || instr instanceof POW;
+  }
+
+  private static Operator.Enum arithmeticOp(final Instruction instr) {
+    if (instr instanceof ADD) {
+      return Operator.Enum.Add;
+    } else if (instr instanceof SUB) {
+      return Operator.Enum.Sub;
+    } else if (instr instanceof MUL) {
+      return Operator.Enum.Mul;
+    } else if (instr instanceof DIV) {
+      return Operator.Enum.Div;
+    } else if (instr instanceof MOD) {
+      return Operator.Enum.Mod;
+    } else {
+      return Operator.Enum.Pow;
+    }
+  }
+
+  private static boolean isComparison(final Instruction instr) {
+    return instr instanceof EQ || instr instanceof NEQ || instr instanceof LT
+            || instr instanceof GT || instr instanceof LE || instr instanceof GE;
+  }
+
+  /**
+   * @return {nr of popped values, nr of pushed values} for instructions that have a static stack effect
+   * and are executed by delegating to their interpreter implementation, null otherwise.
+   */
+  @Nullable
+  private static int[] delegatedStackEffect(final Instruction instr) {
+    if (instr instanceof LODX || instr instanceof LODAX || instr instanceof LODAXF || instr instanceof PUSHM) {
+      return new int[] {0, 1};
+    } else if (instr instanceof MOV || instr instanceof REF || instr instanceof DEREF) {
+      return new int[] {2, 1};
+    } else if (instr instanceof DEREFX || instr instanceof CDEREFX || instr instanceof ABS
+            || instr instanceof RLIKE) {
+      return new int[] {1, 1};
+    } else if (instr instanceof CALL || instr instanceof CALLREF) {
+      return new int[] {(Integer) instr.getParameters()[0] + 1, 1};
+    } else if (instr instanceof ARR) {
+      return new int[] {(Integer) instr.getParameters()[0], 1};
+    } else if (instr instanceof SWAP) {
+      return new int[] {2, 0};
+    } else if (instr instanceof MCTX) {
+      return new int[] {0, 0};
+    } else {
+      return null;
+    }
+  }
+
+  private static byte[] generate(final String className, final Instruction[] code, final byte[][] states,
+          final List<Object> constants) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+      @Override
+      protected String getCommonSuperClass(final String type1, final String type2) {
+        return OBJECT;
+      }
+    };
+    cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+            className, null, COMPILED_PROGRAM, null);
+    MethodVisitor ctor = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "([Ljava/lang/Object;)V", null, null);
+    ctor.visitCode();
+    ctor.visitVarInsn(Opcodes.ALOAD, 0);
+    ctor.visitVarInsn(Opcodes.ALOAD, 1);
+    ctor.visitMethodInsn(Opcodes.INVOKESPECIAL, COMPILED_PROGRAM, "<init>", "([Ljava/lang/Object;)V", false);
+    ctor.visitInsn(Opcodes.RETURN);
+    ctor.visitMaxs(0, 0);
+    ctor.visitEnd();
+    MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "execute",
+            "(L" + EXEC_CONTEXT + ";[Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+    mv.visitCode();
+    new MethodGenerator(mv, code, states, constants).generate();
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /**
+   * Generates the execute method, stack slot i is held in the local variable(s) at STACK + 2 * i,
+   * as a int (unboxed booleans and ints), long, double or object, depending on the slot type.
+   */
+  private static final class MethodGenerator {
+
+    private final MethodVisitor mv;
+    private final Instruction[] code;
+    private final byte[][] states;
+    private final List<Object> constants;
+    private final Label[] labels;
+    private final List<Trampoline> trampolines;
+    private final List<Trampoline> deopts;
+    /**
+     * long local variable used to check arithmetic results.
+     */
+    private final int tmp;
+
+    MethodGenerator(final MethodVisitor mv, final Instruction[] code, final byte[][] states,
+            final List<Object> constants) {
+      this.mv = mv;
+      this.code = code;
+      this.states = states;
+      this.constants = constants;
+      this.labels = new Label[code.length + 1];
+      for (int i = 0; i < labels.length; i++) {
+        labels[i] = new Label();
+      }
+      this.trampolines = new ArrayList<>(2);
+      this.deopts = new ArrayList<>(2);
+      int maxDepth = 0;
+      for (byte[] state : states) {
+        if (state != null && state.length > maxDepth) {
+          maxDepth = state.length;
+        }
+      }
+      this.tmp = local(maxDepth);
+    }
+
+    void generate() {
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitFieldInsn(Opcodes.GETFIELD, COMPILED_PROGRAM, "constants", "[Ljava/lang/Object;");
+      mv.visitVarInsn(Opcodes.ASTORE, CONSTANTS);
+      mv.visitInsn(Opcodes.ICONST_0);
+      mv.visitVarInsn(Opcodes.ISTORE, IP);
+      Label tryStart = new Label();
+      Label tryEnd = new Label();
+      Label handler = new Label();
+      mv.visitTryCatchBlock(tryStart, tryEnd, handler, "org/spf4j/zel/vm/ZExecutionException");
+      mv.visitLabel(tryStart);
+      final int n = code.length;
+      for (int ip = 0; ip < n; ip++) {
+        byte[] in = states[ip];
+        if (in != null) {
+          mv.visitLabel(labels[ip]);
+          generateInstruction(ip, code[ip], in);
+        }
+      }
+      byte[] end = states[n];
+      if (end != null) {
+        mv.visitLabel(labels[n]);
+        if (end.length > 0) {
+          loadBoxed(end.length - 1, end[end.length - 1]);
+        } else {
+          mv.visitFieldInsn(Opcodes.GETSTATIC, EXEC_CONTEXT, "VOID", "Ljava/lang/Object;");
+        }
+        mv.visitInsn(Opcodes.ARETURN);
+      }
+      for (Trampoline tr : trampolines) {
+        mv.visitLabel(tr.label);
+        convert(tr.from, states[tr.to]);
+        mv.visitJumpInsn(Opcodes.GOTO, labels[tr.to]);
+      }
+      mv.visitLabel(tryEnd);
+      mv.visitLabel(handler);
+      mv.visitVarInsn(Opcodes.ALOAD, CTX);
+      mv.visitVarInsn(Opcodes.ILOAD, IP);
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_PROGRAM, "failedAt",
+              "(Lorg/spf4j/zel/vm/ZExecutionException;L" + EXEC_CONTEXT
+              + ";I)Lorg/spf4j/zel/vm/ZExecutionException;", false);
+      mv.visitInsn(Opcodes.ATHROW);
+      // outside of the try block, the interpreter maintains the instruction pointer.
+      for (Trampoline deopt : deopts) {
+        mv.visitLabel(deopt.label);
+        for (int i = 0; i < deopt.from.length; i++) {
+          pushToContext(i, deopt.from[i]);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, CTX);
+        pushInt(deopt.to);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_PROGRAM, "deoptimize",
+                "(L" + EXEC_CONTEXT + ";I)Ljava/lang/Object;", false);
+        mv.visitInsn(Opcodes.ARETURN);
+      }
+    }
+
+    @SuppressWarnings("checkstyle:methodlength")
+    private void generateInstruction(final int ip, final Instruction instr, final byte[] in) {
+      final int depth = in.length;
+      final int top = depth - 1;
+      byte[] out;
+      if (instr instanceof PUSH) {
+        Object param = instr.getParameters()[0];
+        byte type = constantType(param);
+        switch (type) {
+          case OperandStack.BOOL:
+            mv.visitInsn(((Boolean) param) ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+            break;
+          case OperandStack.INT:
+            pushInt((Integer) param);
+            break;
+          case OperandStack.LONG:
+          case OperandStack.DOUBLE:
+            mv.visitLdcInsn(param);
+            break;
+          default:
+            loadConstant(param);
+        }
+        store(depth, type);
+        out = push(in, type);
+      } else if (instr instanceof LODXF) {
+        Address addr = (Address) instr.getParameters()[0];
+        mv.visitVarInsn(Opcodes.ALOAD, addr.getScope() == Address.Scope.LOCAL ? MEM : GLOBAL_MEM);
+        pushInt(addr.getAddress());
+        mv.visitInsn(Opcodes.AALOAD);
+        store(depth, OperandStack.REF);
+        out = push(in, OperandStack.REF);
+      } else if (isArithmetic(instr)) {
+        Operator.Enum op = arithmeticOp(instr);
+        byte type = arithmeticType(op, in[top - 1], in[top]);
+        switch (type) {
+          case OperandStack.INT:
+            intArithmetic(ip, op, in);
+            break;
+          case OperandStack.LONG:
+            longArithmetic(ip, op, in);
+            break;
+          case OperandStack.DOUBLE:
+            loadDouble(top - 1, in[top - 1]);
+            loadDouble(top, in[top]);
+            mv.visitInsn(arithmeticOpcode(op, Opcodes.DADD, Opcodes.DSUB, Opcodes.DMUL, Opcodes.DDIV,
+                    Opcodes.DREM));
+            break;
+          default:
+            mv.visitFieldInsn(Opcodes.GETSTATIC, OPERATOR_ENUM, op.name(), "L" + OPERATOR_ENUM + ';');
+            loadBoxed(top - 1, in[top - 1]);
+            loadBoxed(top, in[top]);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "org/spf4j/zel/operators/Operators", "apply",
+                    "(L" + OPERATOR_ENUM + ";Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false);
+        }
+        store(top - 1, type);
+        out = binary(in, type);
+      } else if ((instr instanceof EQ || instr instanceof NEQ)
+              && in[top - 1] == OperandStack.BOOL && in[top] == OperandStack.BOOL) {
+        mv.visitVarInsn(Opcodes.ILOAD, local(top - 1));
+        mv.visitVarInsn(Opcodes.ILOAD, local(top));
+        mv.visitInsn(Opcodes.IXOR);
+        if (instr instanceof EQ) {
+          mv.visitInsn(Opcodes.ICONST_1);
+          mv.visitInsn(Opcodes.IXOR);
+        }
+        store(top - 1, OperandStack.BOOL);
+        out = binary(in, OperandStack.BOOL);
+      } else if (isComparison(instr) && in[top - 1] == in[top] && isNumber(in[top])) {
+        compare(in[top], top - 1, top);
+        int ifOpcode;
+        if (instr instanceof EQ) {
+          ifOpcode = Opcodes.IFEQ;
+        } else if (instr instanceof NEQ) {
+          ifOpcode = Opcodes.IFNE;
+        } else if (instr instanceof LT) {
+          ifOpcode = Opcodes.IFLT;
+        } else if (instr instanceof GT) {
+          ifOpcode = Opcodes.IFGT;
+        } else if (instr instanceof LE) {
+          ifOpcode = Opcodes.IFLE;
+        } else {
+          ifOpcode = Opcodes.IFGE;
+        }
+        Label isTrue = new Label();
+        Label done = new Label();
+        mv.visitJumpInsn(ifOpcode, isTrue);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitJumpInsn(Opcodes.GOTO, done);
+        mv.visitLabel(isTrue);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitLabel(done);
+        store(top - 1, OperandStack.BOOL);
+        out = binary(in, OperandStack.BOOL);
+      } else if (instr instanceof EQ || instr instanceof NEQ) {
+        loadBoxed(top - 1, in[top - 1]);
+        loadBoxed(top, in[top]);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_PROGRAM, "eq", BIN_PRED_DESC, false);
+        if (instr instanceof NEQ) {
+          mv.visitInsn(Opcodes.ICONST_1);
+          mv.visitInsn(Opcodes.IXOR);
+        }
+        store(top - 1, OperandStack.BOOL);
+        out = binary(in, OperandStack.BOOL);
+      } else if (isComparison(instr)) {
+        loadBoxed(top - 1, in[top - 1]);
+        loadBoxed(top, in[top]);
+        String method;
+        if (instr instanceof LT) {
+          method = "lt";
+        } else if (instr instanceof GT) {
+          method = "gt";
+        } else if (instr instanceof LE) {
+          method = "le";
+        } else {
+          method = "ge";
+        }
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_PROGRAM, method, BIN_PRED_DESC, false);
+        store(top - 1, OperandStack.BOOL);
+        out = binary(in, OperandStack.BOOL);
+      } else if (instr instanceof AND || instr instanceof OR || instr instanceof XOR) {
+        loadBoolean(top - 1, in[top - 1]);
+        loadBoolean(top, in[top]);
+        if (instr instanceof AND) {
+          mv.visitInsn(Opcodes.IAND);
+        } else if (instr instanceof OR) {
+          mv.visitInsn(Opcodes.IOR);
+        } else {
+          mv.visitInsn(Opcodes.IXOR);
+        }
+        store(top - 1, OperandStack.BOOL);
+        out = binary(in, OperandStack.BOOL);
+      } else if (instr instanceof NOT) {
+        loadBoolean(top, in[top]);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IXOR);
+        store(top, OperandStack.BOOL);
+        out = in.clone();
+        out[top] = OperandStack.BOOL;
+      } else if (instr instanceof DUP) {
+        load(top, in[top]);
+        store(depth, in[top]);
+        out = push(in, in[top]);
+      } else if (instr instanceof NOP || instr instanceof SYNC) {
+        out = in;
+      } else if (instr instanceof JMP) {
+        int to = ip + (Integer) instr.getParameters()[0];
+        convert(in, states[to]);
+        mv.visitJumpInsn(Opcodes.GOTO, labels[to]);
+        return;
+      } else if (instr instanceof HALT) {
+        convert(in, states[code.length]);
+        mv.visitJumpInsn(Opcodes.GOTO, labels[code.length]);
+        return;
+      } else if (instr instanceof FJMP) {
+        out = Arrays.copyOf(in, top);
+        loadBoolean(top, in[top]);
+        mv.visitJumpInsn(Opcodes.IFEQ, jumpLabel(out, ip + (Integer) instr.getParameters()[0]));
+      } else if (instr instanceof NJMP) {
+        out = in;
+        if (in[top] == OperandStack.REF) { // unboxed values are never null.
+          mv.visitVarInsn(Opcodes.ALOAD, local(top));
+          mv.visitJumpInsn(Opcodes.IFNULL, jumpLabel(out, ip + (Integer) instr.getParameters()[0]));
+        }
+      } else if (instr instanceof THROW) {
+        delegate(ip, instr, in, 1, 0);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitInsn(Opcodes.ATHROW);
+        return;
+      } else {
+        int[] effect = delegatedStackEffect(instr);
+        out = delegate(ip, instr, in, effect[0], effect[1]);
+      }
+      convert(out, states[ip + 1]);
+    }
+
+    /**
+     * int op int, computed as long, results out of the int range (Long results) are left to the interpreter,
+     * as well as division by zero.
+     */
+    private void intArithmetic(final int ip, final Operator.Enum op, final byte[] in) {
+      final int a = local(in.length - 2);
+      final int b = local(in.length - 1);
+      if (op == Operator.Enum.Div || op == Operator.Enum.Mod) {
+        mv.visitVarInsn(Opcodes.ILOAD, b);
+        mv.visitJumpInsn(Opcodes.IFEQ, deoptLabel(ip, in));
+        mv.visitVarInsn(Opcodes.ILOAD, a);
+        mv.visitVarInsn(Opcodes.ILOAD, b);
+        mv.visitInsn(op == Operator.Enum.Div ? Opcodes.IDIV : Opcodes.IREM);
+        return;
+      }
+      mv.visitVarInsn(Opcodes.ILOAD, a);
+      mv.visitInsn(Opcodes.I2L);
+      mv.visitVarInsn(Opcodes.ILOAD, b);
+      mv.visitInsn(Opcodes.I2L);
+      mv.visitInsn(arithmeticOpcode(op, Opcodes.LADD, Opcodes.LSUB, Opcodes.LMUL, Opcodes.LDIV, Opcodes.LREM));
+      mv.visitVarInsn(Opcodes.LSTORE, tmp);
+      mv.visitVarInsn(Opcodes.LLOAD, tmp);
+      mv.visitVarInsn(Opcodes.LLOAD, tmp);
+      mv.visitInsn(Opcodes.L2I);
+      mv.visitInsn(Opcodes.I2L);
+      mv.visitInsn(Opcodes.LCMP);
+      mv.visitJumpInsn(Opcodes.IFNE, deoptLabel(ip, in));
+      mv.visitVarInsn(Opcodes.LLOAD, tmp);
+      mv.visitInsn(Opcodes.L2I);
+    }
+
+    /**
+     * long arithmetic, overflows (BigInteger results) and division by zero are left to the interpreter.
+     */
+    private void longArithmetic(final int ip, final Operator.Enum op, final byte[] in) {
+      final int a = in.length - 2;
+      final int b = in.length - 1;
+      if (op == Operator.Enum.Div || op == Operator.Enum.Mod) {
+        loadLong(b, in[b]);
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(Opcodes.IFEQ, deoptLabel(ip, in));
+        loadLong(a, in[a]);
+        loadLong(b, in[b]);
+        mv.visitInsn(op == Operator.Enum.Div ? Opcodes.LDIV : Opcodes.LREM);
+        return;
+      }
+      loadLong(a, in[a]);
+      loadLong(b, in[b]);
+      mv.visitInsn(arithmeticOpcode(op, Opcodes.LADD, Opcodes.LSUB, Opcodes.LMUL, Opcodes.LDIV, Opcodes.LREM));
+      mv.visitVarInsn(Opcodes.LSTORE, tmp);
+      loadLong(a, in[a]);
+      loadLong(b, in[b]);
+      mv.visitVarInsn(Opcodes.LLOAD, tmp);
+      String check;
+      if (op == Operator.Enum.Add) {
+        check = "addOverflows";
+      } else if (op == Operator.Enum.Sub) {
+        check = "subOverflows";
+      } else {
+        check = "mulOverflows";
+      }
+      mv.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_PROGRAM, check, "(JJJ)Z", false);
+      mv.visitJumpInsn(Opcodes.IFNE, deoptLabel(ip, in));
+      mv.visitVarInsn(Opcodes.LLOAD, tmp);
+    }
+
+    private int arithmeticOpcode(final Operator.Enum op, final int add, final int sub, final int mul,
+            final int div, final int mod) {
+      switch (op) {
+        case Add:
+          return add;
+        case Sub:
+          return sub;
+        case Mul:
+          return mul;
+        case Div:
+          return div;
+        case Mod:
+          return mod;
+        default:
+          throw new IllegalArgumentException("No opcode for " + op);
+      }
+    }
+
+    /**
+     * pushes the comparison (consistent with compareTo of the boxed values) of 2 slots of the same numeric type.
+     */
+    private void compare(final byte type, final int slotA, final int slotB) {
+      load(slotA, type);
+      load(slotB, type);
+      switch (type) {
+        case OperandStack.INT:
+          mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "compare", "(II)I", false);
+          break;
+        case OperandStack.LONG:
+          mv.visitInsn(Opcodes.LCMP);
+          break;
+        case OperandStack.DOUBLE:
+          mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "compare", "(DD)I", false);
+          break;
+        default:
+          throw new IllegalArgumentException("Not a number type " + type);
+      }
+    }
+
+    private byte[] delegate(final int ip, final Instruction instr, final byte[] in,
+            final int nrPop, final int nrPush) {
+      pushInt(ip);
+      mv.visitVarInsn(Opcodes.ISTORE, IP);
+      final int depth = in.length;
+      for (int i = depth - nrPop; i < depth; i++) {
+        pushToContext(i, in[i]);
+      }
+      loadConstant(instr);
+      mv.visitTypeInsn(Opcodes.CHECKCAST, INSTRUCTION);
+      mv.visitVarInsn(Opcodes.ALOAD, CTX);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INSTRUCTION, "execute", "(L" + EXEC_CONTEXT + ";)I", false);
+      mv.visitInsn(Opcodes.POP);
+      byte[] out = Arrays.copyOf(in, depth - nrPop + nrPush);
+      if (nrPush > 0) {
+        mv.visitVarInsn(Opcodes.ALOAD, CTX);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, EXEC_CONTEXT, "pop", "()Ljava/lang/Object;", false);
+        store(out.length - 1, OperandStack.REF);
+        out[out.length - 1] = OperandStack.REF;
+      }
+      return out;
+    }
+
+    /**
+     * @return the label to jump to from state, for the instruction at address to.
+     */
+    private Label jumpLabel(final byte[] from, final int to) {
+      if (Arrays.equals(from, states[to])) {
+        return labels[to];
+      }
+      Trampoline tr = new Trampoline(from, to);
+      trampolines.add(tr);
+      return tr.label;
+    }
+
+    /**
+     * @return the label to jump to, to continue the execution in the interpreter with the instruction at ip.
+     */
+    private Label deoptLabel(final int ip, final byte[] in) {
+      Trampoline deopt = new Trampoline(in, ip);
+      deopts.add(deopt);
+      return deopt.label;
+    }
+
+    /**
+     * box the unboxed values that the destination state expects as objects.
+     */
+    private void convert(final byte[] from, final byte[] to) {
+      for (int i = 0; i < from.length; i++) {
+        if (from[i] != to[i]) {
+          loadBoxed(i, from[i]);
+          store(i, OperandStack.REF);
+        }
+      }
+    }
+
+    private static int local(final int slot) {
+      return STACK + 2 * slot;
+    }
+
+    private void load(final int slot, final byte type) {
+      switch (type) {
+        case OperandStack.BOOL:
+        case OperandStack.INT:
+          mv.visitVarInsn(Opcodes.ILOAD, local(slot));
+          break;
+        case OperandStack.LONG:
+          mv.visitVarInsn(Opcodes.LLOAD, local(slot));
+          break;
+        case OperandStack.DOUBLE:
+          mv.visitVarInsn(Opcodes.DLOAD, local(slot));
+          break;
+        default:
+          mv.visitVarInsn(Opcodes.ALOAD, local(slot));
+      }
+    }
+
+    private void store(final int slot, final byte type) {
+      switch (type) {
+        case OperandStack.BOOL:
+        case OperandStack.INT:
+          mv.visitVarInsn(Opcodes.ISTORE, local(slot));
+          break;
+        case OperandStack.LONG:
+          mv.visitVarInsn(Opcodes.LSTORE, local(slot));
+          break;
+        case OperandStack.DOUBLE:
+          mv.visitVarInsn(Opcodes.DSTORE, local(slot));
+          break;
+        default:
+          mv.visitVarInsn(Opcodes.ASTORE, local(slot));
+      }
+    }
+
+    private void loadBoxed(final int slot, final byte type) {
+      load(slot, type);
+      switch (type) {
+        case OperandStack.BOOL:
+          mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+          break;
+        case OperandStack.INT:
+          mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+          break;
+        case OperandStack.LONG:
+          mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;", false);
+          break;
+        case OperandStack.DOUBLE:
+          mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void loadBoolean(final int slot, final byte type) {
+      if (type == OperandStack.BOOL) {
+        mv.visitVarInsn(Opcodes.ILOAD, local(slot));
+      } else {
+        loadBoxed(slot, type);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, COMPILED_PROGRAM, "toBoolean", "(Ljava/lang/Object;)Z", false);
+      }
+    }
+
+    private void loadLong(final int slot, final byte type) {
+      load(slot, type);
+      if (type == OperandStack.INT) {
+        mv.visitInsn(Opcodes.I2L);
+      }
+    }
+
+    private void loadDouble(final int slot, final byte type) {
+      load(slot, type);
+      if (type == OperandStack.INT) {
+        mv.visitInsn(Opcodes.I2D);
+      } else if (type == OperandStack.LONG) {
+        mv.visitInsn(Opcodes.L2D);
+      }
+    }
+
+    /**
+     * push a slot value to the context (interpreter) stack, unboxed values are pushed unboxed.
+     */
+    private void pushToContext(final int slot, final byte type) {
+      mv.visitVarInsn(Opcodes.ALOAD, CTX);
+      load(slot, type);
+      String method;
+      String desc;
+      switch (type) {
+        case OperandStack.BOOL:
+          method = "pushBoolean";
+          desc = "(Z)V";
+          break;
+        case OperandStack.INT:
+          method = "pushInt";
+          desc = "(I)V";
+          break;
+        case OperandStack.LONG:
+          method = "pushLong";
+          desc = "(J)V";
+          break;
+        case OperandStack.DOUBLE:
+          method = "pushDouble";
+          desc = "(D)V";
+          break;
+        default:
+          method = "push";
+          desc = "(Ljava/lang/Object;)V";
+      }
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, EXEC_CONTEXT, method, desc, false);
+    }
+
+    private void loadConstant(@Nullable final Object value) {
+      if (value == null) {
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        return;
+      }
+      int idx = constants.size();
+      constants.add(value);
+      mv.visitVarInsn(Opcodes.ALOAD, CONSTANTS);
+      pushInt(idx);
+      mv.visitInsn(Opcodes.AALOAD);
+    }
+
+    private void pushInt(final int value) {
+      if (value >= -1 && value <= 5) {
+        mv.visitInsn(Opcodes.ICONST_0 + value);
+      } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+        mv.visitIntInsn(Opcodes.BIPUSH, value);
+      } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+        mv.visitIntInsn(Opcodes.SIPUSH, value);
+      } else {
+        mv.visitLdcInsn(value);
+      }
+    }
+
+  }
+
+  /**
+   * A jump from a state to a instruction, through the code that converts the state to the destination state
+   * (or to the interpreter).
+   */
+  private static final class Trampoline {
+
+    private final Label label;
+    private final byte[] from;
+    private final int to;
+
+    Trampoline(final byte[] from, final int to) {
+      this.label = new Label();
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+  private static final class ProgramClassLoader extends ClassLoader {
+
+    ProgramClassLoader(final ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(final String name, final byte[] byteCode) {
+      return defineClass(name, byteCode, 0, byteCode.length);
+    }
+  }
+
+}
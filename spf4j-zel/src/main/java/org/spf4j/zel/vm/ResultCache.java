@@ -31,6 +31,7 @@
  */
 package org.spf4j.zel.vm;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -52,4 +53,15 @@ public interface ResultCache {
     Object getResult(Program program, @Nonnull List<Object> params, Callable<Object> compute)
             throws ExecutionException;
 
+    /**
+     * Get the cached result of program invoked with the first nrArgs elements of args, or compute and cache it.
+     * Implementations must not hold on to args, since it is the memory of the executing function,
+     * the default implementation copies the arguments into a list and delegates to the list based getResult.
+     */
+    @Nullable
+    default Object getResult(final Program program, @Nonnull final Object[] args, final int nrArgs,
+            final Callable<Object> compute) throws ExecutionException {
+        return getResult(program, Arrays.asList(Arrays.copyOf(args, nrArgs)), compute);
+    }
+
 }
@@ -0,0 +1,837 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.zel.vm;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.spf4j.jmx.JmxExport;
+import org.spf4j.jmx.Registry;
+
+/**
+ * A weight bounded result cache with W-TinyLFU admission, shared by all programs using it.
+ *
+ * Keys are flat, arity specialized objects (program + up to 3 arguments inline), so a memoized invocation does not
+ * allocate a argument list. Transient results are held in a small LRU admission window and a segmented LRU main
+ * region (probation + protected); an entry evicted from the window is admitted into the main region only if
+ * it has been requested more frequently (as estimated by a count-min sketch) than the main region victim.
+ * All entries count against a single weight budget: 1 + number of arguments + result weight.
+ *
+ * Permanent results (explicit function value assignments) are never evicted.
+ *
+ * Program executions share {@link Lazy#DEFAULT} via {@link #executionView()}, where each execution holds its own
+ * permanent results and shares the transient results.
+ *
+ * Reads are lock free, access order updates are done only when the policy lock is not contended (lossy).
+ * Deterministic functions can be computed concurrently more than once for the same arguments,
+ * the computation is not done while holding any lock, so recursive functions are safe to memoize.
+ *
+ * @author zoly
+ */
+@ThreadSafe
+public final class TinyLfuResultCache implements ResultCache {
+
+  private static final Object NULL = new Object();
+
+  private static final byte WINDOW = 0;
+
+  private static final byte PROBATION = 1;
+
+  private static final byte PROTECTED = 2;
+
+  private static final byte REMOVED = 3;
+
+  private final String name;
+
+  private final long maxWeight;
+
+  private final long maxWindowWeight;
+
+  private final long maxProtectedWeight;
+
+  private final ToIntFunction<Object> resultWeigher;
+
+  private final ConcurrentHashMap<Key, Object> permanent;
+
+  private final ConcurrentHashMap<Key, Node> data;
+
+  private final ReentrantLock policyLock;
+
+  @GuardedBy("policyLock")
+  private final FrequencySketch sketch;
+
+  @GuardedBy("policyLock")
+  private final AccessOrder window;
+
+  @GuardedBy("policyLock")
+  private final AccessOrder probation;
+
+  @GuardedBy("policyLock")
+  private final AccessOrder protectedSegment;
+
+  private final LongAdder hits;
+
+  private final LongAdder misses;
+
+  private final LongAdder evictions;
+
+  /**
+   * The result cache shared by program executions, with the max weight from the zel.resultCache.maxWeight
+   * system property, exported via JMX.
+   */
+  public static final class Lazy {
+
+    public static final TinyLfuResultCache DEFAULT = init();
+
+    private Lazy() { }
+
+    private static TinyLfuResultCache init() {
+      TinyLfuResultCache cache = new TinyLfuResultCache("default",
+              Long.getLong("zel.resultCache.maxWeight", 1000000L));
+      cache.registerJmx();
+      return cache;
+    }
+  }
+
+  public TinyLfuResultCache(final String name, final long maxWeight) {
+    this(name, maxWeight, (result) -> 1);
+  }
+
+  /**
+   * @param name the name of the cache, used for JMX registration.
+   * @param maxWeight the max total weight of the transient results.
+   * @param resultWeigher the weight of a result.
+   */
+  public TinyLfuResultCache(final String name, final long maxWeight, final ToIntFunction<Object> resultWeigher) {
+    if (maxWeight < 2) {
+      throw new IllegalArgumentException("Invalid max weight " + maxWeight);
+    }
+    this.name = name;
+    this.maxWeight = maxWeight;
+    this.maxWindowWeight = Math.max(1, maxWeight / 100);
+    this.maxProtectedWeight = (maxWeight - maxWindowWeight) * 4 / 5;
+    this.resultWeigher = resultWeigher;
+    this.permanent = new ConcurrentHashMap<>();
+    this.data = new ConcurrentHashMap<>();
+    this.policyLock = new ReentrantLock();
+    this.sketch = new FrequencySketch((int) Math.min(maxWeight, 1 << 22));
+    this.window = new AccessOrder();
+    this.probation = new AccessOrder();
+    this.protectedSegment = new AccessOrder();
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    this.evictions = new LongAdder();
+  }
+
+  public void registerJmx() {
+    Registry.export(TinyLfuResultCache.class.getName(), name, this);
+  }
+
+  public void unregisterJmx() {
+    Registry.unregister(TinyLfuResultCache.class.getName(), name);
+  }
+
+  /**
+   * @return a result cache for a program execution, that shares the transient results of this cache,
+   * and holds its own permanent results, since function value assignments are valid only for the execution
+   * that made them.
+   */
+  public ResultCache executionView() {
+    return new ExecutionView();
+  }
+
+  @Override
+  public void putPermanentResult(final Program program, @Nonnull final List<Object> params,
+          @Nullable final Object result) {
+    permanent.put(Key.of(program, params), wrap(result));
+  }
+
+  @Override
+  public void putTransientResult(final Program program, @Nonnull final List<Object> params,
+          @Nullable final Object result) {
+    put(Key.of(program, params), result);
+  }
+
+  @Override
+  @Nullable
+  public Object getResult(final Program program, @Nonnull final List<Object> params, final Callable<Object> compute)
+          throws ExecutionException {
+    return getResult(Key.of(program, params), compute);
+  }
+
+  @Override
+  @Nullable
+  public Object getResult(final Program program, @Nonnull final Object[] args, final int nrArgs,
+          final Callable<Object> compute) throws ExecutionException {
+    return getResult(Key.of(program, args, nrArgs), compute);
+  }
+
+  @Nullable
+  private Object getResult(final Key key, final Callable<Object> compute) throws ExecutionException {
+    if (!permanent.isEmpty()) {
+      Object result = permanent.get(key);
+      if (result != null) {
+        hits.increment();
+        return unwrap(result);
+      }
+    }
+    return getTransientResult(key, compute);
+  }
+
+  @Nullable
+  private Object getTransientResult(final Key key, final Callable<Object> compute) throws ExecutionException {
+    Node node = data.get(key);
+    if (node != null) {
+      hits.increment();
+      if (policyLock.tryLock()) {
+        try {
+          onAccess(node);
+        } finally {
+          policyLock.unlock();
+        }
+      }
+      return unwrap(node.value);
+    }
+    misses.increment();
+    Object result;
+    try {
+      result = compute.call();
+    } catch (ExecutionException | RuntimeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new ExecutionException(ex);
+    }
+    put(key, result);
+    return result;
+  }
+
+  private void put(final Key key, @Nullable final Object result) {
+    long weight = 1L + key.arity() + resultWeigher.applyAsInt(result);
+    Node node = new Node(key, wrap(result), weight);
+    policyLock.lock();
+    try {
+      sketch.increment(key.hashCode());
+      if (weight > maxWeight) {
+        remove(data.remove(key));
+        return;
+      }
+      remove(data.put(key, node));
+      node.queue = WINDOW;
+      window.addLast(node);
+      while (window.weight > maxWindowWeight) {
+        Node candidate = window.removeFirst();
+        candidate.queue = PROBATION;
+        probation.addLast(candidate);
+        admit(candidate);
+      }
+      evict();
+    } finally {
+      policyLock.unlock();
+    }
+  }
+
+  @GuardedBy("policyLock")
+  private void remove(@Nullable final Node node) {
+    if (node == null) {
+      return;
+    }
+    switch (node.queue) {
+      case WINDOW:
+        window.remove(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        break;
+      case PROTECTED:
+        protectedSegment.remove(node);
+        break;
+      default:
+        return;
+    }
+    node.queue = REMOVED;
+  }
+
+  @GuardedBy("policyLock")
+  private void onAccess(final Node node) {
+    sketch.increment(node.key.hashCode());
+    switch (node.queue) {
+      case WINDOW:
+        window.moveToEnd(node);
+        break;
+      case PROBATION:
+        probation.remove(node);
+        node.queue = PROTECTED;
+        protectedSegment.addLast(node);
+        while (protectedSegment.weight > maxProtectedWeight) {
+          Node demoted = protectedSegment.removeFirst();
+          demoted.queue = PROBATION;
+          probation.addLast(demoted);
+        }
+        break;
+      case PROTECTED:
+        protectedSegment.moveToEnd(node);
+        break;
+      default:
+        // concurrently evicted.
+    }
+  }
+
+  /**
+   * TinyLFU admission of a entry evicted from the window (the candidate, already at the end of probation).
+   * While over budget, the candidate is compared with the main region victim (least recently used probation entry,
+   * or protected entry if probation holds only the candidate), the less frequent of the two is evicted.
+   */
+  @GuardedBy("policyLock")
+  private void admit(final Node candidate) {
+    while (weight() > maxWeight) {
+      Node victim = probation.first();
+      if (victim == candidate) {
+        victim = protectedSegment.first();
+        if (victim == null) {
+          return;
+        }
+      }
+      if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+        evict(victim);
+      } else {
+        evict(candidate);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Evict in LRU order (probation, protected, window) till we are within budget.
+   */
+  @GuardedBy("policyLock")
+  private void evict() {
+    while (weight() > maxWeight) {
+      Node victim = probation.first();
+      if (victim == null) {
+        victim = protectedSegment.first();
+        if (victim == null) {
+          victim = window.first();
+        }
+      }
+      evict(victim);
+    }
+  }
+
+  @GuardedBy("policyLock")
+  private void evict(final Node node) {
+    remove(node);
+    data.remove(node.key, node);
+    evictions.increment();
+  }
+
+  @GuardedBy("policyLock")
+  private long weight() {
+    return window.weight + probation.weight + protectedSegment.weight;
+  }
+
+  private static Object wrap(@Nullable final Object result) {
+    return result == null ? NULL : result;
+  }
+
+  @Nullable
+  private static Object unwrap(final Object result) {
+    return result == NULL ? null : result;
+  }
+
+  @JmxExport(description = "number of cache hits")
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  @JmxExport(description = "number of cache misses")
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  @JmxExport(description = "number of evicted results")
+  public long getEvictionCount() {
+    return evictions.sum();
+  }
+
+  @JmxExport(description = "hit rate, hits / (hits + misses)")
+  public double getHitRate() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? 1.0 : (double) h / total;
+  }
+
+  @JmxExport(description = "total weight of the transient results")
+  public long getWeight() {
+    policyLock.lock();
+    try {
+      return weight();
+    } finally {
+      policyLock.unlock();
+    }
+  }
+
+  @JmxExport(description = "max total weight of the transient results")
+  public long getMaxWeight() {
+    return maxWeight;
+  }
+
+  @JmxExport(description = "number of transient results")
+  public int getSize() {
+    return data.size();
+  }
+
+  @JmxExport(description = "number of permanent results")
+  public int getPermanentSize() {
+    return permanent.size();
+  }
+
+  @JmxExport(description = "drop all transient results")
+  public void clear() {
+    policyLock.lock();
+    try {
+      Node node;
+      while ((node = window.first()) != null) {
+        remove(node);
+      }
+      while ((node = probation.first()) != null) {
+        remove(node);
+      }
+      while ((node = protectedSegment.first()) != null) {
+        remove(node);
+      }
+      data.clear();
+    } finally {
+      policyLock.unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "TinyLfuResultCache{" + "name=" + name + ", maxWeight=" + maxWeight + ", size=" + data.size()
+            + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+  }
+
+  /**
+   * A execution's view of the cache, with its own permanent results.
+   */
+  private final class ExecutionView implements ResultCache {
+
+    private final ConcurrentHashMap<Key, Object> permanentResults = new ConcurrentHashMap<>();
+
+    @Override
+    public void putPermanentResult(final Program program, @Nonnull final List<Object> params,
+            @Nullable final Object result) {
+      permanentResults.put(Key.of(program, params), wrap(result));
+    }
+
+    @Override
+    public void putTransientResult(final Program program, @Nonnull final List<Object> params,
+            @Nullable final Object result) {
+      put(Key.of(program, params), result);
+    }
+
+    @Override
+    @Nullable
+    public Object getResult(final Program program, @Nonnull final List<Object> params,
+            final Callable<Object> compute) throws ExecutionException {
+      return getResult(Key.of(program, params), compute);
+    }
+
+    @Override
+    @Nullable
+    public Object getResult(final Program program, @Nonnull final Object[] args, final int nrArgs,
+            final Callable<Object> compute) throws ExecutionException {
+      return getResult(Key.of(program, args, nrArgs), compute);
+    }
+
+    @Nullable
+    private Object getResult(final Key key, final Callable<Object> compute) throws ExecutionException {
+      if (!permanentResults.isEmpty()) {
+        Object result = permanentResults.get(key);
+        if (result != null) {
+          hits.increment();
+          return unwrap(result);
+        }
+      }
+      return getTransientResult(key, compute);
+    }
+
+    @Override
+    public String toString() {
+      return "ExecutionView{" + "cache=" + name + ", permanentResults=" + permanentResults.size() + '}';
+    }
+  }
+
+  private static final class Node {
+
+    private final Key key;
+    private final Object value;
+    private final long weight;
+    private byte queue;
+    private Node prev;
+    private Node next;
+
+    Node(final Key key, final Object value, final long weight) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+      this.queue = REMOVED;
+    }
+  }
+
+  /**
+   * intrusive doubly linked access order list, least recently used first.
+   */
+  private static final class AccessOrder {
+
+    private Node head;
+    private Node tail;
+    private long weight;
+
+    @Nullable
+    Node first() {
+      return head;
+    }
+
+    @Nullable
+    Node last() {
+      return tail;
+    }
+
+    void addLast(final Node node) {
+      node.prev = tail;
+      node.next = null;
+      if (tail == null) {
+        head = node;
+      } else {
+        tail.next = node;
+      }
+      tail = node;
+      weight += node.weight;
+    }
+
+    void remove(final Node node) {
+      if (node.prev == null) {
+        head = node.next;
+      } else {
+        node.prev.next = node.next;
+      }
+      if (node.next == null) {
+        tail = node.prev;
+      } else {
+        node.next.prev = node.prev;
+      }
+      node.prev = null;
+      node.next = null;
+      weight -= node.weight;
+    }
+
+    Node removeFirst() {
+      Node node = head;
+      remove(node);
+      return node;
+    }
+
+    void moveToEnd(final Node node) {
+      if (node != tail) {
+        remove(node);
+        addLast(node);
+      }
+    }
+  }
+
+  /**
+   * Count-min sketch with 4 bit counters, 16 counters packed per long. Counters are halved once the number of
+   * increments reaches 10 times the table size, so that the frequency estimates age.
+   */
+  static final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+
+    private final int tableMask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    FrequencySketch(final int expectedSize) {
+      int size = Integer.highestOneBit(Math.max(16, expectedSize) - 1) << 1;
+      this.table = new long[size];
+      this.tableMask = size - 1;
+      this.sampleSize = 10 * size;
+    }
+
+    int frequency(final int itemHash) {
+      int hash = spread(itemHash);
+      int start = (hash & 3) << 2;
+      int frequency = 15;
+      for (int i = 0; i < 4; i++) {
+        long count = (table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xfL;
+        frequency = Math.min(frequency, (int) count);
+      }
+      return frequency;
+    }
+
+    void increment(final int itemHash) {
+      int hash = spread(itemHash);
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int offset = (start + i) << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+          table[index] += 1L << offset;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) {
+        reset();
+      }
+    }
+
+    private void reset() {
+      int odd = 0;
+      for (int i = 0; i < table.length; i++) {
+        odd += Long.bitCount(table[i] & ONE_MASK);
+        table[i] = (table[i] >>> 1) & RESET_MASK;
+      }
+      additions = (additions >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(final int hash, final int i) {
+      long h = (hash + SEEDS[i]) * SEEDS[i];
+      h += h >>> 32;
+      return ((int) h) & tableMask;
+    }
+
+    private static int spread(final int hash) {
+      int h = (hash ^ (hash >>> 17)) * 0xed5ad4bb;
+      h = (h ^ (h >>> 11)) * 0xac4c1b51;
+      h = (h ^ (h >>> 15)) * 0x31848bab;
+      return h ^ (h >>> 14);
+    }
+  }
+
+  /**
+   * Flat memoization keys, arguments up to 3 are held in fields.
+   */
+  abstract static class Key {
+
+    private final Program program;
+
+    private final int hash;
+
+    Key(final Program program, final int argsHash) {
+      this.program = program;
+      this.hash = 31 * program.hashCode() + argsHash;
+    }
+
+    abstract int arity();
+
+    static Key of(final Program program, final Object[] args, final int nrArgs) {
+      switch (nrArgs) {
+        case 0:
+          return new Key0(program);
+        case 1:
+          return new Key1(program, args[0]);
+        case 2:
+          return new Key2(program, args[0], args[1]);
+        case 3:
+          return new Key3(program, args[0], args[1], args[2]);
+        default:
+          Object[] copy = new Object[nrArgs];
+          System.arraycopy(args, 0, copy, 0, nrArgs);
+          return new KeyN(program, copy);
+      }
+    }
+
+    static Key of(final Program program, final List<Object> args) {
+      switch (args.size()) {
+        case 0:
+          return new Key0(program);
+        case 1:
+          return new Key1(program, args.get(0));
+        case 2:
+          return new Key2(program, args.get(0), args.get(1));
+        case 3:
+          return new Key3(program, args.get(0), args.get(1), args.get(2));
+        default:
+          return new KeyN(program, args.toArray());
+      }
+    }
+
+    @Override
+    public final int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public final boolean equals(final Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || obj.getClass() != getClass()) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash && program.equals(other.program) && argsEquals(other);
+    }
+
+    abstract boolean argsEquals(Key other);
+
+  }
+
+  private static final class Key0 extends Key {
+
+    Key0(final Program program) {
+      super(program, 0);
+    }
+
+    @Override
+    int arity() {
+      return 0;
+    }
+
+    @Override
+    boolean argsEquals(final Key other) {
+      return true;
+    }
+  }
+
+  private static final class Key1 extends Key {
+
+    private final Object a;
+
+    Key1(final Program program, final Object a) {
+      super(program, Objects.hashCode(a));
+      this.a = a;
+    }
+
+    @Override
+    int arity() {
+      return 1;
+    }
+
+    @Override
+    boolean argsEquals(final Key other) {
+      return Objects.equals(a, ((Key1) other).a);
+    }
+  }
+
+  private static final class Key2 extends Key {
+
+    private final Object a;
+    private final Object b;
+
+    Key2(final Program program, final Object a, final Object b) {
+      super(program, 31 * Objects.hashCode(a) + Objects.hashCode(b));
+      this.a = a;
+      this.b = b;
+    }
+
+    @Override
+    int arity() {
+      return 2;
+    }
+
+    @Override
+    boolean argsEquals(final Key other) {
+      Key2 o = (Key2) other;
+      return Objects.equals(a, o.a) && Objects.equals(b, o.b);
+    }
+  }
+
+  private static final class Key3 extends Key {
+
+    private final Object a;
+    private final Object b;
+    private final Object c;
+
+    Key3(final Program program, final Object a, final Object b, final Object c) {
+      super(program, 961 * Objects.hashCode(a) + 31 * Objects.hashCode(b) + Objects.hashCode(c));
+      this.a = a;
+      this.b = b;
+      this.c = c;
+    }
+
+    @Override
+    int arity() {
+      return 3;
+    }
+
+    @Override
+    boolean argsEquals(final Key other) {
+      Key3 o = (Key3) other;
+      return Objects.equals(a, o.a) && Objects.equals(b, o.b) && Objects.equals(c, o.c);
+    }
+  }
+
+  private static final class KeyN extends Key {
+
+    private final Object[] args;
+
+    KeyN(final Program program, final Object[] args) {
+      super(program, Arrays.hashCode(args));
+      this.args = args;
+    }
+
+    @Override
+    int arity() {
+      return args.length;
+    }
+
+    @Override
+    boolean argsEquals(final Key other) {
+      return Arrays.equals(args, ((KeyN) other).args);
+    }
+  }
+
+}
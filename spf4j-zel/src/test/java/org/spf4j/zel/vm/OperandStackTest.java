@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.zel.vm;
+
+import com.google.common.base.Objects;
+import java.math.BigInteger;
+import java.util.concurrent.ExecutionException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.spf4j.zel.operators.Operator;
+import org.spf4j.zel.operators.Operators;
+
+/**
+ * @author Zoltan Farkas
+ */
+public final class OperandStackTest {
+
+  private static final Object[] VALUES = {0, 1, -1, 7, -3, Integer.MAX_VALUE, Integer.MIN_VALUE,
+    0L, 5L, -2L, (long) Integer.MAX_VALUE + 1, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE / 2,
+    3037000500L, -3037000500L, 0.0, -0.0, 1.5, -2.25, Double.NaN, Double.POSITIVE_INFINITY, 1e300};
+
+  @Test
+  public void testArithmeticEquivalence() {
+    OperandStack stack = new OperandStack(2);
+    for (Operator.Enum op : Operator.Enum.values()) {
+      for (Object a : VALUES) {
+        for (Object b : VALUES) {
+          Object expected;
+          try {
+            expected = Operators.apply(op, a, b);
+          } catch (RuntimeException ex) {
+            expected = ex.getClass();
+          }
+          stack.push(a);
+          stack.push(b);
+          if (stack.applyTop(op)) {
+            Assert.assertEquals(1, stack.size());
+            Object result = stack.pop();
+            Assert.assertEquals(a + " " + op + " " + b, expected, result);
+          } else {
+            Assert.assertEquals(2, stack.size());
+            Assert.assertEquals(b, stack.pop());
+            Assert.assertEquals(a, stack.pop());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCompareEquivalence() {
+    OperandStack stack = new OperandStack(2);
+    for (Object a : VALUES) {
+      for (Object b : VALUES) {
+        stack.push(a);
+        stack.push(b);
+        int cmp = stack.compareTop();
+        if (cmp == OperandStack.NOT_COMPARABLE) {
+          Assert.assertNotSame(a.getClass(), b.getClass());
+          stack.removeFromTop(2);
+        } else {
+          Assert.assertTrue(stack.isEmpty());
+          Assert.assertEquals(a + " cmp " + b, Integer.signum(((Comparable) a).compareTo(b)), Integer.signum(cmp));
+          Assert.assertEquals(Objects.equal(a, b), cmp == 0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBoxing() {
+    OperandStack stack = new OperandStack(1);
+    String str = "test";
+    Integer boxed = 1000;
+    stack.push(str);
+    stack.push(boxed);
+    stack.pushNull();
+    stack.pushBoolean(true);
+    stack.pushLong(3);
+    stack.pushDouble(0.5);
+    Assert.assertTrue(stack.applyTop(Operator.Enum.Mul));
+    Assert.assertEquals(1.5, stack.peek());
+    Assert.assertSame(stack.peek(), stack.peek());
+    Assert.assertEquals(1.5, stack.pop());
+    Assert.assertTrue(stack.areBooleans(1));
+    Assert.assertTrue(stack.popBoolean());
+    Assert.assertNull(stack.pop());
+    Assert.assertSame(boxed, stack.pop());
+    Assert.assertSame(str, stack.pop());
+    Assert.assertTrue(stack.isEmpty());
+  }
+
+  @Test
+  public void testArithmetic() throws CompileException, ExecutionException, InterruptedException {
+    Assert.assertEquals(new BigInteger("9223372036854775808"),
+            Program.compile("x + 1", "x").execute(Long.MAX_VALUE));
+    Assert.assertEquals(3L, Program.compile("x * 2 - 1 + 2", "x").execute(1L));
+    Assert.assertEquals(Boolean.TRUE, Program.compile("x * 2 > 3 && !(x < 0)", "x").execute(2));
+    Assert.assertEquals(2147483648L, Program.compile("x * 2", "x").execute(1073741824));
+    Assert.assertEquals(-5L, Program.compile("x - 5", "x").execute(0L));
+  }
+
+}
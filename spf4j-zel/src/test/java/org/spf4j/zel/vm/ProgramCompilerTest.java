@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.zel.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Zoltan Farkas
+ */
+public final class ProgramCompilerTest {
+
+  @Test
+  public void testCompiledEquivalence()
+          throws CompileException, ExecutionException, InterruptedException, SuspendedException {
+    Map<String, Object> map = new HashMap<>();
+    map.put("name", "abc");
+    Object[][] cases = {
+      {"x > 1 && x < 10", 5},
+      {"x > 1 && x < 10", 11},
+      {"!(x >= 2) || x <= -1", 3},
+      {"x == 3 ^ x != 4", 3},
+      {"(x > 1) == (x > 2)", 1},
+      {"x.name == \"abc\"", map},
+      {"x.name.length() > 2 || x == \"a\"", map},
+      {"a = 1; b = a + x; b * 2 - 1", 5},
+      {"x / 2 + x % 3 + 2 ** 3", 7L},
+      {"x * 1.5", 2.5},
+      {"if x > 3 {1} else {x > 1}", 5},
+      {"if x > 3 {1} else {x > 1}", 2},
+      {"min(x, 3) + max(x, 4)", 2},
+      {"x?.name", null},
+      {"x?[\"name\"]", null},
+      {"x?[\"name\"]", map},
+      {"|x|", -3},
+      {"x", true},
+      {"return x < 2; 5", 1},
+      {"", 1}
+    };
+    for (Object[] c : cases) {
+      Program prog = Program.compile((String) c[0], "x");
+      CompiledProgram compiled = ProgramCompiler.compile(prog);
+      Assert.assertNotSame(prog.toAssemblyString(), ProgramCompiler.NOT_COMPILABLE, compiled);
+      Object expected = prog.execute(c[1]);
+      Object[] mem = prog.allocMem(c[1]);
+      ExecutionContext ctx = new ExecutionContext(prog, prog.getGlobalMem(), mem, null, null);
+      Assert.assertEquals(c[0] + " x=" + c[1], expected, compiled.execute(ctx, mem, prog.getGlobalMem()));
+    }
+  }
+
+  @Test
+  public void testPrimitiveArithmetic()
+          throws CompileException, ExecutionException, InterruptedException, SuspendedException {
+    String[] cases = {
+      "1 + 2 * 3 - 4",
+      "7 / 2 + 7 % 3",
+      "2147483647 + 1",
+      "-2147483647 - 2 + x",
+      "65536 * 65536",
+      "9223372036854775807 + 1",
+      "9223372036854775807 * 3",
+      "4294967296 * 2 - 1",
+      "1 + 2.5 * 2",
+      "5.5 % 2",
+      "2 ** 10",
+      "1 + 2 < 4",
+      "3 * 2 == 6 && 1.5 != 2.5",
+      "4294967296 >= 4294967297",
+      "if 1 + 1 > 1 {2 * 3} else {x}",
+      "1 + 2 + x"
+    };
+    for (String c : cases) {
+      Program prog = Program.compile(c, "x");
+      CompiledProgram compiled = ProgramCompiler.compile(prog);
+      Assert.assertNotSame(prog.toAssemblyString(), ProgramCompiler.NOT_COMPILABLE, compiled);
+      Object expected = prog.execute(1);
+      Object[] mem = prog.allocMem(1);
+      ExecutionContext ctx = new ExecutionContext(prog, prog.getGlobalMem(), mem, null, null);
+      Object result = compiled.execute(ctx, mem, prog.getGlobalMem());
+      Assert.assertEquals(c, expected, result);
+      Assert.assertEquals(c, expected.getClass(), result.getClass());
+    }
+  }
+
+  @Test
+  public void testCompiledDivisionByZero()
+          throws CompileException, ExecutionException, InterruptedException, SuspendedException {
+    Program prog = Program.compile("1 + 3 / 0", "x");
+    CompiledProgram compiled = ProgramCompiler.compile(prog);
+    Object[] mem = prog.allocMem(1);
+    ExecutionContext ctx = new ExecutionContext(prog, prog.getGlobalMem(), mem, null, null);
+    try {
+      compiled.execute(ctx, mem, prog.getGlobalMem());
+      Assert.fail();
+    } catch (ArithmeticException ex) {
+      // expected, same as the interpreter.
+    }
+    try {
+      prog.execute(1);
+      Assert.fail();
+    } catch (ArithmeticException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testNotCompilable() throws CompileException {
+    Assert.assertSame(ProgramCompiler.NOT_COMPILABLE, ProgramCompiler.compile(
+            Program.compile("for i = 0; i < 10; i++ { x = x + i }; x", "x")));
+    Assert.assertSame(ProgramCompiler.NOT_COMPILABLE, ProgramCompiler.compile(
+            Program.compile("x + 1", "x").async()));
+    Assert.assertSame(ProgramCompiler.NOT_COMPILABLE, ProgramCompiler.compile(
+            Program.compile("first(x, 1)", "x")));
+  }
+
+  @Test
+  public void testHotPredicate() throws CompileException {
+    ZelPredicate<Integer> pred = Program.compilePredicate("x > 10 and x < 100", "x");
+    int nrTrue = 0;
+    for (int i = 0; i < 5000; i++) {
+      if (pred.test(i % 200)) {
+        nrTrue++;
+      }
+    }
+    Assert.assertEquals(25 * 89, nrTrue);
+  }
+
+  @Test
+  public void testCompiledExceptionFrames() throws CompileException, InterruptedException {
+    Program prog = Program.compile("a = 1;\nb = a + 1;\nthrow b", "x");
+    CompiledProgram compiled = ProgramCompiler.compile(prog);
+    Object[] mem = prog.allocMem(1);
+    ExecutionContext ctx = new ExecutionContext(prog, prog.getGlobalMem(), mem, null, null);
+    try {
+      compiled.execute(ctx, mem, prog.getGlobalMem());
+      Assert.fail();
+    } catch (ZExecutionException ex) {
+      Assert.assertEquals(2, ex.getPayload());
+    } catch (ExecutionException | SuspendedException ex) {
+      throw new AssertionError(ex);
+    }
+    // the interpreter and the compiled (once hot) program must report the same location.
+    for (int i = 0; i <= ProgramCompiler.JIT_THRESHOLD + 1; i++) {
+      try {
+        Program.executeSync(new ExecutionContext(prog, prog.getGlobalMem(), prog.allocMem(1), null, null));
+        Assert.fail();
+      } catch (ZExecutionException ex) {
+        Assert.assertEquals(2, ex.getZelframes().get(0).getIndex());
+      } catch (ExecutionException ex) {
+        throw new AssertionError(ex);
+      }
+    }
+  }
+
+}
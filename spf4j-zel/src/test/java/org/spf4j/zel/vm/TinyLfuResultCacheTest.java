@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2001-2017, Zoltan Farkas All Rights Reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ * Additionally licensed with:
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.spf4j.zel.vm;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author zoly
+ */
+public final class TinyLfuResultCacheTest {
+
+  @Test
+  public void testFibMemoization() throws CompileException, ExecutionException, InterruptedException {
+    Program prog = Program.compile("function deterministic fib (x) { fib(x-1) + fib(x-2) };\n"
+            + "fib(0) = 0;\n"
+            + "fib(1) = 1;\n"
+            + "fib(200)");
+    TinyLfuResultCache cache = new TinyLfuResultCache("fibTest", 10000);
+    Object result = prog.execute((VMExecutor) null, ProcessIOStreams.DEFAULT, cache).getFirst();
+    Assert.assertEquals(new BigInteger("280571172992510140037611932413038677189525"), result);
+    Assert.assertEquals(2, cache.getPermanentSize());
+    Assert.assertEquals(199, cache.getMissCount());
+    Assert.assertTrue(cache.getHitCount() > 0);
+    Assert.assertTrue(cache.getWeight() <= cache.getMaxWeight());
+  }
+
+  @Test
+  public void testDefaultCacheExecutionViews() throws CompileException, ExecutionException, InterruptedException {
+    Program prog = Program.compile("function deterministic fact (x) { x * fact(x-1) };\n"
+            + "fact(0) = 1;\n"
+            + "fact(30)");
+    TinyLfuResultCache cache = TinyLfuResultCache.Lazy.DEFAULT;
+    long misses = cache.getMissCount();
+    Assert.assertEquals(new BigInteger("265252859812191058636308480000000"), prog.execute());
+    Assert.assertEquals(misses + 30, cache.getMissCount());
+    Assert.assertEquals(0, cache.getPermanentSize());
+    Assert.assertEquals(new BigInteger("265252859812191058636308480000000"), prog.execute());
+    Assert.assertEquals(misses + 30, cache.getMissCount());
+  }
+
+  @Test
+  public void testExecutionViewPermanentResults() throws CompileException, ExecutionException {
+    Program p = Program.compile("x", "x");
+    TinyLfuResultCache cache = new TinyLfuResultCache("viewTest", 100);
+    ResultCache view1 = cache.executionView();
+    ResultCache view2 = cache.executionView();
+    view1.putPermanentResult(p, Arrays.asList(1), "perm1");
+    view2.putTransientResult(p, Arrays.asList(2), "shared");
+    Assert.assertEquals("perm1", view1.getResult(p, new Object[] {1}, 1, () -> "other"));
+    Assert.assertEquals("other", view2.getResult(p, new Object[] {1}, 1, () -> "other"));
+    Assert.assertEquals("shared", view1.getResult(p, Arrays.asList(2), () -> "other"));
+    Assert.assertEquals("other", cache.getResult(p, Arrays.asList(1), () -> "other2"));
+    Assert.assertEquals(0, cache.getPermanentSize());
+  }
+
+  @Test
+  public void testBoundedAndFrequencyAdmission() throws CompileException, ExecutionException {
+    Program p = Program.compile("x + 1", "x");
+    TinyLfuResultCache cache = new TinyLfuResultCache("admissionTest", 300);
+    AtomicInteger computations = new AtomicInteger();
+    Object[] args = new Object[] {-1, "a"};
+    for (int i = 0; i < 20; i++) {
+      Assert.assertEquals("hot", cache.getResult(p, args, 2, () -> {
+        computations.incrementAndGet();
+        return "hot";
+      }));
+    }
+    for (int i = 0; i < 10000; i++) {
+      args[0] = i;
+      final int val = i;
+      Assert.assertEquals(val, cache.getResult(p, args, 2, () -> val));
+      Assert.assertTrue(cache.getWeight() <= 300);
+    }
+    args[0] = -1;
+    Assert.assertEquals("hot", cache.getResult(p, Arrays.asList(-1, "a"), () -> "cold"));
+    Assert.assertEquals(1, computations.get());
+    Assert.assertTrue(cache.getEvictionCount() > 0);
+    Assert.assertEquals(10001, cache.getMissCount());
+  }
+
+  @Test
+  public void testNullAndPermanentResults() throws CompileException, ExecutionException {
+    Program p = Program.compile("x", "x");
+    TinyLfuResultCache cache = new TinyLfuResultCache("nullTest", 100);
+    cache.putPermanentResult(p, Arrays.asList(1, 2, 3, 4), "perm");
+    Assert.assertNull(cache.getResult(p, new Object[] {1}, 1, () -> null));
+    Assert.assertNull(cache.getResult(p, Arrays.asList(1), () -> "other"));
+    for (int i = 0; i < 1000; i++) {
+      cache.putTransientResult(p, Arrays.asList(i, i), i);
+    }
+    Assert.assertEquals("perm", cache.getResult(p, new Object[] {1, 2, 3, 4, 5}, 4, () -> "other"));
+    cache.clear();
+    Assert.assertEquals(0, cache.getWeight());
+    Assert.assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void testJmx() throws CompileException, ExecutionException, JMException {
+    Program p = Program.compile("x", "x");
+    TinyLfuResultCache cache = new TinyLfuResultCache("jmxTest", 100);
+    cache.registerJmx();
+    try {
+      cache.getResult(p, new Object[] {1}, 1, () -> "a");
+      cache.getResult(p, new Object[] {2}, 1, () -> "b");
+      cache.getResult(p, new Object[] {1}, 1, () -> "c");
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objName = new ObjectName(TinyLfuResultCache.class.getName(), "name", "jmxTest");
+      Assert.assertEquals(1L, server.getAttribute(objName, "hitCount"));
+      Assert.assertEquals(2L, server.getAttribute(objName, "missCount"));
+      Assert.assertEquals(2, server.getAttribute(objName, "size"));
+      Assert.assertEquals(6L, server.getAttribute(objName, "weight"));
+      Assert.assertEquals(100L, server.getAttribute(objName, "maxWeight"));
+      server.invoke(objName, "clear", new Object[0], new String[0]);
+      Assert.assertEquals(0, server.getAttribute(objName, "size"));
+    } finally {
+      cache.unregisterJmx();
+    }
+    Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+            new ObjectName(TinyLfuResultCache.class.getName(), "name", "jmxTest")));
+  }
+
+  @Test
+  public void testWindowCandidateAdmission() throws CompileException, ExecutionException {
+    Program p = Program.compile("x", "x");
+    // weight 3 per entry (1 + 1 arg + 1 result), window holds 1 entry, main region 33 entries.
+    TinyLfuResultCache cache = new TinyLfuResultCache("windowAdmissionTest", 300);
+    Object[] args = new Object[1];
+    for (int i = 0; i < 100; i++) {
+      args[0] = i;
+      final int val = i;
+      for (int j = 0; j < 3; j++) {
+        cache.getResult(p, args, 1, () -> val);
+      }
+    }
+    long misses = cache.getMissCount();
+    // one hit wonders must not displace the frequently used entries from the main region.
+    for (int i = 1000; i < 2000; i++) {
+      args[0] = i;
+      final int val = i;
+      cache.getResult(p, args, 1, () -> val);
+    }
+    Assert.assertEquals(misses + 1000, cache.getMissCount());
+    int retained = 0;
+    for (int i = 0; i < 100; i++) {
+      args[0] = i;
+      if (cache.getResult(p, args, 1, () -> -1).equals(args[0])) {
+        retained++;
+      }
+    }
+    Assert.assertTrue("retained " + retained, retained >= 90);
+  }
+
+}